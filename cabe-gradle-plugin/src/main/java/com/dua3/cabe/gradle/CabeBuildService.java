@@ -0,0 +1,42 @@
+package com.dua3.cabe.gradle;
+
+import com.dua3.cabe.processor.ClasspathCache;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * A build service that is shared by all Cabe tasks of a build.
+ *
+ * <p>The service holds the {@link ClasspathCache} used by the processor, so that the JAR files on the classpath are
+ * read only once even if they are used by many subprojects.
+ */
+public abstract class CabeBuildService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+
+    /**
+     * The name the service is registered under.
+     */
+    static final String NAME = "cabeBuildService";
+
+    private final ClasspathCache classpathCache = new ClasspathCache();
+
+    /**
+     * Constructs a new instance of the service.
+     */
+    public CabeBuildService() {
+        // nothing to do
+    }
+
+    /**
+     * Returns the shared {@link ClasspathCache}.
+     *
+     * @return the classpath cache
+     */
+    public ClasspathCache getClasspathCache() {
+        return classpathCache;
+    }
+
+    @Override
+    public void close() {
+        classpathCache.clear();
+    }
+}
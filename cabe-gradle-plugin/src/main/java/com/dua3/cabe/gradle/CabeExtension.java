@@ -1,11 +1,15 @@
 package com.dua3.cabe.gradle;
 
 import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingOptions;
 import org.gradle.api.Project;
+import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 
 import javax.inject.Inject;
+import java.util.List;
 
 /**
  * CabeExtension represents the extension for the Cabe plugin.
@@ -15,6 +19,17 @@ public class CabeExtension {
 
     private final Property<Configuration> config;
     private final Property<Integer> verbosity;
+    private final Property<Integer> parallelism;
+    private final Property<Integer> ioParallelism;
+    private final Property<ProcessingOptions.Metadata> metadata;
+    private final Property<ProcessingOptions.Emitter> emitter;
+    private final Property<CabeTask.ExecutionMode> executionMode;
+    private final RegularFileProperty classpathIndex;
+    private final Property<Boolean> inPlace;
+    private final Property<Boolean> report;
+    private final Property<String> memoryBudget;
+    private final ListProperty<String> instrumentedConfigurations;
+    private final ListProperty<String> instrumentedModules;
 
     /**
      * Construct a new instance of the extension.
@@ -31,6 +46,37 @@ public class CabeExtension {
         // get value of config
         config = objectFactory.property(Configuration.class).value(Configuration.STANDARD);
 
+        // get value of parallelism
+        parallelism = objectFactory.property(Integer.class).value(1);
+
+        // get value of I/O parallelism
+        ioParallelism = objectFactory.property(Integer.class).value(1);
+
+        // get value of metadata
+        metadata = objectFactory.property(ProcessingOptions.Metadata.class).value(ProcessingOptions.Metadata.REFLECTION);
+
+        // get value of emitter
+        emitter = objectFactory.property(ProcessingOptions.Emitter.class).value(ProcessingOptions.Emitter.SOURCE);
+
+        // get value of execution mode
+        executionMode = objectFactory.property(CabeTask.ExecutionMode.class).value(CabeTask.ExecutionMode.WORKER);
+
+        // get value of classpath index
+        classpathIndex = objectFactory.fileProperty().convention(project.getLayout().getBuildDirectory().file("cabe/classpath-index"));
+
+        // get value of in-place flag
+        inPlace = objectFactory.property(Boolean.class).value(false);
+
+        // get value of report flag
+        report = objectFactory.property(Boolean.class).value(false);
+
+        // get value of memory budget
+        memoryBudget = objectFactory.property(String.class).value("0");
+
+        // get the configurations and modules whose dependency JARs are instrumented
+        instrumentedConfigurations = objectFactory.listProperty(String.class).value(List.of());
+        instrumentedModules = objectFactory.listProperty(String.class).value(List.of());
+
         project.getLogger().info("{} instance creation success", CabeExtension.class.getSimpleName());
     }
 
@@ -69,4 +115,232 @@ public class CabeExtension {
     public void setVerbosity(int verbosity) {
         this.verbosity.set(verbosity);
     }
+
+    /**
+     * Retrieves the parallelism property for the Cabe plugin.
+     *
+     * <p>The value is the number of worker threads used to instrument class files; a value of 0 uses one
+     * thread per available processor.
+     *
+     * @return the parallelism property as a Property object of type Integer
+     */
+    public Property<Integer> getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the parallelism property for the Cabe plugin.
+     *
+     * @param parallelism the number of worker threads to use, 0 to use all available processors
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism.set(parallelism);
+    }
+
+    /**
+     * Retrieves the I/O parallelism property for the Cabe plugin.
+     *
+     * <p>The value is the number of threads used for reading and, separately, for writing class files.
+     *
+     * @return the I/O parallelism property as a Property object of type Integer
+     */
+    public Property<Integer> getIoParallelism() {
+        return ioParallelism;
+    }
+
+    /**
+     * Sets the I/O parallelism property for the Cabe plugin.
+     *
+     * @param ioParallelism the number of threads used for reading and for writing class files
+     */
+    public void setIoParallelism(int ioParallelism) {
+        this.ioParallelism.set(ioParallelism);
+    }
+
+    /**
+     * Retrieves the metadata property for the Cabe plugin.
+     *
+     * <p>The value determines whether the class metadata is obtained through reflection or read directly from the
+     * class files.
+     *
+     * @return the metadata property as a Property object of type {@link ProcessingOptions.Metadata}
+     */
+    public Property<ProcessingOptions.Metadata> getMetadata() {
+        return metadata;
+    }
+
+    /**
+     * Sets the metadata property for the Cabe plugin.
+     *
+     * @param metadata the source of the class metadata
+     */
+    public void setMetadata(ProcessingOptions.Metadata metadata) {
+        this.metadata.set(metadata);
+    }
+
+    /**
+     * Retrieves the emitter property for the Cabe plugin.
+     *
+     * <p>The value determines whether the checks are compiled from generated source code or written directly as
+     * bytecode.
+     *
+     * @return the emitter property as a Property object of type {@link ProcessingOptions.Emitter}
+     */
+    public Property<ProcessingOptions.Emitter> getEmitter() {
+        return emitter;
+    }
+
+    /**
+     * Sets the emitter property for the Cabe plugin.
+     *
+     * @param emitter the backend used to insert the checks
+     */
+    public void setEmitter(ProcessingOptions.Emitter emitter) {
+        this.emitter.set(emitter);
+    }
+
+    /**
+     * Retrieves the execution mode property for the Cabe plugin.
+     *
+     * <p>The value determines whether the processor runs inside the Gradle daemon, in a worker process, or in a new
+     * JVM for every task.
+     *
+     * @return the execution mode property as a Property object of type {@link CabeTask.ExecutionMode}
+     */
+    public Property<CabeTask.ExecutionMode> getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets the execution mode property for the Cabe plugin.
+     *
+     * @param executionMode the execution mode
+     */
+    public void setExecutionMode(CabeTask.ExecutionMode executionMode) {
+        this.executionMode.set(executionMode);
+    }
+
+    /**
+     * Retrieves the classpath index property for the Cabe plugin.
+     *
+     * <p>The index of the JAR files on the classpath is stored in this file, so that JAR files that did not change
+     * are not scanned again when the Gradle daemon is restarted. Defaults to {@code build/cabe/classpath-index}.
+     *
+     * @return the classpath index property as a RegularFileProperty object
+     */
+    public RegularFileProperty getClasspathIndex() {
+        return classpathIndex;
+    }
+
+    /**
+     * Retrieves the in-place property for the Cabe plugin.
+     *
+     * <p>If set, the class files are instrumented in the destination directory of the compile task as part of its
+     * execution instead of being written to a separate directory by the Cabe task. The {@code Jar}, {@code Test} and
+     * {@code JavaExec} tasks then use the compiler output directly. In-place instrumentation always runs inside the
+     * Gradle daemon; the execution mode is not used.
+     *
+     * @return the in-place property as a Property object of type Boolean
+     */
+    public Property<Boolean> getInPlace() {
+        return inPlace;
+    }
+
+    /**
+     * Sets the in-place property for the Cabe plugin.
+     *
+     * @param inPlace whether to instrument the class files in the destination directory of the compile task
+     */
+    public void setInPlace(boolean inPlace) {
+        this.inPlace.set(inPlace);
+    }
+
+    /**
+     * Retrieves the report property for the Cabe plugin.
+     *
+     * <p>If set, a JSON report with per-class timings, the number of checks added and the class file sizes is written
+     * to {@code build/reports/cabe/<source set>.json} for each source set, and a summary is logged.
+     *
+     * @return the report property as a Property object of type Boolean
+     */
+    public Property<Boolean> getReport() {
+        return report;
+    }
+
+    /**
+     * Sets the report property for the Cabe plugin.
+     *
+     * @param report whether to write a processing report
+     */
+    public void setReport(boolean report) {
+        this.report.set(report);
+    }
+
+    /**
+     * Retrieves the memory budget property for the Cabe plugin.
+     *
+     * <p>The value is the amount of heap and metaspace the processor should stay within, given like the {@code -Xmx}
+     * JVM option, e.g., {@code "1g"}. If set to a value other than {@code "0"}, the class files are processed in
+     * batches of whole packages and the loaded classes are released between batches.
+     *
+     * @return the memory budget property as a Property object of type String
+     */
+    public Property<String> getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the memory budget property for the Cabe plugin.
+     *
+     * @param memoryBudget the memory budget, e.g., {@code "1g"}, or {@code "0"} for no budget
+     */
+    public void setMemoryBudget(String memoryBudget) {
+        this.memoryBudget.set(memoryBudget);
+    }
+
+    /**
+     * Retrieves the instrumented configurations property for the Cabe plugin.
+     *
+     * <p>The dependency JARs of the listed configurations, e.g., {@code runtimeClasspath}, are instrumented using the
+     * {@link CabeJarTransform}. If the list is empty but modules are selected using {@link #getInstrumentedModules()},
+     * the runtime classpath configurations of all source sets are used. Defaults to an empty list, i.e., dependency
+     * JARs are not instrumented.
+     *
+     * @return the instrumented configurations property as a ListProperty object of type String
+     */
+    public ListProperty<String> getInstrumentedConfigurations() {
+        return instrumentedConfigurations;
+    }
+
+    /**
+     * Sets the instrumented configurations property for the Cabe plugin.
+     *
+     * @param instrumentedConfigurations the names of the configurations whose dependency JARs are instrumented
+     */
+    public void setInstrumentedConfigurations(List<String> instrumentedConfigurations) {
+        this.instrumentedConfigurations.set(instrumentedConfigurations);
+    }
+
+    /**
+     * Retrieves the instrumented modules property for the Cabe plugin.
+     *
+     * <p>The entries are given as {@code group:name}, or as {@code group:*} to select all modules of a group. If the
+     * list is not empty, only the JARs of the listed modules are instrumented. Defaults to an empty list, i.e., all
+     * dependency JARs of the configurations given by {@link #getInstrumentedConfigurations()} are instrumented.
+     *
+     * @return the instrumented modules property as a ListProperty object of type String
+     */
+    public ListProperty<String> getInstrumentedModules() {
+        return instrumentedModules;
+    }
+
+    /**
+     * Sets the instrumented modules property for the Cabe plugin.
+     *
+     * @param instrumentedModules the modules whose JARs are instrumented, given as {@code group:name} or
+     *                            {@code group:*}
+     */
+    public void setInstrumentedModules(List<String> instrumentedModules) {
+        this.instrumentedModules.set(instrumentedModules);
+    }
 }
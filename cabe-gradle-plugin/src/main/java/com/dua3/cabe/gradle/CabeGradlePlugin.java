@@ -1,21 +1,38 @@
 package com.dua3.cabe.gradle;
 
+import com.dua3.cabe.processor.ClassPatcher;
+import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingOptions;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.artifacts.dsl.DependencyHandler;
+import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.attributes.Attribute;
+import org.gradle.api.file.RegularFile;
 import org.gradle.api.plugins.JavaPlugin;
 import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.bundling.Jar;
 import org.gradle.api.tasks.JavaExec;
+import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.testing.Test;
 import org.gradle.api.tasks.compile.JavaCompile;
 import org.gradle.jvm.toolchain.JavaCompiler;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+
 /**
  * The Gradle plugin class for Cabe.
  */
 public class CabeGradlePlugin implements Plugin<Project> {
 
+    /**
+     * The attribute that marks dependency JARs instrumented by the {@link CabeJarTransform}.
+     */
+    public static final Attribute<Boolean> INSTRUMENTED_ATTRIBUTE = Attribute.of("com.dua3.cabe.instrumented", Boolean.class);
+
     /**
      * Constructs a new instance of the CabeGradlePlugin.
      */
@@ -33,6 +50,10 @@ public class CabeGradlePlugin implements Plugin<Project> {
         // create extension
         CabeExtension extension = project.getExtensions().create("cabe", CabeExtension.class, project);
 
+        // the build service is shared by the Cabe tasks of all projects
+        var buildServiceProvider = project.getGradle().getSharedServices()
+                .registerIfAbsent(CabeBuildService.NAME, CabeBuildService.class, spec -> {});
+
         // Configures instrumentation task per Java source set
         project.getPlugins().withType(JavaPlugin.class, javaPlugin -> {
             JavaPluginExtension javaExtension = project.getExtensions().getByType(JavaPluginExtension.class);
@@ -45,6 +66,34 @@ public class CabeGradlePlugin implements Plugin<Project> {
 
                 String taskName = sourceSet.getTaskName("cabe", "");
                 String compileJavaTaskName = sourceSet.getCompileJavaTaskName();
+                Provider<Boolean> inPlace = extension.getInPlace();
+                Provider<RegularFile> reportFile = extension.getReport().flatMap(enabled -> enabled
+                        ? project.getLayout().getBuildDirectory().file("reports/cabe/" + sourceSet.getName() + ".json")
+                        : project.provider(() -> null));
+
+                // when instrumenting in place, the compile task does the instrumentation as its last action
+                project.getTasks().named(compileJavaTaskName, JavaCompile.class).configure(compileTask -> {
+                    compileTask.usesService(buildServiceProvider);
+                    compileTask.getInputs()
+                            .property("cabe.inPlace", extension.getConfig()
+                                    .zip(extension.getEmitter(), ClassPatcher::computeConfigurationFingerprint)
+                                    .zip(inPlace, (fingerprint, enabled) -> enabled ? fingerprint : ""));
+                    // the nullness of all classes in a package or module depends on package-info and module-info;
+                    // incremental compilation would keep the instrumented class files of unchanged classes, so
+                    // a change to these files must recompile everything
+                    compileTask.getInputs()
+                            .files(inPlace.<Object>map(enabled -> enabled
+                                    ? compileTask.getSource().matching(pattern -> pattern.include("**/package-info.java", "**/module-info.java"))
+                                    : List.of()))
+                            .withPropertyName("cabe.nullnessContext")
+                            .withPathSensitivity(PathSensitivity.RELATIVE);
+                    // when instrumenting in place, the report is written by the compile task
+                    compileTask.getOutputs()
+                            .file(inPlace.flatMap(enabled -> enabled ? reportFile : project.provider(() -> null)))
+                            .withPropertyName("cabeReport")
+                            .optional();
+                    compileTask.doLast(new InPlaceInstrumentation(extension, reportFile, buildServiceProvider));
+                });
 
                 // register the cabe task
                 var cabeTaskProvider = project.getTasks().register(taskName, CabeTask.class, cabeTask -> {
@@ -53,6 +102,16 @@ public class CabeGradlePlugin implements Plugin<Project> {
 
                     cabeTask.getConfig().set(extension.getConfig());
                     cabeTask.getVerbosity().set(extension.getVerbosity());
+                    cabeTask.getParallelism().set(extension.getParallelism());
+                    cabeTask.getIoParallelism().set(extension.getIoParallelism());
+                    cabeTask.getMemoryBudget().set(extension.getMemoryBudget());
+                    cabeTask.getMetadata().set(extension.getMetadata());
+                    cabeTask.getEmitter().set(extension.getEmitter());
+                    cabeTask.getExecutionMode().set(extension.getExecutionMode());
+                    cabeTask.getClasspathIndex().set(extension.getClasspathIndex());
+                    cabeTask.getReportFile().set(reportFile);
+                    cabeTask.getBuildService().set(buildServiceProvider);
+                    cabeTask.usesService(buildServiceProvider);
 
                     // Set input directory to compileJava's destination directory
                     var compileJavaTaskProvider = project.getTasks().named(compileJavaTaskName, JavaCompile.class);
@@ -61,26 +120,29 @@ public class CabeGradlePlugin implements Plugin<Project> {
                     // Set output directory
                     cabeTask.getOutputDirectory().set(project.getLayout().getBuildDirectory().dir("classes-cabe/" + sourceSet.getName()));
 
-                    // Set classpath
+                    // Set classpath; the compile classpath contains all types the compiled classes refer to,
+                    // runtime-only dependencies are not needed for instrumenting
                     cabeTask.getClasspath().from(sourceSet.getCompileClasspath());
-                    cabeTask.getClasspath().from(sourceSet.getRuntimeClasspath());
 
                     // Set Java executable
                     cabeTask.getJavaExecutable().set(compileJavaTaskProvider.flatMap(c -> c.getJavaCompiler().map(JavaCompiler::getExecutablePath)));
+                    cabeTask.getToolchainVersion().set(compileJavaTaskProvider.flatMap(c -> c.getJavaCompiler()
+                            .map(compiler -> compiler.getMetadata().getLanguageVersion().asInt())));
 
                     cabeTask.dependsOn(compileJavaTaskProvider);
+                    cabeTask.onlyIf(t -> !inPlace.get());
                 });
 
                 // Wire instrumented classes to Jar tasks
                 if (SourceSet.isMain(sourceSet)) {
                     project.getTasks().withType(Jar.class).configureEach(jarTask -> {
-                        jarTask.from(cabeTaskProvider.map(CabeTask::getOutputDirectory));
+                        jarTask.from((Callable<Object>) () -> inPlace.get() ? List.of() : cabeTaskProvider.map(CabeTask::getOutputDirectory));
                         // Exclude original classes from compileJava as they are now replaced by instrumented ones
                         var compileJavaTaskProvider = project.getTasks().named(compileJavaTaskName, JavaCompile.class);
                         var compileJavaOutputDirProvider = compileJavaTaskProvider.flatMap(JavaCompile::getDestinationDirectory);
                         jarTask.exclude(element -> {
                             var outputDir = compileJavaOutputDirProvider.getOrNull();
-                            return outputDir != null && element.getFile().getAbsolutePath().startsWith(outputDir.getAsFile().getAbsolutePath());
+                            return !inPlace.get() && outputDir != null && element.getFile().getAbsolutePath().startsWith(outputDir.getAsFile().getAbsolutePath());
                         });
                     });
                 }
@@ -94,10 +156,10 @@ public class CabeGradlePlugin implements Plugin<Project> {
 
                     var originalClasspath = testTask.getClasspath();
                     var instrumentedClasses = cabeTaskProvider.map(CabeTask::getOutputDirectory);
-                    testTask.setClasspath(project.files(instrumentedClasses, originalClasspath.filter(file -> {
+                    testTask.setClasspath(project.files((Callable<Object>) () -> inPlace.get() ? originalClasspath : List.of(instrumentedClasses, originalClasspath.filter(file -> {
                         var outputDir = compileJavaOutputDirProvider.getOrNull();
                         return outputDir == null || !file.equals(outputDir.getAsFile());
-                    })));
+                    }))));
                 });
 
                 // Wire instrumented classes to JavaExec tasks (like 'run' from application plugin)
@@ -108,13 +170,65 @@ public class CabeGradlePlugin implements Plugin<Project> {
 
                         var originalClasspath = javaExecTask.getClasspath();
                         var instrumentedClasses = cabeTaskProvider.map(CabeTask::getOutputDirectory);
-                        javaExecTask.setClasspath(project.files(instrumentedClasses, originalClasspath.filter(file -> {
+                        javaExecTask.setClasspath(project.files((Callable<Object>) () -> inPlace.get() ? originalClasspath : List.of(instrumentedClasses, originalClasspath.filter(file -> {
                             var outputDir = compileJavaOutputDirProvider.getOrNull();
                             return outputDir == null || !file.equals(outputDir.getAsFile());
-                        })));
+                        }))));
                     });
                 }
             });
         });
+
+        // instrument dependency JARs once the selected configurations and modules are known
+        project.afterEvaluate(p -> configureDependencyInstrumentation(p, extension));
+    }
+
+    /**
+     * Registers the {@link CabeJarTransform} and requests instrumented JARs for the configurations and modules
+     * selected in the extension. Nothing is done if neither configurations nor modules are selected.
+     *
+     * @param project   the project
+     * @param extension the Cabe extension of the project
+     */
+    private static void configureDependencyInstrumentation(Project project, CabeExtension extension) {
+        List<String> configurationNames = extension.getInstrumentedConfigurations().get();
+        List<String> modules = extension.getInstrumentedModules().get();
+        if (configurationNames.isEmpty() && modules.isEmpty()) {
+            return;
+        }
+
+        // JARs not yet instrumented are marked false, the transform turns them into JARs marked true
+        DependencyHandler dependencies = project.getDependencies();
+        dependencies.getAttributesSchema().attribute(INSTRUMENTED_ATTRIBUTE);
+        dependencies.getArtifactTypes().maybeCreate(ArtifactTypeDefinition.JAR_TYPE)
+                .getAttributes().attribute(INSTRUMENTED_ATTRIBUTE, false);
+        dependencies.registerTransform(CabeJarTransform.class, spec -> {
+            spec.getFrom()
+                    .attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE)
+                    .attribute(INSTRUMENTED_ATTRIBUTE, false);
+            spec.getTo()
+                    .attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE)
+                    .attribute(INSTRUMENTED_ATTRIBUTE, true);
+            spec.parameters(parameters -> {
+                parameters.getConfig().set(extension.getConfig().map(Configuration::getConfigString));
+                parameters.getEmitter().set(extension.getEmitter());
+                // the metadata is read from the class files, the daemon JVM may be too old to load the classes
+                parameters.getMetadata().set(ProcessingOptions.Metadata.CLASSFILE);
+            });
+        });
+
+        // the variants of modules that are not selected are marked as instrumented, so the transform is not applied
+        if (!modules.isEmpty()) {
+            dependencies.getComponents().all(CabeModuleSelectionRule.class, rule -> rule.params(modules));
+        }
+
+        if (configurationNames.isEmpty()) {
+            configurationNames = project.getExtensions().getByType(JavaPluginExtension.class).getSourceSets().stream()
+                    .map(SourceSet::getRuntimeClasspathConfigurationName)
+                    .toList();
+        }
+        for (String name : configurationNames) {
+            project.getConfigurations().getByName(name).getAttributes().attribute(INSTRUMENTED_ATTRIBUTE, true);
+        }
     }
 }
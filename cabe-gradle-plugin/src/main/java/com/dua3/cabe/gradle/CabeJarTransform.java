@@ -0,0 +1,124 @@
+package com.dua3.cabe.gradle;
+
+import com.dua3.cabe.processor.ClassFileProcessingFailedException;
+import com.dua3.cabe.processor.ClassPatcher;
+import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingOptions;
+import org.gradle.api.GradleException;
+import org.gradle.api.artifacts.transform.CacheableTransform;
+import org.gradle.api.artifacts.transform.InputArtifact;
+import org.gradle.api.artifacts.transform.InputArtifactDependencies;
+import org.gradle.api.artifacts.transform.TransformAction;
+import org.gradle.api.artifacts.transform.TransformOutputs;
+import org.gradle.api.artifacts.transform.TransformParameters;
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CompileClasspath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * An artifact transform that instruments the class files of a dependency JAR.
+ *
+ * <p>The transform is registered by the {@link CabeGradlePlugin} for the configurations and modules selected using
+ * {@link CabeExtension#getInstrumentedConfigurations()} and {@link CabeExtension#getInstrumentedModules()}. The JAR is
+ * processed using {@link ClassPatcher#processJar(Path, Path)} with the dependencies of the JAR as classpath. Gradle
+ * caches the result, so that each version of a JAR is instrumented only once per machine as long as the
+ * configuration and the processor version do not change.
+ *
+ * <p>The transform runs inside the Gradle daemon, and dependency JARs may target a newer Java version than the JVM
+ * running the daemon. Loading their classes for reflection would fail in that case, so the class metadata is read from
+ * the class files unless set otherwise.
+ */
+@CacheableTransform
+public abstract class CabeJarTransform implements TransformAction<CabeJarTransform.Parameters> {
+
+    /**
+     * The parameters of the transform.
+     */
+    public interface Parameters extends TransformParameters {
+        /**
+         * Retrieves the configuration string as returned by {@link Configuration#getConfigString()}.
+         *
+         * @return the configuration string
+         */
+        @Input
+        Property<String> getConfig();
+
+        /**
+         * Retrieves the backend used to insert the checks.
+         *
+         * @return the emitter
+         */
+        @Input
+        Property<ProcessingOptions.Emitter> getEmitter();
+
+        /**
+         * Retrieves the source of the class metadata; does not influence the result. Defaults to
+         * {@link ProcessingOptions.Metadata#CLASSFILE}.
+         *
+         * @return the metadata source
+         */
+        @Internal
+        Property<ProcessingOptions.Metadata> getMetadata();
+    }
+
+    /**
+     * Constructs a new instance of the transform.
+     */
+    public CabeJarTransform() {
+        // nothing to do
+    }
+
+    /**
+     * Retrieves the JAR to instrument.
+     *
+     * @return the input artifact
+     */
+    @InputArtifact
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract Provider<FileSystemLocation> getInputArtifact();
+
+    /**
+     * Retrieves the dependencies of the JAR to instrument; only their API is needed to instrument the JAR.
+     *
+     * @return the dependencies
+     */
+    @InputArtifactDependencies
+    @CompileClasspath
+    public abstract FileCollection getDependencies();
+
+    @Override
+    public void transform(TransformOutputs outputs) {
+        Parameters parameters = getParameters();
+        File input = getInputArtifact().get().getAsFile();
+
+        // keep the file name, the automatic module name of a JAR might be derived from it
+        File output = outputs.file(input.getName());
+
+        List<Path> classpath = getDependencies().getFiles().stream()
+                .map(File::toPath)
+                .distinct()
+                .toList();
+
+        ProcessingOptions options = ProcessingOptions.DEFAULT
+                .withMetadata(parameters.getMetadata().getOrElse(ProcessingOptions.Metadata.CLASSFILE))
+                .withEmitter(parameters.getEmitter().getOrElse(ProcessingOptions.Emitter.SOURCE));
+
+        try {
+            ClassPatcher classPatcher = new ClassPatcher(classpath, Configuration.parse(parameters.getConfig().get()), options);
+            classPatcher.processJar(input.toPath(), output.toPath());
+        } catch (IOException | ClassFileProcessingFailedException e) {
+            throw new GradleException("An error occurred while instrumenting " + input.getName() + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.dua3.cabe.gradle;
+
+import org.gradle.api.artifacts.CacheableRule;
+import org.gradle.api.artifacts.ComponentMetadataContext;
+import org.gradle.api.artifacts.ComponentMetadataRule;
+import org.gradle.api.artifacts.ModuleVersionIdentifier;
+
+import javax.inject.Inject;
+import java.util.List;
+
+/**
+ * A component metadata rule that excludes modules from the instrumentation of dependency JARs.
+ *
+ * <p>The variants of all modules that do not match one of the patterns passed to the constructor are marked as
+ * already instrumented, so that the {@link CabeJarTransform} is not applied to their JARs. A pattern is either
+ * {@code group:name} or {@code group:*} to match all modules of a group.
+ */
+@CacheableRule
+public abstract class CabeModuleSelectionRule implements ComponentMetadataRule {
+
+    private final List<String> modules;
+
+    /**
+     * Constructs a new instance of the rule.
+     *
+     * @param modules the patterns of the modules to instrument
+     */
+    @Inject
+    public CabeModuleSelectionRule(List<String> modules) {
+        this.modules = List.copyOf(modules);
+    }
+
+    @Override
+    public void execute(ComponentMetadataContext context) {
+        ModuleVersionIdentifier id = context.getDetails().getId();
+        if (!matches(modules, id.getGroup(), id.getName())) {
+            context.getDetails().allVariants(variant -> variant.attributes(
+                    attributes -> attributes.attribute(CabeGradlePlugin.INSTRUMENTED_ATTRIBUTE, true)));
+        }
+    }
+
+    /**
+     * Checks whether a module matches one of the given patterns.
+     *
+     * @param patterns the patterns, either {@code group:name} or {@code group:*}
+     * @param group    the group of the module
+     * @param name     the name of the module
+     * @return {@code true}, if the module matches one of the patterns
+     */
+    static boolean matches(List<String> patterns, String group, String name) {
+        for (String pattern : patterns) {
+            int colon = pattern.indexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("invalid module pattern, expected 'group:name' or 'group:*': " + pattern);
+            }
+            String patternName = pattern.substring(colon + 1);
+            if (pattern.substring(0, colon).equals(group) && (patternName.equals("*") || patternName.equals(name))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -2,37 +2,88 @@ package com.dua3.cabe.gradle;
 
 import com.dua3.cabe.processor.ClassPatcher;
 import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingMetrics;
+import com.dua3.cabe.processor.ProcessingOptions;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.logging.Logger;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
-import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.CompileClasspath;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputDirectory;
 import org.gradle.api.tasks.InputFile;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.OutputFile;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.Incremental;
+import org.gradle.work.InputChanges;
 import org.gradle.process.ExecOperations;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+import org.jspecify.annotations.Nullable;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * The CabeTask class is responsible for instrumenting class files using Cabe.
+ *
+ * <p>The task is incremental: if only class files in the input directory changed since the last execution, only the
+ * class files of the nests, i.e., a top-level class and its nested classes, containing added, modified, or removed
+ * class files are instrumented and the output of removed class files is deleted. A change of any
+ * other input, e.g., the configuration or the classpath, or of a {@code package-info.class} or
+ * {@code module-info.class} file, which determine the nullness of other classes, causes all class files to be
+ * processed again.
  */
 @CacheableTask
 public abstract class CabeTask extends DefaultTask {
 
+    /**
+     * Determines how the processor is run.
+     */
+    public enum ExecutionMode {
+        /**
+         * Run the processor inside the Gradle daemon using the Worker API. All tasks of the build share the caches of
+         * the {@link CabeBuildService}. The classes being processed are loaded by a separate class loader. If the
+         * classes are loaded for reflection and the toolchain is newer than the daemon JVM, {@link #PROCESS} is used
+         * instead.
+         */
+        WORKER,
+        /**
+         * Run the processor in a worker process using the Worker API and the Java executable of the toolchain. Gradle
+         * reuses the worker process for subsequent tasks.
+         */
+        PROCESS,
+        /**
+         * Start a new JVM using the Java executable of the toolchain for every task.
+         */
+        EXEC
+    }
+
     /**
      * Retrieves the configuration property for the Cabe plugin.
      *
@@ -49,6 +100,83 @@ public abstract class CabeTask extends DefaultTask {
     @Input
     public abstract Property<Integer> getVerbosity();
 
+    /**
+     * Retrieves the parallelism property for the Cabe plugin.
+     *
+     * <p>The parallelism does not influence the generated class files and is therefore not a task input.
+     *
+     * @return the parallelism property as a Property object of type Integer
+     */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * Retrieves the I/O parallelism property for the Cabe plugin.
+     *
+     * <p>The I/O parallelism does not influence the generated class files and is therefore not a task input.
+     *
+     * @return the I/O parallelism property as a Property object of type Integer
+     */
+    @Internal
+    public abstract Property<Integer> getIoParallelism();
+
+    /**
+     * Retrieves the memory budget property for the Cabe plugin.
+     *
+     * <p>The memory budget does not influence the generated class files and is therefore not a task input.
+     *
+     * @return the memory budget property as a Property object of type String
+     */
+    @Internal
+    public abstract Property<String> getMemoryBudget();
+
+    /**
+     * Retrieves the metadata property for the Cabe plugin.
+     *
+     * <p>The source of the class metadata does not influence the generated class files and is therefore not a task input.
+     *
+     * @return the metadata property as a Property object of type {@link ProcessingOptions.Metadata}
+     */
+    @Internal
+    public abstract Property<ProcessingOptions.Metadata> getMetadata();
+
+    /**
+     * Retrieves the emitter property for the Cabe plugin.
+     *
+     * @return the emitter property as a Property object of type {@link ProcessingOptions.Emitter}
+     */
+    @Input
+    public abstract Property<ProcessingOptions.Emitter> getEmitter();
+
+    /**
+     * Retrieves the execution mode property for the Cabe plugin.
+     *
+     * <p>The execution mode does not influence the generated class files and is therefore not a task input.
+     *
+     * @return the execution mode property as a Property object of type {@link ExecutionMode}
+     */
+    @Internal
+    public abstract Property<ExecutionMode> getExecutionMode();
+
+    /**
+     * Retrieves the file used to persist the index of the JAR files on the classpath.
+     *
+     * <p>The index only speeds up processing and does not influence the generated class files, it is therefore not a
+     * task input.
+     *
+     * @return the classpath index property as a RegularFileProperty object
+     */
+    @Internal
+    public abstract RegularFileProperty getClasspathIndex();
+
+    /**
+     * Retrieves the shared build service used in {@link ExecutionMode#WORKER} mode.
+     *
+     * @return the build service property
+     */
+    @Internal
+    public abstract Property<CabeBuildService> getBuildService();
+
     /**
      * Retrieves the input directory containing the class files to be instrumented.
      *
@@ -56,6 +184,7 @@ public abstract class CabeTask extends DefaultTask {
      */
     @InputDirectory
     @Optional
+    @Incremental
     @PathSensitive(PathSensitivity.RELATIVE)
     public abstract DirectoryProperty getInputDirectory();
 
@@ -67,13 +196,26 @@ public abstract class CabeTask extends DefaultTask {
     @OutputDirectory
     public abstract DirectoryProperty getOutputDirectory();
 
+    /**
+     * Retrieves the file the processing report is written to. No report is written if the property is not set.
+     *
+     * @return the report file as a RegularFileProperty object
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getReportFile();
+
     /**
      * Retrieves the classpath used for instrumentation.
      *
+     * <p>The instrumentation only depends on the API of the classes on the classpath, i.e., on annotations, the type
+     * hierarchy, signatures, and module descriptors, so the classpath is normalized like a compile classpath. Changes
+     * to method bodies or private members of classpath entries do not cause the task to run again.
+     *
      * @return the classpath as a ConfigurableFileCollection object
      */
     @InputFiles
-    @Classpath
+    @CompileClasspath
     public abstract ConfigurableFileCollection getClasspath();
 
     /**
@@ -85,6 +227,18 @@ public abstract class CabeTask extends DefaultTask {
     @PathSensitive(PathSensitivity.NONE)
     public abstract RegularFileProperty getJavaExecutable();
 
+    /**
+     * Retrieves the Java language version of the toolchain used to compile the classes.
+     *
+     * <p>When the classes are loaded for reflection and the toolchain is newer than the JVM running the Gradle daemon,
+     * the {@link ExecutionMode#WORKER} mode cannot load the classes, and the task falls back to
+     * {@link ExecutionMode#PROCESS}.
+     *
+     * @return the toolchain version as a Property object of type Integer
+     */
+    @Internal
+    public abstract Property<Integer> getToolchainVersion();
+
     /**
      * Retrieves the ExecOperations instance.
      *
@@ -93,11 +247,21 @@ public abstract class CabeTask extends DefaultTask {
     @Inject
     protected abstract ExecOperations getExecOperations();
 
+    /**
+     * Retrieves the WorkerExecutor instance.
+     *
+     * @return the WorkerExecutor instance
+     */
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
     /**
      * Instrument the class files.
+     *
+     * @param inputChanges the changes of the inputs since the last execution
      */
     @TaskAction
-    public void instrument() {
+    public void instrument(InputChanges inputChanges) {
         if (!getInputDirectory().isPresent() || !getInputDirectory().get().getAsFile().exists()) {
             getLogger().info("Cabe: input directory does not exist, skipping instrumentation");
             return;
@@ -113,36 +277,223 @@ public abstract class CabeTask extends DefaultTask {
         );
 
         try {
-            // process files
+            List<File> classFiles = List.of();
+            if (inputChanges.isIncremental()) {
+                List<File> changed = processRemovalsAndGetChangedClassFiles(inputChanges, inputDir, outputDir);
+                if (changed == null) {
+                    logger.info("Cabe: nullness context changed, processing all class files");
+                } else if (changed.isEmpty()) {
+                    logger.info("Cabe: no class files to process");
+                    return;
+                } else {
+                    logger.info("Cabe: processing {} class files of changed nests", changed.size());
+                    classFiles = changed;
+                }
+            }
+
             String jarLocation = Paths.get(ClassPatcher.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString();
 
             String javaExecPath = getJavaExecutable().getAsFile().get().getAbsolutePath();
             String javaExec = getJavaExec(javaExecPath);
-            logger.debug("Java executable: {}", javaExec);
-
-            String cp = getClasspath().getFiles().stream()
-                    .map(File::toString)
-                    .distinct()
-                    .collect(Collectors.joining(File.pathSeparator));
-
-            int v = getVerbosity().getOrElse(0);
-            getExecOperations().javaexec(spec -> {
-                spec.setExecutable(javaExec);
-                spec.getMainClass().set("-jar");
-                spec.setArgs(java.util.List.of(
-                        jarLocation,
-                        "-i", inputDir.toString(),
-                        "-o", outputDir.toString(),
-                        "-c", getConfig().getOrElse(Configuration.STANDARD).getConfigString(),
-                        "-cp", cp,
-                        "-v", Integer.toString(v)
-                ));
-            });
+
+            ExecutionMode executionMode = getExecutionMode().getOrElse(ExecutionMode.WORKER);
+            if (executionMode == ExecutionMode.WORKER && !canLoadClassesInDaemon()) {
+                logger.info("Cabe: the toolchain is newer than the Gradle daemon JVM, using execution mode {}", ExecutionMode.PROCESS);
+                executionMode = ExecutionMode.PROCESS;
+            }
+            logger.debug("execution mode: {}", executionMode);
+
+            switch (executionMode) {
+                case WORKER -> submit(getWorkerExecutor().noIsolation(), inputDir, outputDir, classFiles, true);
+                case PROCESS -> {
+                    logger.debug("Java executable: {}", javaExec);
+                    submit(getWorkerExecutor().processIsolation(spec -> {
+                        spec.getClasspath().from(jarLocation);
+                        spec.forkOptions(forkOptions -> forkOptions.setExecutable(javaExec));
+                    }), inputDir, outputDir, classFiles, false);
+                }
+                case EXEC -> {
+                    logger.debug("Java executable: {}", javaExec);
+                    exec(jarLocation, javaExec, inputDir, outputDir, classFiles);
+                }
+            }
+
+            if (getReportFile().isPresent()) {
+                // wait for the work action so that the report has been written
+                getWorkerExecutor().await();
+                logger.lifecycle(ProcessingMetrics.summarize(getReportFile().getAsFile().get().toPath()));
+            }
         } catch (Exception e) {
             throw new GradleException("An error occurred while instrumenting classes: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Deletes the output of removed class files and returns the class files to process in an incremental execution.
+     *
+     * <p>The checks of a nested class may read the {@code $assertionsDisabled} field of its enclosing class or of
+     * another class of the same nest. Because the compiler may write an unchanged class file for such a class, all
+     * class files of a nest that contains an added, modified, or removed class file are processed again.
+     *
+     * @param inputChanges the changes of the inputs
+     * @param inputDir     the input directory
+     * @param outputDir    the output directory
+     * @return the class files of all nests containing changes, or {@code null} if a {@code package-info.class} or
+     *         {@code module-info.class} file changed so that all class files have to be processed
+     * @throws IOException if the output of a removed class file cannot be deleted or the input directory cannot be read
+     */
+    private @Nullable List<File> processRemovalsAndGetChangedClassFiles(InputChanges inputChanges, File inputDir, File outputDir) throws IOException {
+        Set<String> changedNests = new LinkedHashSet<>();
+        boolean nullnessContextChanged = false;
+        for (FileChange change : inputChanges.getFileChanges(getInputDirectory())) {
+            String path = change.getNormalizedPath();
+            if (change.getFileType() == FileType.DIRECTORY || !path.endsWith(".class")) {
+                continue;
+            }
+
+            String fileName = path.substring(path.lastIndexOf('/') + 1);
+            nullnessContextChanged |= fileName.equals("package-info.class") || fileName.equals("module-info.class");
+
+            if (change.getChangeType() == ChangeType.REMOVED) {
+                getLogger().debug("deleting output of removed class file {}", path);
+                Files.deleteIfExists(outputDir.toPath().resolve(path));
+            }
+            changedNests.add(nestKey(path));
+        }
+        if (nullnessContextChanged) {
+            return null;
+        }
+
+        List<File> classFiles = new ArrayList<>();
+        for (String nest : changedNests) {
+            int slash = nest.lastIndexOf('/');
+            Path dir = slash < 0 ? inputDir.toPath() : inputDir.toPath().resolve(nest.substring(0, slash));
+            String topLevelName = nest.substring(slash + 1);
+            if (!Files.isDirectory(dir)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(Files::isRegularFile)
+                        .filter(file -> {
+                            String name = file.getFileName().toString();
+                            return name.equals(topLevelName + ".class")
+                                    || name.startsWith(topLevelName + "$") && name.endsWith(".class");
+                        })
+                        .sorted()
+                        .forEach(file -> classFiles.add(file.toFile()));
+            }
+        }
+        return classFiles;
+    }
+
+    /**
+     * Returns the key of the nest a class file belongs to, i.e., its path without the {@code .class} extension and
+     * the part of the file name starting at the first {@code $}.
+     *
+     * @param path the normalized path of the class file relative to the input directory
+     * @return the nest key
+     */
+    private static String nestKey(String path) {
+        String name = path.substring(0, path.length() - ".class".length());
+        int start = name.lastIndexOf('/') + 1;
+        int end = name.indexOf('$', start);
+        return end < 0 ? name : name.substring(0, end);
+    }
+
+    /**
+     * Checks whether the processor can run inside the Gradle daemon. This is not the case if the class metadata is
+     * obtained through reflection and the classes were compiled for a newer Java version than the daemon's.
+     *
+     * @return {@code true}, if the processor can run inside the Gradle daemon
+     */
+    private boolean canLoadClassesInDaemon() {
+        return getMetadata().getOrElse(ProcessingOptions.Metadata.REFLECTION) != ProcessingOptions.Metadata.REFLECTION
+                || getToolchainVersion().getOrElse(0) <= Runtime.version().feature();
+    }
+
+    /**
+     * Submits the instrumentation to a work queue of the Worker API.
+     *
+     * @param workQueue       the work queue
+     * @param inputDir        the input directory
+     * @param outputDir       the output directory
+     * @param classFiles      the class files to process, or an empty list to process all class files
+     * @param useBuildService whether to pass the shared build service to the work action; only possible when
+     *                        running inside the Gradle daemon
+     */
+    private void submit(WorkQueue workQueue, File inputDir, File outputDir, List<File> classFiles, boolean useBuildService) {
+        workQueue.submit(CabeWorkAction.class, parameters -> {
+            parameters.getInputDirectory().set(inputDir);
+            parameters.getOutputDirectory().set(outputDir);
+            parameters.getClassFiles().from(classFiles);
+            parameters.getClasspath().from(getClasspath());
+            parameters.getConfig().set(getConfig().getOrElse(Configuration.STANDARD).getConfigString());
+            parameters.getVerbosity().set(getVerbosity().getOrElse(0));
+            parameters.getParallelism().set(getParallelism().getOrElse(1));
+            parameters.getIoParallelism().set(getIoParallelism().getOrElse(1));
+            parameters.getMetadata().set(getMetadata().getOrElse(ProcessingOptions.Metadata.REFLECTION));
+            parameters.getEmitter().set(getEmitter().getOrElse(ProcessingOptions.Emitter.SOURCE));
+            parameters.getClasspathIndex().set(getClasspathIndex());
+            parameters.getReportFile().set(getReportFile());
+            parameters.getMemoryBudget().set(ProcessingOptions.parseMemorySize(getMemoryBudget().getOrElse("0")));
+            if (useBuildService && getBuildService().isPresent()) {
+                parameters.getBuildService().set(getBuildService());
+            }
+        });
+    }
+
+    /**
+     * Runs the processor in a new JVM.
+     *
+     * @param jarLocation the location of the processor JAR
+     * @param javaExec    the Java executable
+     * @param inputDir    the input directory
+     * @param outputDir   the output directory
+     * @param classFiles  the class files to process, or an empty list to process all class files
+     * @throws IOException if the list of class files cannot be written
+     */
+    private void exec(String jarLocation, String javaExec, File inputDir, File outputDir, List<File> classFiles) throws IOException {
+        String cp = getClasspath().getFiles().stream()
+                .map(File::toString)
+                .distinct()
+                .collect(Collectors.joining(File.pathSeparator));
+
+        int v = getVerbosity().getOrElse(0);
+        List<String> args = new ArrayList<>(List.of(
+                jarLocation,
+                "-i", inputDir.toString(),
+                "-o", outputDir.toString(),
+                "-c", getConfig().getOrElse(Configuration.STANDARD).getConfigString(),
+                "-cp", cp,
+                "-j", Integer.toString(getParallelism().getOrElse(1)),
+                "--io-threads", Integer.toString(getIoParallelism().getOrElse(1)),
+                "--memory-budget", getMemoryBudget().getOrElse("0"),
+                "--metadata", getMetadata().getOrElse(ProcessingOptions.Metadata.REFLECTION).name().toLowerCase(Locale.ROOT),
+                "--emitter", getEmitter().getOrElse(ProcessingOptions.Emitter.SOURCE).name().toLowerCase(Locale.ROOT),
+                "-v", Integer.toString(v)
+        ));
+        if (getClasspathIndex().isPresent()) {
+            args.add("--classpath-index");
+            args.add(getClasspathIndex().getAsFile().get().getAbsolutePath());
+        }
+        if (getReportFile().isPresent()) {
+            args.add("--report");
+            args.add(getReportFile().getAsFile().get().getAbsolutePath());
+        }
+        if (!classFiles.isEmpty()) {
+            Path fileList = getTemporaryDir().toPath().resolve("class-files.txt");
+            Files.write(fileList, classFiles.stream().map(File::getAbsolutePath).toList(), StandardCharsets.UTF_8);
+            args.add("--files");
+            args.add(fileList.toString());
+        }
+
+        getExecOperations().javaexec(spec -> {
+            spec.setExecutable(javaExec);
+            spec.getMainClass().set("-jar");
+            spec.setArgs(args);
+        });
+    }
+
     /**
      * Determines and returns the path of the Java executable based on the provided path to a Java tool.
      * If the input path refers to the `javac` executable, it adjusts the path to point to the corresponding `java` executable.
@@ -0,0 +1,195 @@
+package com.dua3.cabe.gradle;
+
+import com.dua3.cabe.processor.ClassFileProcessingFailedException;
+import com.dua3.cabe.processor.ClassPatcher;
+import com.dua3.cabe.processor.ClasspathCache;
+import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingOptions;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+
+/**
+ * A work action that instruments the class files of a single input directory using the Worker API.
+ *
+ * <p>When running inside the Gradle daemon, the {@link ClasspathCache} of the shared {@link CabeBuildService} is
+ * used. In a worker process, a cache that lives as long as the worker process is used instead.
+ */
+public abstract class CabeWorkAction implements WorkAction<CabeWorkAction.Parameters> {
+
+    /**
+     * The cache used when no build service is available, i.e., in a worker process.
+     */
+    private static final ClasspathCache PROCESS_CLASSPATH_CACHE = new ClasspathCache();
+
+    /**
+     * The parameters of the work action.
+     */
+    public interface Parameters extends WorkParameters {
+        /**
+         * Retrieves the input directory containing the class files to be instrumented.
+         *
+         * @return the input directory
+         */
+        DirectoryProperty getInputDirectory();
+
+        /**
+         * Retrieves the output directory where the instrumented class files will be stored.
+         *
+         * @return the output directory
+         */
+        DirectoryProperty getOutputDirectory();
+
+        /**
+         * Retrieves the class files to process. If empty, all class files in the input directory are processed.
+         *
+         * @return the class files to process
+         */
+        ConfigurableFileCollection getClassFiles();
+
+        /**
+         * Retrieves the classpath used for instrumentation.
+         *
+         * @return the classpath
+         */
+        ConfigurableFileCollection getClasspath();
+
+        /**
+         * Retrieves the configuration string as returned by {@link Configuration#getConfigString()}.
+         *
+         * @return the configuration string
+         */
+        Property<String> getConfig();
+
+        /**
+         * Retrieves the verbosity level of the processor's log output, from 0 (warnings and errors only) to 3 (all).
+         *
+         * @return the verbosity
+         */
+        Property<Integer> getVerbosity();
+
+        /**
+         * Retrieves the number of threads used to instrument the class files.
+         *
+         * @return the parallelism
+         */
+        Property<Integer> getParallelism();
+
+        /**
+         * Retrieves the number of threads used for reading and for writing class files.
+         *
+         * @return the I/O parallelism
+         */
+        Property<Integer> getIoParallelism();
+
+        /**
+         * Retrieves the source of the class metadata.
+         *
+         * @return the metadata source
+         */
+        Property<ProcessingOptions.Metadata> getMetadata();
+
+        /**
+         * Retrieves the backend used to insert the checks.
+         *
+         * @return the emitter
+         */
+        Property<ProcessingOptions.Emitter> getEmitter();
+
+        /**
+         * Retrieves the file used to persist the classpath index.
+         *
+         * @return the classpath index file
+         */
+        RegularFileProperty getClasspathIndex();
+
+        /**
+         * Retrieves the file the processing report is written to; no report is written if not set.
+         *
+         * @return the report file
+         */
+        RegularFileProperty getReportFile();
+
+        /**
+         * Retrieves the memory budget in bytes; {@code 0} means no budget.
+         *
+         * @return the memory budget
+         */
+        Property<Long> getMemoryBudget();
+
+        /**
+         * Retrieves the shared build service; only set when running inside the Gradle daemon.
+         *
+         * @return the build service
+         */
+        Property<CabeBuildService> getBuildService();
+    }
+
+    /**
+     * Constructs a new instance of the work action.
+     */
+    public CabeWorkAction() {
+        // nothing to do
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+
+        ClasspathCache classpathCache = parameters.getBuildService().isPresent()
+                ? parameters.getBuildService().get().getClasspathCache()
+                : PROCESS_CLASSPATH_CACHE;
+
+        List<Path> classpath = parameters.getClasspath().getFiles().stream()
+                .map(File::toPath)
+                .distinct()
+                .toList();
+
+        ProcessingOptions options = ProcessingOptions.DEFAULT
+                .withParallelism(parameters.getParallelism().getOrElse(1))
+                .withIoParallelism(parameters.getIoParallelism().getOrElse(1))
+                .withMemoryBudget(parameters.getMemoryBudget().getOrElse(0L))
+                .withMetadata(parameters.getMetadata().getOrElse(ProcessingOptions.Metadata.REFLECTION))
+                .withEmitter(parameters.getEmitter().getOrElse(ProcessingOptions.Emitter.SOURCE))
+                .withClasspathIndex(parameters.getClasspathIndex().isPresent()
+                        ? parameters.getClasspathIndex().getAsFile().get().getAbsolutePath()
+                        : null)
+                .withReport(parameters.getReportFile().isPresent()
+                        ? parameters.getReportFile().getAsFile().get().getAbsolutePath()
+                        : null);
+
+        Path inputDir = parameters.getInputDirectory().getAsFile().get().toPath();
+        Path outputDir = parameters.getOutputDirectory().getAsFile().get().toPath();
+
+        try {
+            ClassPatcher classPatcher = new ClassPatcher(classpath, Configuration.parse(parameters.getConfig().get()), options, classpathCache);
+            // the processor logs using java.util.logging, which Gradle forwards to its own logging; the level is set
+            // for this instance only because other actions may be running concurrently in the same JVM
+            classPatcher.setLogLevel(switch (parameters.getVerbosity().getOrElse(0)) {
+                case 3 -> Level.ALL;
+                case 2 -> Level.FINE;
+                case 1 -> Level.INFO;
+                default -> Level.WARNING;
+            });
+            Set<File> classFiles = parameters.getClassFiles().getFiles();
+            if (classFiles.isEmpty()) {
+                classPatcher.processFolder(inputDir, outputDir);
+            } else {
+                classPatcher.processFiles(inputDir, outputDir, classFiles.stream().map(File::toPath).toList());
+            }
+        } catch (IOException | ClassFileProcessingFailedException e) {
+            throw new GradleException("An error occurred while instrumenting classes: " + e.getMessage(), e);
+        }
+    }
+}
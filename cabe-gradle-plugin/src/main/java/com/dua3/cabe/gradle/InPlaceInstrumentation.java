@@ -0,0 +1,127 @@
+package com.dua3.cabe.gradle;
+
+import com.dua3.cabe.processor.ClassFileProcessingFailedException;
+import com.dua3.cabe.processor.ClassPatcher;
+import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingMetrics;
+import com.dua3.cabe.processor.ProcessingOptions;
+import org.gradle.api.Action;
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.compile.JavaCompile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Instruments the class files in the destination directory of a {@link JavaCompile} task in place.
+ *
+ * <p>The action is added to the compile task and does nothing unless in-place instrumentation is enabled using
+ * {@link CabeExtension#getInPlace()}. Because the class files are modified while the compile task is executing,
+ * Gradle records the instrumented class files as the output of the compile task, and no additional directory has to
+ * be written and snapshotted.
+ *
+ * <p>During incremental compilation, class files that did not need to be recompiled are still instrumented. They are
+ * recognized by the {@code CabeMeta} attribute and the configuration fingerprint stored in it, and are passed through.
+ * The fingerprint is also registered as an input of the compile task, so that changing the configuration recompiles
+ * all classes. The same holds for the {@code package-info.java} and {@code module-info.java} sources: the checks of
+ * unchanged classes depend on the nullness declared there, so these sources are registered as a separate input and
+ * changing one of them recompiles all classes.
+ *
+ * <p>The processor always runs inside the Gradle daemon. If the toolchain of the compile task is newer than the daemon
+ * JVM, the compiled classes cannot be loaded for reflection, and the metadata is read from the class files instead.
+ */
+class InPlaceInstrumentation implements Action<Task> {
+
+    private final Provider<Boolean> inPlace;
+    private final Provider<Configuration> config;
+    private final Provider<Integer> parallelism;
+    private final Provider<Integer> ioParallelism;
+    private final Provider<String> memoryBudget;
+    private final Provider<ProcessingOptions.Metadata> metadata;
+    private final Provider<ProcessingOptions.Emitter> emitter;
+    private final Provider<RegularFile> classpathIndex;
+    private final Provider<RegularFile> reportFile;
+    private final Provider<CabeBuildService> buildService;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param extension    the extension holding the settings
+     * @param reportFile   the file the processing report is written to; no report is written if not present
+     * @param buildService the shared build service
+     */
+    InPlaceInstrumentation(CabeExtension extension, Provider<RegularFile> reportFile, Provider<CabeBuildService> buildService) {
+        this.inPlace = extension.getInPlace();
+        this.config = extension.getConfig();
+        this.parallelism = extension.getParallelism();
+        this.ioParallelism = extension.getIoParallelism();
+        this.memoryBudget = extension.getMemoryBudget();
+        this.metadata = extension.getMetadata();
+        this.emitter = extension.getEmitter();
+        this.classpathIndex = extension.getClasspathIndex();
+        this.reportFile = reportFile;
+        this.buildService = buildService;
+    }
+
+    @Override
+    public void execute(Task task) {
+        if (!inPlace.getOrElse(false)) {
+            return;
+        }
+
+        JavaCompile compileTask = (JavaCompile) task;
+        File classesDir = compileTask.getDestinationDirectory().getAsFile().get();
+        if (!classesDir.isDirectory()) {
+            task.getLogger().info("Cabe: destination directory does not exist, skipping instrumentation");
+            return;
+        }
+
+        task.getLogger().info("instrumenting classes in place using Cabe\n  classesDir: {}", classesDir.getAbsolutePath());
+
+        List<Path> classpath = compileTask.getClasspath().getFiles().stream()
+                .map(File::toPath)
+                .distinct()
+                .toList();
+
+        // the daemon cannot load classes compiled for a newer Java version, so read the metadata from the class files
+        ProcessingOptions.Metadata metadataSource = metadata.getOrElse(ProcessingOptions.Metadata.REFLECTION);
+        int toolchainVersion = compileTask.getJavaCompiler()
+                .map(compiler -> compiler.getMetadata().getLanguageVersion().asInt())
+                .getOrElse(0);
+        if (metadataSource == ProcessingOptions.Metadata.REFLECTION && toolchainVersion > Runtime.version().feature()) {
+            task.getLogger().info("Cabe: the toolchain is newer than the Gradle daemon JVM, using metadata source {}",
+                    ProcessingOptions.Metadata.CLASSFILE);
+            metadataSource = ProcessingOptions.Metadata.CLASSFILE;
+        }
+
+        ProcessingOptions options = ProcessingOptions.DEFAULT
+                .withParallelism(parallelism.getOrElse(1))
+                .withIoParallelism(ioParallelism.getOrElse(1))
+                .withMemoryBudget(ProcessingOptions.parseMemorySize(memoryBudget.getOrElse("0")))
+                .withMetadata(metadataSource)
+                .withEmitter(emitter.getOrElse(ProcessingOptions.Emitter.SOURCE))
+                .withClasspathIndex(classpathIndex.isPresent()
+                        ? classpathIndex.get().getAsFile().getAbsolutePath()
+                        : null)
+                .withReport(reportFile.isPresent()
+                        ? reportFile.get().getAsFile().getAbsolutePath()
+                        : null);
+
+        try {
+            Path dir = classesDir.toPath();
+            ClassPatcher classPatcher = new ClassPatcher(classpath, config.getOrElse(Configuration.STANDARD), options,
+                    buildService.get().getClasspathCache());
+            classPatcher.processFolder(dir, dir);
+            if (reportFile.isPresent()) {
+                task.getLogger().lifecycle(ProcessingMetrics.summarize(reportFile.get().getAsFile().toPath()));
+            }
+        } catch (IOException | ClassFileProcessingFailedException e) {
+            throw new GradleException("An error occurred while instrumenting classes: " + e.getMessage(), e);
+        }
+    }
+}
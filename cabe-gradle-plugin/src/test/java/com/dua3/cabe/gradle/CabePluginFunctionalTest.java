@@ -2,17 +2,28 @@ package com.dua3.cabe.gradle;
 
 import org.gradle.testkit.runner.BuildResult;
 import org.gradle.testkit.runner.GradleRunner;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
 import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class CabePluginFunctionalTest {
@@ -64,6 +75,159 @@ class CabePluginFunctionalTest {
         assertTrue(result.getOutput().contains("BUILD SUCCESSFUL"));
     }
 
+    @ParameterizedTest(name = "Execution mode {0}")
+    @EnumSource(CabeTask.ExecutionMode.class)
+    void testExecutionMode(CabeTask.ExecutionMode executionMode) throws IOException {
+        setupProject();
+        Files.writeString(testProjectDir.resolve("build.gradle"),
+                "cabe { executionMode = com.dua3.cabe.gradle.CabeTask.ExecutionMode." + executionMode.name() + " }\n",
+                StandardOpenOption.APPEND);
+
+        BuildResult result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("cabe", "--stacktrace", "--info")
+                .withPluginClasspath()
+                .build();
+
+        assertTrue(result.getOutput().contains("BUILD SUCCESSFUL"));
+        assertTrue(Files.isRegularFile(testProjectDir.resolve("build/classes-cabe/main/com/example/Test.class")));
+    }
+
+    @Test
+    void testRuntimeOnlyDependencyDoesNotInvalidateTask() throws IOException {
+        setupProject();
+        Path runtimeJar = testProjectDir.resolve("libs/runtime.jar");
+        writeJar(runtimeJar, "version 1");
+        Files.writeString(testProjectDir.resolve("build.gradle"),
+                "dependencies { runtimeOnly files('libs/runtime.jar') }\n",
+                StandardOpenOption.APPEND);
+
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("cabe", "--stacktrace")
+                .withPluginClasspath();
+
+        assertEquals(TaskOutcome.SUCCESS, runner.build().task(":cabe").getOutcome());
+
+        writeJar(runtimeJar, "version 2");
+        assertEquals(TaskOutcome.UP_TO_DATE, runner.build().task(":cabe").getOutcome());
+    }
+
+    @Test
+    void testInPlaceInstrumentation() throws IOException {
+        setupProject();
+        Files.writeString(testProjectDir.resolve("build.gradle"), "cabe { inPlace = true }\n", StandardOpenOption.APPEND);
+
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("compileJava", "--stacktrace", "--info")
+                .withPluginClasspath();
+
+        BuildResult result = runner.build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":compileJava").getOutcome());
+        assertTrue(result.getOutput().contains("instrumenting classes in place using Cabe"));
+
+        byte[] classFile = Files.readAllBytes(testProjectDir.resolve("build/classes/java/main/com/example/Test.class"));
+        assertTrue(new String(classFile, StandardCharsets.ISO_8859_1).contains("CabeMeta"), "class file was not instrumented");
+
+        assertEquals(TaskOutcome.UP_TO_DATE, runner.build().task(":compileJava").getOutcome());
+    }
+
+    @Test
+    void testInPlaceInstrumentationFollowsPackageNullness() throws IOException {
+        setupProject();
+        Files.writeString(testProjectDir.resolve("build.gradle"), "cabe { inPlace = true }\n", StandardOpenOption.APPEND);
+        Path packageDir = testProjectDir.resolve("src/main/java/com/example/plain");
+        Files.createDirectories(packageDir);
+        writeFile(packageDir.resolve("Plain.java").toFile(),
+                """
+                        package com.example.plain;
+                        public class Plain {
+                            public static String call(String s) { return s; }
+                        }
+                        """
+        );
+        String packageInfo = """
+                %s
+                package com.example.plain;
+                """;
+        writeFile(packageDir.resolve("package-info.java").toFile(), packageInfo.formatted("@org.jspecify.annotations.NullMarked"));
+
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("compileJava", "--stacktrace", "--info")
+                .withPluginClasspath();
+
+        Path classFile = testProjectDir.resolve("build/classes/java/main/com/example/plain/Plain.class");
+        assertEquals(TaskOutcome.SUCCESS, runner.build().task(":compileJava").getOutcome());
+        assertTrue(new String(Files.readAllBytes(classFile), StandardCharsets.ISO_8859_1).contains("CabeMeta"), "class file was not instrumented");
+
+        // only package-info.java changes, the checks of the unchanged class in the package must be removed
+        writeFile(packageDir.resolve("package-info.java").toFile(), packageInfo.formatted(""));
+        assertEquals(TaskOutcome.SUCCESS, runner.build().task(":compileJava").getOutcome());
+        assertFalse(new String(Files.readAllBytes(classFile), StandardCharsets.ISO_8859_1).contains("CabeMeta"), "class file is still instrumented");
+    }
+
+    @Test
+    void testIncrementalBuildReprocessesNest() throws Exception {
+        setupProject();
+        Path javaDir = testProjectDir.resolve("src/main/java/com/example");
+        String outer = """
+                package com.example;
+                import org.jspecify.annotations.*;
+                @NullMarked public class Outer {
+                    public static int twice(int x) { %s return 2 * x; }
+                    public static class Inner {
+                        public static String call() { return check("inner"); }
+                        private static String check(String s) { return s; }
+                    }
+                }
+                """;
+        writeFile(javaDir.resolve("Outer.java").toFile(), outer.formatted("assert x >= 0;"));
+
+        GradleRunner runner = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("cabe", "--stacktrace", "--info")
+                .withPluginClasspath();
+
+        assertEquals(TaskOutcome.SUCCESS, runner.build().task(":cabe").getOutcome());
+
+        // removing the assertion removes the flag the checks of the unchanged nested class refer to
+        writeFile(javaDir.resolve("Outer.java").toFile(), outer.formatted(""));
+        BuildResult result = runner.build();
+        assertEquals(TaskOutcome.SUCCESS, result.task(":cabe").getOutcome());
+        assertTrue(result.getOutput().contains("Cabe: processing 2 class files of changed nests"));
+
+        Path classesDir = testProjectDir.resolve("build/classes-cabe/main");
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()}, null)) {
+            Class<?> inner = Class.forName("com.example.Outer$Inner", true, loader);
+            assertEquals("inner", inner.getMethod("call").invoke(null));
+        }
+    }
+
+    @Test
+    void testInstrumentedModuleIsTransformed() throws IOException {
+        setupProject();
+        Files.writeString(testProjectDir.resolve("build.gradle"),
+                """
+                        cabe { instrumentedModules = ['org.jspecify:jspecify'] }
+                        tasks.register('printRuntimeClasspath') {
+                            def runtimeClasspath = configurations.runtimeClasspath
+                            doLast { runtimeClasspath.files.each { println "classpath: $it" } }
+                        }
+                        """,
+                StandardOpenOption.APPEND);
+
+        BuildResult result = GradleRunner.create()
+                .withProjectDir(testProjectDir.toFile())
+                .withArguments("printRuntimeClasspath", "--stacktrace")
+                .withPluginClasspath()
+                .build();
+
+        assertTrue(result.getOutput().lines().anyMatch(line -> line.startsWith("classpath: ")
+                && line.contains("transforms") && line.endsWith("jspecify-1.0.0.jar")));
+    }
+
     private static Stream<String> gradleVersions() {
         if (runCompatibilityMatrix()) {
             return Stream.of("8.6", "8.14", "9.0", "9.4.0", "current");
@@ -113,6 +277,15 @@ class CabePluginFunctionalTest {
         );
     }
 
+    private static void writeJar(Path jar, String content) throws IOException {
+        Files.createDirectories(jar.getParent());
+        try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+            out.putNextEntry(new JarEntry("runtime.txt"));
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+    }
+
     private void writeFile(File destination, String content) throws IOException {
         try (FileWriter writer = new FileWriter(destination)) {
             writer.write(content);
@@ -2,13 +2,19 @@ package com.dua3.cabe.maven;
 
 import com.dua3.cabe.processor.ClassPatcher;
 import com.dua3.cabe.processor.Configuration;
+import com.dua3.cabe.processor.ProcessingMetrics;
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.OutputStream;
+import java.io.PrintStream;
 import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -62,6 +68,70 @@ public class CabeMojo extends AbstractMojo {
    */
   @Parameter(property = "cabe.configurationString", defaultValue = "STANDARD")
   public String configurationString;
+  /**
+   * The number of worker threads used to instrument class files. Use <b>0</b> to use one thread per
+   * available processor.
+   */
+  @Parameter(property = "cabe.parallelism", defaultValue = "1")
+  private Integer parallelism;
+  /**
+   * The number of threads used for reading and, separately, for writing class files.
+   */
+  @Parameter(property = "cabe.ioParallelism", defaultValue = "1")
+  private Integer ioParallelism;
+  /**
+   * The amount of heap and metaspace the processor should stay within, given like the <b>-Xmx</b> JVM option,
+   * e.g., <b>1g</b>. If set, the class files are processed in batches of whole packages and the loaded classes are
+   * released between batches. The default <b>0</b> means no budget.
+   */
+  @Parameter(property = "cabe.memoryBudget", defaultValue = "0")
+  private String memoryBudget;
+  /**
+   * If set, a manifest file named <b>.cabe-manifest</b> is written to the output directory and class files that
+   * did not change since the last run are not processed again.
+   */
+  @Parameter(property = "cabe.incremental", defaultValue = "false")
+  private boolean incremental;
+  /**
+   * The source of the class metadata.
+   * <ul>
+   *  <li> <b>reflection</b> - load the classes and use reflection (default)
+   *  <li> <b>classfile</b> - read the class files directly without loading any classes
+   * </ul>
+   */
+  @Parameter(property = "cabe.metadata", defaultValue = "reflection")
+  private String metadata;
+  /**
+   * The backend used to insert the checks.
+   * <ul>
+   *  <li> <b>source</b> - generate source code and compile it using Javassist (default)
+   *  <li> <b>bytecode</b> - write the bytecode for the checks directly
+   * </ul>
+   */
+  @Parameter(property = "cabe.emitter", defaultValue = "source")
+  private String emitter;
+  /**
+   * How the processor is run.
+   * <ul>
+   *  <li> <b>inprocess</b> - run the processor inside the Maven JVM using an isolated class loader that is shared
+   *       by all modules of the build (default)
+   *  <li> <b>fork</b> - start a new JVM for every module
+   * </ul>
+   */
+  @Parameter(property = "cabe.execution", defaultValue = "inprocess")
+  private String execution;
+  /**
+   * The file used to store the index of the JAR files on the classpath between builds, so that JAR files that did
+   * not change are not scanned again.
+   */
+  @Parameter(property = "cabe.classpathIndex", defaultValue = "${project.build.directory}/cabe/classpath-index")
+  private File classpathIndex;
+  /**
+   * If set, a JSON report with per-class timings, the number of checks added and the class file sizes is written
+   * to this file, and a summary is logged.
+   */
+  @Parameter(property = "cabe.report")
+  private File report;
 
   /**
    * Default constructor
@@ -76,7 +146,6 @@ public class CabeMojo extends AbstractMojo {
       String jarLocation = Paths.get(
               ClassPatcher.class.getProtectionDomain().getCodeSource().getLocation().toURI())
           .toString();
-      String systemClassPath = System.getProperty("java.class.path");
 
       String classpath = project.getArtifacts().stream()
           .map(Artifact::getFile)
@@ -84,48 +153,116 @@ public class CabeMojo extends AbstractMojo {
           .distinct()
           .collect(Collectors.joining(File.pathSeparator));
 
-      String javaExec = Path.of(System.getProperty("java.home"), "bin", "java").toString();
-      getLog().info("Java executable: %s".formatted(javaExec));
-
       int v = Objects.requireNonNullElse(verbosity, 0);
       String configStr = Configuration.parse(configurationString).getConfigString();
-      String[] args = {
-          javaExec,
-          "-classpath", systemClassPath,
-          "-jar", jarLocation,
+      List<String> processorArgs = new ArrayList<>(List.of(
           "-i", inputDirectory.toString(),
           "-o", outputDirectory.toString(),
           "-c", configStr,
           "-cp", classpath,
+          "-j", Integer.toString(Objects.requireNonNullElse(parallelism, 1)),
+          "--io-threads", Integer.toString(Objects.requireNonNullElse(ioParallelism, 1)),
+          "--memory-budget", Objects.requireNonNullElse(memoryBudget, "0"),
+          "--metadata", Objects.requireNonNullElse(metadata, "reflection"),
+          "--emitter", Objects.requireNonNullElse(emitter, "source"),
           "-v", Integer.toString(v)
-      };
-
-      if (v > 0) {
-        getLog().debug("Instrumenting class files: %s".formatted(String.join(" ", args)));
+      ));
+      if (incremental) {
+        processorArgs.add("--incremental");
+      }
+      if (classpathIndex != null) {
+        processorArgs.add("--classpath-index");
+        processorArgs.add(classpathIndex.toString());
+      }
+      if (report != null) {
+        processorArgs.add("--report");
+        processorArgs.add(report.toString());
       }
 
-      getLog().info(String.join(" ", args));
-      ProcessBuilder pb = new ProcessBuilder(args);
-
-      Process process = pb.start();
+      String mode = Objects.requireNonNullElse(execution, "inprocess").toLowerCase(Locale.ROOT);
+      switch (mode) {
+        case "inprocess" -> runInProcess(Path.of(jarLocation), processorArgs, v);
+        case "fork" -> runForked(jarLocation, processorArgs, v);
+        default -> throw new MojoFailureException("Unknown execution mode: " + execution);
+      }
 
-      try (CopyOutput copyStdErr = new CopyOutput(process.errorReader(), System.err::println);
-          CopyOutput ignored = new CopyOutput(process.inputReader(),
-              v > 1 ? System.out::println : s -> {
-              })) {
-        int exitCode = process.waitFor();
-        if (exitCode != 0) {
-          throw new MojoFailureException("Instrumenting class files failed\n\n" + copyStdErr);
-        }
+      if (report != null) {
+        getLog().info(ProcessingMetrics.summarize(report.toPath()));
       }
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
+    } catch (MojoFailureException e) {
+      throw e;
     } catch (Exception e) {
       throw new MojoFailureException(
           "An error occurred while instrumenting classes: " + e.getMessage(), e);
     }
   }
 
+  /**
+   * Runs the processor inside the Maven JVM.
+   *
+   * @param processorJar  the processor JAR
+   * @param processorArgs the processor arguments
+   * @param v             the verbosity
+   * @throws Exception if an error occurs
+   */
+  private void runInProcess(Path processorJar, List<String> processorArgs, int v) throws Exception {
+    if (v > 0) {
+      getLog().debug("Instrumenting class files in-process: %s".formatted(String.join(" ", processorArgs)));
+    }
+
+    PrintStream out = v > 1 ? System.out : new PrintStream(OutputStream.nullOutputStream());
+    ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+    try (PrintStream err = new PrintStream(errBytes, true, StandardCharsets.UTF_8)) {
+      int exitCode = InProcessClassPatcher.getInstance(processorJar).run(processorArgs, out, err);
+      if (exitCode != 0) {
+        throw new MojoFailureException("Instrumenting class files failed\n\n" + errBytes.toString(StandardCharsets.UTF_8));
+      }
+    }
+  }
+
+  /**
+   * Runs the processor in a new JVM.
+   *
+   * @param jarLocation   the location of the processor JAR
+   * @param processorArgs the processor arguments
+   * @param v             the verbosity
+   * @throws Exception if an error occurs
+   */
+  private void runForked(String jarLocation, List<String> processorArgs, int v) throws Exception {
+    String systemClassPath = System.getProperty("java.class.path");
+
+    String javaExec = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    getLog().info("Java executable: %s".formatted(javaExec));
+
+    List<String> args = new ArrayList<>(List.of(
+        javaExec,
+        "-classpath", systemClassPath,
+        "-jar", jarLocation
+    ));
+    args.addAll(processorArgs);
+
+    if (v > 0) {
+      getLog().debug("Instrumenting class files: %s".formatted(String.join(" ", args)));
+    }
+
+    getLog().info(String.join(" ", args));
+    ProcessBuilder pb = new ProcessBuilder(args);
+
+    Process process = pb.start();
+
+    try (CopyOutput copyStdErr = new CopyOutput(process.errorReader(), System.err::println);
+        CopyOutput ignored = new CopyOutput(process.inputReader(),
+            v > 1 ? System.out::println : s -> {
+            })) {
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        throw new MojoFailureException("Instrumenting class files failed\n\n" + copyStdErr);
+      }
+    }
+  }
+
   /**
    * This class is responsible for copying the output of a Reader to a specified Consumer. The first
    * 10 lines are stored.
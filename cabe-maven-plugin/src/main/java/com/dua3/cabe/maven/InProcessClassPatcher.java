@@ -0,0 +1,98 @@
+package com.dua3.cabe.maven;
+
+import com.dua3.cabe.processor.ClassPatcher;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Runs the {@link ClassPatcher} inside the Maven JVM.
+ *
+ * <p>The processor is loaded through a class loader that only sees the processor JAR and the platform classes, so
+ * that neither the processor's dependencies nor the classes loaded during processing interfere with Maven or other
+ * plugins. The class loader and the processor's classpath cache are created once per processor JAR and kept as long
+ * as the plugin's class realm, i.e., for the whole reactor build. The instances are shared by all modules and are safe
+ * to use from the threads of a parallel build.
+ *
+ * <p>Besides the classpath cache, the processor keeps JVM-wide caches of facts about the classes it loads through
+ * reflection. These are keyed by the loaded classes and packages themselves, and each module is processed using new
+ * class loaders, so entries never carry over from one module, or one build of a module, to the next.
+ */
+final class InProcessClassPatcher {
+
+  private static final Object LOCK = new Object();
+  private static final Map<Path, InProcessClassPatcher> INSTANCES = new ConcurrentHashMap<>();
+
+  private final Method run;
+  private final Object classpathCache;
+
+  private InProcessClassPatcher(Path processorJar) throws ReflectiveOperationException, MalformedURLException {
+    // the class loader is never closed, it lives as long as the plugin's class realm
+    @SuppressWarnings("resource")
+    URLClassLoader loader = new URLClassLoader(
+        "cabe-processor",
+        new URL[]{processorJar.toUri().toURL()},
+        ClassLoader.getPlatformClassLoader()
+    );
+    Class<?> classPatcherClass = loader.loadClass(ClassPatcher.class.getName());
+    Class<?> classpathCacheClass = loader.loadClass("com.dua3.cabe.processor.ClasspathCache");
+
+    this.run = classPatcherClass.getMethod("run", List.class, PrintStream.class, PrintStream.class, classpathCacheClass);
+    this.classpathCache = classpathCacheClass.getConstructor().newInstance();
+  }
+
+  /**
+   * Returns the shared instance for a processor JAR, creating it on first use.
+   *
+   * <p>Instances are kept per processor JAR, so that an instance that might still be in use by another module is never
+   * replaced.
+   *
+   * @param processorJar the processor JAR
+   * @return the shared instance
+   * @throws ReflectiveOperationException if the processor cannot be loaded
+   * @throws MalformedURLException        if the path of the processor JAR cannot be converted to a URL
+   */
+  static InProcessClassPatcher getInstance(Path processorJar) throws ReflectiveOperationException, MalformedURLException {
+    InProcessClassPatcher patcher = INSTANCES.get(processorJar);
+    if (patcher == null) {
+      synchronized (LOCK) {
+        patcher = INSTANCES.get(processorJar);
+        if (patcher == null) {
+          patcher = new InProcessClassPatcher(processorJar);
+          INSTANCES.put(processorJar, patcher);
+        }
+      }
+    }
+    return patcher;
+  }
+
+  /**
+   * Processes a single command line.
+   *
+   * @param args the command line arguments as accepted by the processor
+   * @param out  the stream to write regular output to
+   * @param err  the stream to write error messages to
+   * @return the exit code, 0 on success
+   * @throws ReflectiveOperationException if the processor cannot be invoked
+   */
+  int run(List<String> args, PrintStream out, PrintStream err) throws ReflectiveOperationException {
+    try {
+      return (Integer) run.invoke(null, args, out, err, classpathCache);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException re) {
+        throw re;
+      }
+      if (e.getCause() instanceof Error error) {
+        throw error;
+      }
+      throw e;
+    }
+  }
+}
@@ -4,6 +4,7 @@ plugins {
     alias(libs.plugins.spotbugs)
     alias(libs.plugins.shadow)
     alias(libs.plugins.javafxplugin)
+    alias(libs.plugins.jmh)
 }
 
 project.version = rootProject.extra["processor_version"] as String
@@ -80,6 +81,7 @@ tasks.test {
     }
 
     systemProperty("cabe.test.build.dir", layout.buildDirectory.dir("regression-test").get().asFile.absolutePath)
+    project.findProperty("scalingSizes")?.let { systemProperty("cabe.test.scalingSizes", it.toString()) }
     doFirst {
         systemProperty("cabe.test.java21.home", javaToolchains.launcherFor {
             languageVersion.set(JavaLanguageVersion.of(21))
@@ -141,6 +143,29 @@ testJdkVersions.forEach { versionInt ->
     }
 }
 
+// === BENCHMARKS ===
+// run using `./gradlew :cabe-processor:jmh`, select benchmarks using `-PjmhIncludes=<regex>`
+// and the Java version of the benchmark JVM using `-PjmhJavaVersion=<version>`
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    // the benchmarks use the test sources and TestUtil
+    includeTests.set(true)
+    profilers.addAll("gc", "com.dua3.cabe.processor.PeakMemoryProfiler")
+    resultFormat.set("JSON")
+    resultsFile.set(layout.buildDirectory.file("reports/jmh/results.json"))
+    jvmArgsAppend.addAll(
+        "-Dcabe.test.build.dir=" + layout.buildDirectory.dir("jmh-test").get().asFile.absolutePath,
+        "-Dcabe.test.resource.dir=" + layout.projectDirectory.dir("src/test/resources").asFile.absolutePath,
+        "-Dcabe.bench.generatedClasses=" + (project.findProperty("jmhGeneratedClasses") ?: "5000")
+    )
+    project.findProperty("jmhIncludes")?.let { includes.add(it.toString()) }
+    project.findProperty("jmhJavaVersion")?.let { javaVersion ->
+        jvm.set(javaToolchains.launcherFor {
+            languageVersion.set(JavaLanguageVersion.of(javaVersion.toString().toInt()))
+        }.map { it.executablePath.asFile.absolutePath })
+    }
+}
+
 // === JAVADOC / SOURCES for shaded jar ===
 tasks.register<Javadoc>("javadocAll") {
     group = "documentation"
@@ -0,0 +1,128 @@
+package com.dua3.cabe.processor;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Provides the class files the benchmarks are run on.
+ *
+ * <p>Two corpora are available:
+ * <ul>
+ *     <li>{@value #TEST_SOURCES} - the sources used by {@code ClassPatcherTest}, a few dozen classes covering the
+ *         special cases handled by the processor,
+ *     <li>{@value #GENERATED} - a generated code base; the number of classes is set using the system property
+ *         {@code cabe.bench.generatedClasses} (default: 5000).
+ * </ul>
+ * The corpora are compiled once into the build directory and reused by later forks and benchmark runs.
+ */
+final class BenchmarkCorpus {
+
+    /**
+     * The name of the corpus compiled from the test sources.
+     */
+    static final String TEST_SOURCES = "testSrc";
+
+    /**
+     * The name of the generated corpus.
+     */
+    static final String GENERATED = "generated";
+
+    /**
+     * The folder containing the JSpecify JAR.
+     */
+    static final Path LIB_DIR = TestUtil.resourceDir.resolve("testLib");
+
+    private static final int GENERATED_TYPES = Integer.getInteger("cabe.bench.generatedClasses", 5000);
+
+    private BenchmarkCorpus() {
+        // utility class
+    }
+
+    /**
+     * Returns a corpus, compiling or generating it if needed.
+     *
+     * @param name the name of the corpus
+     * @return the corpus
+     * @throws IOException if an I/O error occurs
+     */
+    static CorpusGenerator.Corpus get(String name) throws IOException {
+        Path root = TestUtil.buildDir.resolve("jmh-corpus").resolve(switch (name) {
+            case TEST_SOURCES -> name;
+            case GENERATED -> name + "-" + GENERATED_TYPES;
+            default -> throw new IllegalArgumentException("unknown corpus: " + name);
+        });
+        Path complete = root.resolve(".complete");
+        if (!Files.exists(complete)) {
+            deleteRecursive(root);
+            if (name.equals(TEST_SOURCES)) {
+                TestUtil.compileSources(TestUtil.resourceDir.resolve("testSrc"), root.resolve("classes"), LIB_DIR);
+                Files.createDirectories(root.resolve("libs"));
+            } else {
+                CorpusGenerator.ofSize(GENERATED_TYPES).generate(root);
+            }
+            Files.createFile(complete);
+        }
+        return CorpusGenerator.Corpus.open(root);
+    }
+
+    /**
+     * Creates a class loader for the classes of a corpus.
+     *
+     * @param corpus the corpus
+     * @return the class loader
+     * @throws MalformedURLException if a path cannot be converted to a URL
+     */
+    static URLClassLoader classLoader(CorpusGenerator.Corpus corpus) throws MalformedURLException {
+        List<URL> urls = new ArrayList<>();
+        urls.add(corpus.classesDir().toUri().toURL());
+        for (Path entry : corpus.classpath()) {
+            urls.add(entry.toUri().toURL());
+        }
+        return new URLClassLoader(urls.toArray(URL[]::new));
+    }
+
+    /**
+     * Returns the names of the classes in a classes folder, excluding package and module descriptors.
+     *
+     * @param classesDir the classes folder
+     * @return the class names, sorted
+     * @throws IOException if an I/O error occurs
+     */
+    static List<String> classNames(Path classesDir) throws IOException {
+        try (Stream<Path> paths = Files.walk(classesDir)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .map(classesDir::relativize)
+                    .filter(f -> f.toString().endsWith(".class"))
+                    .map(TestUtil::getClassName)
+                    .filter(name -> !name.endsWith("package-info") && !name.endsWith("module-info"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Deletes a file or folder including its content.
+     *
+     * @param path the path to delete
+     * @throws IOException if an I/O error occurs
+     */
+    static void deleteRecursive(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(p);
+            }
+        }
+    }
+}
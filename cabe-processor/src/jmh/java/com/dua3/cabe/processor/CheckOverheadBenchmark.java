@@ -0,0 +1,231 @@
+package com.dua3.cabe.processor;
+
+import com.dua3.cabe.processor.subject.Operations;
+import com.dua3.cabe.processor.subject.handwritten.HandwrittenOperations;
+import com.dua3.cabe.processor.subject.impl.AnnotatedOperations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the runtime cost of the checks injected by Cabe after JIT compilation.
+ *
+ * <p>The classes in {@code com.dua3.cabe.processor.subject.impl} are instrumented with the configuration selected by
+ * the {@code checks} parameter and loaded by a separate class loader. Since every parameter combination runs in its
+ * own fork, each call site sees exactly one implementation of {@link Operations}. The results are compared with
+ * {@link HandwrittenOperations}, which uses {@code Objects.requireNonNull()}, and with the classes copied without
+ * checks.
+ *
+ * <p>The benchmarks run in two variants: {@link AssertionsDisabled} and {@link AssertionsEnabled}, which differ only
+ * in the {@code -da}/{@code -ea} flag of the forked JVM. The warmup is long enough for all measured methods to be
+ * compiled by C2. To compare Java versions, select the JVM using the {@code jmhJavaVersion} project property.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public abstract class CheckOverheadBenchmark {
+
+    private static final String IMPL_PACKAGE = AnnotatedOperations.class.getPackageName();
+
+    /**
+     * How the checks are done: {@code none} - no checks, {@code handwritten} - hand-written checks, or the name of the
+     * {@link Configuration.Check} used for all checks.
+     */
+    @Param({"none", "handwritten", "ASSERT", "ASSERT_ALWAYS", "THROW_NPE", "THROW_IAE"})
+    public String checks;
+
+    private Operations operations;
+
+    private String a = "Hello, ";
+    private String b = "World!";
+    private Object value = 42;
+    private int i;
+
+    /**
+     * Measures the benchmarks with assertions disabled.
+     */
+    @Fork(value = 1, jvmArgsAppend = "-da")
+    public static class AssertionsDisabled extends CheckOverheadBenchmark {
+        /**
+         * Constructs a new instance.
+         */
+        public AssertionsDisabled() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Measures the benchmarks with assertions enabled.
+     */
+    @Fork(value = 1, jvmArgsAppend = "-ea")
+    public static class AssertionsEnabled extends CheckOverheadBenchmark {
+        /**
+         * Constructs a new instance.
+         */
+        public AssertionsEnabled() {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Instruments and loads the implementation.
+     *
+     * @throws Exception if instrumenting or loading fails
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        if (checks.equals("handwritten")) {
+            operations = new HandwrittenOperations();
+            return;
+        }
+
+        Configuration.Check check = checks.equals("none")
+                ? Configuration.Check.NO_CHECK
+                : Configuration.Check.valueOf(checks);
+        Configuration configuration = new Configuration(check, check, check, false);
+
+        Path root = TestUtil.buildDir.resolve("jmh-check-overhead").resolve(checks);
+        Path inputDir = root.resolve("classes");
+        Path outputDir = root.resolve("classes-instrumented");
+        BenchmarkCorpus.deleteRecursive(root);
+
+        Path codeSource = Paths.get(AnnotatedOperations.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+        copyImplementationClasses(codeSource, inputDir);
+
+        List<Path> classpath = new ArrayList<>(List.of(BenchmarkCorpus.LIB_DIR));
+        classpath.add(codeSource);
+        new ClassPatcher(classpath, configuration).processFolder(inputDir, outputDir);
+
+        ClassLoader loader = new ImplementationClassLoader(outputDir, getClass().getClassLoader());
+        operations = (Operations) loader.loadClass(AnnotatedOperations.class.getName()).getConstructor().newInstance();
+    }
+
+    /**
+     * Copies the class files of the implementation package, which may be located in a folder or a JAR file.
+     */
+    private static void copyImplementationClasses(Path codeSource, Path target) throws IOException {
+        String packagePath = IMPL_PACKAGE.replace('.', '/');
+        if (Files.isDirectory(codeSource)) {
+            TestUtil.copyRecursive(codeSource.resolve(packagePath), target.resolve(packagePath));
+            return;
+        }
+        try (FileSystem fs = FileSystems.newFileSystem(URI.create("jar:" + codeSource.toUri()), Map.of());
+             Stream<Path> files = Files.walk(fs.getPath(packagePath))) {
+            for (Path file : files.filter(Files::isRegularFile).toList()) {
+                Path dest = target.resolve(file.toString().replaceFirst("^/", ""));
+                Files.createDirectories(dest.getParent());
+                Files.copy(file, dest);
+            }
+        }
+    }
+
+    /**
+     * Loads the classes of the implementation package from the instrumented class files and delegates all other
+     * classes, including {@link Operations}, to the parent.
+     */
+    private static final class ImplementationClassLoader extends ClassLoader {
+        private final Path classesDir;
+
+        ImplementationClassLoader(Path classesDir, ClassLoader parent) {
+            super(parent);
+            this.classesDir = classesDir;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(IMPL_PACKAGE + ".")) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> cls = findLoadedClass(name);
+                if (cls == null) {
+                    try {
+                        byte[] data = Files.readAllBytes(classesDir.resolve(name.replace('.', '/') + ".class"));
+                        cls = defineClass(name, data, 0, data.length);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(cls);
+                }
+                return cls;
+            }
+        }
+    }
+
+    /**
+     * A small method with a single parameter check.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public int smallMethod() {
+        return operations.length(a);
+    }
+
+    /**
+     * A method with two parameter checks and a return value check.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public String returnValue() {
+        return operations.concat(a, b);
+    }
+
+    /**
+     * Creating an instance of a class with checked constructor parameters.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Object constructor() {
+        return operations.create(a, value);
+    }
+
+    /**
+     * Creating a record instance with checked canonical constructor parameters.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public Object record() {
+        return operations.createRecord(a, value);
+    }
+
+    /**
+     * A checked method called through a megamorphic call site.
+     *
+     * @return the result
+     */
+    @Benchmark
+    public int megamorphic() {
+        return operations.dispatch(i++, a);
+    }
+}
@@ -0,0 +1,67 @@
+package com.dua3.cabe.processor;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A JMH profiler that reports the peak heap and metaspace usage of each iteration.
+ *
+ * <p>JMH's {@code gc} profiler reports the allocation rate, but not how much memory is retained at the same time,
+ * which is what limits the size of the inputs the processor can handle. Use it by passing
+ * {@code -prof com.dua3.cabe.processor.PeakMemoryProfiler} to JMH.
+ */
+public class PeakMemoryProfiler implements InternalProfiler {
+
+    private static final double MB = 1024.0 * 1024.0;
+
+    /**
+     * Constructs a new instance.
+     */
+    public PeakMemoryProfiler() {
+        // nothing to do
+    }
+
+    @Override
+    public String getDescription() {
+        return "Peak heap and metaspace usage per iteration";
+    }
+
+    @Override
+    public void beforeIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams) {
+        ManagementFactory.getMemoryPoolMXBeans().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration(BenchmarkParams benchmarkParams, IterationParams iterationParams,
+                                                       IterationResult result) {
+        long heap = 0;
+        long metaspace = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            MemoryUsage peak = pool.getPeakUsage();
+            if (peak == null) {
+                continue;
+            }
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += peak.getUsed();
+            } else if (pool.getName().equals("Metaspace")) {
+                metaspace = peak.getUsed();
+            }
+        }
+        return List.of(
+                new ScalarResult("peak.heap", heap / MB, "MB", AggregationPolicy.MAX),
+                new ScalarResult("peak.metaspace", metaspace / MB, "MB", AggregationPolicy.MAX)
+        );
+    }
+}
@@ -0,0 +1,255 @@
+package com.dua3.cabe.processor;
+
+import javassist.ClassPool;
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.NotFoundException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the phases of instrumenting a class on their own. Each benchmark method processes all classes or methods
+ * of the corpus once:
+ * <ul>
+ *     <li>{@link #classInfoForClass} - collecting the class metadata using reflection,
+ *     <li>{@link #getCtBehaviour} - looking up the Javassist method for each method,
+ *     <li>{@link #getCtBehaviourIndexed} - the same, using an index of the methods created once per class,
+ *     <li>{@link #generateCode} - generating the source code of the checks,
+ *     <li>{@link #insertBefore} and {@link #insertAfter} - compiling the checks into the methods.
+ * </ul>
+ * The insert benchmarks work on a fresh copy of the classes for every invocation, which is created outside the
+ * measured time.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PhaseBenchmark {
+
+    private static final Configuration.Check CHECK = Configuration.Check.THROW_NPE;
+
+    @Param({BenchmarkCorpus.TEST_SOURCES, BenchmarkCorpus.GENERATED})
+    public String corpus;
+
+    private Path classesDir;
+    private List<Path> classpath;
+    private URLClassLoader classLoader;
+    private final List<Class<?>> classes = new ArrayList<>();
+    private final List<ClassInfo> classInfos = new ArrayList<>();
+    private final List<MethodTarget> methods = new ArrayList<>();
+
+    /**
+     * A method to instrument, together with the checks to add.
+     *
+     * @param ctClass     the class in the shared class pool
+     * @param mi          the method
+     * @param checks      the parameter checks, may be empty
+     * @param checkReturn whether the return value is checked
+     */
+    record MethodTarget(CtClass ctClass, MethodInfo mi, List<CheckEmitter.ParameterCheck> checks, boolean checkReturn) {}
+
+    /**
+     * Loads the classes of the corpus.
+     *
+     * @throws Exception if the corpus cannot be compiled or loaded
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        CorpusGenerator.Corpus c = BenchmarkCorpus.get(corpus);
+        classesDir = c.classesDir();
+        classpath = c.classpath();
+        classLoader = BenchmarkCorpus.classLoader(c);
+
+        ClassPool classPool = createClassPool();
+        for (String className : BenchmarkCorpus.classNames(classesDir)) {
+            Class<?> cls = Class.forName(className, false, classLoader);
+            ClassInfo ci = ClassInfo.forClass(cls);
+            classes.add(cls);
+            classInfos.add(ci);
+
+            CtClass ctClass = classPool.get(className);
+            for (MethodInfo mi : ci.methods()) {
+                if (mi.isSynthetic() || mi.isAbstract() || mi.isNative()) {
+                    continue;
+                }
+                List<CheckEmitter.ParameterCheck> checks = new ArrayList<>();
+                for (ParameterInfo pi : mi.parameters()) {
+                    if (!mi.isCanonicalRecordConstructor() && pi.isSynthetic() || ParameterInfo.isPrimitive(pi.type())
+                            || (mi.isConstructor() && ci.isAnonymousClass())) {
+                        continue;
+                    }
+                    checks.add(new CheckEmitter.ParameterCheck(pi, pi.name(), CHECK));
+                }
+                methods.add(new MethodTarget(ctClass, mi, List.copyOf(checks), mi.isMethod() && !mi.hasPrimitiveReturnType()));
+            }
+        }
+    }
+
+    /**
+     * Closes the class loader.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        classLoader.close();
+    }
+
+    private ClassPool createClassPool() throws NotFoundException {
+        ClassPool classPool = new ClassPool(true);
+        classPool.appendClassPath(classesDir.toString());
+        for (Path entry : classpath) {
+            classPool.appendClassPath(entry.toString());
+        }
+        return classPool;
+    }
+
+    /**
+     * A fresh copy of the classes of the corpus with the generated check code, created for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class FreshClasses {
+        final List<CtBehavior> behaviors = new ArrayList<>();
+        final List<String> parameterCheckCode = new ArrayList<>();
+        final List<String> returnValueCheckCode = new ArrayList<>();
+
+        /**
+         * Parses the class files into a new class pool.
+         *
+         * @param benchmark the benchmark state
+         * @throws Exception if a class cannot be parsed
+         */
+        @Setup(Level.Invocation)
+        public void setUp(PhaseBenchmark benchmark) throws Exception {
+            behaviors.clear();
+            parameterCheckCode.clear();
+            returnValueCheckCode.clear();
+
+            ClassPool classPool = benchmark.createClassPool();
+            CtClass current = null;
+            for (MethodTarget m : benchmark.methods) {
+                if (current == null || !current.getName().equals(m.ctClass().getName())) {
+                    Path classFile = benchmark.classesDir.resolve(m.ctClass().getName().replace('.', '/') + ".class");
+                    current = classPool.makeClass(new ByteArrayInputStream(Files.readAllBytes(classFile)));
+                }
+                behaviors.add(ClassPatcher.getCtBehaviour(current, m.mi()));
+                parameterCheckCode.add(SourceCheckEmitter.getParameterCheckCode(m.checks(), null));
+                returnValueCheckCode.add(m.checkReturn() ? SourceCheckEmitter.getReturnValueCheckCode(CHECK, null) : "");
+            }
+        }
+    }
+
+    /**
+     * Collects the metadata of all classes using reflection.
+     *
+     * @param bh the blackhole
+     */
+    @Benchmark
+    public void classInfoForClass(Blackhole bh) {
+        for (Class<?> cls : classes) {
+            bh.consume(ClassInfo.forClass(cls));
+        }
+    }
+
+    /**
+     * Looks up the Javassist methods for all methods.
+     *
+     * @param bh the blackhole
+     * @throws NotFoundException if a method is not found
+     */
+    @Benchmark
+    public void getCtBehaviour(Blackhole bh) throws NotFoundException {
+        for (MethodTarget m : methods) {
+            bh.consume(ClassPatcher.getCtBehaviour(m.ctClass(), m.mi()));
+        }
+    }
+
+    /**
+     * Looks up the Javassist methods for all methods, using an index created once per class as done when processing.
+     *
+     * @param bh the blackhole
+     */
+    @Benchmark
+    public void getCtBehaviourIndexed(Blackhole bh) {
+        CtClass current = null;
+        Map<String, CtBehavior> behaviours = Map.of();
+        for (MethodTarget m : methods) {
+            if (m.ctClass() != current) {
+                current = m.ctClass();
+                behaviours = ClassPatcher.indexCtBehaviours(current);
+            }
+            bh.consume(ClassPatcher.getCtBehaviour(behaviours, m.mi()));
+        }
+    }
+
+    /**
+     * Generates the source code of the checks for all methods.
+     *
+     * @param bh the blackhole
+     */
+    @Benchmark
+    public void generateCode(Blackhole bh) {
+        for (MethodTarget m : methods) {
+            bh.consume(SourceCheckEmitter.getParameterCheckCode(m.checks(), null));
+            if (m.checkReturn()) {
+                bh.consume(SourceCheckEmitter.getReturnValueCheckCode(CHECK, null));
+            }
+        }
+    }
+
+    /**
+     * Compiles the parameter checks into all methods.
+     *
+     * @param fresh the fresh copy of the classes
+     * @throws Exception if compiling fails
+     */
+    @Benchmark
+    public void insertBefore(FreshClasses fresh) throws Exception {
+        for (int i = 0; i < fresh.behaviors.size(); i++) {
+            String code = fresh.parameterCheckCode.get(i);
+            if (!code.isEmpty()) {
+                fresh.behaviors.get(i).insertBefore(code);
+            }
+        }
+    }
+
+    /**
+     * Compiles the return value checks into all methods.
+     *
+     * @param fresh the fresh copy of the classes
+     * @throws Exception if compiling fails
+     */
+    @Benchmark
+    public void insertAfter(FreshClasses fresh) throws Exception {
+        for (int i = 0; i < fresh.behaviors.size(); i++) {
+            String code = fresh.returnValueCheckCode.get(i);
+            if (!code.isEmpty()) {
+                fresh.behaviors.get(i).insertAfter(code);
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.dua3.cabe.processor;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link ClassPatcher#processFolder(Path, Path)} end to end, including reading and writing the class files.
+ *
+ * <p>The primary result is the number of runs per second; the {@code classes} counter gives the number of class
+ * files processed per second. The output folder is deleted before each run, so that all class files are written.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessFolderBenchmark {
+
+    @Param({BenchmarkCorpus.TEST_SOURCES, BenchmarkCorpus.GENERATED})
+    public String corpus;
+
+    @Param({"reflection", "classfile"})
+    public String metadata;
+
+    @Param({"source", "bytecode"})
+    public String emitter;
+
+    @Param({"1"})
+    public int parallelism;
+
+    private Path inputDir;
+    private List<Path> classpath;
+    private Path outputDir;
+    private int classCount;
+    private ProcessingOptions options;
+
+    /**
+     * Counts the class files processed.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        /**
+         * The number of class files processed.
+         */
+        public long classes;
+    }
+
+    /**
+     * Compiles the corpus.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        CorpusGenerator.Corpus c = BenchmarkCorpus.get(corpus);
+        inputDir = c.classesDir();
+        outputDir = inputDir.resolveSibling("classes-processed");
+        classpath = c.classpath();
+        classCount = BenchmarkCorpus.classNames(inputDir).size();
+        options = ProcessingOptions.DEFAULT
+                .withParallelism(parallelism)
+                .withMetadata(ProcessingOptions.Metadata.valueOf(metadata.toUpperCase(Locale.ROOT)))
+                .withEmitter(ProcessingOptions.Emitter.valueOf(emitter.toUpperCase(Locale.ROOT)));
+    }
+
+    /**
+     * Deletes the output of the previous run.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @Setup(Level.Invocation)
+    public void clearOutput() throws IOException {
+        BenchmarkCorpus.deleteRecursive(outputDir);
+    }
+
+    /**
+     * Deletes the output of the last run.
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkCorpus.deleteRecursive(outputDir);
+    }
+
+    /**
+     * Processes the corpus.
+     *
+     * @param counters the counters
+     * @throws Exception if processing fails
+     */
+    @Benchmark
+    public void processFolder(Counters counters) throws Exception {
+        new ClassPatcher(classpath, Configuration.DEVELOPMENT, options).processFolder(inputDir, outputDir);
+        counters.classes += classCount;
+    }
+}
@@ -0,0 +1,53 @@
+package com.dua3.cabe.processor.subject;
+
+/**
+ * The operations measured by the {@code CheckOverheadBenchmark}.
+ *
+ * <p>The implementations differ only in how their arguments and results are checked for {@code null}.
+ */
+public interface Operations {
+
+    /**
+     * A small method that is inlined into its callers.
+     *
+     * @param s the string
+     * @return the length of the string
+     */
+    int length(String s);
+
+    /**
+     * A method that returns an object, so that the return value is checked as well.
+     *
+     * @param a the first string
+     * @param b the second string
+     * @return the concatenation of both strings
+     */
+    String concat(String a, String b);
+
+    /**
+     * Creates an instance of a class, so that the constructor parameters are checked.
+     *
+     * @param name  the name
+     * @param value the value
+     * @return the new instance
+     */
+    Object create(String name, Object value);
+
+    /**
+     * Creates an instance of a record, so that the parameters of the canonical constructor are checked.
+     *
+     * @param name  the name
+     * @param value the value
+     * @return the new record instance
+     */
+    Object createRecord(String name, Object value);
+
+    /**
+     * Calls a method through a call site that sees several receiver types.
+     *
+     * @param i the index used to select the receiver
+     * @param s the argument passed to the receiver
+     * @return the result of the call
+     */
+    int dispatch(int i, String s);
+}
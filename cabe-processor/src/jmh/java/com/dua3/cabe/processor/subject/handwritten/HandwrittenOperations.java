@@ -0,0 +1,139 @@
+package com.dua3.cabe.processor.subject.handwritten;
+
+import com.dua3.cabe.processor.subject.Operations;
+
+import java.util.Objects;
+
+/**
+ * Implements {@link Operations} using hand-written checks with {@link Objects#requireNonNull(Object, String)}. It
+ * checks the same arguments and results as the instrumented implementation.
+ */
+public class HandwrittenOperations implements Operations {
+
+    private final Shape[] shapes = {new Circle(), new Square(), new Triangle(), new Hexagon()};
+
+    /**
+     * Constructs a new instance.
+     */
+    public HandwrittenOperations() {
+        // nothing to do
+    }
+
+    @Override
+    public int length(String s) {
+        Objects.requireNonNull(s, "s is null");
+        return s.length();
+    }
+
+    @Override
+    public String concat(String a, String b) {
+        Objects.requireNonNull(a, "a is null");
+        Objects.requireNonNull(b, "b is null");
+        return Objects.requireNonNull(a.concat(b), "invalid null return value");
+    }
+
+    @Override
+    public Object create(String name, Object value) {
+        Objects.requireNonNull(name, "name is null");
+        Objects.requireNonNull(value, "value is null");
+        return Objects.requireNonNull(new Item(name, value), "invalid null return value");
+    }
+
+    @Override
+    public Object createRecord(String name, Object value) {
+        Objects.requireNonNull(name, "name is null");
+        Objects.requireNonNull(value, "value is null");
+        return Objects.requireNonNull(new ItemRecord(name, value), "invalid null return value");
+    }
+
+    @Override
+    public int dispatch(int i, String s) {
+        Objects.requireNonNull(s, "s is null");
+        return shapes[i & 3].apply(s);
+    }
+
+    /**
+     * A class with a checked constructor.
+     */
+    public static final class Item {
+        private final String name;
+        private final Object value;
+
+        /**
+         * Constructs a new instance.
+         *
+         * @param name  the name
+         * @param value the value
+         */
+        public Item(String name, Object value) {
+            this.name = Objects.requireNonNull(name, "name is null");
+            this.value = Objects.requireNonNull(value, "value is null");
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + value;
+        }
+    }
+
+    /**
+     * A record with a checked canonical constructor.
+     *
+     * @param name  the name
+     * @param value the value
+     */
+    public record ItemRecord(String name, Object value) {
+        /**
+         * Checks the components.
+         */
+        public ItemRecord {
+            Objects.requireNonNull(name, "name is null");
+            Objects.requireNonNull(value, "value is null");
+        }
+    }
+
+    /**
+     * The receiver type of the megamorphic call site.
+     */
+    public interface Shape {
+        /**
+         * Applies the shape to a string.
+         *
+         * @param s the string
+         * @return the result
+         */
+        int apply(String s);
+    }
+
+    static final class Circle implements Shape {
+        @Override
+        public int apply(String s) {
+            Objects.requireNonNull(s, "s is null");
+            return s.length();
+        }
+    }
+
+    static final class Square implements Shape {
+        @Override
+        public int apply(String s) {
+            Objects.requireNonNull(s, "s is null");
+            return s.length() * 2;
+        }
+    }
+
+    static final class Triangle implements Shape {
+        @Override
+        public int apply(String s) {
+            Objects.requireNonNull(s, "s is null");
+            return s.length() * 3;
+        }
+    }
+
+    static final class Hexagon implements Shape {
+        @Override
+        public int apply(String s) {
+            Objects.requireNonNull(s, "s is null");
+            return s.length() * 6;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.dua3.cabe.processor.subject.impl;
+
+import com.dua3.cabe.processor.subject.Operations;
+
+/**
+ * Implements {@link Operations} relying on the null checks injected by Cabe.
+ */
+public class AnnotatedOperations implements Operations {
+
+    private final Shape[] shapes = {new Circle(), new Square(), new Triangle(), new Hexagon()};
+
+    /**
+     * Constructs a new instance.
+     */
+    public AnnotatedOperations() {
+        // nothing to do
+    }
+
+    @Override
+    public int length(String s) {
+        return s.length();
+    }
+
+    @Override
+    public String concat(String a, String b) {
+        return a.concat(b);
+    }
+
+    @Override
+    public Object create(String name, Object value) {
+        return new Item(name, value);
+    }
+
+    @Override
+    public Object createRecord(String name, Object value) {
+        return new ItemRecord(name, value);
+    }
+
+    @Override
+    public int dispatch(int i, String s) {
+        return shapes[i & 3].apply(s);
+    }
+
+    /**
+     * A class with a checked constructor.
+     */
+    public static final class Item {
+        private final String name;
+        private final Object value;
+
+        /**
+         * Constructs a new instance.
+         *
+         * @param name  the name
+         * @param value the value
+         */
+        public Item(String name, Object value) {
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + value;
+        }
+    }
+
+    /**
+     * A record with a checked canonical constructor.
+     *
+     * @param name  the name
+     * @param value the value
+     */
+    public record ItemRecord(String name, Object value) {}
+
+    /**
+     * The receiver type of the megamorphic call site.
+     */
+    public interface Shape {
+        /**
+         * Applies the shape to a string.
+         *
+         * @param s the string
+         * @return the result
+         */
+        int apply(String s);
+    }
+
+    static final class Circle implements Shape {
+        @Override
+        public int apply(String s) {
+            return s.length();
+        }
+    }
+
+    static final class Square implements Shape {
+        @Override
+        public int apply(String s) {
+            return s.length() * 2;
+        }
+    }
+
+    static final class Triangle implements Shape {
+        @Override
+        public int apply(String s) {
+            return s.length() * 3;
+        }
+    }
+
+    static final class Hexagon implements Shape {
+        @Override
+        public int apply(String s) {
+            return s.length() * 6;
+        }
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Implementation of the benchmark operations without explicit checks. The benchmark instruments these classes with the
+ * configuration under test.
+ */
+@NullMarked
+package com.dua3.cabe.processor.subject.impl;
+
+import org.jspecify.annotations.NullMarked;
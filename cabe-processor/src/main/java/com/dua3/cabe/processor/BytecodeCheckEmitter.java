@@ -0,0 +1,197 @@
+package com.dua3.cabe.processor;
+
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.Bytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.Opcode;
+import org.jspecify.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CheckEmitter} that writes the bytecode for the checks directly.
+ *
+ * <p>In contrast to the {@link SourceCheckEmitter}, no source code is generated and the Javassist compiler is not
+ * involved. Parameter checks are inserted at the start of the method, return value checks directly before each
+ * {@code areturn} instruction. Afterwards, the stack map table of the method is rebuilt.
+ */
+final class BytecodeCheckEmitter implements CheckEmitter {
+    private static final Logger LOG = Logger.getLogger(BytecodeCheckEmitter.class.getName());
+
+    static final BytecodeCheckEmitter INSTANCE = new BytecodeCheckEmitter();
+
+    private static final String DESCRIPTOR_BOOLEAN = "Z";
+
+    private BytecodeCheckEmitter() {
+        // singleton
+    }
+
+    @Override
+    public void insertParameterChecks(CtBehavior ctBehavior, MethodInfo mi, List<ParameterCheck> checks,
+                                      @Nullable String assertionsDisabledFlagName) throws BadBytecode {
+        javassist.bytecode.MethodInfo methodInfo = ctBehavior.getMethodInfo();
+        CodeAttribute ca = methodInfo.getCodeAttribute();
+        if (ca == null || checks.isEmpty()) {
+            return;
+        }
+
+        Bytecode b = new Bytecode(methodInfo.getConstPool());
+
+        // standard assertions are grouped inside a single test of the assertion flag
+        List<ParameterCheck> assertions = checks.stream().filter(pc -> pc.check() == Configuration.Check.ASSERT).toList();
+        if (!assertions.isEmpty()) {
+            int skipAssertions = addAssertionsEnabledTest(b, assertionsDisabledFlagName);
+            for (ParameterCheck pc : assertions) {
+                addParameterCheck(b, mi, pc);
+            }
+            patchBranch(b, skipAssertions);
+        }
+        for (ParameterCheck pc : checks) {
+            if (pc.check() != Configuration.Check.ASSERT) {
+                addParameterCheck(b, mi, pc);
+            }
+        }
+
+        LOG.fine(() -> "injecting " + checks.size() + " parameter check(s) into: " + mi.name());
+
+        // aload, new, dup, ldc
+        ca.setMaxStack(Math.max(ca.getMaxStack(), 4));
+        ca.iterator().insertEx(b.get());
+
+        rebuildStackMap(ctBehavior);
+    }
+
+    @Override
+    public void insertReturnValueCheck(CtBehavior ctBehavior, MethodInfo mi, Configuration.Check check,
+                                       @Nullable String assertionsDisabledFlagName) throws BadBytecode {
+        javassist.bytecode.MethodInfo methodInfo = ctBehavior.getMethodInfo();
+        CodeAttribute ca = methodInfo.getCodeAttribute();
+        if (ca == null || check == Configuration.Check.NO_CHECK) {
+            return;
+        }
+
+        // collect the return instructions first, inserting code changes the positions of following instructions
+        List<Integer> returns = new ArrayList<>();
+        CodeIterator it = ca.iterator();
+        while (it.hasNext()) {
+            int pos = it.next();
+            if (it.byteAt(pos) == Opcode.ARETURN) {
+                returns.add(pos);
+            }
+        }
+
+        if (returns.isEmpty()) {
+            return;
+        }
+
+        // the return value is on top of the stack: [flag test] dup, ifnonnull, new, dup, ldc, invokespecial, athrow
+        Bytecode b = new Bytecode(methodInfo.getConstPool());
+        int skipAssertion = check == Configuration.Check.ASSERT ? addAssertionsEnabledTest(b, assertionsDisabledFlagName) : -1;
+        b.addOpcode(Opcode.DUP);
+        int skipThrow = addBranch(b, Opcode.IFNONNULL);
+        addThrow(b, check, "invalid null return value");
+        patchBranch(b, skipThrow);
+        if (skipAssertion >= 0) {
+            patchBranch(b, skipAssertion);
+        }
+        byte[] code = b.get();
+
+        LOG.fine(() -> "injecting return value check before " + returns.size() + " return instruction(s) in: " + mi.name());
+
+        // dup, new, dup, ldc on top of the return value
+        ca.setMaxStack(ca.getMaxStack() + 4);
+        for (int i = returns.size() - 1; i >= 0; i--) {
+            // insert inside the block so that jumps to the return instruction also execute the check
+            ca.iterator().insertAt(returns.get(i), code);
+        }
+
+        rebuildStackMap(ctBehavior);
+    }
+
+    /**
+     * Adds a test that skips the following code if assertions are disabled.
+     *
+     * @param b                          the bytecode to add to
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field
+     * @return the position of the branch instruction to be patched using {@link #patchBranch(Bytecode, int)}
+     */
+    private static int addAssertionsEnabledTest(Bytecode b, @Nullable String assertionsDisabledFlagName) {
+        Objects.requireNonNull(assertionsDisabledFlagName, "assertions disabled flag is required for assertions");
+        int idx = assertionsDisabledFlagName.lastIndexOf('.');
+        b.addGetstatic(assertionsDisabledFlagName.substring(0, idx), assertionsDisabledFlagName.substring(idx + 1), DESCRIPTOR_BOOLEAN);
+        return addBranch(b, Opcode.IFNE);
+    }
+
+    private static void addParameterCheck(Bytecode b, MethodInfo mi, ParameterCheck pc) {
+        b.addAload(getSlot(mi, pc.parameter()));
+        int skipThrow = addBranch(b, Opcode.IFNONNULL);
+        addThrow(b, pc.check(), pc.name() + " is null");
+        patchBranch(b, skipThrow);
+    }
+
+    /**
+     * Adds the code to create and throw the exception for a failed check.
+     *
+     * @param b       the bytecode to add to
+     * @param check   the check
+     * @param message the exception message
+     */
+    private static void addThrow(Bytecode b, Configuration.Check check, String message) {
+        String exceptionClass = switch (check) {
+            case ASSERT, ASSERT_ALWAYS -> "java.lang.AssertionError";
+            case THROW_NPE -> "java.lang.NullPointerException";
+            case THROW_IAE -> "java.lang.IllegalArgumentException";
+            case NO_CHECK -> throw new IllegalArgumentException("no code for " + check);
+        };
+        // AssertionError has no String constructor, the source emitter casts the message to Object
+        String constructorDescriptor = exceptionClass.equals("java.lang.AssertionError")
+                ? "(Ljava/lang/Object;)V"
+                : "(Ljava/lang/String;)V";
+
+        b.addNew(exceptionClass);
+        b.addOpcode(Opcode.DUP);
+        b.addLdc(message);
+        b.addInvokespecial(exceptionClass, javassist.bytecode.MethodInfo.nameInit, constructorDescriptor);
+        b.addOpcode(Opcode.ATHROW);
+    }
+
+    private static int addBranch(Bytecode b, int opcode) {
+        int pos = b.currentPc();
+        b.addOpcode(opcode);
+        b.addIndex(0);
+        return pos;
+    }
+
+    private static void patchBranch(Bytecode b, int branchPos) {
+        b.write16bit(branchPos + 1, b.currentPc() - branchPos);
+    }
+
+    /**
+     * Returns the local variable slot of a parameter.
+     *
+     * @param mi the method
+     * @param pi the parameter
+     * @return the local variable slot
+     */
+    static int getSlot(MethodInfo mi, ParameterInfo pi) {
+        int slot = mi.isStatic() ? 0 : 1;
+        for (ParameterInfo p : mi.parameters()) {
+            if (p.index() == pi.index()) {
+                return slot;
+            }
+            slot += ParameterInfo.getSlotSize(p.type());
+        }
+        throw new IllegalArgumentException("parameter not found: " + pi);
+    }
+
+    private static void rebuildStackMap(CtBehavior ctBehavior) throws BadBytecode {
+        CtClass ctClass = ctBehavior.getDeclaringClass();
+        ctBehavior.getMethodInfo().rebuildStackMapIf6(ctClass.getClassPool(), ctClass.getClassFile2());
+    }
+}
@@ -14,8 +14,13 @@ import java.util.logging.Logger;
  */
 public class CabeAttribute {
     private static final Logger LOG = Logger.getLogger(CabeAttribute.class.getName());
-    private static final String ATTRIBUTE_NAME = "CabeMeta";
+    /**
+     * The name of the attribute.
+     */
+    static final String ATTRIBUTE_NAME = "CabeMeta";
     private static final String SET_PROCESSOR_VERSION = "processorVersion=";
+    private static final String SET_CONFIGURATION = "configuration=";
+    private static final String SEPARATOR = ";";
 
     private CabeAttribute() { /* utility class constructor */ }
 
@@ -26,8 +31,20 @@ public class CabeAttribute {
      * @param processorVersion the processor version to include in the attribute
      */
     public static void addToClass(CtClass ctClass, String processorVersion) {
+        addToClass(ctClass, processorVersion, null);
+    }
+
+    /**
+     * Adds the CabeMeta attribute to a class file.
+     *
+     * @param ctClass          the class to add the attribute to
+     * @param processorVersion the processor version to include in the attribute
+     * @param configuration    the fingerprint of the configuration used to instrument the class, or {@code null}
+     */
+    public static void addToClass(CtClass ctClass, String processorVersion, @Nullable String configuration) {
         ClassFile classFile = ctClass.getClassFile();
-        String attributeValue = SET_PROCESSOR_VERSION + processorVersion;
+        String attributeValue = SET_PROCESSOR_VERSION + processorVersion
+                + (configuration == null ? "" : SEPARATOR + SET_CONFIGURATION + configuration);
         byte[] data = attributeValue.getBytes(StandardCharsets.UTF_8);
         AttributeInfo attribute = new AttributeInfo(classFile.getConstPool(), ATTRIBUTE_NAME, data);
         classFile.addAttribute(attribute);
@@ -41,7 +58,16 @@ public class CabeAttribute {
      * @return true if the class has the CabeMeta attribute, false otherwise
      */
     public static boolean hasAttribute(CtClass ctClass) {
-        ClassFile classFile = ctClass.getClassFile();
+        return hasAttribute(ctClass.getClassFile());
+    }
+
+    /**
+     * Checks if a class file already has the CabeMeta attribute.
+     *
+     * @param classFile the class file to check
+     * @return true if the class file has the CabeMeta attribute, false otherwise
+     */
+    public static boolean hasAttribute(ClassFile classFile) {
         return classFile.getAttribute(ATTRIBUTE_NAME) != null;
     }
 
@@ -52,15 +78,31 @@ public class CabeAttribute {
      * @return the processor version, or null if the attribute is not present or does not contain a valid processor version
      */
     public static @Nullable String getProcessorVersion(CtClass ctClass) {
-        ClassFile classFile = ctClass.getClassFile();
+        return getValue(ctClass.getClassFile(), SET_PROCESSOR_VERSION);
+    }
+
+    /**
+     * Gets the configuration fingerprint from the CabeMeta attribute of a class file.
+     *
+     * @param ctClass the class to get the configuration fingerprint from
+     * @return the configuration fingerprint, or null if the attribute is not present or does not contain a
+     *         configuration fingerprint, as is the case for classes processed by older processor versions
+     */
+    public static @Nullable String getConfiguration(CtClass ctClass) {
+        return getValue(ctClass.getClassFile(), SET_CONFIGURATION);
+    }
+
+    private static @Nullable String getValue(ClassFile classFile, String key) {
         AttributeInfo attribute = classFile.getAttribute(ATTRIBUTE_NAME);
         if (attribute == null) {
             return null;
         }
 
         String attributeValue = new String(attribute.get(), StandardCharsets.UTF_8);
-        if (attributeValue.startsWith(SET_PROCESSOR_VERSION)) {
-            return attributeValue.substring(SET_PROCESSOR_VERSION.length());
+        for (String part : attributeValue.split(SEPARATOR)) {
+            if (part.startsWith(key)) {
+                return part.substring(key.length());
+            }
         }
         return null;
     }
@@ -0,0 +1,67 @@
+package com.dua3.cabe.processor;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import javassist.bytecode.BadBytecode;
+import org.jspecify.annotations.Nullable;
+
+import java.util.List;
+
+/**
+ * A backend that inserts null checks into the bytecode of a method or constructor.
+ *
+ * <p>The {@link ClassPatcher} decides which checks are needed; the emitter only generates the code for them. All
+ * emitters produce checks with the same behavior, the generated bytecode may differ.
+ */
+interface CheckEmitter {
+
+    /**
+     * A null check for a method parameter.
+     *
+     * @param parameter the parameter to check
+     * @param name      the parameter name used in the exception message
+     * @param check     the kind of check to generate, never {@link Configuration.Check#NO_CHECK}
+     */
+    record ParameterCheck(ParameterInfo parameter, String name, Configuration.Check check) {}
+
+    /**
+     * Returns the emitter for the given {@link ProcessingOptions.Emitter}.
+     *
+     * @param emitter the emitter type
+     * @return the emitter instance
+     */
+    static CheckEmitter of(ProcessingOptions.Emitter emitter) {
+        return switch (emitter) {
+            case SOURCE -> SourceCheckEmitter.INSTANCE;
+            case BYTECODE -> BytecodeCheckEmitter.INSTANCE;
+        };
+    }
+
+    /**
+     * Inserts parameter checks at the start of a method or constructor.
+     *
+     * @param ctBehavior                 the method or constructor to instrument
+     * @param mi                         the {@link MethodInfo} of the method
+     * @param checks                     the checks to insert, in parameter order
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field; must be
+     *                                   present if any of the checks is {@link Configuration.Check#ASSERT}
+     * @throws CannotCompileException if the checks cannot be compiled
+     * @throws BadBytecode            if the method bytecode cannot be modified
+     */
+    void insertParameterChecks(CtBehavior ctBehavior, MethodInfo mi, List<ParameterCheck> checks,
+                               @Nullable String assertionsDisabledFlagName) throws CannotCompileException, BadBytecode;
+
+    /**
+     * Inserts a check of the return value before every return from a method.
+     *
+     * @param ctBehavior                 the method to instrument
+     * @param mi                         the {@link MethodInfo} of the method
+     * @param check                      the kind of check to generate, never {@link Configuration.Check#NO_CHECK}
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field; must be
+     *                                   present if the check is {@link Configuration.Check#ASSERT}
+     * @throws CannotCompileException if the check cannot be compiled
+     * @throws BadBytecode            if the method bytecode cannot be modified
+     */
+    void insertReturnValueCheck(CtBehavior ctBehavior, MethodInfo mi, Configuration.Check check,
+                                @Nullable String assertionsDisabledFlagName) throws CannotCompileException, BadBytecode;
+}
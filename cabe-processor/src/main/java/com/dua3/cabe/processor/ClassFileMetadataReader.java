@@ -0,0 +1,753 @@
+package com.dua3.cabe.processor;
+
+import javassist.bytecode.AnnotationsAttribute;
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.EnclosingMethodAttribute;
+import javassist.bytecode.InnerClassesAttribute;
+import javassist.bytecode.SignatureAttribute;
+import javassist.bytecode.TypeAnnotationsAttribute;
+import javassist.bytecode.annotation.Annotation;
+import org.jspecify.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.ModuleReference;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the metadata needed for instrumenting directly from class files.
+ *
+ * <p>This is the counterpart of reading the metadata through reflection: no classes are loaded or linked, so neither
+ * the classes to be processed nor their supertypes or annotation types have to be resolvable. Other class files that
+ * are needed to answer questions about the class being processed (superclasses, enclosing classes,
+ * {@code package-info} and {@code module-info} classes) are read as resources from the classpath and only the
+ * information actually needed is kept.
+ *
+ * <p>The results are the same as those obtained through reflection. Instances are thread-safe.
+ */
+final class ClassFileMetadataReader {
+    private static final Logger LOG = Logger.getLogger(ClassFileMetadataReader.class.getName());
+
+    private static final String ASSERTIONS_DISABLED = "$assertionsDisabled";
+    private static final String JAVA_LANG_OBJECT = "java.lang.Object";
+
+    // flags used in the MethodParameters attribute
+    private static final int PARAMETER_SYNTHETIC = 0x1000;
+    private static final int PARAMETER_MANDATED = 0x8000;
+
+    // type annotation targets (JVMS 4.7.20)
+    static final int TARGET_CLASS_TYPE_PARAMETER_BOUND = 0x11;
+    static final int TARGET_METHOD_TYPE_PARAMETER_BOUND = 0x12;
+    static final int TARGET_METHOD_RETURN = 0x14;
+    static final int TARGET_METHOD_FORMAL_PARAMETER = 0x16;
+
+    /**
+     * A type annotation read from a {@code RuntimeVisibleTypeAnnotations} or {@code RuntimeInvisibleTypeAnnotations}
+     * attribute.
+     *
+     * @param target         the target type
+     * @param index          the formal parameter or type parameter index, depending on the target type
+     * @param boundIndex     the bound index for type parameter bound targets
+     * @param innerTypeDepth the number of steps into nested types if the type path consists of nested type steps
+     *                       only, {@code -1} otherwise
+     * @param typeName       the name of the annotation type
+     */
+    record TypeAnnotation(int target, int index, int boundIndex, int innerTypeDepth, String typeName) {}
+
+    /**
+     * An entry of the {@code InnerClasses} attribute.
+     *
+     * @param inner the name of the nested class
+     * @param outer the name of the class declaring the nested class as member, {@code null} for local and anonymous
+     *              classes
+     * @param simpleName the simple name, {@code null} for anonymous classes
+     * @param flags the access flags of the nested class
+     */
+    record InnerClassEntry(String inner, @Nullable String outer, @Nullable String simpleName, int flags) {}
+
+    /**
+     * The information about a class that is needed when processing other classes.
+     *
+     * @param name                       the class name
+     * @param superName                  the superclass name, {@code null} for {@code java.lang.Object}
+     * @param modifiers                  the modifiers as reported by {@link Class#getModifiers()}
+     * @param hasAssertionsDisabledField {@code true}, if the class declares the field {@code $assertionsDisabled}
+     * @param innerClasses               the entries of the {@code InnerClasses} attribute
+     * @param enclosingClass             the enclosing class of a local or anonymous class, {@code null} otherwise
+     */
+    record ClassFacts(String name, @Nullable String superName, int modifiers, boolean hasAssertionsDisabledField,
+                      List<InnerClassEntry> innerClasses, @Nullable String enclosingClass) {
+
+        /**
+         * Creates the {@code ClassFacts} for a class file.
+         *
+         * @param cf the class file
+         * @return the facts about the class
+         */
+        static ClassFacts of(ClassFile cf) {
+            String name = cf.getName();
+
+            List<InnerClassEntry> innerClasses = new ArrayList<>();
+            InnerClassesAttribute ica = (InnerClassesAttribute) cf.getAttribute(InnerClassesAttribute.tag);
+            if (ica != null) {
+                for (int i = 0; i < ica.tableLength(); i++) {
+                    innerClasses.add(new InnerClassEntry(ica.innerClass(i), ica.outerClass(i), ica.innerName(i), ica.accessFlags(i)));
+                }
+            }
+
+            // like Class.getModifiers(), use the flags from the InnerClasses attribute for nested classes
+            int modifiers = innerClasses.stream()
+                    .filter(e -> e.inner().equals(name))
+                    .mapToInt(InnerClassEntry::flags)
+                    .findFirst()
+                    .orElse(cf.getAccessFlags());
+
+            EnclosingMethodAttribute ema = (EnclosingMethodAttribute) cf.getAttribute(EnclosingMethodAttribute.tag);
+
+            return new ClassFacts(
+                    name,
+                    name.equals(JAVA_LANG_OBJECT) ? null : cf.getSuperclass(),
+                    modifiers,
+                    cf.getFields().stream().anyMatch(f -> f.getName().equals(ASSERTIONS_DISABLED)),
+                    Collections.unmodifiableList(innerClasses),
+                    ema == null ? null : ema.className()
+            );
+        }
+
+        /**
+         * Returns the {@code InnerClasses} entry describing a class.
+         *
+         * @param className the class name
+         * @return the entry, or {@code null} if there is none
+         */
+        @Nullable InnerClassEntry innerClassEntry(String className) {
+            for (InnerClassEntry e : innerClasses) {
+                if (e.inner().equals(className)) {
+                    return e;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final ClasspathIndex resources;
+    private final Map<String, Path> packageToModulePath;
+    private final Map<String, Optional<ClassFacts>> facts = new ConcurrentHashMap<>();
+    private final Map<String, NullnessOperator> packageNullness = new ConcurrentHashMap<>();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param index the index of the classpath used to look up other class files, including the folder being
+     *              processed; the index is not closed by this instance
+     */
+    ClassFileMetadataReader(ClasspathIndex index) {
+        this.resources = index;
+
+        Map<String, Path> modulePaths = new HashMap<>();
+        try {
+            for (ModuleReference mr : index.getModuleFinder().findAll()) {
+                Path path = mr.location().map(Paths::get).orElse(null);
+                if (path != null) {
+                    mr.descriptor().packages().forEach(pkg -> modulePaths.putIfAbsent(pkg, path));
+                }
+            }
+        } catch (RuntimeException e) {
+            LOG.log(Level.WARNING, e, () -> "could not determine modules on the classpath");
+        }
+        this.packageToModulePath = modulePaths;
+    }
+
+    /**
+     * Reads the facts about a class before any class files are written.
+     *
+     * <p>When processing in place, call this method for all classes before processing so that the results do not
+     * depend on whether another class has already been instrumented.
+     *
+     * @param className the class name
+     */
+    void preload(String className) {
+        getFacts(className);
+    }
+
+    /**
+     * Returns the facts about the class contained in a class file.
+     *
+     * @param cf the class file
+     * @return the class facts
+     */
+    ClassFacts getFacts(ClassFile cf) {
+        // the class may have been looked up on the classpath before and cached as not found
+        return facts.compute(cf.getName(), (name, cached) -> cached != null && cached.isPresent() ? cached : Optional.of(ClassFacts.of(cf)))
+                .orElseThrow();
+    }
+
+    /**
+     * Returns the facts about a class.
+     *
+     * @param className the class name
+     * @return the class facts, or an empty {@link Optional} if the class file cannot be found or read
+     */
+    Optional<ClassFacts> getFacts(String className) {
+        return facts.computeIfAbsent(className, name -> Optional.ofNullable(readClassFile(name)).map(ClassFacts::of));
+    }
+
+    /**
+     * Reads a class file from the classpath.
+     *
+     * @param className the class name
+     * @return the class file, or {@code null} if the class file cannot be found or read
+     */
+    @Nullable ClassFile readClassFile(String className) {
+        String resourceName = className.replace('.', '/') + ".class";
+        try (InputStream in = resources.openResource(resourceName)) {
+            if (in == null) {
+                LOG.fine(() -> "class file not found: " + resourceName);
+                return null;
+            }
+            return new ClassFile(new DataInputStream(in));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e, () -> "could not read class file: " + resourceName);
+            return null;
+        }
+    }
+
+    /**
+     * Determines the {@link NullnessOperator} for a class, taking into account the annotations of the class, its
+     * package, and its module.
+     *
+     * @param cf the class file
+     * @return the nullness operator
+     */
+    NullnessOperator getClassNullnessOperator(ClassFile cf) {
+        NullnessOperator classNullness = Util.getNullnessOperator(getAnnotationNames(
+                cf.getAttribute(AnnotationsAttribute.visibleTag),
+                cf.getAttribute(AnnotationsAttribute.invisibleTag)
+        ));
+        return classNullness.combineWithParent(() -> getPackageNullnessOperator(getPackageName(cf.getName())));
+    }
+
+    /**
+     * Determines the {@link NullnessOperator} for a package, taking into account the annotations of the package and
+     * its module. The result is cached.
+     *
+     * @param packageName the package name
+     * @return the nullness operator
+     */
+    NullnessOperator getPackageNullnessOperator(String packageName) {
+        return packageNullness.computeIfAbsent(packageName, pkg -> {
+            NullnessOperator nullness = NullnessOperator.NO_CHANGE;
+            if (!pkg.isEmpty()) {
+                ClassFile packageInfo = readClassFile(pkg + ".package-info");
+                if (packageInfo != null) {
+                    nullness = Util.getNullnessOperator(getAnnotationNames(
+                            packageInfo.getAttribute(AnnotationsAttribute.visibleTag),
+                            packageInfo.getAttribute(AnnotationsAttribute.invisibleTag)
+                    ));
+                }
+            }
+            return nullness.combineWithParent(() -> Optional.ofNullable(packageToModulePath.get(pkg))
+                    .map(resources::getModuleNullnessOperator)
+                    .orElse(NullnessOperator.NO_CHANGE));
+        });
+    }
+
+    private static String getPackageName(String className) {
+        int idx = className.lastIndexOf('.');
+        return idx < 0 ? "" : className.substring(0, idx);
+    }
+
+    /**
+     * Checks if any of the superclasses of a class is public. See {@link Util#hasPublicApiAncestor(Class)}.
+     *
+     * @param facts the class facts
+     * @return {@code true}, if a superclass other than {@code java.lang.Object} is public
+     */
+    boolean hasPublicApiAncestor(ClassFacts facts) {
+        for (String superName = facts.superName(); superName != null && !superName.equals(JAVA_LANG_OBJECT); ) {
+            Optional<ClassFacts> superFacts = getFacts(superName);
+            if (superFacts.isEmpty()) {
+                String name = superName;
+                LOG.fine(() -> "superclass not found, assuming it is not public: " + name);
+                return false;
+            }
+            if ((superFacts.get().modifiers() & java.lang.reflect.Modifier.PUBLIC) != 0) {
+                return true;
+            }
+            superName = superFacts.get().superName();
+        }
+        return false;
+    }
+
+    /**
+     * Returns the name of the assertion flag field to use for a class. See {@link Util#getAssertionsDisabledFlagName(Class)}.
+     *
+     * @param facts the class facts
+     * @return the fully qualified name of the assertion flag field, or {@code null} if not found
+     */
+    @Nullable String getAssertionsDisabledFlagName(ClassFacts facts) {
+        for (ClassFacts current = facts; current != null; ) {
+            // does the current class or one of its member classes contain the flag?
+            if (current.hasAssertionsDisabledField()) {
+                return current.name() + "." + ASSERTIONS_DISABLED;
+            }
+            for (InnerClassEntry e : current.innerClasses()) {
+                if (current.name().equals(e.outer()) && e.simpleName() != null
+                        && getFacts(e.inner()).map(ClassFacts::hasAssertionsDisabledField).orElse(false)) {
+                    return e.inner() + "." + ASSERTIONS_DISABLED;
+                }
+            }
+
+            // continue with the declaring class
+            InnerClassEntry self = current.innerClassEntry(current.name());
+            current = self == null || self.outer() == null ? null : getFacts(self.outer()).orElse(null);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of nested type steps in the type path of annotations on a type.
+     *
+     * <p>Annotations on a nested type are located one step deeper for each enclosing class of which the nested type
+     * is an inner (non-static) class, as is done by reflection.
+     *
+     * @param className the name of the annotated type
+     * @param context   the facts of the class containing the annotation, used to look up nested classes
+     * @return the expected type path depth
+     */
+    int getInnerTypeDepth(String className, ClassFacts context) {
+        int depth = 0;
+        String name = className;
+        for (int i = 0; i < 256 && name != null; i++) {
+            String n = name;
+            InnerClassEntry e = context.innerClassEntry(n);
+            if (e == null) {
+                e = getFacts(n).map(f -> f.innerClassEntry(n)).orElse(null);
+            }
+            if (e == null) {
+                break;
+            }
+
+            String enclosing = e.outer() != null
+                    ? e.outer()
+                    : getFacts(n).map(ClassFacts::enclosingClass).orElse(null);
+            if (enclosing == null) {
+                break;
+            }
+            if ((e.flags() & java.lang.reflect.Modifier.STATIC) == 0) {
+                depth++;
+            }
+            name = enclosing;
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the number of nested type steps for annotations on a type given by its descriptor.
+     *
+     * @param descriptor the field descriptor of the type
+     * @param context    the facts of the class containing the annotation
+     * @return the expected type path depth
+     */
+    int getInnerTypeDepthForDescriptor(String descriptor, ClassFacts context) {
+        return descriptor.startsWith("L")
+                ? getInnerTypeDepth(descriptor.substring(1, descriptor.length() - 1).replace('/', '.'), context)
+                : 0;
+    }
+
+    /**
+     * Returns the number of nested type steps for annotations on a type given by its generic signature.
+     *
+     * @param type    the type
+     * @param context the facts of the class containing the annotation
+     * @return the expected type path depth
+     */
+    int getInnerTypeDepthForSignature(SignatureAttribute.ObjectType type, ClassFacts context) {
+        return type instanceof SignatureAttribute.ClassType ct
+                ? getInnerTypeDepth(getBinaryName(ct), context)
+                : 0;
+    }
+
+    private static String getBinaryName(SignatureAttribute.ClassType ct) {
+        SignatureAttribute.ClassType declaring = ct.getDeclaringClass();
+        return declaring == null ? ct.getName() : getBinaryName(declaring) + "$" + ct.getName();
+    }
+
+    /**
+     * Determines the {@link NullnessOperator} derived from the annotations on the bounds of a type variable.
+     *
+     * <p>The type variable is looked up in the method, the class, and the enclosing methods and classes, in that
+     * order.
+     *
+     * @param name   the name of the type variable
+     * @param cf     the class file declaring the method
+     * @param method the method where the type variable is used, or {@code null}
+     * @return the nullness operator derived from the bounds' annotations
+     */
+    NullnessOperator getTypeVariableNullnessOperator(String name, ClassFile cf, javassist.bytecode.@Nullable MethodInfo method) {
+        ClassFile currentClass = cf;
+        javassist.bytecode.MethodInfo currentMethod = method;
+        for (int i = 0; i < 256 && currentClass != null; i++) {
+            ClassFacts currentFacts = getFacts(currentClass);
+
+            if (currentMethod != null) {
+                SignatureAttribute.TypeParameter[] typeParameters = getMethodTypeParameters(currentMethod);
+                for (int j = 0; j < typeParameters.length; j++) {
+                    if (typeParameters[j].getName().equals(name)) {
+                        return getBoundsNullnessOperator(typeParameters[j], j, TARGET_METHOD_TYPE_PARAMETER_BOUND,
+                                getTypeAnnotations(currentMethod.getAttribute(TypeAnnotationsAttribute.visibleTag),
+                                        currentMethod.getAttribute(TypeAnnotationsAttribute.invisibleTag)),
+                                currentFacts);
+                    }
+                }
+            }
+
+            SignatureAttribute.TypeParameter[] typeParameters = getClassTypeParameters(currentClass);
+            for (int j = 0; j < typeParameters.length; j++) {
+                if (typeParameters[j].getName().equals(name)) {
+                    return getBoundsNullnessOperator(typeParameters[j], j, TARGET_CLASS_TYPE_PARAMETER_BOUND,
+                            getTypeAnnotations(currentClass.getAttribute(TypeAnnotationsAttribute.visibleTag),
+                                    currentClass.getAttribute(TypeAnnotationsAttribute.invisibleTag)),
+                            currentFacts);
+                }
+            }
+
+            // continue with the enclosing method and class
+            EnclosingMethodAttribute ema = (EnclosingMethodAttribute) currentClass.getAttribute(EnclosingMethodAttribute.tag);
+            InnerClassEntry self = currentFacts.innerClassEntry(currentFacts.name());
+            String enclosingClassName;
+            String enclosingMethodName = null;
+            String enclosingMethodDescriptor = null;
+            if (ema != null) {
+                enclosingClassName = ema.className();
+                if (ema.methodIndex() != 0) {
+                    enclosingMethodName = ema.methodName();
+                    enclosingMethodDescriptor = ema.methodDescriptor();
+                }
+            } else {
+                enclosingClassName = self == null ? null : self.outer();
+            }
+
+            currentClass = enclosingClassName == null ? null : readClassFile(enclosingClassName);
+            currentMethod = null;
+            if (currentClass != null && enclosingMethodName != null) {
+                for (javassist.bytecode.MethodInfo m : currentClass.getMethods()) {
+                    if (m.getName().equals(enclosingMethodName) && m.getDescriptor().equals(enclosingMethodDescriptor)) {
+                        currentMethod = m;
+                        break;
+                    }
+                }
+            }
+        }
+
+        LOG.fine(() -> "declaration of type variable not found: " + name);
+        return NullnessOperator.NO_CHANGE;
+    }
+
+    private NullnessOperator getBoundsNullnessOperator(SignatureAttribute.TypeParameter typeParameter, int index, int target,
+                                                       List<TypeAnnotation> typeAnnotations, ClassFacts context) {
+        // bound index 0 is reserved for the class bound, even if there is none
+        List<SignatureAttribute.ObjectType> bounds = new ArrayList<>();
+        bounds.add(typeParameter.getClassBound());
+        bounds.addAll(Arrays.asList(typeParameter.getInterfaceBound()));
+
+        List<String> annotationNames = new ArrayList<>();
+        for (int k = 0; k < bounds.size(); k++) {
+            SignatureAttribute.ObjectType bound = bounds.get(k);
+            if (bound != null) {
+                int depth = getInnerTypeDepthForSignature(bound, context);
+                for (TypeAnnotation ta : typeAnnotations) {
+                    if (ta.target() == target && ta.index() == index && ta.boundIndex() == k && ta.innerTypeDepth() == depth) {
+                        annotationNames.add(ta.typeName());
+                    }
+                }
+            }
+        }
+        return Util.getNullnessOperator(annotationNames);
+    }
+
+    private static SignatureAttribute.TypeParameter[] getMethodTypeParameters(javassist.bytecode.MethodInfo method) {
+        SignatureAttribute.MethodSignature signature = getMethodSignature(method);
+        return signature == null ? new SignatureAttribute.TypeParameter[0] : signature.getTypeParameters();
+    }
+
+    private static SignatureAttribute.TypeParameter[] getClassTypeParameters(ClassFile cf) {
+        SignatureAttribute sa = (SignatureAttribute) cf.getAttribute(SignatureAttribute.tag);
+        if (sa == null) {
+            return new SignatureAttribute.TypeParameter[0];
+        }
+        try {
+            return SignatureAttribute.toClassSignature(sa.getSignature()).getParameters();
+        } catch (BadBytecode e) {
+            LOG.log(Level.WARNING, e, () -> "invalid class signature in " + cf.getName());
+            return new SignatureAttribute.TypeParameter[0];
+        }
+    }
+
+    /**
+     * Returns the generic signature of a method.
+     *
+     * @param method the method
+     * @return the method signature, or {@code null} if the method has no or an invalid {@code Signature} attribute
+     */
+    static SignatureAttribute.@Nullable MethodSignature getMethodSignature(javassist.bytecode.MethodInfo method) {
+        SignatureAttribute sa = (SignatureAttribute) method.getAttribute(SignatureAttribute.tag);
+        if (sa == null) {
+            return null;
+        }
+        try {
+            return SignatureAttribute.toMethodSignature(sa.getSignature());
+        } catch (BadBytecode e) {
+            LOG.log(Level.WARNING, e, () -> "invalid method signature for " + method.getName());
+            return null;
+        }
+    }
+
+    /**
+     * Returns the names of the annotation types contained in annotation attributes.
+     *
+     * @param attributes the {@code RuntimeVisibleAnnotations} and {@code RuntimeInvisibleAnnotations} attributes,
+     *                   elements may be {@code null}
+     * @return the annotation type names
+     */
+    static List<String> getAnnotationNames(@Nullable AttributeInfo... attributes) {
+        List<String> names = new ArrayList<>();
+        for (AttributeInfo attribute : attributes) {
+            if (attribute instanceof AnnotationsAttribute aa) {
+                for (Annotation a : aa.getAnnotations()) {
+                    names.add(a.getTypeName());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Parses type annotation attributes.
+     *
+     * @param attributes the {@code RuntimeVisibleTypeAnnotations} and {@code RuntimeInvisibleTypeAnnotations}
+     *                   attributes, elements may be {@code null}
+     * @return the type annotations
+     */
+    static List<TypeAnnotation> getTypeAnnotations(@Nullable AttributeInfo... attributes) {
+        List<TypeAnnotation> typeAnnotations = new ArrayList<>();
+        for (AttributeInfo attribute : attributes) {
+            if (attribute != null) {
+                new TypeAnnotationParser(attribute.get(), attribute.getConstPool()).parse(typeAnnotations);
+            }
+        }
+        return typeAnnotations;
+    }
+
+    /**
+     * Returns the names of the annotation types of the type annotations matching the given criteria.
+     *
+     * @param typeAnnotations the type annotations
+     * @param target          the target type
+     * @param index           the formal parameter index, ignored for targets that do not use an index
+     * @param innerTypeDepth  the expected type path depth
+     * @return the names of the matching annotation types
+     */
+    static List<String> getTypeAnnotationNames(List<TypeAnnotation> typeAnnotations, int target, int index, int innerTypeDepth) {
+        List<String> names = new ArrayList<>();
+        for (TypeAnnotation ta : typeAnnotations) {
+            if (ta.target() == target && ta.index() == index && ta.innerTypeDepth() == innerTypeDepth) {
+                names.add(ta.typeName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Splits a method descriptor into the field descriptors of its parameters.
+     *
+     * @param methodDescriptor the method descriptor
+     * @return list of the parameter descriptors
+     */
+    static List<String> getParameterDescriptors(String methodDescriptor) {
+        List<String> parameters = new ArrayList<>();
+        int pos = 1;
+        while (methodDescriptor.charAt(pos) != ')') {
+            int start = pos;
+            while (methodDescriptor.charAt(pos) == '[') {
+                pos++;
+            }
+            if (methodDescriptor.charAt(pos) == 'L') {
+                pos = methodDescriptor.indexOf(';', pos);
+            }
+            pos++;
+            parameters.add(methodDescriptor.substring(start, pos));
+        }
+        return parameters;
+    }
+
+    /**
+     * Returns the return type descriptor of a method descriptor.
+     *
+     * @param methodDescriptor the method descriptor
+     * @return the return type descriptor
+     */
+    static String getReturnDescriptor(String methodDescriptor) {
+        return methodDescriptor.substring(methodDescriptor.indexOf(')') + 1);
+    }
+
+    /**
+     * Converts a field descriptor to a type name as returned by {@link Class#getTypeName()}.
+     *
+     * @param descriptor the field descriptor
+     * @return the type name
+     */
+    static String getTypeName(String descriptor) {
+        int dimensions = 0;
+        while (descriptor.charAt(dimensions) == '[') {
+            dimensions++;
+        }
+        String elementType = switch (descriptor.charAt(dimensions)) {
+            case 'B' -> "byte";
+            case 'C' -> "char";
+            case 'D' -> "double";
+            case 'F' -> "float";
+            case 'I' -> "int";
+            case 'J' -> "long";
+            case 'S' -> "short";
+            case 'Z' -> "boolean";
+            case 'V' -> "void";
+            case 'L' -> descriptor.substring(dimensions + 1, descriptor.length() - 1).replace('/', '.');
+            default -> throw new IllegalArgumentException("invalid descriptor: " + descriptor);
+        };
+        return elementType + "[]".repeat(dimensions);
+    }
+
+    /**
+     * Checks whether a MethodParameters flag marks a parameter as synthetic.
+     *
+     * @param flags the parameter's access flags
+     * @return {@code true}, if the parameter is synthetic
+     */
+    static boolean isSyntheticParameter(int flags) {
+        return (flags & PARAMETER_SYNTHETIC) != 0;
+    }
+
+    /**
+     * Checks whether a MethodParameters flag marks a parameter as synthetic or mandated, i.e., as a parameter that is
+     * not part of the generic signature.
+     *
+     * @param flags the parameter's access flags
+     * @return {@code true}, if the parameter is synthetic or mandated
+     */
+    static boolean isImplicitParameter(int flags) {
+        return (flags & (PARAMETER_SYNTHETIC | PARAMETER_MANDATED)) != 0;
+    }
+
+    /**
+     * A parser for the raw content of type annotation attributes.
+     */
+    private static final class TypeAnnotationParser {
+        private static final int TYPE_PATH_INNER_TYPE = 1;
+
+        private final byte[] data;
+        private final ConstPool cp;
+        private int pos = 0;
+
+        TypeAnnotationParser(byte[] data, ConstPool cp) {
+            this.data = data;
+            this.cp = cp;
+        }
+
+        void parse(List<TypeAnnotation> typeAnnotations) {
+            int n = u2();
+            for (int i = 0; i < n; i++) {
+                int target = u1();
+                int index = 0;
+                int boundIndex = 0;
+                switch (target) {
+                    case 0x00, 0x01, 0x16 -> index = u1();       // type parameter, formal parameter
+                    case 0x11, 0x12 -> {                          // type parameter bound
+                        index = u1();
+                        boundIndex = u1();
+                    }
+                    case 0x10, 0x17, 0x42, 0x43, 0x44, 0x45, 0x46 -> index = u2(); // supertype, throws, catch, offset
+                    case 0x13, 0x14, 0x15 -> { /* field, return type, receiver: empty target */ }
+                    case 0x40, 0x41 -> {                          // local variable
+                        int length = u2();
+                        pos += 6 * length;
+                    }
+                    case 0x47, 0x48, 0x49, 0x4A, 0x4B -> {        // type argument
+                        index = u2();
+                        boundIndex = u1();
+                    }
+                    default -> throw new IllegalStateException("unknown type annotation target: " + target);
+                }
+
+                int pathLength = u1();
+                int innerTypeDepth = 0;
+                for (int j = 0; j < pathLength; j++) {
+                    int kind = u1();
+                    u1(); // type argument index
+                    if (kind != TYPE_PATH_INNER_TYPE) {
+                        innerTypeDepth = -1;
+                    } else if (innerTypeDepth >= 0) {
+                        innerTypeDepth++;
+                    }
+                }
+
+                String typeName = getTypeName(cp.getUtf8Info(u2()));
+                skipElementValuePairs();
+
+                typeAnnotations.add(new TypeAnnotation(target, index, boundIndex, innerTypeDepth, typeName));
+            }
+        }
+
+        private void skipElementValuePairs() {
+            int n = u2();
+            for (int i = 0; i < n; i++) {
+                u2(); // element name
+                skipElementValue();
+            }
+        }
+
+        private void skipElementValue() {
+            int tag = u1();
+            switch (tag) {
+                case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z', 's', 'c' -> u2();
+                case 'e' -> pos += 4;
+                case '@' -> {
+                    u2(); // annotation type
+                    skipElementValuePairs();
+                }
+                case '[' -> {
+                    int n = u2();
+                    for (int i = 0; i < n; i++) {
+                        skipElementValue();
+                    }
+                }
+                default -> throw new IllegalStateException("unknown element value tag: " + (char) tag);
+            }
+        }
+
+        private int u1() {
+            return data[pos++] & 0xff;
+        }
+
+        private int u2() {
+            int v = ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+            pos += 2;
+            return v;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.dua3.cabe.processor;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides from the raw bytes of a class file whether the class can be passed through without instrumenting it.
+ *
+ * <p>Only the constant pool is read. All annotations used in a class file, including those on methods, parameters
+ * and type uses, refer to their type descriptor through a constant pool entry. If no JSpecify type is referenced,
+ * the nullness of every parameter and return value is the nullness of the class scope, which is determined by the
+ * package and module annotations. Unless the scope is null-marked, no checks are needed and the class does not have
+ * to be loaded or parsed.
+ *
+ * <p>Generic nested, local and anonymous classes are never skipped either: they may use the type variables of their
+ * enclosing classes and methods, whose bounds can carry annotations that are stored in the class file of the
+ * enclosing class only.
+ *
+ * <p>Class files that have already been processed are never skipped, so that they are reported as usual.
+ * Instances are thread-safe.
+ */
+final class ClassFilePrefilter {
+    private static final Logger LOG = Logger.getLogger(ClassFilePrefilter.class.getName());
+
+    private static final byte[] JSPECIFY_PACKAGE = "org/jspecify/annotations/".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CABE_ATTRIBUTE_NAME = CabeAttribute.ATTRIBUTE_NAME.getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SIGNATURE_ATTRIBUTE_NAME = "Signature".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INNER_CLASSES_ATTRIBUTE_NAME = "InnerClasses".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ENCLOSING_METHOD_ATTRIBUTE_NAME = "EnclosingMethod".getBytes(StandardCharsets.UTF_8);
+
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    /**
+     * The result of scanning the constant pool of a class file.
+     *
+     * @param className            the class name
+     * @param referencesJSpecify   whether a type from the JSpecify annotations package is referenced
+     * @param hasCabeAttributeName whether the name of the CabeMeta attribute is present, i.e., the class file may
+     *                             already have been processed
+     * @param mayUseOuterTypeVariables whether the class may be a generic nested, local or anonymous class, i.e.,
+     *                             its signatures may refer to type variables declared in another class file
+     */
+    record Summary(String className, boolean referencesJSpecify, boolean hasCabeAttributeName,
+                   boolean mayUseOuterTypeVariables) {}
+
+    private final ClassFileMetadataReader reader;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param reader the reader used to determine package and module nullness
+     */
+    ClassFilePrefilter(ClassFileMetadataReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Checks whether a class file can be copied unchanged because none of its methods needs a check.
+     *
+     * @param classFile the content of the class file
+     * @return {@code true}, if the class does not need instrumenting; {@code false} if it has to be processed
+     */
+    boolean canSkip(byte[] classFile) {
+        Summary summary;
+        try {
+            summary = scan(classFile);
+        } catch (IOException | RuntimeException e) {
+            // let the regular processing report the problem
+            LOG.log(Level.FINE, e, () -> "could not scan class file");
+            return false;
+        }
+
+        if (summary.referencesJSpecify() || summary.hasCabeAttributeName() || summary.mayUseOuterTypeVariables()) {
+            return false;
+        }
+
+        String className = summary.className();
+        int idx = className.lastIndexOf('.');
+        String packageName = idx < 0 ? "" : className.substring(0, idx);
+        boolean skip;
+        try {
+            skip = reader.getPackageNullnessOperator(packageName) != NullnessOperator.MINUS_NULL;
+        } catch (RuntimeException e) {
+            LOG.log(Level.FINE, e, () -> "could not determine nullness of package " + packageName);
+            return false;
+        }
+        if (skip) {
+            LOG.fine(() -> "no checks needed, skipping class " + className);
+        }
+        return skip;
+    }
+
+    /**
+     * Scans the constant pool of a class file.
+     *
+     * @param classFile the content of the class file
+     * @return the summary
+     * @throws IOException if the class file is truncated or malformed
+     */
+    static Summary scan(byte[] classFile) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a class file");
+        }
+        in.skipBytes(4); // minor and major version
+
+        int count = in.readUnsignedShort();
+        int[] utf8Offsets = new int[count];
+        int[] classNameIndexes = new int[count];
+        boolean referencesJSpecify = false;
+        boolean hasCabeAttributeName = false;
+        boolean hasSignatureAttributeName = false;
+        boolean hasInnerClassesAttributeName = false;
+        boolean hasEnclosingMethodAttributeName = false;
+
+        for (int i = 1; i < count; i++) {
+            int offset = classFile.length - in.available();
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case CONSTANT_UTF8 -> {
+                    int length = in.readUnsignedShort();
+                    utf8Offsets[i] = offset + 1;
+                    int start = offset + 3;
+                    referencesJSpecify |= contains(classFile, start, length, JSPECIFY_PACKAGE);
+                    hasCabeAttributeName |= isEqual(classFile, start, length, CABE_ATTRIBUTE_NAME);
+                    hasSignatureAttributeName |= isEqual(classFile, start, length, SIGNATURE_ATTRIBUTE_NAME);
+                    hasInnerClassesAttributeName |= isEqual(classFile, start, length, INNER_CLASSES_ATTRIBUTE_NAME);
+                    hasEnclosingMethodAttributeName |= isEqual(classFile, start, length, ENCLOSING_METHOD_ATTRIBUTE_NAME);
+                    skipFully(in, length);
+                }
+                case CONSTANT_CLASS -> classNameIndexes[i] = in.readUnsignedShort();
+                case CONSTANT_STRING, CONSTANT_METHOD_TYPE, CONSTANT_MODULE, CONSTANT_PACKAGE -> skipFully(in, 2);
+                case CONSTANT_METHOD_HANDLE -> skipFully(in, 3);
+                case CONSTANT_INTEGER, CONSTANT_FLOAT, CONSTANT_FIELDREF, CONSTANT_METHODREF,
+                     CONSTANT_INTERFACE_METHODREF, CONSTANT_NAME_AND_TYPE, CONSTANT_DYNAMIC,
+                     CONSTANT_INVOKE_DYNAMIC -> skipFully(in, 4);
+                case CONSTANT_LONG, CONSTANT_DOUBLE -> {
+                    skipFully(in, 8);
+                    i++; // eight byte constants take up two entries
+                }
+                default -> throw new IOException("invalid constant pool tag " + tag + " at index " + i);
+            }
+        }
+
+        in.skipBytes(2); // access flags
+        int thisClass = in.readUnsignedShort();
+        int nameIndex = thisClass < count ? classNameIndexes[thisClass] : 0;
+        if (nameIndex <= 0 || nameIndex >= count || utf8Offsets[nameIndex] == 0) {
+            throw new IOException("invalid this_class entry");
+        }
+        String internalName = new DataInputStream(new ByteArrayInputStream(classFile, utf8Offsets[nameIndex], classFile.length - utf8Offsets[nameIndex])).readUTF();
+
+        // local and anonymous classes have an EnclosingMethod attribute; the InnerClasses attribute is also present in
+        // top level classes that merely use nested classes, but nested classes have a '$' in their name
+        boolean mayUseOuterTypeVariables = hasSignatureAttributeName
+                && (hasEnclosingMethodAttributeName || hasInnerClassesAttributeName && internalName.indexOf('$') >= 0);
+
+        return new Summary(internalName.replace('/', '.'), referencesJSpecify, hasCabeAttributeName, mayUseOuterTypeVariables);
+    }
+
+    private static void skipFully(DataInputStream in, int n) throws IOException {
+        if (in.skipBytes(n) != n) {
+            throw new IOException("unexpected end of class file");
+        }
+    }
+
+    /**
+     * Checks whether a range of bytes is equal to a pattern.
+     */
+    private static boolean isEqual(byte[] data, int start, int length, byte[] pattern) {
+        return length == pattern.length && contains(data, start, length, pattern);
+    }
+
+    /**
+     * Checks whether a range of bytes contains a pattern. Modified UTF-8 encodes ASCII characters as single bytes,
+     * so ASCII patterns can be searched without decoding.
+     */
+    private static boolean contains(byte[] data, int start, int length, byte[] pattern) {
+        int end = Math.min(start + length, data.length) - pattern.length;
+        outer:
+        for (int i = start; i <= end; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (data[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -1,5 +1,8 @@
 package com.dua3.cabe.processor;
 
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -15,13 +18,18 @@ import java.util.regex.Pattern;
 record ClassInfo(String name, boolean isInnerClass, boolean isStaticClass, boolean isInterface, boolean isEnum,
                  boolean isRecord, boolean isDerived, boolean isAnonymousClass, boolean isPublicApi,
                  NullnessOperator nullnessOperator,
-                 String assertionsDisabledFlagName, List<MethodInfo> methods, Class<?> cls) {
+                 String assertionsDisabledFlagName, List<MethodInfo> methods) {
 
     private static final Pattern PATTERN_INNER_CLASS_NAME = Pattern.compile(
             "^(?>[_$a-zA-Z][_$a-zA-Z0-9]*\\.)*[_$a-zA-Z][_$a-zA-Z0-9]*\\$[_$a-zA-Z0-9]*"
     );
     private static final Pattern PATTERN_ANONYMOUS_CLASS_SUFFIX = Pattern.compile(".*\\$\\d+");
 
+    private static final String JAVA_LANG_OBJECT = "java.lang.Object";
+    private static final String JAVA_LANG_ENUM = "java.lang.Enum";
+    private static final String JAVA_LANG_RECORD = "java.lang.Record";
+    private static final String RECORD_ATTRIBUTE = "Record";
+
     @Override
     public List<MethodInfo> methods() {
         return Collections.unmodifiableList(methods);
@@ -63,8 +71,7 @@ record ClassInfo(String name, boolean isInnerClass, boolean isStaticClass, boole
                 isPublicApi,
                 nullnessOperator,
                 assertionsDisabledFlagName,
-                methods,
-                cls);
+                methods);
 
         Arrays.stream(cls.getDeclaredConstructors())
                 .filter(m -> !m.isSynthetic())
@@ -80,4 +87,62 @@ record ClassInfo(String name, boolean isInnerClass, boolean isStaticClass, boole
         return ci;
     }
 
+    /**
+     * Generates a {@code ClassInfo} object from a class file without loading the class.
+     *
+     * <p>The result is the same as that of {@link #forClass(Class)} for the loaded class.
+     *
+     * @param cf     the class file
+     * @param reader the {@link ClassFileMetadataReader} used to look up information about other classes
+     * @return a {@code ClassInfo} object representing the class contained in the class file
+     */
+    static ClassInfo forClassFile(ClassFile cf, ClassFileMetadataReader reader) {
+        String className = cf.getName();
+        ClassFileMetadataReader.ClassFacts facts = reader.getFacts(cf);
+
+        int modifiers = facts.modifiers();
+        String superName = facts.superName();
+        boolean isInnerClass = PATTERN_INNER_CLASS_NAME.matcher(className).matches();
+        boolean isStaticClass = Modifier.isStatic(modifiers);
+        boolean isAnonymousClass = isInnerClass && !isStaticClass && PATTERN_ANONYMOUS_CLASS_SUFFIX.matcher(className).matches();
+        boolean isInterface = Modifier.isInterface(modifiers);
+        boolean isEnum = (cf.getAccessFlags() & AccessFlag.ENUM) != 0 && JAVA_LANG_ENUM.equals(superName);
+        boolean isRecord = JAVA_LANG_RECORD.equals(superName) && cf.getAttribute(RECORD_ATTRIBUTE) != null;
+        boolean isDerived = superName != null && !superName.equals(JAVA_LANG_OBJECT) && !isEnum && !isRecord;
+        NullnessOperator nullnessOperator = reader.getClassNullnessOperator(cf);
+        boolean isPublicApi = Modifier.isPublic(modifiers) || reader.hasPublicApiAncestor(facts);
+        String assertionsDisabledFlagName = reader.getAssertionsDisabledFlagName(facts);
+
+        List<MethodInfo> methods = new ArrayList<>();
+
+        ClassInfo ci = new ClassInfo(
+                className,
+                isInnerClass,
+                isStaticClass,
+                isInterface,
+                isEnum,
+                isRecord,
+                isDerived,
+                isAnonymousClass,
+                isPublicApi,
+                nullnessOperator,
+                assertionsDisabledFlagName,
+                methods);
+
+        List<javassist.bytecode.MethodInfo> declaredMethods = cf.getMethods();
+
+        declaredMethods.stream()
+                .filter(m -> m.isConstructor() && (m.getAccessFlags() & AccessFlag.SYNTHETIC) == 0)
+                .map(m -> MethodInfo.forClassFileMethod(ci, cf, m, reader))
+                .forEach(methods::add);
+
+        declaredMethods.stream()
+                .filter(m -> m.isMethod() && (m.getAccessFlags() & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) == 0)
+                .sorted(Comparator.comparing(javassist.bytecode.MethodInfo::getName))
+                .map(m -> MethodInfo.forClassFileMethod(ci, cf, m, reader))
+                .forEach(methods::add);
+
+        return ci;
+    }
+
 }
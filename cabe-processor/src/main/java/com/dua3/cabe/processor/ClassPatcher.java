@@ -9,37 +9,62 @@ import javassist.CtField;
 import javassist.Modifier;
 import javassist.NotFoundException;
 import javassist.bytecode.AccessFlag;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.ClassFile;
 import javassist.bytecode.LocalVariableAttribute;
+import org.jspecify.annotations.Nullable;
 
 import java.io.File;
-import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Formatter;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * The ClassPatcher class is responsible for patching class files by adding assertions for nullability checks
@@ -49,7 +74,6 @@ import java.util.stream.Stream;
 public final class ClassPatcher {
 
     private static final java.util.logging.Logger LOG = java.util.logging.Logger.getLogger(ClassPatcher.class.getName());
-    private static final Pattern PATTERN_CANONICAL_CLASSNAME = Pattern.compile("\\$(\\D)");
 
     /**
      * This method is the entry point of the application.
@@ -69,17 +93,60 @@ public final class ClassPatcher {
             rootLogger.addHandler(consoleHandler);
         }
 
-        Path in = null;
-        Path out = null;
+        List<String> cmdLine = List.of(args);
+        if (cmdLine.contains("--server")) {
+            System.exit(ProcessorServer.serve(cmdLine, consoleHandler));
+        }
+
+        int rc = run(cmdLine, consoleHandler, System.out, System.err, null);
+        if (rc != 0) {
+            System.exit(rc);
+        }
+    }
+
+    /**
+     * Processes a single command line in the current JVM.
+     *
+     * <p>This method is intended for build tools that run the processor in-process, e.g., loaded through an isolated
+     * class loader. In contrast to {@link #main(String[])}, the logging configuration is not changed, so the
+     * verbosity option has no effect, and the JVM is never terminated. It is safe to call this method concurrently.
+     *
+     * @param cmdLine        the command line arguments as accepted by {@link #main(String[])}
+     * @param out            the stream to write regular output to
+     * @param err            the stream to write error messages to
+     * @param classpathCache the {@link ClasspathCache} to share between calls
+     * @return the exit code, 0 on success
+     */
+    public static int run(List<String> cmdLine, PrintStream out, PrintStream err, ClasspathCache classpathCache) {
+        return run(cmdLine, null, out, err, Objects.requireNonNull(classpathCache, "classpathCache is null"));
+    }
+
+    /**
+     * Processes a single command line.
+     *
+     * <p>This method is used by {@link #main(String[])} and by the {@link ProcessorServer} for each work request.
+     *
+     * @param cmdLine        the command line arguments
+     * @param consoleHandler the handler whose level is set according to the requested verbosity, or {@code null} to
+     *                       leave the logging configuration unchanged
+     * @param out            the stream to write regular output to
+     * @param err            the stream to write error messages to
+     * @param classpathCache the {@link ClasspathCache} to use, or {@code null}
+     * @return the exit code, 0 on success
+     */
+    static int run(List<String> cmdLine, @Nullable Handler consoleHandler, PrintStream out, PrintStream err, @Nullable ClasspathCache classpathCache) {
+        List<Path> in = null;
+        List<Path> outPath = null;
         List<Path> classPaths = null;
+        List<Path> files = null;
         Configuration configuration = null;
+        ProcessingOptions options = null;
 
-        BitSet usedArgs = new BitSet(args.length);
+        BitSet usedArgs = new BitSet(cmdLine.size());
         try {
-            List<String> cmdLine = List.of(args);
             if (cmdLine.contains("--help")) {
-                help();
-                return;
+                help(out);
+                return 0;
             }
 
             String verbosity = getOptionString(cmdLine, "-v", usedArgs, "0");
@@ -91,310 +158,1745 @@ public final class ClassPatcher {
                 default ->  Level.WARNING;
             };
 
-            rootLogger.setLevel(level);
-            consoleHandler.setLevel(level);
-            LOG.setLevel(level);
+            if (consoleHandler != null) {
+                Logger.getLogger("").setLevel(level);
+                consoleHandler.setLevel(level);
+                LOG.setLevel(level);
+            }
+
+            LOG.fine(() -> "args: %s".formatted(String.join(" ", cmdLine)));
+
+            List<String> inputFolders = getOptionStrings(cmdLine, "-i", usedArgs);
+            List<String> outputFolders = getOptionStrings(cmdLine, "-o", usedArgs);
+            if (inputFolders.size() != outputFolders.size()) {
+                throw new IllegalArgumentException("the number of inputs (" + inputFolders.size()
+                        + ") does not match the number of outputs (" + outputFolders.size() + ")");
+            }
+            String configStr = getOptionString(cmdLine, "-c", usedArgs, "standard");
+            String classpath = getOptionString(cmdLine, "-cp", usedArgs, "");
+            String parallelism = getOptionString(cmdLine, "-j", usedArgs, "1");
+            String ioParallelism = getOptionString(cmdLine, "--io-threads", usedArgs, "1");
+            boolean incremental = getOptionFlag(cmdLine, "--incremental", usedArgs);
+            String metadata = getOptionString(cmdLine, "--metadata", usedArgs, "reflection");
+            String emitter = getOptionString(cmdLine, "--emitter", usedArgs, "source");
+            String classpathIndex = getOptionString(cmdLine, "--classpath-index", usedArgs, null);
+            String report = getOptionString(cmdLine, "--report", usedArgs, null);
+            String memoryBudget = getOptionString(cmdLine, "--memory-budget", usedArgs, "0");
+            String fileList = getOptionString(cmdLine, "--files", usedArgs, null);
+
+            configuration = Configuration.parse(configStr);
+            options = ProcessingOptions.DEFAULT
+                    .withParallelism(Integer.parseInt(parallelism))
+                    .withIoParallelism(Integer.parseInt(ioParallelism))
+                    .withIncremental(incremental)
+                    .withMetadata(ProcessingOptions.Metadata.valueOf(metadata.toUpperCase(Locale.ROOT)))
+                    .withEmitter(ProcessingOptions.Emitter.valueOf(emitter.toUpperCase(Locale.ROOT)))
+                    .withClasspathIndex(classpathIndex)
+                    .withReport(report)
+                    .withMemoryBudget(ProcessingOptions.parseMemorySize(memoryBudget));
+
+            in = inputFolders.stream().map(Paths::get).toList();
+            outPath = outputFolders.stream().map(Paths::get).toList();
+            classPaths = Arrays.stream(classpath.split(File.pathSeparator)).map(Paths::get).toList();
+            if (fileList != null) {
+                if (in.size() != 1) {
+                    throw new IllegalArgumentException("option '--files' requires a single input folder");
+                }
+                files = readFileList(Paths.get(fileList));
+            }
+        } catch (RuntimeException e) {
+            err.println("Commandline error: " + e.getMessage());
+            err.println("Command Arguments: " + cmdLine.stream()
+                    .map(s -> "\"" + s.replace("\"", "\\\"") + "\"")
+                    .collect(Collectors.joining(" ")));
+            return 1;
+        }
+
+        // check that all arguments have been processed
+        for (int i = 0; i < cmdLine.size(); i++) {
+            if (!usedArgs.get(i)) {
+                err.println("Unexpected argument: " + cmdLine.get(i));
+                return 2;
+            }
+        }
+
+        try {
+            ClassPatcher classPatcher = new ClassPatcher(classPaths, configuration, options, classpathCache);
+            if (files != null) {
+                classPatcher.processFiles(in.get(0), outPath.get(0), files);
+                return 0;
+            }
+
+            // jar files are processed one by one, folders share the classpath setup
+            Map<Path, Path> folders = new LinkedHashMap<>();
+            for (int i = 0; i < in.size(); i++) {
+                Path input = in.get(i);
+                if (Files.isRegularFile(input) && input.getFileName().toString().endsWith(".jar")) {
+                    if (options.incremental()) {
+                        LOG.info("incremental processing is not supported for jar files, processing all classes");
+                    }
+                    classPatcher.processJar(input, outPath.get(i));
+                } else if (folders.putIfAbsent(input, outPath.get(i)) != null) {
+                    throw new IllegalArgumentException("input folder specified more than once: " + input);
+                }
+            }
+            if (folders.size() == 1) {
+                Map.Entry<Path, Path> folder = folders.entrySet().iterator().next();
+                classPatcher.processFolder(folder.getKey(), folder.getValue());
+            } else if (!folders.isEmpty()) {
+                classPatcher.processFolders(folders);
+            }
+        } catch (RuntimeException | IOException | ClassFileProcessingFailedException e) {
+            LOG.log(Level.SEVERE, "Error processing class files", e);
+            err.println("Error: " + e.getMessage());
+            return 2;
+        }
+
+        return 0;
+    }
+
+    /**
+     * Reads the list of class files passed using the {@code --files} option.
+     *
+     * @param fileList the file containing one path per line; empty lines are ignored
+     * @return the paths
+     * @throws UncheckedIOException if the file cannot be read
+     */
+    private static List<Path> readFileList(Path fileList) {
+        try (Stream<String> lines = Files.lines(fileList, StandardCharsets.UTF_8)) {
+            return lines.filter(line -> !line.isBlank()).map(Paths::get).toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not read file list: " + fileList, e);
+        }
+    }
+
+    private static String messageOptionNotFound(String option) {
+        return String.format("Option '%s' not found at expected position", option);
+    }
+
+    private static String getOptionString(List<String> cmdLine, String option, BitSet usedArgs) {
+        String value = getOptionString(cmdLine, option, usedArgs, null);
+        return Objects.requireNonNull(value, () -> messageOptionNotFound(option));
+    }
+
+    private static String getOptionString(List<String> cmdLine, String option, BitSet usedArgs, String defaultValue) {
+        int idxInput = cmdLine.indexOf(option);
+        if (idxInput < 0) {
+            return defaultValue;
+        }
+
+        if (usedArgs.get(idxInput)) {
+            throw new IllegalArgumentException("Could not parse the command line at '" + cmdLine.get(idxInput) + "'");
+        }
+        usedArgs.set(idxInput);
+
+        if (usedArgs.get(idxInput + 1)) {
+            throw new IllegalArgumentException("Missing argument to option '" + cmdLine.get(idxInput) + "'");
+        }
+        usedArgs.set(idxInput + 1);
+
+        return cmdLine.get(idxInput + 1);
+    }
+
+    private static List<String> getOptionStrings(List<String> cmdLine, String option, BitSet usedArgs) {
+        List<String> values = new ArrayList<>();
+        for (int idx = 0; idx < cmdLine.size(); idx++) {
+            if (usedArgs.get(idx) || !cmdLine.get(idx).equals(option)) {
+                continue;
+            }
+            usedArgs.set(idx);
+
+            if (idx + 1 >= cmdLine.size() || usedArgs.get(idx + 1)) {
+                throw new IllegalArgumentException("Missing argument to option '" + cmdLine.get(idx) + "'");
+            }
+            usedArgs.set(idx + 1);
+
+            values.add(cmdLine.get(++idx));
+        }
+
+        if (values.isEmpty()) {
+            throw new IllegalArgumentException(messageOptionNotFound(option));
+        }
+        return values;
+    }
+
+    private static boolean getOptionFlag(List<String> cmdLine, String option, BitSet usedArgs) {
+        int idx = cmdLine.indexOf(option);
+        if (idx < 0) {
+            return false;
+        }
+
+        if (usedArgs.get(idx)) {
+            throw new IllegalArgumentException("Could not parse the command line at '" + cmdLine.get(idx) + "'");
+        }
+        usedArgs.set(idx);
+
+        return true;
+    }
+
+    private static void help(PrintStream out) {
+        String msg = """
+                ClassPatcher
+                ============
+                
+                Add null checks in Java class file byte code.
+                
+                Usage: java -jar <jar-file> -i <input-folder|input-jar> -o <output-folder|output-jar> [-i ... -o ...] [-c <configuration>] [-cp <classpath>] [-j <threads>] [--io-threads <io-threads>] [--incremental] [--metadata <source>] [--emitter <emitter>] [--classpath-index <index-file>] [--report <report-file>] [--memory-budget <size>] [--files <file-list>] [-v <verbosity>]
+                       java -jar <jar-file> --server [--socket <socket-file>]
+                
+                    <configuration>  : STANDARD|DEVELOPMENT|NO_CHECKS|<configstr> (default: STANDARD)
+                
+                                       STANDARD    - use standard assertions for private API methods,
+                                                       throw NullPointerException for public API methods
+                                       DEVELOPMENT - failed checks will always throw an AssertionError, also checks return values
+                                       NO_CHECKS   - do not add any null checks (class files are copied unchanged)
+                                       <configstr> - configuration string as described in the documentation
+                
+                    <input-jar>      : a jar file to process; all entries are processed in memory and written
+                                       to <output-jar>, resources and multi-release classes are copied unchanged
+
+                    -i ... -o ...    : more inputs and outputs, paired in the given order; all inputs use the same
+                                       classpath, which is set up only once for all input folders
+                
+                    <threads>        : number of worker threads used for instrumenting (default: 1)
+                                       0           - use one thread per available processor
+                
+                    <io-threads>     : number of threads used for reading and, separately, for writing class files
+                                       (default: 1); reading, instrumenting and writing always run concurrently
+                
+                    --incremental    : write a manifest to the output folder and skip class files that did not
+                                       change since the last run; outputs of removed class files are deleted
+                
+                    <source>         : source of the class metadata (default: reflection)
+                                       reflection  - load the classes and use reflection
+                                       classfile   - read the class files directly without loading any classes
+                
+                    <emitter>        : backend used to insert the checks (default: source)
+                                       source      - generate source code and compile it using Javassist
+                                       bytecode    - write the bytecode for the checks directly
+                
+                    <index-file>     : file used to store the index of the jar files on the classpath between runs;
+                                       jar files that did not change since the last run are not scanned again
+                
+                    <report-file>    : write a JSON report with per-class timings, checks added and sizes,
+                                       and run-level JVM figures
+
+                    <size>           : heap and metaspace to stay within when processing a folder, e.g. 1g;
+                                       class files are processed in batches of whole packages and the loaded
+                                       classes are released between batches (default: 0, no budget)
+
+                    <file-list>      : process only the class files listed in this file, one path per line,
+                                       absolute or relative to the input folder; the output of other class
+                                       files is left untouched; requires a single input folder
+                
+                    --server         : run as a server that processes work requests without restarting the JVM;
+                                       requests are read as JSON lines from stdin, responses are written to stdout
+                    <socket-file>    : accept connections on this Unix domain socket instead of using stdin/stdout
+                
+                    <verbosity>      : 0 - show warnings and errors only (default)
+                                     : 1 - show basic processing information
+                                     : 2 - show detailed information
+                                     : 3 - show all information
+                """;
+        out.println(msg);
+    }
+
+    /**
+     * Regular expression pattern for matching Fully Qualified Class Names (FQCN).
+     * FQCN is a string representing the package and class name of a Java class.
+     * The pattern matches valid Java identifiers separated by dots, allowing for nested classes.
+     * It does not match reserved keywords or invalid identifier characters.
+     */
+    private static final Pattern PATTERN_FQCN = Pattern.compile(
+            "^(?:(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)\\.)*" +
+            "(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)" +
+            "(?:\\$(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*))*$"
+    );
+
+    private static final ProcessingMetrics NO_METRICS = new ProcessingMetrics(false);
+
+    /**
+     * The maximum number of class files in a batch when processing with a memory budget.
+     */
+    private static final int MAX_BATCH_SIZE = 1000;
+
+    private static final Pattern GET_CLASS_NAME_PATTERN = Pattern.compile("\\.[^.]*$");
+
+    private final List<Path> classpath;
+    private final Configuration configuration;
+    private final ProcessingOptions options;
+    private final CheckEmitter emitter;
+    private final ClasspathCache classpathCache;
+    private final String configurationFingerprint;
+    private ClassLoader classLoader;
+    private @Nullable ClasspathIndex sharedIndex;
+    private @Nullable ModuleClassLoader sharedModuleClassLoader;
+    private @Nullable ClassLoader sharedClassLoader;
+    private ClassFileMetadataReader metadataReader;
+    private ClassFilePrefilter prefilter;
+    private Path inputFolder;
+    private Path outputFolder;
+    private volatile boolean useHardLinks = true;
+    private final Map<Path, Boolean> createdDirectories = new ConcurrentHashMap<>();
+    private ProcessingMetrics metrics = NO_METRICS;
+    private int maxBatchSize = MAX_BATCH_SIZE;
+
+    /**
+     * The logger used by the instance methods. It has the name of the class logger and passes records on to its
+     * handlers, but it is not registered with the {@link java.util.logging.LogManager}, so that setting its level
+     * using {@link #setLogLevel(Level)} does not affect other instances.
+     */
+    private final Logger log = new Logger(LOG.getName(), null) {};
+
+    /**
+     * This class represents a ClassPatcher object that manipulates class files in a given classpath.
+     *
+     * @param classpath     the compile-classpath
+     * @param configuration the {@link Configuration} to use
+     */
+    public ClassPatcher(Collection<Path> classpath, Configuration configuration) {
+        this(classpath, configuration, ProcessingOptions.DEFAULT);
+    }
+
+    /**
+     * This class represents a ClassPatcher object that manipulates class files in a given classpath.
+     *
+     * @param classpath     the compile-classpath
+     * @param configuration the {@link Configuration} to use
+     * @param options       the {@link ProcessingOptions} to use
+     */
+    public ClassPatcher(Collection<Path> classpath, Configuration configuration, ProcessingOptions options) {
+        this(classpath, configuration, options, null);
+    }
+
+    /**
+     * This class represents a ClassPatcher object that manipulates class files in a given classpath.
+     *
+     * <p>Use this constructor to share a {@link ClasspathCache} between instances that process different inputs
+     * using the same classpath JARs.
+     *
+     * @param classpath      the compile-classpath
+     * @param configuration  the {@link Configuration} to use
+     * @param options        the {@link ProcessingOptions} to use
+     * @param classpathCache the {@link ClasspathCache} to use for the JAR files on the classpath, or {@code null} to
+     *                       use a cache that is private to this instance
+     */
+    public ClassPatcher(Collection<Path> classpath, Configuration configuration, ProcessingOptions options,
+                        @Nullable ClasspathCache classpathCache) {
+        this.classpath = new ArrayList<>(Objects.requireNonNull(classpath, "classpath is null"));
+        this.configuration = Objects.requireNonNull(configuration, "configuration is null");
+        this.options = Objects.requireNonNull(options, "options is null");
+        this.emitter = CheckEmitter.of(options.emitter());
+        this.classpathCache = classpathCache != null ? classpathCache : new ClasspathCache();
+        this.configurationFingerprint = computeConfigurationFingerprint(configuration, options.emitter());
+        this.log.setParent(LOG);
+    }
+
+    /**
+     * Sets the level of the log output of this instance.
+     *
+     * <p>Unlike setting the level of the processor's logger, this does not affect other instances that are used
+     * concurrently, e.g., by build tool workers running in the same JVM. Log output of the helper classes used by
+     * this instance is controlled by the level of the processor's logger.
+     *
+     * @param level the level, or {@code null} to use the level of the processor's logger
+     */
+    public void setLogLevel(@Nullable Level level) {
+        log.setLevel(level);
+    }
+
+    /**
+     * Computes the fingerprint of the settings that determine the checks added to a class.
+     *
+     * <p>The fingerprint is stored in the {@code CabeMeta} attribute of instrumented classes. When processing a
+     * class that has already been instrumented with the same fingerprint, e.g., when instrumenting a folder in
+     * place, the class is passed through without a warning.
+     *
+     * @param configuration the configuration
+     * @param emitter       the emitter
+     * @return the fingerprint
+     */
+    public static String computeConfigurationFingerprint(Configuration configuration, ProcessingOptions.Emitter emitter) {
+        String settings = "processorVersion=" + CabeProcessorMetaData.PROCESSOR_VERSION
+                + ";configuration=" + configuration.getConfigString()
+                + ";emitter=" + emitter;
+        return ProcessingManifest.hash(settings.getBytes(StandardCharsets.UTF_8)).substring(0, 16);
+    }
+
+    /**
+     * Process a folder containing class files.
+     *
+     * <p>The class files are processed by a {@link ProcessingPipeline}: walking the folder, reading, instrumenting
+     * and writing run concurrently. Unless processing incrementally or in place, the class files are passed to the
+     * pipeline while the folder is being walked, so that memory use does not grow with the number of class files.
+     *
+     * <p>If {@link ProcessingOptions#memoryBudget()} is set, the class files are processed in batches of whole
+     * packages, and the class pools and class loader are released between batches.
+     *
+     * @param inputFolder  the folder to process
+     * @param outputFolder the folder to write the patched files to
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    public synchronized void processFolder(Path inputFolder, Path outputFolder) throws IOException, ClassFileProcessingFailedException {
+        Objects.requireNonNull(inputFolder, "input folder is null");
+        Objects.requireNonNull(outputFolder, "output folder is null");
+
+        startMetrics();
+        try {
+            if (instrumentFolder(inputFolder, outputFolder, null)) {
+                writeReport(inputFolder.toString(), outputFolder.toString());
+            }
+        } finally {
+            this.metrics = NO_METRICS;
+        }
+    }
+
+    /**
+     * Process selected class files of a folder.
+     *
+     * <p>Only the given class files are instrumented and written to the output folder, the output of the other class
+     * files in the input folder is left untouched. The other class files are still on the classpath, so the result is
+     * the same as when processing the whole folder. This is intended for build tools that track changed files
+     * themselves; deleting the output of removed class files is left to the caller. Incremental processing using a
+     * manifest is not done.
+     *
+     * @param inputFolder  the folder containing the class files
+     * @param outputFolder the folder to write the patched files to
+     * @param classFiles   the class files to process, either absolute or relative to the input folder; files that do
+     *                     not exist and files not ending in {@code .class} are ignored
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     * @throws IllegalArgumentException           if a class file is not located in the input folder
+     */
+    public synchronized void processFiles(Path inputFolder, Path outputFolder, Collection<Path> classFiles)
+            throws IOException, ClassFileProcessingFailedException {
+        Objects.requireNonNull(inputFolder, "input folder is null");
+        Objects.requireNonNull(outputFolder, "output folder is null");
+
+        Path root = inputFolder.toAbsolutePath().normalize();
+        List<Path> selection = new ArrayList<>(classFiles.size());
+        for (Path classFile : classFiles) {
+            Path file = root.resolve(classFile).normalize();
+            if (!file.startsWith(root)) {
+                throw new IllegalArgumentException("class file is not located in the input folder: " + classFile);
+            }
+            selection.add(inputFolder.resolve(root.relativize(file)));
+        }
+
+        startMetrics();
+        try {
+            if (instrumentFolder(inputFolder, outputFolder, selection)) {
+                writeReport(inputFolder.toString(), outputFolder.toString());
+            }
+        } finally {
+            this.metrics = NO_METRICS;
+        }
+    }
+
+    /**
+     * Process several folders containing class files using the same classpath.
+     *
+     * <p>The result is the same as calling {@link #processFolder(Path, Path)} for each folder in turn, but the
+     * classpath is indexed only once and, when using reflection, the modules on the classpath are resolved and the
+     * classes on the classpath are loaded only once. Only the input folders are added on top of this shared state,
+     * so processing, e.g., the main and test classes of a project in one call avoids setting up the classpath for
+     * each of them. A single report covering all folders is written.
+     *
+     * @param folders maps each folder to process to the folder to write the patched files to; the folders are
+     *                processed in iteration order
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    public synchronized void processFolders(Map<Path, Path> folders) throws IOException, ClassFileProcessingFailedException {
+        Objects.requireNonNull(folders, "folders is null");
+        folders.forEach((in, out) -> {
+            Objects.requireNonNull(in, "input folder is null");
+            Objects.requireNonNull(out, "output folder is null");
+        });
+
+        log.fine(() -> "process " + folders.size() + " folders");
+
+        startMetrics();
+        try (ClasspathIndex index = openClasspathIndex(classpath)) {
+            this.sharedIndex = index;
+
+            boolean processed = false;
+            for (Map.Entry<Path, Path> entry : folders.entrySet()) {
+                processed |= instrumentFolder(entry.getKey(), entry.getValue(), null);
+            }
+
+            if (processed) {
+                writeReport(
+                        folders.keySet().stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)),
+                        folders.values().stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator))
+                );
+            }
+        } finally {
+            this.sharedIndex = null;
+            this.sharedModuleClassLoader = null;
+            this.sharedClassLoader = null;
+            this.metrics = NO_METRICS;
+        }
+    }
+
+    /**
+     * Instruments the class files in a folder, see {@link #processFolder(Path, Path)}.
+     *
+     * <p>When called from {@link #processFolders(Map)}, the index of the shared classpath is extended by the input
+     * folder instead of indexing the classpath again.
+     *
+     * @param inputFolder  the folder to process
+     * @param outputFolder the folder to write the patched files to
+     * @param selection    the class files to process, or {@code null} to process all class files in the folder
+     * @return {@code true}, if the folder was processed, {@code false} if it was ignored because it does not exist
+     *         or is not a directory
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    private boolean instrumentFolder(Path inputFolder, Path outputFolder, @Nullable List<Path> selection)
+            throws IOException, ClassFileProcessingFailedException {
+        try {
+            log.fine(() -> "process folder " + inputFolder);
+
+            this.inputFolder = inputFolder;
+            this.outputFolder = outputFolder;
+
+            // no directory
+            if (!Files.exists(inputFolder)) {
+                log.info(() -> "input does not exist, ignoring: " + inputFolder);
+                return false;
+            }
+            if (!Files.isDirectory(inputFolder)) {
+                log.warning(() -> "Not a directory, ignoring: " + inputFolder);
+                return false;
+            }
+
+            this.useHardLinks = true;
+            this.createdDirectories.clear();
+
+            try (ClasspathIndex index = openClasspathIndex(inputFolder)) {
+                openMetadataSource(index);
+
+                if (selection != null) {
+                    List<Path> filesToProcess = selection.stream()
+                            .filter(f -> String.valueOf(f.getFileName()).endsWith(".class") && Files.isRegularFile(f))
+                            .distinct()
+                            .toList();
+                    log.fine(() -> "processing " + filesToProcess.size() + " selected class files");
+                    if (filesToProcess.isEmpty()) {
+                        log.info("no class files!");
+                    } else {
+                        processClassFiles(filesToProcess, index);
+                    }
+                    return true;
+                }
+
+                if (!options.incremental() && !isSameFolder(inputFolder, outputFolder)) {
+                    // stream the class files through the pipeline while the folder is being walked unless processing
+                    // in batches, which needs the class files grouped by package, or using several threads, which
+                    // needs the class files ordered by size
+                    long count;
+                    if (options.memoryBudget() > 0) {
+                        try (Stream<Path> paths = walkClassFiles(inputFolder)) {
+                            count = runBatches(paths.toList(), index, true);
+                        }
+                    } else if (options.effectiveParallelism() > 1) {
+                        List<Path> classFiles;
+                        try (Stream<Path> paths = walkClassFiles(inputFolder)) {
+                            classFiles = paths.toList();
+                        }
+                        count = runPipeline(scheduleLargestFirst(classFiles, options.effectiveParallelism())::stream, index);
+                    } else {
+                        count = runPipeline(() -> walkClassFiles(inputFolder), index);
+                    }
+                    if (count == 0) {
+                        log.info("no class files!");
+                    }
+                    return true;
+                }
+
+                List<Path> classFiles;
+                try (Stream<Path> paths = walkClassFiles(inputFolder)) {
+                    classFiles = paths.toList();
+                }
+
+                ProcessingManifest manifest = null;
+                Map<Path, String> inputHashes = Map.of();
+                List<Path> filesToProcess = classFiles;
+                if (options.incremental()) {
+                    inputHashes = hashFiles(classFiles);
+                    manifest = new ProcessingManifest(computeManifestKey(inputHashes));
+                    filesToProcess = selectFilesToProcess(classFiles, inputHashes, manifest);
+                }
+
+                if (classFiles.isEmpty()) {
+                    log.info("no class files!");
+                } else if (filesToProcess.isEmpty()) {
+                    log.info("all class files are up to date");
+                } else {
+                    processClassFiles(filesToProcess, index);
+                }
+
+                if (manifest != null) {
+                    for (Path classFile : filesToProcess) {
+                        Path target = outputFolder.resolve(inputFolder.relativize(classFile));
+                        manifest.put(getManifestPath(classFile), new ProcessingManifest.Entry(inputHashes.get(classFile), ProcessingManifest.hash(target)));
+                    }
+                    Files.createDirectories(outputFolder);
+                    manifest.write(outputFolder.resolve(ProcessingManifest.FILE_NAME));
+                }
+
+                return true;
+            }
+        } finally {
+            this.classLoader = null;
+            this.metadataReader = null;
+            this.prefilter = null;
+            this.inputFolder = null;
+            this.createdDirectories.clear();
+        }
+    }
+
+    /**
+     * Process a JAR file containing class files.
+     *
+     * <p>The JAR is read as a stream and its entries are kept in memory, no files are extracted. Class files are
+     * instrumented, all other entries, including the class files of multi-release JARs below
+     * {@code META-INF/versions/}, are copied unchanged. The order and metadata of the entries are retained.
+     *
+     * <p>If the JAR has already been processed, it is copied unchanged. This is detected by scanning the constant
+     * pools of the class files for the name of the {@code CabeMeta} attribute; only class files that contain the
+     * name are parsed to check for the attribute.
+     *
+     * @param inputJar  the JAR file to process
+     * @param outputJar the JAR file to write; must be different from the input JAR
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    public synchronized void processJar(Path inputJar, Path outputJar) throws IOException, ClassFileProcessingFailedException {
+        Objects.requireNonNull(inputJar, "input jar is null");
+        Objects.requireNonNull(outputJar, "output jar is null");
+
+        log.fine(() -> "process jar " + inputJar);
+
+        if (!Files.isRegularFile(inputJar)) {
+            log.warning(() -> "Not a file, ignoring: " + inputJar);
+            return;
+        }
+        if (Files.exists(outputJar) && Files.isSameFile(inputJar, outputJar)) {
+            throw new IllegalArgumentException("input and output jar must be different: " + inputJar);
+        }
+
+        startMetrics();
+        try {
+            long readStart = System.nanoTime();
+            List<JarEntryData> entries = readJar(inputJar);
+            metrics.addTime(ProcessingMetrics.Phase.READ, System.nanoTime() - readStart);
+            List<JarEntryData> classEntries = entries.stream()
+                    .filter(e -> isInstrumentableJarEntry(e.entry()))
+                    .toList();
+            for (JarEntryData e : classEntries) {
+                metrics.forClass(inputJar.toString(), getJarEntryClassName(e.entry().getName())).setBytesBefore(e.data().length);
+            }
+
+            Path parent = outputJar.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+
+            this.useHardLinks = true;
+            if (classEntries.isEmpty()) {
+                log.info("no class files!");
+                copyUnchanged(inputJar, outputJar);
+            } else if (isProcessed(classEntries)) {
+                log.warning(() -> "jar file " + inputJar + " has already been processed, copying unchanged");
+                for (JarEntryData e : classEntries) {
+                    metrics.forClass(inputJar.toString(), getJarEntryClassName(e.entry().getName())).setStatus(ProcessingMetrics.Status.PROCESSED_BEFORE);
+                }
+                copyUnchanged(inputJar, outputJar);
+            } else {
+                instrumentJar(inputJar, outputJar, entries, classEntries);
+            }
+
+            writeReport(inputJar.toString(), outputJar.toString());
+        } finally {
+            this.classLoader = null;
+            this.metadataReader = null;
+            this.prefilter = null;
+            this.metrics = NO_METRICS;
+        }
+    }
+
+    /**
+     * Instruments the class files of a JAR and writes the output JAR.
+     *
+     * @param inputJar     the JAR file to process
+     * @param outputJar    the JAR file to write
+     * @param entries      all entries of the input JAR
+     * @param classEntries the entries of the class files to instrument
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    private void instrumentJar(Path inputJar, Path outputJar, List<JarEntryData> entries, List<JarEntryData> classEntries)
+            throws IOException, ClassFileProcessingFailedException {
+        List<Path> currentClasspath = new ArrayList<>(classpath);
+        currentClasspath.add(inputJar);
+
+        try (ClasspathIndex index = openClasspathIndex(currentClasspath)) {
+            openMetadataSource(index);
+
+            Map<String, byte[]> instrumented = new ConcurrentHashMap<>();
+            WorkerTask<ClassPool, JarEntryData> task = (classPool, entry) -> instrumentJarEntry(classPool, inputJar, entry, instrumented);
+
+            // classes that do not need checks are written unchanged
+            List<JarEntryData> entriesToProcess = classEntries.stream()
+                    .filter(e -> !prefilter.canSkip(e.data()))
+                    .toList();
+            log.fine(() -> (classEntries.size() - entriesToProcess.size()) + " class files do not need checks");
+
+            int parallelism = Math.min(options.effectiveParallelism(), entriesToProcess.size());
+            if (parallelism > 1) {
+                log.fine(() -> "processing " + entriesToProcess.size() + " class files using " + parallelism + " threads");
+                List<JarEntryData> schedule = new ArrayList<>(entriesToProcess);
+                schedule.sort(Comparator.comparingInt((JarEntryData e) -> e.data().length).reversed());
+                runParallel(schedule, () -> createClassPool(index), parallelism, task);
+            } else {
+                ClassPool classPool = createClassPool(index);
+                for (JarEntryData entry : entriesToProcess) {
+                    task.process(classPool, entry);
+                }
+            }
+
+            long writeStart = System.nanoTime();
+            writeJar(outputJar, entries, instrumented, options.effectiveParallelism());
+            metrics.addTime(ProcessingMetrics.Phase.WRITE, System.nanoTime() - writeStart);
+        }
+    }
+
+    /**
+     * An entry of a JAR file together with its uncompressed content.
+     *
+     * @param entry the entry
+     * @param data  the uncompressed content
+     */
+    private record JarEntryData(ZipEntry entry, byte[] data) {}
+
+    /**
+     * Reads all entries of a JAR file.
+     *
+     * @param jar the JAR file
+     * @return the entries in the order they appear in the JAR
+     * @throws IOException if an I/O error occurs
+     */
+    private static List<JarEntryData> readJar(Path jar) throws IOException {
+        List<JarEntryData> entries = new ArrayList<>();
+        try (ZipInputStream in = new ZipInputStream(new BufferedInputStream(Files.newInputStream(jar)))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                entries.add(new JarEntryData(entry, in.readAllBytes()));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Writes a JAR file, replacing the content of instrumented class files.
+     *
+     * <p>The entries are compressed concurrently, each worker thread using its own {@link Deflater}, and then written
+     * in their original order by the {@link JarWriter}. The compression method, time, extra data and comment of each
+     * entry are retained.
+     *
+     * @param jar          the JAR file to write
+     * @param entries      the entries of the input JAR
+     * @param instrumented map from entry name to the content of the instrumented class file
+     * @param parallelism  the number of threads used to compress the entries
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if compressing the entries is interrupted
+     */
+    private static void writeJar(Path jar, List<JarEntryData> entries, Map<String, byte[]> instrumented, int parallelism)
+            throws IOException, ClassFileProcessingFailedException {
+        JarWriter.Entry[] compressed = new JarWriter.Entry[entries.size()];
+        List<Integer> schedule = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            schedule.add(i);
+        }
+        WorkerTask<Deflater, Integer> task = (deflater, i) -> {
+            ZipEntry original = entries.get(i).entry();
+            byte[] data = instrumented.getOrDefault(original.getName(), entries.get(i).data());
+            compressed[i] = JarWriter.compress(deflater, original.getName(), original, data);
+        };
+
+        List<Deflater> deflaters = Collections.synchronizedList(new ArrayList<>());
+        Supplier<Deflater> deflaterFactory = () -> {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            deflaters.add(deflater);
+            return deflater;
+        };
+        try {
+            int threads = Math.min(parallelism, entries.size());
+            if (threads > 1) {
+                runParallel(schedule, deflaterFactory, threads, task);
+            } else {
+                Deflater deflater = deflaterFactory.get();
+                for (Integer i : schedule) {
+                    task.process(deflater, i);
+                }
+            }
+        } finally {
+            deflaters.forEach(Deflater::end);
+        }
+
+        // the target might be a hard link to the input of an earlier run, so never write into it
+        Files.deleteIfExists(jar);
+        JarWriter.write(jar, Arrays.asList(compressed));
+    }
+
+    /**
+     * Checks if a JAR entry is a class file that should be instrumented.
+     *
+     * <p>Entries below {@code META-INF/}, {@code module-info} and {@code package-info} are not instrumented.
+     *
+     * @param entry the entry
+     * @return true, if the entry should be instrumented
+     */
+    private static boolean isInstrumentableJarEntry(ZipEntry entry) {
+        String name = entry.getName();
+        return !entry.isDirectory()
+                && name.endsWith(".class")
+                && !name.startsWith("META-INF/")
+                && PATTERN_FQCN.matcher(getJarEntryClassName(name)).matches();
+    }
+
+    private static String getJarEntryClassName(String entryName) {
+        return entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.');
+    }
+
+    /**
+     * Checks if the class files contained in a JAR have already been processed.
+     *
+     * <p>Classes that did not receive any checks are not marked, so all class files are examined until a marked one
+     * is found. The constant pool of each class file is scanned for the name of the {@code CabeMeta} attribute, and
+     * only class files that contain the name are parsed.
+     *
+     * @param classEntries the JAR entries of the class files
+     * @return true, if any of the class files contains the CabeMeta attribute
+     * @throws IOException if a class file cannot be read
+     */
+    private static boolean isProcessed(List<JarEntryData> classEntries) throws IOException {
+        for (JarEntryData entry : classEntries) {
+            try {
+                if (!ClassFilePrefilter.scan(entry.data()).hasCabeAttributeName()) {
+                    continue;
+                }
+            } catch (IOException | RuntimeException e) {
+                // malformed class file, let the parser decide
+                LOG.log(Level.FINE, e, () -> "could not scan class file " + entry.entry().getName());
+            }
+            ClassFile cf = new ClassFile(new DataInputStream(new ByteArrayInputStream(entry.data())));
+            if (CabeAttribute.hasAttribute(cf)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Instruments a class file contained in a JAR.
+     *
+     * @param classPool    the class pool to use
+     * @param inputJar     the JAR file containing the entry
+     * @param entry        the JAR entry of the class file
+     * @param instrumented map to store the content of the instrumented class file in
+     * @throws ClassFileProcessingFailedException if processing of the class file fails
+     * @throws IOException                        if an I/O error occurs
+     */
+    private void instrumentJarEntry(ClassPool classPool, Path inputJar, JarEntryData entry, Map<String, byte[]> instrumented)
+            throws ClassFileProcessingFailedException, IOException {
+        String name = entry.entry().getName();
+        log.info(() -> "Instrumenting jar entry: " + name);
+
+        try {
+            String className = getJarEntryClassName(name);
+            byte[] data = instrumentClass(classPool, className, entry.data(), metrics.forClass(inputJar.toString(), className));
+            if (data != null) {
+                instrumented.put(name, data);
+            }
+        } catch (IOException e) {
+            throw new IOException("IOException while instrumenting class file " + name, e);
+        } catch (Exception e) {
+            throw new ClassFileProcessingFailedException("instrumenting failed for class file " + name, e);
+        }
+    }
+
+    /**
+     * Creates the {@link ClasspathIndex} for the classpath followed by an input folder.
+     *
+     * <p>When processing several folders using {@link #processFolders(Map)}, the shared index of the classpath is
+     * extended by the input folder.
+     *
+     * @param input the input folder
+     * @return the classpath index
+     */
+    private ClasspathIndex openClasspathIndex(Path input) {
+        if (sharedIndex != null) {
+            return sharedIndex.withDirectories(List.of(input));
+        }
+
+        List<Path> currentClasspath = new ArrayList<>(classpath);
+        currentClasspath.add(input);
+        return openClasspathIndex(currentClasspath);
+    }
+
+    /**
+     * Creates the {@link ClasspathIndex} for the current classpath.
+     *
+     * <p>If a classpath index file is set in the {@link ProcessingOptions}, the cache is loaded from the file before
+     * creating the index and the file is updated if JAR files had to be read.
+     *
+     * @param currentClasspath the classpath including the input
+     * @return the classpath index
+     */
+    private ClasspathIndex openClasspathIndex(List<Path> currentClasspath) {
+        Path indexFile = options.classpathIndex() == null ? null : Paths.get(options.classpathIndex());
+        if (indexFile != null) {
+            classpathCache.load(indexFile);
+        }
+
+        ClasspathIndex index = new ClasspathIndex(currentClasspath, classpathCache);
+
+        if (indexFile != null) {
+            try {
+                classpathCache.save(indexFile);
+            } catch (IOException e) {
+                log.log(Level.WARNING, e, () -> "could not write classpath index: " + indexFile);
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Sets up the source of the class metadata as selected by {@link ProcessingOptions#metadata()}.
+     *
+     * <p>Either the class loader used for reflection or the {@link ClassFileMetadataReader} is created. In both
+     * cases, the {@link ClassFilePrefilter} is set up.
+     *
+     * @param index the index of the classpath including the input
+     */
+    private void openMetadataSource(ClasspathIndex index) {
+        if (options.metadata() == ProcessingOptions.Metadata.CLASSFILE) {
+            this.metadataReader = new ClassFileMetadataReader(index);
+            this.prefilter = new ClassFilePrefilter(metadataReader);
+            return;
+        }
+
+        this.classLoader = createReflectionClassLoader(index);
+        // the prefilter only reads package and module annotations from class files, no classes are loaded
+        this.prefilter = new ClassFilePrefilter(new ClassFileMetadataReader(index));
+    }
+
+    /**
+     * Creates the class loader used to load the classes to process for reflection.
+     *
+     * <p>When processing several folders using {@link #processFolders(Map)}, the modules and classes on the classpath
+     * are loaded through class loaders that are shared by all folders. The class loader returned for an input folder
+     * then only resolves the modules and loads the classes of that folder.
+     *
+     * @param index the index of the classpath including the input
+     * @return the class loader
+     */
+    private ClassLoader createReflectionClassLoader(ClasspathIndex index) {
+        if (sharedIndex == null) {
+            ModuleClassLoader moduleClassLoader = new ModuleClassLoader(ClassLoader.getSystemClassLoader(), index.getModuleFinder());
+            return index.createClassLoader(moduleClassLoader);
+        }
+
+        if (sharedModuleClassLoader == null || sharedClassLoader == null) {
+            log.fine("creating class loaders for the shared classpath");
+            sharedModuleClassLoader = new ModuleClassLoader(ClassLoader.getSystemClassLoader(), sharedIndex.getModuleFinder());
+            sharedClassLoader = sharedIndex.createClassLoader(sharedModuleClassLoader);
+        }
+        ModuleClassLoader moduleClassLoader = new ModuleClassLoader(sharedClassLoader, sharedModuleClassLoader, index.getExtensionModuleFinder());
+        return index.createClassLoader(moduleClassLoader);
+    }
+
+    /**
+     * Processes a list of class files.
+     *
+     * <p>This is used when the class files to process have to be known in advance, i.e., for incremental processing
+     * and when processing in place.
+     *
+     * @param classFiles the class files to process
+     * @param index      the classpath index used to create the class pools
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    private void processClassFiles(List<Path> classFiles, ClasspathIndex index) throws IOException, ClassFileProcessingFailedException {
+        List<Path> filesToInstrument = classFiles;
+        if (isSameFolder(inputFolder, outputFolder)) {
+            // when processing in place, make sure the reflective view on all classes is taken before
+            // any class file is overwritten so that the result does not depend on the processing order
+            filesToInstrument = copyClassFilesWithoutChecks(classFiles);
+            preloadClasses(filesToInstrument);
+        }
+
+        if (filesToInstrument.isEmpty()) {
+            return;
+        }
+        if (options.memoryBudget() > 0) {
+            // when processing in place, the classes have been preloaded through the current class loader and
+            // replacing it would make the result depend on the processing order
+            runBatches(filesToInstrument, index, !isSameFolder(inputFolder, outputFolder));
+        } else {
+            runPipeline(scheduleLargestFirst(filesToInstrument, options.effectiveParallelism())::stream, index);
+        }
+    }
+
+    /**
+     * Sets up the metrics for a new run. Metrics are only collected when a report file is set in the
+     * {@link ProcessingOptions}.
+     */
+    private void startMetrics() {
+        this.metrics = options.report() == null ? NO_METRICS : new ProcessingMetrics(true);
+        metrics.start();
+    }
+
+    /**
+     * Writes the processing report if a report file is set in the {@link ProcessingOptions} and logs a summary.
+     *
+     * @param input  the processed input
+     * @param output the output
+     * @throws IOException if an I/O error occurs
+     */
+    private void writeReport(String input, String output) throws IOException {
+        if (options.report() == null) {
+            return;
+        }
+
+        Path reportFile = Paths.get(options.report());
+        metrics.write(reportFile, input, output, configuration, options);
+        String summary = ProcessingMetrics.summarize(reportFile);
+        log.info(() -> summary);
+        log.fine(() -> "processing report written to " + reportFile);
+    }
+
+    /**
+     * Returns a stream of the class files in a folder and its subfolders.
+     *
+     * @param folder the folder
+     * @return the stream of class files; the stream must be closed after use
+     * @throws IOException if an I/O error occurs
+     */
+    private static Stream<Path> walkClassFiles(Path folder) throws IOException {
+        return Files.walk(folder)
+                .filter(Files::isRegularFile)
+                .filter(f -> String.valueOf(f.getFileName()).endsWith(".class"));
+    }
+
+    /**
+     * Processes class files using a {@link ProcessingPipeline}.
+     *
+     * <p>The number of instrumenting threads is given by {@link ProcessingOptions#effectiveParallelism()}, the number
+     * of reading and of writing threads by {@link ProcessingOptions#ioParallelism()}.
+     *
+     * @param source the source of the class files
+     * @param index  the classpath index used to create the class pools
+     * @return the number of class files processed
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    private long runPipeline(ProcessingPipeline.Source source, ClasspathIndex index) throws IOException, ClassFileProcessingFailedException {
+        ProcessingPipeline pipeline = new ProcessingPipeline(
+                options.ioParallelism(),
+                options.effectiveParallelism(),
+                options.ioParallelism(),
+                () -> createClassPool(index),
+                new FolderStages()
+        );
+        return pipeline.run(source);
+    }
+
+    /**
+     * Orders class files so that the largest are processed first when using more than one instrumenting thread, so
+     * that no single large class file delays the end of processing. Class files of equal size keep their order.
+     *
+     * @param classFiles  the class files
+     * @param parallelism the number of instrumenting threads
+     * @return the class files in processing order
+     * @throws IOException if the size of a class file cannot be determined
+     */
+    static List<Path> scheduleLargestFirst(List<Path> classFiles, int parallelism) throws IOException {
+        if (parallelism <= 1 || classFiles.size() <= 1) {
+            return classFiles;
+        }
+
+        Map<Path, Long> sizes = new HashMap<>();
+        for (Path classFile : classFiles) {
+            sizes.put(classFile, Files.size(classFile));
+        }
+        List<Path> schedule = new ArrayList<>(classFiles);
+        schedule.sort(Comparator.comparing(sizes::get, Comparator.reverseOrder()));
+        return schedule;
+    }
+
+    /**
+     * Processes class files in batches of whole packages so that the memory used does not grow with the size of the
+     * input.
+     *
+     * <p>Each batch is run through its own {@link ProcessingPipeline}, so the class pools of the worker threads,
+     * including all classes pulled in as supertypes or referenced types, are discarded after each batch. When the
+     * heap and metaspace in use exceed {@link ProcessingOptions#memoryBudget()} after a batch, the class loader used
+     * for reflection is replaced as well, so that the classes loaded so far can be unloaded. The facts read by the
+     * {@link ClassFileMetadataReader} and the nullness of packages and modules are compact and are kept for the
+     * whole run.
+     *
+     * @param classFiles         the class files to process
+     * @param index              the classpath index used to create the class pools and class loaders
+     * @param recycleClassLoader whether the class loader may be replaced between batches
+     * @return the number of class files processed
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    private long runBatches(List<Path> classFiles, ClasspathIndex index, boolean recycleClassLoader)
+            throws IOException, ClassFileProcessingFailedException {
+        List<List<Path>> batches = createBatches(classFiles, maxBatchSize);
+        log.fine(() -> "processing " + classFiles.size() + " class files in " + batches.size() + " batches");
+
+        long count = 0;
+        for (int i = 0; i < batches.size(); i++) {
+            count += runPipeline(scheduleLargestFirst(batches.get(i), options.effectiveParallelism())::stream, index);
+
+            long inUse = getMemoryInUse();
+            if (i < batches.size() - 1 && inUse > options.memoryBudget()) {
+                log.fine(() -> "memory in use (" + (inUse >> 20) + " MiB) exceeds budget, releasing loaded classes");
+                if (recycleClassLoader && classLoader != null) {
+                    // the class loaders of a shared classpath are recreated as well
+                    this.sharedModuleClassLoader = null;
+                    this.sharedClassLoader = null;
+                    this.classLoader = createReflectionClassLoader(index);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Sets the maximum number of class files in a batch when processing with a memory budget. This allows testing
+     * the release of loaded classes between batches with small inputs.
+     *
+     * @param maxBatchSize the maximum number of class files in a batch containing more than one package
+     */
+    void setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("invalid batch size: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Groups class files into batches of whole packages of up to {@code maxBatchSize} class files. A package that
+     * contains more class files forms a batch of its own. The order of the packages is retained.
+     *
+     * @param classFiles   the class files
+     * @param maxBatchSize the maximum number of class files in a batch containing more than one package
+     * @return the batches
+     */
+    static List<List<Path>> createBatches(List<Path> classFiles, int maxBatchSize) {
+        Map<Path, List<Path>> packages = new LinkedHashMap<>();
+        for (Path classFile : classFiles) {
+            packages.computeIfAbsent(classFile.getParent(), k -> new ArrayList<>()).add(classFile);
+        }
+
+        List<List<Path>> batches = new ArrayList<>();
+        List<Path> batch = new ArrayList<>();
+        for (List<Path> pkg : packages.values()) {
+            if (!batch.isEmpty() && batch.size() + pkg.size() > maxBatchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+            }
+            batch.addAll(pkg);
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Returns the amount of heap and metaspace currently in use. The heap figure includes objects that are no
+     * longer reachable but have not yet been collected, so the value errs on the high side.
+     *
+     * @return the memory in use in bytes
+     */
+    private static long getMemoryInUse() {
+        Runtime rt = Runtime.getRuntime();
+        long inUse = rt.totalMemory() - rt.freeMemory();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.NON_HEAP && pool.getName().equals("Metaspace")) {
+                inUse += pool.getUsage().getUsed();
+            }
+        }
+        return inUse;
+    }
+
+    /**
+     * The stages used to process the class files of the current input folder.
+     */
+    private final class FolderStages implements ProcessingPipeline.Stages {
+        @Override
+        public byte @Nullable [] read(Path classFile) throws IOException {
+            String className = getClassName(classFile);
+            if (!PATTERN_FQCN.matcher(className).matches()) {
+                if (!className.equals("module-info") && !className.endsWith(".package-info")) {
+                    log.warning(() -> "unusual class file name: " + classFile.getFileName() + " [" + classFile + "]");
+                }
+                return null;
+            }
+
+            long start = System.nanoTime();
+            byte[] data = Files.readAllBytes(classFile);
+            ProcessingMetrics.ClassMetrics classMetrics = metrics.forClass(inputFolder.toString(), className);
+            classMetrics.addTime(ProcessingMetrics.Phase.READ, System.nanoTime() - start);
+            classMetrics.setBytesBefore(data.length);
+            return prefilter.canSkip(data) ? null : data;
+        }
+
+        @Override
+        public byte @Nullable [] instrument(ClassPool classPool, Path classFile, byte[] data)
+                throws IOException, ClassFileProcessingFailedException {
+            log.info(() -> "Instrumenting class file: " + classFile);
+
+            String className = getClassName(classFile);
+            log.fine(() -> "Class " + className);
+
+            try {
+                byte[] instrumented = instrumentClass(classPool, className, data, metrics.forClass(inputFolder.toString(), className));
+                log.fine(() -> "instrumenting class file successful: " + classFile);
+                return instrumented;
+            } catch (IOException e) {
+                throw new IOException("IOException while instrumenting class file " + classFile, e);
+            } catch (Exception e) {
+                throw new ClassFileProcessingFailedException("instrumenting failed for class file " + classFile, e);
+            }
+        }
+
+        @Override
+        public void copy(Path classFile) throws IOException {
+            long start = System.nanoTime();
+            Path target = getTarget(classFile);
+            log.fine(() -> "copying unchanged: " + classFile + " -> " + target);
+            copyUnchanged(classFile, target);
+            metrics.forClass(inputFolder.toString(), getClassName(classFile)).addTime(ProcessingMetrics.Phase.WRITE, System.nanoTime() - start);
+        }
 
-            LOG.fine(() -> "args: %s".formatted(String.join(" ", args)));
+        @Override
+        public void write(Path classFile, byte[] data) throws IOException {
+            long start = System.nanoTime();
+            try {
+                writeAtomically(getTarget(classFile), data);
+            } finally {
+                metrics.forClass(inputFolder.toString(), getClassName(classFile)).addTime(ProcessingMetrics.Phase.WRITE, System.nanoTime() - start);
+            }
+        }
 
-            String inputFolder = getOptionString(cmdLine, "-i", usedArgs);
-            String outputFolder = getOptionString(cmdLine, "-o", usedArgs);
-            String configStr = getOptionString(cmdLine, "-c", usedArgs, "standard");
-            String classpath = getOptionString(cmdLine, "-cp", usedArgs, "");
+        private void writeAtomically(Path target, byte[] data) throws IOException {
+            if (hasContent(target, data)) {
+                log.fine(() -> "output is up to date: " + target);
+                return;
+            }
 
-            configuration = Configuration.parse(configStr);
+            // write to a temporary file first and replace the target atomically; the target might be a hard link to
+            // an input file, so never write into it
+            log.fine(() -> "writing class file: " + target);
+            Path tmp = Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+            try {
+                Files.write(tmp, data);
+                try {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
 
-            in = Paths.get(inputFolder);
-            out = Paths.get(outputFolder);
-            classPaths = Arrays.stream(classpath.split(File.pathSeparator)).map(Paths::get).toList();
-        } catch (RuntimeException e) {
-            System.err.println("Commandline error: " + e.getMessage());
-            System.err.println("Command Arguments: " + Arrays.stream(args)
-                    .map(s -> "\"" + s.replace("\"", "\\\"") + "\"")
-                    .collect(Collectors.joining(" ")));
-            System.exit(1);
+        private Path getTarget(Path classFile) throws IOException {
+            Path target = outputFolder.resolve(inputFolder.relativize(classFile));
+            createParentDirectories(target);
+            return target;
         }
+    }
 
-        // check that all arguments have been processed
-        for (int i = 0; i < args.length; i++) {
-            if (!usedArgs.get(i)) {
-                System.err.println("Unexpected argument: " + args[i]);
-                System.exit(2);
+    /**
+     * Copies the class files that do not need any checks as determined by the {@link ClassFilePrefilter} to the
+     * output folder.
+     *
+     * @param classFiles the class files
+     * @return the class files that have to be processed
+     * @throws IOException if an I/O error occurs
+     */
+    private List<Path> copyClassFilesWithoutChecks(List<Path> classFiles) throws IOException {
+        List<Path> remaining = new ArrayList<>(classFiles.size());
+        for (Path classFile : classFiles) {
+            if (!PATTERN_FQCN.matcher(getClassName(classFile)).matches() || !prefilter.canSkip(Files.readAllBytes(classFile))) {
+                remaining.add(classFile);
+                continue;
             }
-        }
 
-        try {
-            ClassPatcher classPatcher = new ClassPatcher(classPaths, configuration);
-            classPatcher.processFolder(in, out);
-        } catch (RuntimeException | IOException | ClassFileProcessingFailedException e) {
-            LOG.log(Level.SEVERE, "Error processing class files", e);
-            System.err.println("Error: " + e.getMessage());
-            System.exit(2);
+            Path target = outputFolder.resolve(inputFolder.relativize(classFile));
+            log.fine(() -> "copying unchanged: " + classFile + " -> " + target);
+            createParentDirectories(target);
+            copyUnchanged(classFile, target);
         }
+        log.fine(() -> (classFiles.size() - remaining.size()) + " class files do not need checks");
+        return remaining;
     }
 
-    private static String messageOptionNotFound(String option) {
-        return String.format("Option '%s' not found at expected position", option);
+    /**
+     * Computes the hashes of the given files.
+     *
+     * @param files the files
+     * @return map from file to hash
+     * @throws IOException if an I/O error occurs
+     */
+    private static Map<Path, String> hashFiles(List<Path> files) throws IOException {
+        Map<Path, String> hashes = new HashMap<>();
+        for (Path file : files) {
+            hashes.put(file, ProcessingManifest.hash(file));
+        }
+        return hashes;
     }
 
-    private static String getOptionString(List<String> cmdLine, String option, BitSet usedArgs) {
-        String value = getOptionString(cmdLine, option, usedArgs, null);
-        return Objects.requireNonNull(value, () -> messageOptionNotFound(option));
+    /**
+     * Computes the manifest key for the current configuration and nullness context.
+     *
+     * <p>The nullness context is given by the {@code package-info} and {@code module-info} class files: when one of
+     * these changes, the nullness of any class in the input folder might change.
+     *
+     * @param inputHashes the hashes of all class files in the input folder
+     * @return the manifest key
+     */
+    private String computeManifestKey(Map<Path, String> inputHashes) {
+        Map<String, String> contextHashes = new HashMap<>();
+        inputHashes.forEach((classFile, hash) -> {
+            String fileName = String.valueOf(classFile.getFileName());
+            if (fileName.equals("package-info.class") || fileName.equals("module-info.class")) {
+                contextHashes.put(getManifestPath(classFile), hash);
+            }
+        });
+        return ProcessingManifest.computeKey(configuration, options.emitter(), contextHashes);
     }
 
-    private static String getOptionString(List<String> cmdLine, String option, BitSet usedArgs, String defaultValue) {
-        int idxInput = cmdLine.indexOf(option);
-        if (idxInput < 0) {
-            return defaultValue;
+    /**
+     * Determines which class files have to be processed when processing incrementally.
+     *
+     * <p>The manifest of the previous run is read and removed from the output folder, so that no outdated manifest is
+     * left behind if processing fails. Outputs of class files that have been removed from the input folder are
+     * deleted. Entries for class files that do not need to be processed are copied to the new manifest.
+     *
+     * @param classFiles  the class files in the input folder
+     * @param inputHashes the hashes of the class files
+     * @param manifest    the manifest for the current run
+     * @return the class files to process
+     * @throws IOException if an I/O error occurs
+     */
+    private List<Path> selectFilesToProcess(List<Path> classFiles, Map<Path, String> inputHashes, ProcessingManifest manifest) throws IOException {
+        Path manifestFile = outputFolder.resolve(ProcessingManifest.FILE_NAME);
+        ProcessingManifest previous = ProcessingManifest.read(manifestFile);
+        Files.deleteIfExists(manifestFile);
+
+        if (previous == null) {
+            log.info("no manifest found, processing all class files");
+            return classFiles;
         }
 
-        if (usedArgs.get(idxInput)) {
-            throw new IllegalArgumentException("Could not parse the command line at '" + cmdLine.get(idxInput) + "'");
+        Set<String> currentPaths = classFiles.stream().map(this::getManifestPath).collect(Collectors.toSet());
+        Set<String> changedNests = new HashSet<>();
+        for (String path : previous.paths()) {
+            if (!currentPaths.contains(path)) {
+                Path target = outputFolder.resolve(path);
+                log.fine(() -> "deleting output of removed class file: " + target);
+                Files.deleteIfExists(target);
+                changedNests.add(ProcessingManifest.nestKey(path));
+            }
         }
-        usedArgs.set(idxInput);
 
-        if (usedArgs.get(idxInput + 1)) {
-            throw new IllegalArgumentException("Missing argument to option '" + cmdLine.get(idxInput) + "'");
+        if (!previous.key().equals(manifest.key())) {
+            log.info("processor version, configuration or nullness context changed, processing all class files");
+            return classFiles;
         }
-        usedArgs.set(idxInput + 1);
 
-        return cmdLine.get(idxInput + 1);
-    }
+        boolean inPlace = isSameFolder(inputFolder, outputFolder);
+        Map<Path, ProcessingManifest.Entry> upToDate = new HashMap<>();
+        for (Path classFile : classFiles) {
+            String path = getManifestPath(classFile);
+            ProcessingManifest.Entry entry = previous.get(path);
+            if (entry != null && isUpToDate(classFile, inputHashes.get(classFile), entry, inPlace)) {
+                upToDate.put(classFile, entry);
+            } else {
+                changedNests.add(ProcessingManifest.nestKey(path));
+            }
+        }
 
-    private static void help() {
-        String msg = """
-                ClassPatcher
-                ============
-                
-                Add null checks in Java class file byte code.
-                
-                Usage: java -jar <jar-file> -i <input-folder> -o <output-folder> [-c <configuration>] [-cp <classpath>] [-v <verbosity>]
-                
-                    <configuration>  : STANDARD|DEVELOPMENT|NO_CHECKS|<configstr> (default: STANDARD)
-                
-                                       STANDARD    - use standard assertions for private API methods,
-                                                       throw NullPointerException for public API methods
-                                       DEVELOPMENT - failed checks will always throw an AssertionError, also checks return values
-                                       NO_CHECKS   - do not add any null checks (class files are copied unchanged)
-                                       <configstr> - configuration string as described in the documentation
-                
-                    <verbosity>      : 0 - show warnings and errors only (default)
-                                     : 1 - show basic processing information
-                                     : 2 - show detailed information
-                                     : 3 - show all information
-                """;
-        System.out.println(msg);
+        List<Path> filesToProcess = new ArrayList<>();
+        for (Path classFile : classFiles) {
+            String path = getManifestPath(classFile);
+            ProcessingManifest.Entry entry = upToDate.get(classFile);
+            // when processing in place, an up-to-date input has already been replaced by its output and
+            // cannot be processed again, even if other class files of the same nest changed
+            if (entry != null && (inPlace || !changedNests.contains(ProcessingManifest.nestKey(path)))) {
+                manifest.put(path, entry);
+            } else {
+                filesToProcess.add(classFile);
+            }
+        }
+
+        log.info(() -> "%d of %d class files need to be processed".formatted(filesToProcess.size(), classFiles.size()));
+        return filesToProcess;
     }
 
     /**
-     * Regular expression pattern for matching Fully Qualified Class Names (FQCN).
-     * FQCN is a string representing the package and class name of a Java class.
-     * The pattern matches valid Java identifiers separated by dots, allowing for nested classes.
-     * It does not match reserved keywords or invalid identifier characters.
+     * Checks whether the output for a class file recorded in the manifest is still valid.
+     *
+     * @param classFile the class file
+     * @param hash      the hash of the class file
+     * @param entry     the manifest entry from the previous run
+     * @param inPlace   {@code true}, if input and output folder are the same
+     * @return {@code true}, if the class file does not need to be processed
+     * @throws IOException if an I/O error occurs
      */
-    private static final Pattern PATTERN_FQCN = Pattern.compile(
-            "^(?:(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)\\.)*" +
-            "(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*)" +
-            "(?:\\$(?>\\p{javaJavaIdentifierStart}\\p{javaJavaIdentifierPart}*))*$"
-    );
+    private boolean isUpToDate(Path classFile, String hash, ProcessingManifest.Entry entry, boolean inPlace) throws IOException {
+        if (inPlace) {
+            return hash.equals(entry.outputHash());
+        }
 
-    private static final Pattern GET_CLASS_NAME_PATTERN = Pattern.compile("\\.[^.]*$");
+        Path target = outputFolder.resolve(inputFolder.relativize(classFile));
+        return hash.equals(entry.inputHash())
+                && Files.isRegularFile(target)
+                && ProcessingManifest.hash(target).equals(entry.outputHash());
+    }
 
-    private final List<Path> classpath;
-    private final Configuration configuration;
-    private ClassLoader classLoader;
-    private ClassPool classPool;
-    private Path inputFolder;
-    private Path outputFolder;
+    /**
+     * Returns the path of a class file relative to the input folder as used in the manifest.
+     *
+     * @param classFile the class file
+     * @return the relative path using '/' as separator
+     */
+    private String getManifestPath(Path classFile) {
+        return inputFolder.relativize(classFile).toString().replace(File.separatorChar, '/');
+    }
 
     /**
-     * This class represents a ClassPatcher object that manipulates class files in a given classpath.
+     * Creates a new {@link ClassPool} that looks up classes using the given {@link ClasspathIndex}.
      *
-     * @param classpath     the compile-classpath
-     * @param configuration the {@link Configuration} to use
+     * <p>Javassist class pools are not thread-safe, so each worker thread uses its own instance. All instances share
+     * the same index.
+     *
+     * @param index the classpath index
+     * @return the new class pool
      */
-    public ClassPatcher(Collection<Path> classpath, Configuration configuration) {
-        this.classpath = new ArrayList<>(Objects.requireNonNull(classpath, "classpath is null"));
-        this.configuration = Objects.requireNonNull(configuration, "configuration is null");
+    private ClassPool createClassPool(ClasspathIndex index) {
+        ProcessingMetrics runMetrics = metrics;
+        ClassPool classPool = new ClassPool(true) {
+            @Override
+            protected void cacheCtClass(String classname, CtClass c, boolean dynamic) {
+                super.cacheCtClass(classname, c, dynamic);
+                runMetrics.addClassPoolEntry();
+            }
+        };
+        classPool.appendClassPath(index.getClassPath());
+        return classPool;
     }
 
     /**
-     * Process a folder containing class files.
+     * Creates the parent directory of an output file unless it has already been created during the current run.
      *
-     * @param inputFolder  the folder to process
-     * @param outputFolder the folder to write the patched files to
-     * @throws IOException                        if an I/O error occurs
-     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     * @param target the output file
+     * @throws IOException if an I/O error occurs
      */
-    public synchronized void processFolder(Path inputFolder, Path outputFolder) throws IOException, ClassFileProcessingFailedException {
+    private void createParentDirectories(Path target) throws IOException {
+        Path parent = target.getParent();
+        if (parent == null || createdDirectories.containsKey(parent)) {
+            return;
+        }
         try {
-            LOG.fine(() -> "process folder " + inputFolder);
+            createdDirectories.computeIfAbsent(parent, dir -> {
+                try {
+                    Files.createDirectories(dir);
+                    return Boolean.TRUE;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
 
-            this.inputFolder = Objects.requireNonNull(inputFolder, "input folder is null");
-            this.outputFolder = Objects.requireNonNull(outputFolder, "output folder is null");
-            this.classPool = new ClassPool(true);
+    /**
+     * Checks whether a file exists and has the given content.
+     *
+     * @param file the file
+     * @param data the expected content
+     * @return {@code true}, if the file exists and its content equals {@code data}
+     * @throws IOException if an I/O error occurs
+     */
+    private static boolean hasContent(Path file, byte[] data) throws IOException {
+        return Files.isRegularFile(file)
+                && Files.size(file) == data.length
+                && Arrays.equals(Files.readAllBytes(file), data);
+    }
 
-            // no directory
-            if (!Files.exists(inputFolder)) {
-                LOG.info(() -> "input does not exist, ignoring: " + inputFolder);
-                return;
-            }
-            if (!Files.isDirectory(inputFolder)) {
-                LOG.warning(() -> "Not a directory, ignoring: " + inputFolder);
+    /**
+     * Copies a file that is passed through unchanged without reading its content into memory.
+     *
+     * <p>If the target already exists and has the same content as the source, it is left untouched so that its
+     * timestamp does not change. Otherwise, if source and target are on the same file system, a hard link is
+     * created. If that is not possible, e.g., because the file system does not support hard links, the data is
+     * transferred using {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} so that
+     * the copy is done by the operating system. As the target may be a hard link to the source, files in the output
+     * are always replaced and never written to.
+     *
+     * @param source the source file
+     * @param target the target file
+     * @throws IOException if an I/O error occurs
+     */
+    private void copyUnchanged(Path source, Path target) throws IOException {
+        if (Files.isRegularFile(target)
+                && (Files.isSameFile(source, target) || Files.size(source) == Files.size(target) && Files.mismatch(source, target) == -1L)) {
+            log.fine(() -> "output is up to date: " + target);
+            return;
+        }
+
+        Files.deleteIfExists(target);
+
+        if (useHardLinks) {
+            try {
+                Files.createLink(target, source);
                 return;
+            } catch (IOException | UnsupportedOperationException e) {
+                // e.g., different file systems; do not try again during this run
+                log.fine(() -> "could not create hard link, copying files instead: " + e.getMessage());
+                useHardLinks = false;
             }
+        }
 
-            List<Path> currentClasspath = new ArrayList<>(classpath);
-            List<URL> classpathUrls = new ArrayList<>();
-            currentClasspath.add(inputFolder);
-
-            currentClasspath.forEach(cp -> {
-                try {
-                    classPool.appendClassPath(cp.toString());
-                    classpathUrls.add(cp.toUri().toURL());
-                } catch (NotFoundException e) {
-                    LOG.warning("could not add to class pool: " + cp);
-                } catch (MalformedURLException e) {
-                    LOG.warning("could not convert to URL: " + cp);
-                }
-            });
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+            long size = in.size();
+            for (long position = 0; position < size; ) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+    }
 
-            ModuleClassLoader moduleClassLoader = new ModuleClassLoader(ClassLoader.getSystemClassLoader(), currentClasspath.toArray(Path[]::new));
-            try (var cl = new URLClassLoader(classpathUrls.toArray(URL[]::new), moduleClassLoader)) {
-                this.classLoader = cl;
+    private static boolean isSameFolder(Path a, Path b) {
+        try {
+            return Files.exists(b) && Files.isSameFile(a, b);
+        } catch (IOException e) {
+            return false;
+        }
+    }
 
-                List<Path> classFiles;
-                try (Stream<Path> paths = Files.walk(inputFolder)) {
-                    classFiles = paths
-                            .filter(Files::isRegularFile)
-                            .filter(f -> String.valueOf(f.getFileName()).endsWith(".class"))
-                            .toList();
+    /**
+     * Loads all classes to be processed through the class loader used for reflection, or reads the information
+     * about the classes needed when processing other classes from the class files.
+     *
+     * @param classFiles the class files to load
+     */
+    private void preloadClasses(List<Path> classFiles) {
+        for (Path classFile : classFiles) {
+            String className = getClassName(classFile);
+            if (PATTERN_FQCN.matcher(className).matches()) {
+                if (metadataReader != null) {
+                    metadataReader.preload(className);
+                    continue;
                 }
-
-                if (classFiles.isEmpty()) {
-                    LOG.info("no class files!");
-                    return;
+                try {
+                    Class.forName(className, false, classLoader);
+                } catch (ClassNotFoundException | LinkageError e) {
+                    // the error will be reported when the class is processed
+                    log.log(Level.FINE, e, () -> "could not preload class " + className);
                 }
-
-                processClassFiles(classFiles);
             }
-        } finally {
-            this.classLoader = null;
-            this.inputFolder = null;
-            this.classPool = null;
         }
     }
 
     /**
-     * Processes a list of class files by calling the {@link #instrumentClassFile(Path)} method for each file.
+     * A task that processes a single item using a resource owned by the worker thread, e.g., a {@link ClassPool}.
+     *
+     * @param <R> the resource type
+     * @param <T> the item type
+     */
+    @FunctionalInterface
+    private interface WorkerTask<R, T> {
+        void process(R resource, T item) throws IOException, ClassFileProcessingFailedException;
+    }
+
+    /**
+     * Runs a task for each item using multiple worker threads.
      *
-     * @param classFiles the list of class files to process
+     * <p>Items are submitted in the given order. Each worker thread uses its own resource, e.g., a {@link ClassPool}.
+     *
+     * @param schedule        the items to process
+     * @param resourceFactory creates the resource for a worker thread
+     * @param parallelism     the number of worker threads
+     * @param task            the task to run for each item
+     * @param <R>             the resource type
+     * @param <T>             the item type
      * @throws IOException                        if an I/O error occurs
-     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     * @throws ClassFileProcessingFailedException if processing of an item fails
      */
-    private void processClassFiles(List<Path> classFiles) throws IOException, ClassFileProcessingFailedException {
-        for (Path classFile : classFiles) {
-            instrumentClassFile(classFile);
+    private static <R, T> void runParallel(List<T> schedule, Supplier<R> resourceFactory, int parallelism, WorkerTask<R, T> task)
+            throws IOException, ClassFileProcessingFailedException {
+        ThreadLocal<R> workerResource = ThreadLocal.withInitial(resourceFactory);
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "cabe-worker-" + threadCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(schedule.size());
+            for (T item : schedule) {
+                futures.add(executor.submit(() -> {
+                    task.process(workerResource.get(), item);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClassFileProcessingFailedException("interrupted while processing class files", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException ioe) {
+                throw ioe;
+            }
+            if (cause instanceof ClassFileProcessingFailedException cfpfe) {
+                throw cfpfe;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            if (cause instanceof Error err) {
+                throw err;
+            }
+            throw new ClassFileProcessingFailedException("processing class files failed", cause);
+        } finally {
+            executor.shutdownNow();
         }
     }
 
     /**
-     * Instruments a class file by adding null-check assertions for method parameters.
+     * Instruments a class by adding null checks and returns the resulting class file.
      *
-     * @param classFile the path to the class file to be instrumented
-     * @throws ClassFileProcessingFailedException if processing of the class file fails
+     * @param classPool the class pool to use
+     * @param className the name of the class to instrument
+     * @param classFile the content of the class file
+     * @param classMetrics the metrics of the class
+     * @return the content of the instrumented class file, or {@code null} if the class has already been processed or
+     *         does not need any checks and the class file should be copied unchanged
+     * @throws ClassFileProcessingFailedException if processing of the class fails
+     * @throws ClassNotFoundException             if the class cannot be loaded for reflection
+     * @throws NotFoundException                  if the class cannot be found in the class pool
      * @throws IOException                        if an I/O error occurs
      */
-    private void instrumentClassFile(Path classFile) throws ClassFileProcessingFailedException, IOException {
-        LOG.info(() -> "Instrumenting class file: " + classFile);
-
-        Files.createDirectories(outputFolder.resolve(inputFolder.relativize(classFile.getParent())));
-
-        String className = getClassName(classFile);
-        LOG.fine(() -> "Class " + className);
-
-        if (!PATTERN_FQCN.matcher(className).matches()) {
-            if (!className.equals("module-info") && !className.endsWith(".package-info")) {
-                LOG.warning(() -> "unusual class file name: " + classFile.getFileName() + " [" + classFile + "]");
+    private byte @Nullable [] instrumentClass(ClassPool classPool, String className, byte[] classFile, ProcessingMetrics.ClassMetrics classMetrics)
+            throws ClassFileProcessingFailedException, ClassNotFoundException, NotFoundException, IOException {
+        // use the data already in memory instead of looking up the class file again
+        long start = System.nanoTime();
+        CtClass ctClass = classPool.makeClassIfNew(new ByteArrayInputStream(classFile));
+        classMetrics.addTime(ProcessingMetrics.Phase.ANALYZE, System.nanoTime() - start);
+        int originalMajorVersion = ctClass.getClassFile().getMajorVersion();
+        int originalMinorVersion = ctClass.getClassFile().getMinorVersion();
+
+        // Check if the class has already been processed
+        if (CabeAttribute.hasAttribute(ctClass)) {
+            String version = CabeAttribute.getProcessorVersion(ctClass);
+            if (configurationFingerprint.equals(CabeAttribute.getConfiguration(ctClass))) {
+                log.fine(() -> "class file " + className + " has already been processed using the same configuration, copying unchanged");
+            } else {
+                log.warning(() -> "class file " + className + " has already been processed by processor version " + version + " using a different configuration, copying unchanged");
             }
-
-            Path target = outputFolder.resolve(inputFolder.relativize(classFile));
-            LOG.fine(() -> "copying unchanged: " + classFile + " -> " + target);
-            Files.copy(classFile, target, StandardCopyOption.REPLACE_EXISTING);
-            return;
+            classMetrics.setStatus(ProcessingMetrics.Status.PROCESSED_BEFORE);
+            return null;
         }
 
+        start = System.nanoTime();
+        ClassInfo classInfo = metadataReader != null
+                ? ClassInfo.forClassFile(ctClass.getClassFile(), metadataReader)
+                : ClassInfo.forClass(classLoader.loadClass(className));
+        classMetrics.addTime(ProcessingMetrics.Phase.REFLECT, System.nanoTime() - start);
+
         try {
-            ClassInfo classInfo = ClassInfo.forClass(classLoader.loadClass(className));
-            CtClass ctClass = classPool.getCtClass(className);
-            int originalMajorVersion = ctClass.getClassFile().getMajorVersion();
-            int originalMinorVersion = ctClass.getClassFile().getMinorVersion();
-            
-            // Check if the class has already been processed
-            if (CabeAttribute.hasAttribute(ctClass)) {
-                String version = CabeAttribute.getProcessorVersion(ctClass);
-                LOG.warning(() -> "class file " + className + " has already been processed by processor version " + version + ", copying unchanged");
-                
-                Path target = outputFolder.resolve(inputFolder.relativize(classFile));
-                LOG.fine(() -> "copying unchanged: " + classFile + " -> " + target);
-                Files.copy(classFile, target, StandardCopyOption.REPLACE_EXISTING);
-                return;
-            }
-            
-            try {
-                for (var methodInfo : classInfo.methods()) {
-                    try {
-                        instrumentMethod(classInfo, methodInfo);
-                    } finally {
-                        ctClass.defrost();
-                    }
+            // the time spent in the emitter is recorded as compile time by instrumentMethod()
+            start = System.nanoTime();
+            long compileTime = classMetrics.getTime(ProcessingMetrics.Phase.COMPILE);
+            boolean modified = false;
+            Map<String, CtBehavior> behaviours = indexCtBehaviours(ctClass);
+            for (var methodInfo : classInfo.methods()) {
+                try {
+                    modified |= instrumentMethod(classPool, classInfo, methodInfo, behaviours, classMetrics);
+                } finally {
+                    ctClass.defrost();
                 }
+            }
+            compileTime = classMetrics.getTime(ProcessingMetrics.Phase.COMPILE) - compileTime;
+            classMetrics.addTime(ProcessingMetrics.Phase.ANALYZE, System.nanoTime() - start - compileTime);
+
+            // classes without checks are not marked so that they can be copied unchanged
+            if (!modified) {
+                log.fine(() -> "no checks needed for class " + className);
+                classMetrics.setStatus(ProcessingMetrics.Status.UNCHANGED);
+                return null;
+            }
 
-                // Add the CabeMeta attribute to mark the class as processed
-                CabeAttribute.addToClass(ctClass, com.dua3.cabe.processor.CabeProcessorMetaData.PROCESSOR_VERSION);
-                
-                // Verify that the attribute was added correctly
-                if (!CabeAttribute.hasAttribute(ctClass)) {
-                    LOG.warning(() -> "Failed to add CabeMeta attribute to class " + className);
-                } else {
-                    String version = CabeAttribute.getProcessorVersion(ctClass);
-                    LOG.fine(() -> "Added CabeMeta attribute to class " + className + " with processor version " + version);
-                }
+            start = System.nanoTime();
 
-                // Write the class file
-                LOG.fine(() -> "writing class file: " + classFile);
-                Path target = outputFolder.resolve(inputFolder.relativize(classFile));
-                Path parent = target.getParent();
-                if (parent != null) {
-                    Files.createDirectories(parent);
-                }
-                ctClass.getClassFile().setMajorVersion(originalMajorVersion);
-                ctClass.getClassFile().setMinorVersion(originalMinorVersion);
-                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(target)))) {
-                    ctClass.getClassFile().write(out);
-                }
+            // Add the CabeMeta attribute to mark the class as processed
+            CabeAttribute.addToClass(ctClass, com.dua3.cabe.processor.CabeProcessorMetaData.PROCESSOR_VERSION, configurationFingerprint);
 
-                LOG.fine(() -> "instrumenting class file successful: " + classFile);
-            } finally {
-                ctClass.detach();
+            // Verify that the attribute was added correctly
+            if (!CabeAttribute.hasAttribute(ctClass)) {
+                log.warning(() -> "Failed to add CabeMeta attribute to class " + className);
+            } else {
+                String version = CabeAttribute.getProcessorVersion(ctClass);
+                log.fine(() -> "Added CabeMeta attribute to class " + className + " with processor version " + version);
             }
-        } catch (IOException e) {
-            throw new IOException("IOException while instrumenting class file " + classFile, e);
-        } catch (Exception e) {
-            throw new ClassFileProcessingFailedException("instrumenting failed for class file " + classFile, e);
+
+            ctClass.getClassFile().setMajorVersion(originalMajorVersion);
+            ctClass.getClassFile().setMinorVersion(originalMinorVersion);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                ctClass.getClassFile().write(out);
+            }
+            classMetrics.addTime(ProcessingMetrics.Phase.COMPILE, System.nanoTime() - start);
+            classMetrics.setStatus(ProcessingMetrics.Status.INSTRUMENTED);
+            classMetrics.setBytesAfter(bytes.size());
+            return bytes.toByteArray();
+        } finally {
+            ctClass.detach();
         }
     }
 
     /**
-     * Retrieves the expression that represents whether assertions are enabled or disabled for a given class.
+     * Retrieves the fully qualified name of the {@code $assertionsDisabled} field to use for a given class.
      *
+     * <p>If neither the class nor one of its enclosing or nested classes declares the field, it is injected into
+     * the class.
+     *
+     * @param classPool the class pool to use
      * @param ci the ClassInfo object representing the class
-     * @return the assertion enabled expression as a String
+     * @return the fully qualified name of the assertion flag field
      */
-    private String getAssertionEnabledExpression(ClassInfo ci) throws CannotCompileException, NotFoundException {
+    private static String getAssertionsDisabledFlagName(ClassPool classPool, ClassInfo ci) throws CannotCompileException, NotFoundException {
         String assertionsDisabledFlagName = ci.assertionsDisabledFlagName();
         if (assertionsDisabledFlagName != null) {
-            return "!" + assertionsDisabledFlagName;
+            return assertionsDisabledFlagName;
         } else {
             // flag is not present in the unprocessed class file
             CtClass ctClass = classPool.getCtClass(ci.name());
@@ -425,23 +1927,28 @@ public final class ClassPatcher {
                 // finally return the flag name
                 flagName = ctClass.getName() + ".$assertionsDisabled";
             }
-            return "!" + flagName;
+            return flagName;
         }
     }
 
     /**
      * Instruments a method by adding null-check assertions for method parameters.
      *
+     * @param classPool the class pool to use
      * @param ci the ClassInfo object representing the class
      * @param mi the MethodInfo object representing the method
+     * @param behaviours the methods and constructors of the class, as returned by {@link #indexCtBehaviours(CtClass)}
+     * @return {@code true}, if checks were added to the method
      * @throws ClassFileProcessingFailedException if processing of the class file fails
      */
-    private void instrumentMethod(ClassInfo ci, MethodInfo mi) throws ClassFileProcessingFailedException {
+    private boolean instrumentMethod(ClassPool classPool, ClassInfo ci, MethodInfo mi, Map<String, CtBehavior> behaviours,
+                                     ProcessingMetrics.ClassMetrics classMetrics)
+            throws ClassFileProcessingFailedException {
         String methodName = mi.name();
 
         if (mi.isSynthetic() || mi.isAbstract()) {
-            LOG.fine(() -> "skipping synthetic method " + methodName);
-            return ;
+            log.fine(() -> "skipping synthetic method " + methodName);
+            return false;
         }
 
         // special case: for equals(Object), ignore @NonNull annotations except directly on the method parameter
@@ -449,27 +1956,22 @@ public final class ClassPatcher {
 
         // Enforces nullable parameter for overridden `equals` method
         if (isEquals) {
-            handleEqualsSpecialCases(ci, mi);
+            handleEqualsSpecialCases(classPool, ci, mi, behaviours);
         }
 
-        LOG.fine(() -> "instrumenting method " + methodName);
-        try (Formatter standardParameterAssertions = new Formatter();
-             Formatter otherParameterChecks = new Formatter();
-             Formatter standardReturnValueAssertions = new Formatter();
-             Formatter otherReturnValueChecks = new Formatter()) {
-
-            CtClass ctClass = classPool.getCtClass(ci.name());
-            CtBehavior ctBehavior = getCtBehaviour(ctClass, mi);
+        log.fine(() -> "instrumenting method " + methodName);
+        try {
+            CtBehavior ctBehavior = getCtBehaviour(behaviours, mi);
             Map<String,String> parameterNames = getCtParameterNames(mi, ctBehavior);
 
-            // create assertion code for parameters
+            // determine the checks needed for parameters
+            List<CheckEmitter.ParameterCheck> parameterChecks = new ArrayList<>();
             for (ParameterInfo pi : mi.parameters()) {
                 // do not add assertions for synthetic parameters, primitive types and constructors of anonymous classes
-                if (!mi.isCanonicalRecordConstructor() && pi.isSynthetic() || pi.type().isPrimitive() || (mi.isConstructor() && ci.isAnonymousClass())) {
+                if (!mi.isCanonicalRecordConstructor() && pi.isSynthetic() || ParameterInfo.isPrimitive(pi.type()) || (mi.isConstructor() && ci.isAnonymousClass())) {
                     continue;
                 }
 
-                // create assertion code
                 String parameterName = parameterNames.getOrDefault(pi.param(), pi.name());
 
                 NullnessOperator nullnessOperatorParameter = pi.nullnessOperator();
@@ -478,28 +1980,25 @@ public final class ClassPatcher {
 
                 if (isNonNull) {
                     Configuration.Check check = getCheck(ci, mi);
-                    check.getCodeForNewInstance("\"%2$s is null\"")
-                            .map(createThrowableCode -> "  if (%1$s==null) { throw " + createThrowableCode + "; }%n")
-                            .ifPresent(checkCode -> {
-                                if (check == Configuration.Check.ASSERT) {
-                                    standardParameterAssertions.format(checkCode, pi.param(), parameterName);
-                                } else {
-                                    otherParameterChecks.format(checkCode, pi.param(), parameterName);
-                                }
-                            });
-                    LOG.fine(() -> "adding null check for parameter " + parameterName + " in " + ci.name());
+                    if (check != Configuration.Check.NO_CHECK) {
+                        parameterChecks.add(new CheckEmitter.ParameterCheck(pi, parameterName, check));
+                    }
+                    log.fine(() -> "adding null check for parameter " + parameterName + " in " + ci.name());
                 }
             }
 
             // modify class by injecting parameter checks
-            String codeParamChecks = getCheckCode(ci, standardParameterAssertions.toString(), otherParameterChecks.toString());
-            if (!codeParamChecks.isEmpty()) {
-                LOG.fine(() -> "injecting code into: " + methodName + "\n" + codeParamChecks.indent(2).stripTrailing());
-                ctBehavior.insertBefore(codeParamChecks);
+            boolean modified = false;
+            if (!parameterChecks.isEmpty()) {
+                long start = System.nanoTime();
+                boolean needsFlag = parameterChecks.stream().anyMatch(pc -> pc.check() == Configuration.Check.ASSERT);
+                emitter.insertParameterChecks(ctBehavior, mi, parameterChecks, needsFlag ? getAssertionsDisabledFlagName(classPool, ci) : null);
+                classMetrics.addTime(ProcessingMetrics.Phase.COMPILE, System.nanoTime() - start);
+                parameterChecks.forEach(pc -> classMetrics.addParameterCheck(pc.check()));
+                modified = true;
             }
 
             // create assertion code for return values
-            // do not add assertions for synthetic parameters, primitive types and constructors of anonymous classes
             if (!mi.hasPrimitiveReturnType()) {
                 NullnessOperator nullnessOperatorRV = mi.resultNullness();
                 boolean isNonNullRV = (nullnessOperatorRV == NullnessOperator.MINUS_NULL)
@@ -507,27 +2006,23 @@ public final class ClassPatcher {
 
                 if (isNonNullRV) {
                     Configuration.Check check = configuration.checkReturn();
-
-                    check.getCodeForNewInstance("\"invalid null return value\"")
-                            .map(createThrowableCode -> "  if ($_==null) { throw " + createThrowableCode + "; }%n")
-                            .ifPresent(checkCode -> {
-                                if (check == Configuration.Check.ASSERT) {
-                                    standardReturnValueAssertions.format(checkCode);
-                                } else {
-                                    otherReturnValueChecks.format(checkCode);
-                                }
-                            });
-                    LOG.fine(() -> "adding null check for return value in " + ci.name());
-                }
-
-                // modify class by injecting return value checks
-                String codeReturnValueChecks = getCheckCode(ci, standardReturnValueAssertions.toString(), otherReturnValueChecks.toString());
-
-                if (!codeReturnValueChecks.isEmpty()) {
-                    LOG.fine(() -> "injecting code into: " + methodName + "\n" + codeReturnValueChecks.indent(2).stripTrailing());
-                    ctBehavior.insertAfter(codeReturnValueChecks);
+                    log.fine(() -> "adding null check for return value in " + ci.name());
+
+                    // modify class by injecting return value checks
+                    if (check != Configuration.Check.NO_CHECK) {
+                        long start = System.nanoTime();
+                        boolean needsFlag = check == Configuration.Check.ASSERT;
+                        emitter.insertReturnValueCheck(ctBehavior, mi, check, needsFlag ? getAssertionsDisabledFlagName(classPool, ci) : null);
+                        classMetrics.addTime(ProcessingMetrics.Phase.COMPILE, System.nanoTime() - start);
+                        classMetrics.addReturnCheck(check);
+                        modified = true;
+                    }
                 }
             }
+
+            return modified;
+        } catch (BadBytecode e) {
+            throw new ClassFileProcessingFailedException("invalid bytecode in instrumented method '" + methodName + "'", e);
         } catch (CannotCompileException e) {
             throw new ClassFileProcessingFailedException("compilation failed for instrumented method '" + methodName + "'", e);
         } catch (NotFoundException e) {
@@ -543,14 +2038,16 @@ public final class ClassPatcher {
      * This method also accounts for specific scenarios such as records and enums where
      * the `equals` method is typically auto-generated and less strict enforcement is needed.
      *
+     * @param classPool the class pool to use
      * @param ci The class information for the class being processed. This provides details
      *           about the class, including its name, type, and nullness operator.
      * @param mi The method information for the method being processed. This includes
      *           details about the method such as its name, visibility, and parameters.
+     * @param behaviours the methods and constructors of the class, as returned by {@link #indexCtBehaviours(CtClass)}
      * @throws ClassFileProcessingFailedException If the parameter of the overridden
      *         `equals` method is not nullable and strict mode is enabled in the configuration.
      */
-    private void handleEqualsSpecialCases(ClassInfo ci, MethodInfo mi) throws ClassFileProcessingFailedException {
+    private void handleEqualsSpecialCases(ClassPool classPool, ClassInfo ci, MethodInfo mi, Map<String, CtBehavior> behaviours) throws ClassFileProcessingFailedException {
         if (mi.isPublic() && !mi.isStatic()) {
             // Enforces nullable parameter for overridden `equals` method
             ParameterInfo pi = mi.parameters().get(0);
@@ -570,7 +2067,7 @@ public final class ClassPatcher {
                 String location = "";
                 try {
                     CtClass ctClass = classPool.getCtClass(ci.name());
-                    CtBehavior ctBehavior = getCtBehaviour(ctClass, mi);
+                    CtBehavior ctBehavior = getCtBehaviour(behaviours, mi);
                     String fileName = ctClass.getClassFile().getSourceFile();
                     int lineNumber = ctBehavior.getMethodInfo().getLineNumber(0);
                     if (fileName != null && lineNumber != -1) {
@@ -579,7 +2076,7 @@ public final class ClassPatcher {
                         location = String.format(" (%s)", fileName);
                     }
                 } catch (Exception e) {
-                    LOG.log(Level.FINE, e, () -> "could not determine location for " + ci.name() + "." + mi.name());
+                    log.log(Level.FINE, e, () -> "could not determine location for " + ci.name() + "." + mi.name());
                 }
 
                 String finalLocation = location;
@@ -588,7 +2085,7 @@ public final class ClassPatcher {
                 if (configuration.strict()) {
                     throw new ClassFileProcessingFailedException(msg);
                 } else {
-                    LOG.warning(() -> msg + "\nThe parameter will be treated as @Nullable");
+                    log.warning(() -> msg + "\nThe parameter will be treated as @Nullable");
                 }
             }
         }
@@ -603,24 +2100,7 @@ public final class ClassPatcher {
      */
     private static boolean isEquals(MethodInfo mi) {
         return mi.methodName().equals("equals") && mi.parameters().size() == 1
-                && mi.parameters().get(0).type() == Object.class;
-    }
-
-    /**
-     * Constructs a string of code that includes checks for parameter or return value assertions.
-     *
-     * @param ci                    the ClassInfo object representing the class being processed
-     * @param standardAssertionsCode the code for standard assertions to be included in the check
-     * @param otherAssertionsCode    additional assertion code to be included in the check
-     * @return a String representing the complete check code
-     * @throws CannotCompileException if the code compilation fails
-     * @throws NotFoundException if a required class or method is not found
-     */
-    private String getCheckCode(ClassInfo ci, String standardAssertionsCode, String otherAssertionsCode) throws CannotCompileException, NotFoundException {
-        return (!standardAssertionsCode.isEmpty()
-                ? "if (%1$s) {%n%2$s}%n".formatted(getAssertionEnabledExpression(ci), standardAssertionsCode)
-                : "")
-                + otherAssertionsCode;
+                && mi.parameters().get(0).type().equals("java.lang.Object");
     }
 
     /**
@@ -651,10 +2131,8 @@ public final class ClassPatcher {
                 ? ctClass.getDeclaredConstructors()
                 : ctClass.getDeclaredMethods(mi.name());
 
-        List<String> params = Arrays.stream(mi.method().getParameterTypes()).map(ClassPatcher::getCanonicalClassName).toList();
         for (CtBehavior ctBehavior : ctBehaviors) {
-            List<String> ctParams = Arrays.stream(ctBehavior.getParameterTypes()).map(ClassPatcher::getCanonicalClassName).toList();
-            if (ctParams.equals(params)) {
+            if (ctBehavior.getSignature().equals(mi.descriptor())) {
                 return ctBehavior;
             }
         }
@@ -662,34 +2140,49 @@ public final class ClassPatcher {
         throw new IllegalStateException("method not found: " + mi);
     }
 
-    private static final Pattern PATTERN_ARRAY_BINARY_NAME = Pattern.compile("(?<brackets>\\[)+L(?<class>[^;]+);");
-
-    private static String getCanonicalClassName(Class<?> cls) {
-        String name = cls.getCanonicalName();
-        if (name == null) {
-            name = cls.getName();
-            Matcher m = PATTERN_ARRAY_BINARY_NAME.matcher(name);
-            if (m.matches()) {
-                String n = m.group("class");
-                String bracketsOpen = m.group("brackets");
-                String bracketsClose = "]".repeat(bracketsOpen.length());
-                name = n + bracketsOpen + bracketsClose;
-            }
+    /**
+     * Indexes the methods and constructors declared by a class by their name and JVM method descriptor.
+     *
+     * <p>Looking up methods in the index avoids scanning all declared methods of the class for every method that is
+     * instrumented.
+     *
+     * @param ctClass the class
+     * @return map from {@link #getCtBehaviourKey(String, String)} to the method or constructor
+     */
+    static Map<String, CtBehavior> indexCtBehaviours(CtClass ctClass) {
+        CtBehavior[] ctBehaviors = ctClass.getDeclaredBehaviors();
+        Map<String, CtBehavior> index = new HashMap<>(2 * ctBehaviors.length);
+        for (CtBehavior ctBehavior : ctBehaviors) {
+            index.put(getCtBehaviourKey(ctBehavior.getMethodInfo().getName(), ctBehavior.getSignature()), ctBehavior);
         }
-        return name;
+        return index;
     }
 
     /**
-     * Retrieves the canonical class name from a given CtClass instance.
+     * Retrieves the CtBehavior object matching the provided MethodInfo from an index created by
+     * {@link #indexCtBehaviours(CtClass)}.
      *
-     * <p>The method replaces the '$' character in the class name returned for inner classes by Javassist with '.'
-     * to be compatible with {@link Class#getCanonicalName()}.
+     * @param behaviours the index of the methods and constructors of the class
+     * @param mi the MethodInfo object containing information about the method or constructor to retrieve
+     * @return the CtBehavior object representing the method or constructor
+     */
+    static CtBehavior getCtBehaviour(Map<String, CtBehavior> behaviours, MethodInfo mi) {
+        CtBehavior ctBehavior = behaviours.get(getCtBehaviourKey(mi.isConstructor() ? "<init>" : mi.name(), mi.descriptor()));
+        if (ctBehavior == null) {
+            throw new IllegalStateException("method not found: " + mi);
+        }
+        return ctBehavior;
+    }
+
+    /**
+     * Returns the key of a method or constructor in the index created by {@link #indexCtBehaviours(CtClass)}.
      *
-     * @param ctClass the CtClass instance from which to retrieve the canonical class name
-     * @return the canonical class name as a String
+     * @param name       the name in the class file, {@code <init>} for constructors
+     * @param descriptor the JVM method descriptor
+     * @return the key
      */
-    private static String getCanonicalClassName(CtClass ctClass) {
-        return PATTERN_CANONICAL_CLASSNAME.matcher(ctClass.getName()).replaceAll(".$1");
+    private static String getCtBehaviourKey(String name, String descriptor) {
+        return name + descriptor;
     }
 
     /**
@@ -723,7 +2216,7 @@ public final class ClassPatcher {
                     break;
                 }
             }
-            slot += (pi.type() == long.class || pi.type() == double.class) ? 2 : 1;
+            slot += ParameterInfo.getSlotSize(pi.type());
         }
         return parameterNames;
     }
@@ -0,0 +1,432 @@
+package com.dua3.cabe.processor;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.ByteBuffer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipFile;
+
+/**
+ * A cache for the contents of the JAR files on the classpath that can be shared between {@link ClassPatcher}
+ * instances and persisted to a file.
+ *
+ * <p>For each JAR file, the names of its entries and its module descriptor are stored. This information is used to
+ * build the {@link ClasspathIndex} that is used for looking up classes in the class pool, for loading classes through
+ * reflection, and for creating the module layer, so that each JAR file is scanned only once.
+ *
+ * <p>Entries are validated using the size and modification time of the JAR file, a JAR file that has changed is read
+ * again. Directories are never cached. This class is thread-safe.
+ */
+public final class ClasspathCache {
+    private static final Logger LOG = Logger.getLogger(ClasspathCache.class.getName());
+
+    private static final String FILE_HEADER = "cabe-classpath-index";
+    private static final int FILE_FORMAT_VERSION = 1;
+
+    private static final String META_INF_VERSIONS = "META-INF/versions/";
+    private static final String MODULE_INFO_CLASS = "module-info.class";
+
+    /**
+     * The module contained in a JAR file.
+     *
+     * @param kind       the kind of module
+     * @param name       the module name; for {@link ModuleKind#INVALID}, the error message
+     * @param moduleInfo the content of the {@code module-info.class} file for explicit modules
+     * @param packages   the packages of the module
+     * @param version    the raw version of an automatic module
+     * @param provides   the services provided by an automatic module
+     * @param mainClass  the main class of an automatic module
+     */
+    record ModuleData(ModuleKind kind, String name, byte @Nullable [] moduleInfo, Set<String> packages,
+                      @Nullable String version, Map<String, List<String>> provides, @Nullable String mainClass) {
+
+        /**
+         * Creates the {@link ModuleDescriptor}.
+         *
+         * @return the module descriptor, or an empty {@link Optional} if the JAR file does not contain a module
+         * @throws FindException if the module in the JAR file is invalid
+         */
+        Optional<ModuleDescriptor> toDescriptor() {
+            return switch (kind) {
+                case NONE -> Optional.empty();
+                case INVALID -> throw new FindException(name);
+                case EXPLICIT -> Optional.of(ModuleDescriptor.read(ByteBuffer.wrap(moduleInfo), () -> packages));
+                case AUTOMATIC -> {
+                    ModuleDescriptor.Builder builder = ModuleDescriptor.newAutomaticModule(name).packages(packages);
+                    if (version != null) {
+                        builder.version(version);
+                    }
+                    provides.forEach(builder::provides);
+                    if (mainClass != null) {
+                        builder.mainClass(mainClass);
+                    }
+                    yield Optional.of(builder.build());
+                }
+            };
+        }
+    }
+
+    /**
+     * The kind of module contained in a JAR file.
+     */
+    enum ModuleKind {
+        /**
+         * The JAR file cannot be used as a module.
+         */
+        NONE,
+        /**
+         * The JAR file contains an invalid module.
+         */
+        INVALID,
+        /**
+         * The JAR file contains an explicit module.
+         */
+        EXPLICIT,
+        /**
+         * The JAR file is an automatic module.
+         */
+        AUTOMATIC
+    }
+
+    /**
+     * The information about a JAR file.
+     *
+     * @param size         the size of the file
+     * @param lastModified the modification time of the file
+     * @param entries      the names of the entries; entries of multi-release JARs that apply to the current runtime
+     *                     are also listed under their unversioned name
+     * @param module       the module contained in the JAR file
+     */
+    record JarData(long size, FileTime lastModified, List<String> entries, ModuleData module) {
+        private boolean isValidFor(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified.equals(attributes.lastModifiedTime());
+        }
+    }
+
+    private final Map<Path, JarData> entries = new ConcurrentHashMap<>();
+    private final Set<Path> loadedFiles = ConcurrentHashMap.newKeySet();
+    // the number of changes to the entries, and the number of changes already written to a file
+    private final AtomicLong modifications = new AtomicLong();
+    private volatile long savedModifications;
+
+    /**
+     * Constructs a new, empty cache.
+     */
+    public ClasspathCache() {
+        // nothing to do
+    }
+
+    /**
+     * Returns the information about a JAR file, reading the JAR file if it is not cached or has changed.
+     *
+     * @param jar the JAR file
+     * @return the information about the JAR file
+     * @throws IOException if the JAR file cannot be read
+     */
+    JarData getJarData(Path jar) throws IOException {
+        Path key = jar.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = Files.readAttributes(key, BasicFileAttributes.class);
+
+        JarData data = entries.get(key);
+        if (data != null && data.isValidFor(attributes)) {
+            LOG.finest(() -> "using cached index for " + key);
+            return data;
+        }
+
+        LOG.fine(() -> "indexing " + key);
+        data = new JarData(attributes.size(), attributes.lastModifiedTime(), readEntries(key), readModule(key));
+        entries.put(key, data);
+        modifications.incrementAndGet();
+        return data;
+    }
+
+    private static List<String> readEntries(Path jar) throws IOException {
+        int runtimeVersion = Runtime.version().feature();
+        Set<String> names = new TreeSet<>();
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            boolean multiRelease = jarFile.isMultiRelease();
+            for (JarEntry entry : Collections.list(jarFile.entries())) {
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                String name = entry.getName();
+                names.add(name);
+                String unversioned = multiRelease ? getUnversionedName(name, runtimeVersion) : null;
+                if (unversioned != null) {
+                    names.add(unversioned);
+                }
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    /**
+     * Returns the unversioned name of an entry of a multi-release JAR that applies to the given runtime version.
+     *
+     * @param name           the entry name
+     * @param runtimeVersion the runtime feature version
+     * @return the unversioned name, or {@code null} if the entry is not a versioned entry for the runtime version
+     */
+    private static @Nullable String getUnversionedName(String name, int runtimeVersion) {
+        if (!name.startsWith(META_INF_VERSIONS)) {
+            return null;
+        }
+        int sep = name.indexOf('/', META_INF_VERSIONS.length());
+        if (sep < 0) {
+            return null;
+        }
+        try {
+            int version = Integer.parseInt(name.substring(META_INF_VERSIONS.length(), sep));
+            return version <= runtimeVersion ? name.substring(sep + 1) : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static ModuleData readModule(Path jar) throws IOException {
+        ModuleReference mr;
+        try {
+            mr = ModuleFinder.of(jar).findAll().stream().findFirst().orElse(null);
+        } catch (FindException e) {
+            LOG.log(Level.FINE, e, () -> "invalid module: " + jar);
+            return new ModuleData(ModuleKind.INVALID, String.valueOf(e.getMessage()), null, Set.of(), null, Map.of(), null);
+        }
+
+        if (mr == null) {
+            return new ModuleData(ModuleKind.NONE, "", null, Set.of(), null, Map.of(), null);
+        }
+
+        ModuleDescriptor descriptor = mr.descriptor();
+        if (!descriptor.isAutomatic()) {
+            byte[] moduleInfo;
+            try (JarFile jarFile = new JarFile(jar.toFile(), true, ZipFile.OPEN_READ, Runtime.version());
+                 InputStream in = jarFile.getInputStream(jarFile.getJarEntry(MODULE_INFO_CLASS))) {
+                moduleInfo = in.readAllBytes();
+            }
+            return new ModuleData(ModuleKind.EXPLICIT, descriptor.name(), moduleInfo, descriptor.packages(), null, Map.of(), null);
+        }
+
+        Map<String, List<String>> provides = new TreeMap<>();
+        descriptor.provides().forEach(p -> provides.put(p.service(), p.providers()));
+        return new ModuleData(
+                ModuleKind.AUTOMATIC,
+                descriptor.name(),
+                null,
+                descriptor.packages(),
+                descriptor.rawVersion().orElse(null),
+                provides,
+                descriptor.mainClass().orElse(null)
+        );
+    }
+
+    /**
+     * Returns the number of JAR files in the cache.
+     *
+     * @return the number of cached JAR files
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all entries from the cache.
+     */
+    public void clear() {
+        entries.clear();
+        loadedFiles.clear();
+        savedModifications = modifications.get();
+    }
+
+    /**
+     * Loads the entries stored in a file unless the file has already been loaded.
+     *
+     * <p>Entries already present in the cache are kept. If the file does not exist or cannot be read, the cache is
+     * left unchanged.
+     *
+     * @param file the file to load
+     */
+    void load(Path file) {
+        Path key = file.toAbsolutePath().normalize();
+        if (!loadedFiles.add(key) || !Files.isRegularFile(key)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(key)))) {
+            // the entries of multi-release JARs depend on the runtime version
+            if (!in.readUTF().equals(FILE_HEADER)
+                    || in.readInt() != FILE_FORMAT_VERSION
+                    || in.readInt() != Runtime.version().feature()) {
+                LOG.info(() -> "ignoring classpath index written in a different format or by a different runtime: " + key);
+                return;
+            }
+
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                Path jar = Paths.get(in.readUTF());
+                JarData data = readJarData(in);
+                entries.putIfAbsent(jar, data);
+            }
+            LOG.fine(() -> "loaded classpath index with " + n + " entries: " + key);
+        } catch (IOException | RuntimeException e) {
+            LOG.log(Level.WARNING, e, () -> "could not read classpath index: " + key);
+        }
+    }
+
+    /**
+     * Writes the cache to a file if it was changed since it was last loaded or saved.
+     *
+     * <p>Entries for JAR files that no longer exist are not written. The file is replaced atomically where
+     * supported, so that concurrent readers always see a complete file. If writing fails, the changes are written by
+     * the next call.
+     *
+     * @param file the file to write
+     * @throws IOException if an I/O error occurs
+     */
+    void save(Path file) throws IOException {
+        // entries added while writing are written by the next call
+        long currentModifications = modifications.get();
+        if (currentModifications == savedModifications) {
+            return;
+        }
+
+        Path key = file.toAbsolutePath().normalize();
+        Path dir = key.getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+
+        Path tmp = Files.createTempFile(dir, key.getFileName().toString(), ".tmp");
+        try {
+            List<Map.Entry<Path, JarData>> snapshot = entries.entrySet().stream()
+                    .filter(entry -> Files.isRegularFile(entry.getKey()))
+                    .toList();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeUTF(FILE_HEADER);
+                out.writeInt(FILE_FORMAT_VERSION);
+                out.writeInt(Runtime.version().feature());
+                out.writeInt(snapshot.size());
+                for (Map.Entry<Path, JarData> entry : snapshot) {
+                    out.writeUTF(entry.getKey().toString());
+                    writeJarData(out, entry.getValue());
+                }
+            }
+            try {
+                Files.move(tmp, key, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, key, StandardCopyOption.REPLACE_EXISTING);
+            }
+            loadedFiles.add(key);
+            savedModifications = currentModifications;
+            LOG.fine(() -> "saved classpath index with " + snapshot.size() + " entries: " + key);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeJarData(DataOutputStream out, JarData data) throws IOException {
+        out.writeLong(data.size());
+        out.writeLong(data.lastModified().to(TimeUnit.NANOSECONDS));
+        writeStrings(out, data.entries());
+
+        ModuleData module = data.module();
+        out.writeByte(module.kind().ordinal());
+        out.writeUTF(module.name());
+        byte[] moduleInfo = module.moduleInfo();
+        out.writeInt(moduleInfo == null ? -1 : moduleInfo.length);
+        if (moduleInfo != null) {
+            out.write(moduleInfo);
+        }
+        writeStrings(out, module.packages());
+        writeNullableString(out, module.version());
+        out.writeInt(module.provides().size());
+        for (Map.Entry<String, List<String>> provides : module.provides().entrySet()) {
+            out.writeUTF(provides.getKey());
+            writeStrings(out, provides.getValue());
+        }
+        writeNullableString(out, module.mainClass());
+    }
+
+    private static JarData readJarData(DataInputStream in) throws IOException {
+        long size = in.readLong();
+        FileTime lastModified = FileTime.from(in.readLong(), TimeUnit.NANOSECONDS);
+        List<String> names = readStrings(in);
+
+        ModuleKind kind = ModuleKind.values()[in.readByte()];
+        String name = in.readUTF();
+        int moduleInfoLength = in.readInt();
+        byte[] moduleInfo = null;
+        if (moduleInfoLength >= 0) {
+            moduleInfo = new byte[moduleInfoLength];
+            in.readFully(moduleInfo);
+        }
+        Set<String> packages = Set.copyOf(readStrings(in));
+        String version = readNullableString(in);
+        int nProvides = in.readInt();
+        Map<String, List<String>> provides = new TreeMap<>();
+        for (int i = 0; i < nProvides; i++) {
+            provides.put(in.readUTF(), readStrings(in));
+        }
+        String mainClass = readNullableString(in);
+
+        return new JarData(size, lastModified, names, new ModuleData(kind, name, moduleInfo, packages, version, provides, mainClass));
+    }
+
+    private static void writeStrings(DataOutputStream out, Collection<String> strings) throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int n = in.readInt();
+        List<String> strings = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            strings.add(in.readUTF());
+        }
+        return List.copyOf(strings);
+    }
+
+    private static void writeNullableString(DataOutputStream out, @Nullable String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static @Nullable String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
@@ -0,0 +1,501 @@
+package com.dua3.cabe.processor;
+
+import javassist.ClassPath;
+import javassist.NotFoundException;
+import org.jspecify.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+/**
+ * An index of the resources on the classpath used while processing a single input.
+ *
+ * <p>The index maps each resource name to the classpath entry it is loaded from, so that lookups do not have to
+ * search the classpath entries one by one. The contents of JAR files are taken from a {@link ClasspathCache};
+ * directories are looked up directly in the file system because their content may change during processing.
+ *
+ * <p>The same index is used by the Javassist class pools ({@link #getClassPath()}), by the class loader used for
+ * reflection ({@link #createClassLoader(ClassLoader)}), and for resolving modules ({@link #getModuleFinder()}).
+ * JAR files are opened on first use and closed when the index is closed. This class is thread-safe.
+ *
+ * <p>To process several inputs using the same classpath, an index for the classpath can be extended by the input
+ * directories using {@link #withDirectories(List)}. The extended index shares the JAR files of the original index.
+ */
+final class ClasspathIndex implements Closeable {
+    private static final Logger LOG = Logger.getLogger(ClasspathIndex.class.getName());
+
+    /**
+     * A directory on the classpath.
+     *
+     * @param position the position on the classpath
+     * @param path     the directory
+     */
+    private record DirectoryEntry(int position, Path path) {}
+
+    private final List<Path> classpath;
+    private final int firstPosition;
+    private final @Nullable ClasspathIndex base;
+    private final List<DirectoryEntry> directories;
+    private final Map<Integer, ClasspathCache.JarData> jars;
+    private final Map<String, Integer> resourceToJar;
+    private final Map<Integer, JarFile> openJars;
+    private final Map<Path, ProtectionDomain> protectionDomains = new ConcurrentHashMap<>();
+    private final Map<Path, NullnessOperator> moduleNullness;
+    private final ClassPath javassistClassPath = new IndexClassPath();
+    private volatile boolean closed;
+
+    /**
+     * Creates the index for the given classpath.
+     *
+     * @param classpath the classpath entries in lookup order
+     * @param cache     the cache to take the contents of JAR files from
+     */
+    ClasspathIndex(List<Path> classpath, ClasspathCache cache) {
+        this.classpath = List.copyOf(classpath);
+        this.firstPosition = 0;
+        this.base = null;
+        this.directories = new ArrayList<>();
+        this.jars = new LinkedHashMap<>();
+        this.resourceToJar = new HashMap<>();
+        this.openJars = new ConcurrentHashMap<>();
+        this.moduleNullness = new ConcurrentHashMap<>();
+
+        for (int i = 0; i < this.classpath.size(); i++) {
+            Path cp = this.classpath.get(i);
+            if (Files.isDirectory(cp)) {
+                directories.add(new DirectoryEntry(i, cp));
+            } else if (Files.isRegularFile(cp)) {
+                try {
+                    ClasspathCache.JarData data = cache.getJarData(cp);
+                    jars.put(i, data);
+                    Integer position = i;
+                    data.entries().forEach(name -> resourceToJar.putIfAbsent(name, position));
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, e, () -> "could not read classpath entry: " + cp);
+                }
+            } else {
+                LOG.fine(() -> "classpath entry does not exist: " + cp);
+            }
+        }
+
+        LOG.fine(() -> "classpath index created: %d directories, %d jars, %d resources".formatted(
+                directories.size(), jars.size(), resourceToJar.size()));
+    }
+
+    /**
+     * Creates an index that extends another index by directories appended to its classpath.
+     *
+     * @param base       the index to extend
+     * @param extensions the directories to append
+     */
+    private ClasspathIndex(ClasspathIndex base, List<Path> extensions) {
+        List<Path> extendedClasspath = new ArrayList<>(base.classpath);
+        extendedClasspath.addAll(extensions);
+        this.classpath = List.copyOf(extendedClasspath);
+        this.firstPosition = base.classpath.size();
+        this.base = base;
+        this.directories = new ArrayList<>(base.directories);
+        this.jars = base.jars;
+        this.resourceToJar = base.resourceToJar;
+        this.openJars = base.openJars;
+        this.moduleNullness = base.moduleNullness;
+
+        for (int i = firstPosition; i < classpath.size(); i++) {
+            Path cp = classpath.get(i);
+            if (Files.isDirectory(cp)) {
+                directories.add(new DirectoryEntry(i, cp));
+            } else if (Files.exists(cp)) {
+                throw new IllegalArgumentException("not a directory: " + cp);
+            } else {
+                LOG.fine(() -> "classpath entry does not exist: " + cp);
+            }
+        }
+    }
+
+    /**
+     * Returns an index for the classpath of this index followed by the given directories.
+     *
+     * <p>The JAR files on the classpath are not indexed again and stay open until this index is closed; closing
+     * the returned index does not close them. The returned index must therefore not be used after this index has
+     * been closed.
+     *
+     * @param extensions the directories to append to the classpath
+     * @return the extended index
+     * @throws IllegalArgumentException if one of the paths is not a directory
+     */
+    ClasspathIndex withDirectories(List<Path> extensions) {
+        return new ClasspathIndex(this, extensions);
+    }
+
+    /**
+     * Returns the position on the classpath of the entry that contains a resource.
+     *
+     * @param name the resource name
+     * @return the position, or {@code -1} if the resource is not found
+     */
+    private int findPosition(String name) {
+        Integer jarPosition = resourceToJar.get(name);
+        int limit = jarPosition == null ? Integer.MAX_VALUE : jarPosition;
+        for (DirectoryEntry dir : directories) {
+            if (dir.position() > limit) {
+                break;
+            }
+            if (Files.isRegularFile(dir.path().resolve(name))) {
+                return dir.position();
+            }
+        }
+        return jarPosition == null ? -1 : jarPosition;
+    }
+
+    private JarFile getJarFile(int position) throws IOException {
+        if (closed) {
+            throw new IOException("classpath index is closed");
+        }
+        try {
+            return openJars.computeIfAbsent(position, pos -> {
+                try {
+                    return new JarFile(classpath.get(pos).toFile(), false, ZipFile.OPEN_READ, Runtime.version());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private @Nullable InputStream openResource(int position, String name) throws IOException {
+        Path cp = classpath.get(position);
+        if (!jars.containsKey(position)) {
+            Path file = cp.resolve(name);
+            return Files.isRegularFile(file) ? Files.newInputStream(file) : null;
+        }
+
+        JarFile jarFile = getJarFile(position);
+        JarEntry entry = jarFile.getJarEntry(name);
+        return entry == null ? null : jarFile.getInputStream(entry);
+    }
+
+    private @Nullable URL getResourceUrl(int position, String name) {
+        Path cp = classpath.get(position);
+        try {
+            if (!jars.containsKey(position)) {
+                return cp.resolve(name).toUri().toURL();
+            }
+            return new URL("jar:" + cp.toUri() + "!/" + name);
+        } catch (MalformedURLException e) {
+            LOG.log(Level.WARNING, e, () -> "could not create URL for resource " + name + " in " + cp);
+            return null;
+        }
+    }
+
+    /**
+     * Opens a resource.
+     *
+     * @param name the resource name, using '/' as separator
+     * @return the input stream, or {@code null} if the resource is not found
+     * @throws IOException if an I/O error occurs
+     */
+    @Nullable InputStream openResource(String name) throws IOException {
+        int position = findPosition(name);
+        return position < 0 ? null : openResource(position, name);
+    }
+
+    /**
+     * Returns the URL of a resource.
+     *
+     * @param name the resource name, using '/' as separator
+     * @return the URL, or {@code null} if the resource is not found
+     */
+    @Nullable URL findResource(String name) {
+        int position = findPosition(name);
+        return position < 0 ? null : getResourceUrl(position, name);
+    }
+
+    /**
+     * Returns the Javassist {@link ClassPath} that looks up class files using this index.
+     *
+     * <p>The returned instance can be added to any number of class pools.
+     *
+     * @return the class path
+     */
+    ClassPath getClassPath() {
+        return javassistClassPath;
+    }
+
+    /**
+     * Creates a class loader that loads classes and resources using this index.
+     *
+     * @param parent the parent class loader
+     * @return the class loader
+     */
+    ClassLoader createClassLoader(ClassLoader parent) {
+        return new IndexClassLoader(parent);
+    }
+
+    /**
+     * Returns the {@link NullnessOperator} declared by the annotations of a module on the classpath.
+     *
+     * <p>The result is cached. For JAR files, the {@code module-info.class} held by the {@link ClasspathCache} is
+     * used, so that the JAR file is not opened again.
+     *
+     * @param modulePath the location of the module, either a JAR file or a directory
+     * @return the nullness operator
+     */
+    NullnessOperator getModuleNullnessOperator(Path modulePath) {
+        return moduleNullness.computeIfAbsent(modulePath.toAbsolutePath().normalize(), path -> {
+            for (Map.Entry<Integer, ClasspathCache.JarData> entry : jars.entrySet()) {
+                if (classpath.get(entry.getKey()).toAbsolutePath().normalize().equals(path)) {
+                    byte[] moduleInfo = entry.getValue().module().moduleInfo();
+                    return moduleInfo == null ? NullnessOperator.NO_CHANGE : Util.getModuleNullnessOperator(moduleInfo);
+                }
+            }
+            return Util.getModuleNullnessOperatorFromFile(path);
+        });
+    }
+
+    /**
+     * Returns a {@link ModuleFinder} for the modules on the classpath.
+     *
+     * <p>The descriptors of modules in JAR files are taken from the cache, directories are scanned using
+     * {@link ModuleFinder#of(Path...)}. If the same module is found in more than one location, the first location on
+     * the classpath wins. For an index created by {@link #withDirectories(List)}, the finder of the original index is
+     * composed with the finder for the appended directories, see {@link #getExtensionModuleFinder()}.
+     *
+     * @return the module finder
+     * @throws FindException if a JAR file on the classpath contains an invalid module
+     */
+    ModuleFinder getModuleFinder() {
+        return base == null ? getExtensionModuleFinder() : ModuleFinder.compose(base.getModuleFinder(), getExtensionModuleFinder());
+    }
+
+    /**
+     * Returns a {@link ModuleFinder} for the modules in the directories appended by {@link #withDirectories(List)},
+     * so that their modules can be resolved on top of the modules of the original index. For an index that does not
+     * extend another index, the finder is the same as that returned by {@link #getModuleFinder()}.
+     *
+     * @return the module finder
+     * @throws FindException if a JAR file on the classpath contains an invalid module
+     */
+    ModuleFinder getExtensionModuleFinder() {
+        Map<String, ModuleReference> modules = new LinkedHashMap<>();
+        for (int i = firstPosition; i < classpath.size(); i++) {
+            ClasspathCache.JarData data = jars.get(i);
+            if (data != null) {
+                int position = i;
+                data.module().toDescriptor()
+                        .ifPresent(descriptor -> modules.putIfAbsent(descriptor.name(), new IndexModuleReference(descriptor, position)));
+            } else if (Files.isDirectory(classpath.get(i))) {
+                ModuleFinder.of(classpath.get(i)).findAll()
+                        .forEach(mr -> modules.putIfAbsent(mr.descriptor().name(), mr));
+            }
+        }
+
+        Set<ModuleReference> all = Set.copyOf(modules.values());
+        return new ModuleFinder() {
+            @Override
+            public Optional<ModuleReference> find(String name) {
+                return Optional.ofNullable(modules.get(name));
+            }
+
+            @Override
+            public Set<ModuleReference> findAll() {
+                return all;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (base != null) {
+            // the JAR files belong to the index that has been extended
+            return;
+        }
+
+        IOException exception = null;
+        for (JarFile jarFile : openJars.values()) {
+            try {
+                jarFile.close();
+            } catch (IOException e) {
+                if (exception == null) {
+                    exception = e;
+                } else {
+                    exception.addSuppressed(e);
+                }
+            }
+        }
+        openJars.clear();
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    private static String getClassFileName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    /**
+     * The Javassist {@link ClassPath} backed by the index.
+     */
+    private final class IndexClassPath implements ClassPath {
+        @Override
+        public @Nullable InputStream openClassfile(String classname) throws NotFoundException {
+            try {
+                return openResource(getClassFileName(classname));
+            } catch (IOException e) {
+                throw new NotFoundException("could not read class file for " + classname, e);
+            }
+        }
+
+        @Override
+        public @Nullable URL find(String classname) {
+            return findResource(getClassFileName(classname));
+        }
+
+        @Override
+        public String toString() {
+            return "ClasspathIndex" + classpath;
+        }
+    }
+
+    /**
+     * The class loader backed by the index.
+     */
+    private final class IndexClassLoader extends ClassLoader {
+        IndexClassLoader(ClassLoader parent) {
+            super("cabe-classpath", parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            String resourceName = getClassFileName(name);
+            int position = findPosition(resourceName);
+            if (position < 0) {
+                throw new ClassNotFoundException(name);
+            }
+
+            byte[] bytes;
+            try (InputStream in = openResource(position, resourceName)) {
+                if (in == null) {
+                    throw new ClassNotFoundException(name);
+                }
+                bytes = in.readAllBytes();
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+
+            int lastDot = name.lastIndexOf('.');
+            if (lastDot > 0) {
+                String packageName = name.substring(0, lastDot);
+                if (getDefinedPackage(packageName) == null) {
+                    try {
+                        definePackage(packageName, null, null, null, null, null, null, null);
+                    } catch (IllegalArgumentException e) {
+                        // defined concurrently by another thread
+                    }
+                }
+            }
+
+            return defineClass(name, bytes, 0, bytes.length, getProtectionDomain(position));
+        }
+
+        private @Nullable ProtectionDomain getProtectionDomain(int position) {
+            Path cp = classpath.get(position);
+            return protectionDomains.computeIfAbsent(cp, p -> {
+                try {
+                    CodeSource codeSource = new CodeSource(p.toUri().toURL(), (CodeSigner[]) null);
+                    return new ProtectionDomain(codeSource, null, this, null);
+                } catch (MalformedURLException e) {
+                    throw new IllegalStateException("could not create URL for " + p, e);
+                }
+            });
+        }
+
+        @Override
+        protected @Nullable URL findResource(String name) {
+            return ClasspathIndex.this.findResource(name);
+        }
+
+        @Override
+        protected Enumeration<URL> findResources(String name) {
+            URL url = ClasspathIndex.this.findResource(name);
+            return url == null ? Collections.emptyEnumeration() : Collections.enumeration(List.of(url));
+        }
+
+        static {
+            registerAsParallelCapable();
+        }
+    }
+
+    /**
+     * A reference to a module in a JAR file on the classpath.
+     */
+    private final class IndexModuleReference extends ModuleReference {
+        private final int position;
+
+        IndexModuleReference(ModuleDescriptor descriptor, int position) {
+            super(descriptor, classpath.get(position).toUri());
+            this.position = position;
+        }
+
+        @Override
+        public ModuleReader open() {
+            return new ModuleReader() {
+                @Override
+                public Optional<URI> find(String name) throws IOException {
+                    if (getJarFile(position).getJarEntry(name) == null) {
+                        return Optional.empty();
+                    }
+                    return Optional.of(URI.create("jar:" + classpath.get(position).toUri() + "!/" + name));
+                }
+
+                @Override
+                public Optional<InputStream> open(String name) throws IOException {
+                    return Optional.ofNullable(openResource(position, name));
+                }
+
+                @Override
+                public Stream<String> list() {
+                    return jars.get(position).entries().stream();
+                }
+
+                @Override
+                public void close() {
+                    // the JAR file is closed together with the index
+                }
+            };
+        }
+    }
+}
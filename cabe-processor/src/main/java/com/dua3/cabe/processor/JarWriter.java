@@ -0,0 +1,311 @@
+package com.dua3.cabe.processor;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes JAR files from entries whose content has already been compressed.
+ *
+ * <p>In contrast to {@link java.util.zip.ZipOutputStream}, compressing the entries is separated from writing the
+ * file, so that the entries can be compressed concurrently using {@link #compress(Deflater, String, ZipEntry, byte[])}.
+ * Because the sizes and checksums are known before writing, the local file headers contain them and no data
+ * descriptors are written. ZIP64 records are written when the number of entries or the offsets exceed the limits of the
+ * ZIP format.
+ */
+final class JarWriter {
+
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final int ZIP64_EXTRA_FIELD_TAG = 0x0001;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int VERSION_STORED = 10;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int VERSION_ZIP64 = 45;
+
+    private static final long MAX_UINT32 = 0xFFFF_FFFFL;
+    private static final int MAX_UINT16 = 0xFFFF;
+
+    /**
+     * An entry with its compressed content.
+     *
+     * @param name           the entry name
+     * @param method         the compression method, {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}
+     * @param time           the modification time, or {@code null} if not set
+     * @param extra          the extra field data without ZIP64 information, or {@code null}
+     * @param comment        the entry comment, or {@code null}
+     * @param crc            the CRC-32 of the uncompressed content
+     * @param size           the size of the uncompressed content
+     * @param compressedData the compressed content
+     */
+    record Entry(String name, int method, @Nullable LocalDateTime time, byte @Nullable [] extra, @Nullable String comment,
+                 long crc, long size, byte[] compressedData) {}
+
+    private JarWriter() {
+        // utility class
+    }
+
+    /**
+     * Compresses the content of an entry, using the compression method of the original entry.
+     *
+     * @param deflater the deflater to use; must have been created with {@code nowrap} set, it is reset before use
+     * @param name     the entry name
+     * @param original the original entry, providing the compression method and the metadata
+     * @param data     the uncompressed content
+     * @return the compressed entry
+     */
+    static Entry compress(Deflater deflater, String name, ZipEntry original, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+
+        int method = original.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+        byte[] compressedData;
+        if (method == ZipEntry.STORED) {
+            compressedData = data;
+        } else {
+            deflater.reset();
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            compressedData = out.toByteArray();
+        }
+
+        LocalDateTime time = original.getTime() == -1 ? null : original.getTimeLocal();
+        return new Entry(name, method, time, stripZip64ExtraField(original.getExtra()), original.getComment(),
+                crc.getValue(), data.length, compressedData);
+    }
+
+    /**
+     * Writes a JAR file containing the given entries in the given order.
+     *
+     * @param jar     the JAR file to write
+     * @param entries the entries
+     * @throws IOException if an I/O error occurs
+     */
+    static void write(Path jar, List<Entry> entries) throws IOException {
+        long[] offsets = new long[entries.size()];
+        try (CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(jar)))) {
+            for (int i = 0; i < entries.size(); i++) {
+                offsets[i] = out.count;
+                writeLocalFileHeader(out, entries.get(i));
+                out.write(entries.get(i).compressedData());
+            }
+
+            long centralDirectoryOffset = out.count;
+            for (int i = 0; i < entries.size(); i++) {
+                writeCentralDirectoryHeader(out, entries.get(i), offsets[i]);
+            }
+            long centralDirectorySize = out.count - centralDirectoryOffset;
+
+            writeEndOfCentralDirectory(out, entries.size(), centralDirectoryOffset, centralDirectorySize);
+        }
+    }
+
+    private static void writeLocalFileHeader(CountingOutputStream out, Entry entry) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        byte[] extra = entry.extra() == null ? new byte[0] : entry.extra();
+        long dosTime = toDosTime(entry.time());
+
+        writeInt(out, LOCAL_FILE_HEADER_SIGNATURE);
+        writeShort(out, version(entry, false));
+        writeShort(out, FLAG_UTF8);
+        writeShort(out, entry.method());
+        writeInt(out, dosTime);
+        writeInt(out, entry.crc());
+        writeInt(out, entry.compressedData().length);
+        writeInt(out, entry.size());
+        writeShort(out, name.length);
+        writeShort(out, extra.length);
+        out.write(name);
+        out.write(extra);
+    }
+
+    private static void writeCentralDirectoryHeader(CountingOutputStream out, Entry entry, long offset) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        byte[] comment = entry.comment() == null ? new byte[0] : entry.comment().getBytes(StandardCharsets.UTF_8);
+        byte[] extra = entry.extra() == null ? new byte[0] : entry.extra();
+        boolean zip64 = offset >= MAX_UINT32;
+        if (zip64) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(extra.length + 12);
+            writeShort(buffer, ZIP64_EXTRA_FIELD_TAG);
+            writeShort(buffer, 8);
+            writeLong(buffer, offset);
+            buffer.write(extra, 0, extra.length);
+            extra = buffer.toByteArray();
+        }
+
+        writeInt(out, CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(out, version(entry, zip64));
+        writeShort(out, version(entry, zip64));
+        writeShort(out, FLAG_UTF8);
+        writeShort(out, entry.method());
+        writeInt(out, toDosTime(entry.time()));
+        writeInt(out, entry.crc());
+        writeInt(out, entry.compressedData().length);
+        writeInt(out, entry.size());
+        writeShort(out, name.length);
+        writeShort(out, extra.length);
+        writeShort(out, comment.length);
+        writeShort(out, 0); // disk number start
+        writeShort(out, 0); // internal file attributes
+        writeInt(out, 0); // external file attributes
+        writeInt(out, zip64 ? MAX_UINT32 : offset);
+        out.write(name);
+        out.write(extra);
+        out.write(comment);
+    }
+
+    private static void writeEndOfCentralDirectory(CountingOutputStream out, int count, long offset, long size) throws IOException {
+        boolean zip64 = count >= MAX_UINT16 || offset >= MAX_UINT32 || size >= MAX_UINT32;
+        if (zip64) {
+            long zip64EndOffset = out.count;
+            writeInt(out, ZIP64_END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+            writeLong(out, 44); // size of the remaining record
+            writeShort(out, VERSION_ZIP64);
+            writeShort(out, VERSION_ZIP64);
+            writeInt(out, 0); // number of this disk
+            writeInt(out, 0); // disk with the start of the central directory
+            writeLong(out, count);
+            writeLong(out, count);
+            writeLong(out, size);
+            writeLong(out, offset);
+
+            writeInt(out, ZIP64_END_OF_CENTRAL_DIRECTORY_LOCATOR_SIGNATURE);
+            writeInt(out, 0); // disk with the start of the ZIP64 end of central directory
+            writeLong(out, zip64EndOffset);
+            writeInt(out, 1); // total number of disks
+        }
+
+        writeInt(out, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(out, 0); // number of this disk
+        writeShort(out, 0); // disk with the start of the central directory
+        writeShort(out, Math.min(count, MAX_UINT16));
+        writeShort(out, Math.min(count, MAX_UINT16));
+        writeInt(out, Math.min(size, MAX_UINT32));
+        writeInt(out, Math.min(offset, MAX_UINT32));
+        writeShort(out, 0); // comment length
+    }
+
+    private static int version(Entry entry, boolean zip64) {
+        if (zip64) {
+            return VERSION_ZIP64;
+        }
+        return entry.method() == ZipEntry.STORED ? VERSION_STORED : VERSION_DEFLATED;
+    }
+
+    /**
+     * Converts a time to the MS-DOS date and time format used in ZIP headers.
+     *
+     * @param time the time, or {@code null}
+     * @return the MS-DOS date and time; times before 1980 are mapped to 1980-01-01
+     */
+    private static long toDosTime(@Nullable LocalDateTime time) {
+        LocalDateTime t = time == null ? LocalDateTime.now() : time;
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (t.getYear() - 1980) << 25)
+                | ((long) t.getMonthValue() << 21)
+                | ((long) t.getDayOfMonth() << 16)
+                | ((long) t.getHour() << 11)
+                | ((long) t.getMinute() << 5)
+                | ((long) t.getSecond() >> 1);
+    }
+
+    /**
+     * Removes the ZIP64 extended information from extra field data, as the sizes and offsets it contains refer to the
+     * input file.
+     *
+     * @param extra the extra field data, or {@code null}
+     * @return the extra field data without ZIP64 extended information, or {@code null} if there is none left
+     */
+    private static byte @Nullable [] stripZip64ExtraField(byte @Nullable [] extra) {
+        if (extra == null) {
+            return null;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(extra.length);
+        int pos = 0;
+        while (pos + 4 <= extra.length) {
+            int tag = (extra[pos] & 0xFF) | (extra[pos + 1] & 0xFF) << 8;
+            int len = (extra[pos + 2] & 0xFF) | (extra[pos + 3] & 0xFF) << 8;
+            if (pos + 4 + len > extra.length) {
+                // malformed, keep the remaining data unchanged
+                break;
+            }
+            if (tag != ZIP64_EXTRA_FIELD_TAG) {
+                out.write(extra, pos, 4 + len);
+            }
+            pos += 4 + len;
+        }
+        out.write(extra, pos, extra.length - pos);
+        return out.size() == 0 ? null : out.toByteArray();
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xFF);
+        out.write((v >>> 8) & 0xFF);
+    }
+
+    private static void writeInt(OutputStream out, long v) throws IOException {
+        writeShort(out, (int) (v & 0xFFFF));
+        writeShort(out, (int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private static void writeLong(OutputStream out, long v) throws IOException {
+        writeInt(out, v & MAX_UINT32);
+        writeInt(out, v >>> 32);
+    }
+
+    /**
+     * An output stream that counts the bytes written, used to determine the offsets of the entries.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
@@ -1,5 +1,10 @@
 package com.dua3.cabe.processor;
 
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.FieldInfo;
+import javassist.bytecode.SignatureAttribute;
+import javassist.bytecode.TypeAnnotationsAttribute;
 import org.jspecify.annotations.NonNull;
 
 import java.lang.annotation.Annotation;
@@ -14,6 +19,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * Represents information about a method.
@@ -23,7 +29,7 @@ record MethodInfo(String name, String fullMethodName, boolean isConstructor, boo
                   boolean isPublic, boolean isSynthetic, boolean isBridge, boolean isNative,
                   List<ParameterInfo> parameters, ClassInfo classInfo,
                   boolean hasPrimitiveReturnType, NullnessOperator resultNullness,
-                  Executable method) {
+                  String descriptor) {
     private static final Pattern PATTERN_EXTRACT_METHOD_NAME = Pattern.compile(".*\\.([\\w$]+)\\(.*");
 
     public static MethodInfo forMethod(ClassInfo ci, Executable executable) {
@@ -62,13 +68,141 @@ record MethodInfo(String name, String fullMethodName, boolean isConstructor, boo
                 ci,
                 hasPrimitiveResult,
                 resultNullness,
-                executable);
+                getDescriptor(executable));
 
-        parameters.addAll(ParameterInfo.forMethod(mi));
+        parameters.addAll(ParameterInfo.forMethod(mi, executable));
 
         return mi;
     }
 
+    /**
+     * Creates a {@code MethodInfo} for a method or constructor read from a class file.
+     *
+     * <p>The result is the same as that of {@link #forMethod(ClassInfo, Executable)} for the loaded method.
+     *
+     * @param ci     the {@link ClassInfo} of the declaring class
+     * @param cf     the class file
+     * @param method the method as read from the class file
+     * @param reader the {@link ClassFileMetadataReader} used to look up information about other classes
+     * @return the {@code MethodInfo}
+     */
+    static MethodInfo forClassFileMethod(ClassInfo ci, ClassFile cf, javassist.bytecode.MethodInfo method, ClassFileMetadataReader reader) {
+        int modifiers = method.getAccessFlags();
+        String descriptor = method.getDescriptor();
+
+        boolean isConstructor = method.isConstructor();
+        boolean isCanonicalRecordConstructor = isConstructor && ci.isRecord() && isCanonicalRecordConstructor(cf, descriptor);
+        boolean isMethod = method.isMethod();
+        boolean isAbstract = Modifier.isAbstract(modifiers);
+        boolean isStatic = Modifier.isStatic(modifiers);
+        boolean isPublicApi = ci.isPublicApi() && Modifier.isPublic(modifiers);
+
+        boolean isSynthetic = (modifiers & AccessFlag.SYNTHETIC) != 0;
+        boolean isBridge = isMethod && (modifiers & AccessFlag.BRIDGE) != 0;
+        boolean isNative = Modifier.isNative(modifiers);
+
+        String returnDescriptor = ClassFileMetadataReader.getReturnDescriptor(descriptor);
+        boolean hasPrimitiveResult = isMethod && !returnDescriptor.startsWith("L") && !returnDescriptor.startsWith("[");
+
+        List<ParameterInfo> parameters = new ArrayList<>();
+
+        NullnessOperator resultNullness = isMethod
+                ? getReturnValueNullness(cf, method, returnDescriptor, reader)
+                : NullnessOperator.UNION_NULL; // do not check constructor return types
+
+        String name = isConstructor ? ci.name() : method.getName();
+        String parameterList = ClassFileMetadataReader.getParameterDescriptors(descriptor).stream()
+                .map(ClassFileMetadataReader::getTypeName)
+                .collect(Collectors.joining(","));
+        String fullMethodName = Modifier.toString(modifiers & Modifier.methodModifiers())
+                + (isConstructor ? " " : " " + ClassFileMetadataReader.getTypeName(returnDescriptor) + " " + ci.name() + ".")
+                + name + "(" + parameterList + ")";
+
+        MethodInfo mi = new MethodInfo(
+                name,
+                fullMethodName.strip(),
+                isConstructor,
+                isCanonicalRecordConstructor,
+                isMethod,
+                isAbstract,
+                isStatic,
+                isPublicApi,
+                isSynthetic,
+                isBridge,
+                isNative,
+                parameters,
+                ci,
+                hasPrimitiveResult,
+                resultNullness,
+                descriptor);
+
+        parameters.addAll(ParameterInfo.forClassFileMethod(mi, cf, method, reader));
+
+        return mi;
+    }
+
+    private static NullnessOperator getReturnValueNullness(ClassFile cf, javassist.bytecode.MethodInfo method, String returnDescriptor, ClassFileMetadataReader reader) {
+        ClassFileMetadataReader.ClassFacts facts = reader.getFacts(cf);
+        List<ClassFileMetadataReader.TypeAnnotation> typeAnnotations = ClassFileMetadataReader.getTypeAnnotations(
+                method.getAttribute(TypeAnnotationsAttribute.visibleTag),
+                method.getAttribute(TypeAnnotationsAttribute.invisibleTag)
+        );
+        NullnessOperator nullnessOperator = Util.getNullnessOperator(ClassFileMetadataReader.getTypeAnnotationNames(
+                typeAnnotations,
+                ClassFileMetadataReader.TARGET_METHOD_RETURN,
+                0,
+                reader.getInnerTypeDepthForDescriptor(returnDescriptor, facts)
+        ));
+        SignatureAttribute.MethodSignature signature = ClassFileMetadataReader.getMethodSignature(method);
+        if (signature != null && signature.getReturnType() instanceof SignatureAttribute.TypeVariable tv) {
+            nullnessOperator = nullnessOperator.combineWithParent(() -> reader.getTypeVariableNullnessOperator(tv.getName(), cf, method));
+        }
+        return nullnessOperator;
+    }
+
+    private static boolean isCanonicalRecordConstructor(ClassFile cf, String descriptor) {
+        // constructor arguments must match the declared fields, see isCanonicalRecordConstructor(ClassInfo, Executable)
+        List<String> fieldDescriptors = cf.getFields().stream().map(FieldInfo::getDescriptor).toList();
+        return ClassFileMetadataReader.getParameterDescriptors(descriptor).equals(fieldDescriptors);
+    }
+
+    /**
+     * Returns the JVM method descriptor of a method or constructor.
+     *
+     * @param executable the method or constructor
+     * @return the method descriptor
+     */
+    private static String getDescriptor(Executable executable) {
+        StringBuilder sb = new StringBuilder("(");
+        for (Class<?> type : executable.getParameterTypes()) {
+            sb.append(getDescriptor(type));
+        }
+        sb.append(')');
+        sb.append(executable instanceof Method m ? getDescriptor(m.getReturnType()) : "V");
+        return sb.toString();
+    }
+
+    private static String getDescriptor(Class<?> type) {
+        if (type.isArray()) {
+            return type.getName().replace('.', '/');
+        }
+        if (type.isPrimitive()) {
+            return switch (type.getName()) {
+                case "byte" -> "B";
+                case "char" -> "C";
+                case "double" -> "D";
+                case "float" -> "F";
+                case "int" -> "I";
+                case "long" -> "J";
+                case "short" -> "S";
+                case "boolean" -> "Z";
+                case "void" -> "V";
+                default -> throw new IllegalArgumentException("unknown primitive type: " + type.getName());
+            };
+        }
+        return "L" + type.getName().replace('.', '/') + ";";
+    }
+
     private static NullnessOperator getReturnValueNullness(Executable executable) {
         if (!(executable instanceof Method method)) {
             // do not check constructor return types
@@ -135,7 +269,7 @@ record MethodInfo(String name, String fullMethodName, boolean isConstructor, boo
                 ", isNative=" + isNative +
                 ", parameters=" + parameters +
                 ", classInfo=" + classInfo.name() +
-                ", method=" + method +
+                ", descriptor=" + descriptor +
                 '}';
     }
 }
@@ -5,6 +5,7 @@ import java.lang.module.Configuration;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -18,6 +19,8 @@ public class ModuleClassLoader extends ClassLoader {
     private static final Logger LOG = Logger.getLogger(ModuleClassLoader.class.getName());
     private final Map<String, String> packageToModuleName;
     private final Map<String, Path> moduleToPath;
+    private final Map<String, NullnessOperator> moduleNullness = new ConcurrentHashMap<>();
+    private final ModuleClassLoader parentModules;
     private final ModuleLayer moduleLayer;
 
     /**
@@ -30,9 +33,35 @@ public class ModuleClassLoader extends ClassLoader {
      * @param paths the paths to the modules to be loaded
      */
     public ModuleClassLoader(ClassLoader parent, Path... paths) {
+        this(parent, ModuleFinder.of(paths));
+    }
+
+    /**
+     * Constructs a new ModuleClassLoader instance for the modules found by the given {@link ModuleFinder}.
+     *
+     * @param parent the parent class loader for delegation
+     * @param finder the module finder used to locate the modules to be loaded
+     */
+    public ModuleClassLoader(ClassLoader parent, ModuleFinder finder) {
+        this(parent, null, finder);
+    }
+
+    /**
+     * Constructs a new ModuleClassLoader instance for the modules found by the given {@link ModuleFinder} that is
+     * layered on top of the modules of another ModuleClassLoader.
+     *
+     * <p>Only the modules found by {@code finder} are resolved, the module layer of {@code parentModules} is shared.
+     * This is used to process several inputs using the same module path without resolving it for each input.
+     *
+     * @param parent        the parent class loader for delegation
+     * @param parentModules the class loader whose modules can be read by the modules found by {@code finder}, or
+     *                      {@code null} to resolve the modules on top of the boot layer
+     * @param finder        the module finder used to locate the modules to be loaded
+     */
+    public ModuleClassLoader(ClassLoader parent, ModuleClassLoader parentModules, ModuleFinder finder) {
         super(parent);
 
-        ModuleFinder finder = ModuleFinder.of(paths);
+        this.parentModules = parentModules;
         Set<ModuleReference> moduleReferences = finder.findAll();
         packageToModuleName = new HashMap<>();
         moduleToPath = new HashMap<>();
@@ -53,7 +82,9 @@ public class ModuleClassLoader extends ClassLoader {
             });
         });
 
-        ModuleLayer parentLayer = ModuleLayer.boot();
+        ModuleLayer parentLayer = parentModules != null && parentModules.moduleLayer != null
+                ? parentModules.moduleLayer
+                : ModuleLayer.boot();
 
         Configuration configuration;
         try {
@@ -97,7 +128,11 @@ public class ModuleClassLoader extends ClassLoader {
      * @return an {@link Optional} containing the module name, or an empty {@link Optional} if the package is not found
      */
     public Optional<String> getModuleNameForPackage(String packageName) {
-        return Optional.ofNullable(packageToModuleName.get(packageName));
+        String moduleName = packageToModuleName.get(packageName);
+        if (moduleName == null && parentModules != null) {
+            return parentModules.getModuleNameForPackage(packageName);
+        }
+        return Optional.ofNullable(moduleName);
     }
 
     /**
@@ -106,7 +141,22 @@ public class ModuleClassLoader extends ClassLoader {
      * @return an {@link Optional} containing the path to the module, or an empty {@link Optional} if the module is not found
      */
     public Optional<Path> getPathForModule(String moduleName) {
-        return Optional.ofNullable(moduleToPath.get(moduleName));
+        Path path = moduleToPath.get(moduleName);
+        if (path == null && parentModules != null) {
+            return parentModules.getPathForModule(moduleName);
+        }
+        return Optional.ofNullable(path);
+    }
+
+    /**
+     * Returns the {@link NullnessOperator} of the given module as declared in its {@code module-info.class} file.
+     * The module descriptor is read only once per module.
+     * @param moduleName the name of the module
+     * @return an {@link Optional} containing the nullness operator, or an empty {@link Optional} if the module is not found
+     */
+    public Optional<NullnessOperator> getModuleNullnessOperator(String moduleName) {
+        return getPathForModule(moduleName)
+                .map(path -> moduleNullness.computeIfAbsent(moduleName, name -> Util.getModuleNullnessOperatorFromFile(path)));
     }
 
     @Override
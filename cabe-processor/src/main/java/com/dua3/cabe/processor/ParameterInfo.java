@@ -1,21 +1,29 @@
 package com.dua3.cabe.processor;
 
+import javassist.bytecode.AttributeInfo;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.MethodParametersAttribute;
+import javassist.bytecode.ParameterAnnotationsAttribute;
+import javassist.bytecode.SignatureAttribute;
+import javassist.bytecode.TypeAnnotationsAttribute;
 import org.jspecify.annotations.NonNull;
 import org.jspecify.annotations.Nullable;
 
 import java.lang.annotation.Annotation;
 import java.lang.reflect.AnnotatedType;
 import java.lang.reflect.Executable;
+import java.lang.reflect.Modifier;
 import java.lang.reflect.Parameter;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Formatter;
 import java.util.List;
 import java.util.Set;
 import java.util.regex.Pattern;
 
-record ParameterInfo(int index, String param, String name, Class<?> type, NullnessOperator nullnessOperator, boolean isSynthetic, MethodInfo methodInfo) {
+record ParameterInfo(int index, String param, String name, String type, NullnessOperator nullnessOperator, boolean isSynthetic, MethodInfo methodInfo) {
 
     private static final java.util.logging.Logger LOG = java.util.logging.Logger.getLogger(ParameterInfo.class.getName());
 
@@ -47,10 +55,9 @@ record ParameterInfo(int index, String param, String name, Class<?> type, Nullne
     );
     private static final Pattern PATTERN_SYNTHETIC_PARAMETER_NAMES = Pattern.compile("this(\\$\\d+)?");
 
-    public static List<ParameterInfo> forMethod(MethodInfo mi) {
+    public static List<ParameterInfo> forMethod(MethodInfo mi, Executable executable) {
         ClassInfo ci = mi.classInfo();
 
-        Executable executable = mi.method();
         Parameter[] parms = executable.getParameters();
 
         int n = parms.length;
@@ -77,7 +84,7 @@ record ParameterInfo(int index, String param, String name, Class<?> type, Nullne
                     .combineWithParent(() -> getGenericTypeNullnessOperator(param))
                     .combineWithParent(() -> Util.getNullnessOperator(type.getDeclaredAnnotations()));
 
-            pi.add(new ParameterInfo(i, symbol, name, param.getType(), nullnessOperator, isSynthetic, mi));
+            pi.add(new ParameterInfo(i, symbol, name, param.getType().getTypeName(), nullnessOperator, isSynthetic, mi));
 
             if (!isSynthetic) {
                 j++;
@@ -85,7 +92,9 @@ record ParameterInfo(int index, String param, String name, Class<?> type, Nullne
         }
 
         if (namePresent && nameNotPresent) {
-            LOG.warning(() -> getParameterNameWarning(ci, executable, n, parms));
+            LOG.warning(() -> getParameterNameWarning(ci, executable,
+                    Arrays.stream(parms).map(Parameter::isNamePresent).toList(),
+                    Arrays.stream(parms).map(Parameter::getName).toList()));
             for (int i = 0; i < pi.size(); i++) {
                 pi.set(i, pi.get(i).withName("#" + i));
             }
@@ -94,13 +103,192 @@ record ParameterInfo(int index, String param, String name, Class<?> type, Nullne
         return pi;
     }
 
-    private static @NonNull String getParameterNameWarning(ClassInfo ci, Executable executable, int n, Parameter[] parms) {
+    /**
+     * Creates the {@code ParameterInfo} instances for a method or constructor read from a class file.
+     *
+     * <p>The result is the same as that of {@link #forMethod(MethodInfo, Executable)} for the loaded method.
+     *
+     * @param mi     the {@link MethodInfo} of the method
+     * @param cf     the class file
+     * @param method the method as read from the class file
+     * @param reader the {@link ClassFileMetadataReader} used to look up information about other classes
+     * @return list of the method's parameters
+     */
+    static List<ParameterInfo> forClassFileMethod(MethodInfo mi, ClassFile cf, javassist.bytecode.MethodInfo method, ClassFileMetadataReader reader) {
+        ClassInfo ci = mi.classInfo();
+        ClassFileMetadataReader.ClassFacts facts = reader.getFacts(cf);
+
+        List<String> descriptors = ClassFileMetadataReader.getParameterDescriptors(method.getDescriptor());
+        int n = descriptors.size();
+
+        MethodParametersAttribute mpa = (MethodParametersAttribute) method.getAttribute(MethodParametersAttribute.tag);
+        if (mpa != null && mpa.size() != n) {
+            LOG.warning(() -> "ignoring MethodParameters attribute with wrong number of parameters: " + mi.fullMethodName());
+            mpa = null;
+        }
+
+        List<SignatureAttribute.@Nullable Type> genericTypes = getGenericParameterTypes(method, n, mpa);
+        List<List<String>> declaredAnnotations = getParameterAnnotationNames(n,
+                method.getAttribute(ParameterAnnotationsAttribute.visibleTag),
+                method.getAttribute(ParameterAnnotationsAttribute.invisibleTag));
+        List<ClassFileMetadataReader.TypeAnnotation> typeAnnotations = ClassFileMetadataReader.getTypeAnnotations(
+                method.getAttribute(TypeAnnotationsAttribute.visibleTag),
+                method.getAttribute(TypeAnnotationsAttribute.invisibleTag));
+
+        // the formal parameter index of type annotations does not count implicit leading parameters
+        int typeAnnotationOffset = getTypeAnnotationIndexOffset(mi, facts, descriptors);
+
+        List<ParameterInfo> pi = new ArrayList<>();
+        List<Boolean> namesPresent = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        boolean namePresent = false;
+        boolean nameNotPresent = false;
+        for (int i = 0, j = 0; i < n; i++) {
+            String symbol = "$" + (1 + i);
+            boolean isNamePresent = mpa != null && mpa.name(i) != 0;
+            String name = isNamePresent ? mpa.parameterName(i) : "arg#" + (j + 1);
+
+            namePresent = namePresent || isNamePresent;
+            nameNotPresent = nameNotPresent || !isNamePresent;
+            namesPresent.add(isNamePresent);
+            names.add(isNamePresent ? name : "arg" + i);
+
+            boolean isSynthetic = (mpa != null && ClassFileMetadataReader.isSyntheticParameter(mpa.accessFlags(i)))
+                    || (mi.isConstructor() && !ci.isStaticClass() && ci.isInnerClass() && i == 0);
+
+            String descriptor = descriptors.get(i);
+            SignatureAttribute.Type genericType = genericTypes.get(i);
+            int typeAnnotationIndex = i - typeAnnotationOffset;
+            int innerTypeDepth = reader.getInnerTypeDepthForDescriptor(descriptor, facts);
+            List<String> parameterTypeAnnotations = typeAnnotationIndex < 0
+                    ? List.of()
+                    : ClassFileMetadataReader.getTypeAnnotationNames(typeAnnotations,
+                            ClassFileMetadataReader.TARGET_METHOD_FORMAL_PARAMETER, typeAnnotationIndex, innerTypeDepth);
+
+            NullnessOperator nullnessOperator = Util.getNullnessOperator(declaredAnnotations.get(i))
+                    .combineWithParent(() -> {
+                        NullnessOperator typeNullness = Util.getNullnessOperator(parameterTypeAnnotations);
+                        if (genericType instanceof SignatureAttribute.TypeVariable tv) {
+                            typeNullness = typeNullness.combineWithParent(() -> reader.getTypeVariableNullnessOperator(tv.getName(), cf, method));
+                        }
+                        return typeNullness;
+                    });
+
+            pi.add(new ParameterInfo(i, symbol, name, ClassFileMetadataReader.getTypeName(descriptor), nullnessOperator, isSynthetic, mi));
+
+            if (!isSynthetic) {
+                j++;
+            }
+        }
+
+        if (namePresent && nameNotPresent) {
+            LOG.warning(() -> getParameterNameWarning(ci, mi.fullMethodName(), namesPresent, names));
+            for (int i = 0; i < pi.size(); i++) {
+                pi.set(i, pi.get(i).withName("#" + i));
+            }
+        }
+
+        return pi;
+    }
+
+    /**
+     * Returns the generic parameter types in the same way as {@code Executable.getAllGenericParameterTypes()}.
+     *
+     * @param method the method
+     * @param n      the number of parameters in the method descriptor
+     * @param mpa    the {@code MethodParameters} attribute, or {@code null}
+     * @return the generic parameter types, elements are {@code null} where the raw type is used
+     */
+    private static List<SignatureAttribute.@Nullable Type> getGenericParameterTypes(javassist.bytecode.MethodInfo method, int n, @Nullable MethodParametersAttribute mpa) {
+        List<SignatureAttribute.@Nullable Type> types = new ArrayList<>(Collections.nCopies(n, null));
+
+        SignatureAttribute.MethodSignature signature = ClassFileMetadataReader.getMethodSignature(method);
+        if (signature == null) {
+            return types;
+        }
+
+        SignatureAttribute.Type[] genericTypes = signature.getParameterTypes();
+        if (mpa != null) {
+            // synthetic and mandated parameters do not appear in the generic signature
+            for (int i = 0, k = 0; i < n && k < genericTypes.length; i++) {
+                if (!ClassFileMetadataReader.isImplicitParameter(mpa.accessFlags(i))) {
+                    types.set(i, genericTypes[k++]);
+                }
+            }
+        } else if (genericTypes.length == n) {
+            for (int i = 0; i < n; i++) {
+                types.set(i, genericTypes[i]);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * Returns the names of the declaration annotations for each parameter.
+     *
+     * <p>If an attribute contains fewer entries than there are parameters, the entries are assigned to the trailing
+     * parameters, as is done by reflection for implicit leading parameters.
+     *
+     * @param n          the number of parameters
+     * @param attributes the parameter annotation attributes, elements may be {@code null}
+     * @return list containing the list of annotation type names for each parameter
+     */
+    private static List<List<String>> getParameterAnnotationNames(int n, @Nullable AttributeInfo... attributes) {
+        List<List<String>> names = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            names.add(new ArrayList<>());
+        }
+        for (AttributeInfo attribute : attributes) {
+            if (attribute instanceof ParameterAnnotationsAttribute paa) {
+                javassist.bytecode.annotation.Annotation[][] annotations = paa.getAnnotations();
+                int shift = n - annotations.length;
+                for (int k = 0; k < annotations.length; k++) {
+                    if (k + shift >= 0) {
+                        for (javassist.bytecode.annotation.Annotation a : annotations[k]) {
+                            names.get(k + shift).add(a.getTypeName());
+                        }
+                    }
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns the number of implicit leading constructor parameters that are not counted in the formal parameter
+     * index of type annotations.
+     *
+     * @param mi          the method
+     * @param facts       the facts of the declaring class
+     * @param descriptors the parameter descriptors
+     * @return the offset to subtract from the parameter index
+     */
+    private static int getTypeAnnotationIndexOffset(MethodInfo mi, ClassFileMetadataReader.ClassFacts facts, List<String> descriptors) {
+        ClassInfo ci = mi.classInfo();
+        if (!mi.isConstructor()) {
+            return 0;
+        }
+        if (ci.isEnum()) {
+            // the synthetic name and ordinal parameters, see IS_COMPILER_BUG_ENUM_PARAMETER_INDEX_PRESENT
+            return IS_COMPILER_BUG_ENUM_PARAMETER_INDEX_PRESENT ? 2 : 0;
+        }
+
+        ClassFileMetadataReader.InnerClassEntry self = facts.innerClassEntry(ci.name());
+        if (self == null || (self.flags() & Modifier.STATIC) != 0) {
+            return 0;
+        }
+        String enclosingClass = self.outer() != null ? self.outer() : facts.enclosingClass();
+        String outerDescriptor = enclosingClass == null ? null : "L" + enclosingClass.replace('.', '/') + ";";
+        return !descriptors.isEmpty() && descriptors.get(0).equals(outerDescriptor) ? 1 : 0;
+    }
+
+    private static @NonNull String getParameterNameWarning(ClassInfo ci, Object method, List<Boolean> namesPresent, List<String> names) {
         try (Formatter fmt = new Formatter()) {
             fmt.format("Inconsistent parameter names detected!%n");
             fmt.format("Class: %s%n", ci);
-            fmt.format("Method: %s%n", executable);
-            for (int i = 0; i < n; i++) {
-                fmt.format("Parameter %d: namePresent=%b, name=%s%n", i + 1, parms[i].isNamePresent(), parms[i].getName());
+            fmt.format("Method: %s%n", method);
+            for (int i = 0; i < names.size(); i++) {
+                fmt.format("Parameter %d: namePresent=%b, name=%s%n", i + 1, namesPresent.get(i), names.get(i));
             }
             return fmt.toString();
         }
@@ -121,6 +309,16 @@ record ParameterInfo(int index, String param, String name, Class<?> type, Nullne
         return PRIMITIVES.contains(type);
     }
 
+    /**
+     * Returns the number of local variable slots occupied by a value of the given type.
+     *
+     * @param type the type name
+     * @return 2 for {@code long} and {@code double}, 1 otherwise
+     */
+    static int getSlotSize(String type) {
+        return type.equals("long") || type.equals("double") ? 2 : 1;
+    }
+
     @Override
     public @NonNull String toString() {
         return "ParameterInfo{" +
@@ -0,0 +1,218 @@
+package com.dua3.cabe.processor;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Logger;
+
+/**
+ * The manifest written to the output folder when processing incrementally.
+ *
+ * <p>The manifest records a hash of each processed class file's input and output. It also records a key made up of
+ * the processor version, the configuration, the emitter and the hashes of all {@code package-info} and {@code module-info} class
+ * files. When the key of a previous run matches, class files whose hashes did not change do not have to be processed
+ * again.
+ *
+ * <p>The manifest is a text file. The first line contains the key, each following line contains the path of a class
+ * file relative to the input folder, the input hash and the output hash, separated by tabs.
+ */
+final class ProcessingManifest {
+    private static final Logger LOG = Logger.getLogger(ProcessingManifest.class.getName());
+
+    /**
+     * The name of the manifest file inside the output folder.
+     */
+    static final String FILE_NAME = ".cabe-manifest";
+
+    private static final String KEY_PREFIX = "key=";
+    private static final HexFormat HEX_FORMAT = HexFormat.of();
+
+    /**
+     * An entry of the manifest.
+     *
+     * @param inputHash  the hash of the input class file
+     * @param outputHash the hash of the output class file
+     */
+    record Entry(String inputHash, String outputHash) {}
+
+    private final String key;
+    private final Map<String, Entry> entries = new TreeMap<>();
+
+    /**
+     * Constructs a new, empty manifest.
+     *
+     * @param key the key identifying the processor version, configuration and nullness context
+     */
+    ProcessingManifest(String key) {
+        this.key = key;
+    }
+
+    /**
+     * Computes the manifest key.
+     *
+     * @param configuration the configuration used for processing
+     * @param emitter       the emitter used for processing
+     * @param contextHashes the hashes of all {@code package-info} and {@code module-info} class files, indexed by
+     *                      relative path
+     * @return the manifest key
+     */
+    static String computeKey(Configuration configuration, ProcessingOptions.Emitter emitter, Map<String, String> contextHashes) {
+        StringBuilder context = new StringBuilder();
+        new TreeMap<>(contextHashes).forEach((path, hash) -> context.append(path).append('=').append(hash).append('\n'));
+        return "processorVersion=" + CabeProcessorMetaData.PROCESSOR_VERSION
+                + ";configuration=" + configuration.getConfigString()
+                + ";emitter=" + emitter
+                + ";context=" + hash(context.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a manifest file.
+     *
+     * @param file the manifest file
+     * @return the manifest, or {@code null} if the file does not exist or cannot be parsed
+     * @throws IOException if an I/O error occurs
+     */
+    static @Nullable ProcessingManifest read(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).startsWith(KEY_PREFIX)) {
+            LOG.warning(() -> "ignoring invalid manifest: " + file);
+            return null;
+        }
+
+        ProcessingManifest manifest = new ProcessingManifest(lines.get(0).substring(KEY_PREFIX.length()));
+        for (String line : lines.subList(1, lines.size())) {
+            String[] parts = line.split("\t");
+            if (parts.length != 3) {
+                LOG.warning(() -> "ignoring invalid manifest: " + file);
+                return null;
+            }
+            manifest.put(parts[0], new Entry(parts[1], parts[2]));
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a file.
+     *
+     * <p>The manifest is first written to a temporary file that is then moved to the target location so that an
+     * interrupted write cannot leave a partial manifest behind.
+     *
+     * @param file the manifest file
+     * @throws IOException if an I/O error occurs
+     */
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write(KEY_PREFIX + key);
+            out.newLine();
+            for (var e : entries.entrySet()) {
+                out.write(e.getKey() + "\t" + e.getValue().inputHash() + "\t" + e.getValue().outputHash());
+                out.newLine();
+            }
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Returns the manifest key.
+     *
+     * @return the key
+     */
+    String key() {
+        return key;
+    }
+
+    /**
+     * Returns the entry for a class file.
+     *
+     * @param path the path of the class file relative to the input folder, using '/' as separator
+     * @return the entry, or {@code null} if the manifest does not contain an entry for the path
+     */
+    @Nullable Entry get(String path) {
+        return entries.get(path);
+    }
+
+    /**
+     * Adds or replaces the entry for a class file.
+     *
+     * @param path  the path of the class file relative to the input folder, using '/' as separator
+     * @param entry the entry
+     */
+    void put(String path, Entry entry) {
+        entries.put(path, entry);
+    }
+
+    /**
+     * Returns the paths of all class files contained in the manifest.
+     *
+     * @return unmodifiable set of paths
+     */
+    Set<String> paths() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    /**
+     * Computes the hash of a file's content.
+     *
+     * @param file the file
+     * @return the hash as a hex string
+     * @throws IOException if an I/O error occurs
+     */
+    static String hash(Path file) throws IOException {
+        return hash(Files.readAllBytes(file));
+    }
+
+    /**
+     * Computes the hash of a byte array.
+     *
+     * @param data the data
+     * @return the hash as a hex string
+     */
+    static String hash(byte[] data) {
+        try {
+            return HEX_FORMAT.formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java implementation is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the key used to group the class files of a class nest.
+     *
+     * <p>Nested classes inherit the nullness context of their enclosing classes, so when one class file of a nest
+     * changes, all class files of the nest have to be processed again. Class files are grouped by the name of the
+     * top-level class, i.e., the part of the file name before the first '$'.
+     *
+     * @param path the path of the class file relative to the input folder, using '/' as separator
+     * @return the nest key
+     */
+    static String nestKey(String path) {
+        String name = path.endsWith(".class") ? path.substring(0, path.length() - ".class".length()) : path;
+        int start = name.lastIndexOf('/') + 1;
+        int end = name.indexOf('$', start);
+        return end < 0 ? name : name.substring(0, end);
+    }
+}
@@ -0,0 +1,439 @@
+package com.dua3.cabe.processor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Collects the metrics of a single processing run and writes them as a JSON report.
+ *
+ * <p>For every class file, the time spent in each {@link Phase}, the number of checks added per kind and the size
+ * before and after instrumenting are recorded. For the run, the wall time, the number of entries created in the
+ * Javassist class pools, the number of classes loaded by the JVM, and the heap and metaspace usage are recorded.
+ * The JVM figures are taken from the platform MX beans and therefore include other work done by the JVM at the same
+ * time, e.g., other tasks running in the same build daemon.
+ *
+ * <p>The memory usage is sampled when the run starts and whenever processing of a class file starts; the peak usage
+ * counters of the memory pools are shared with other tools in the same JVM and are neither reset nor used. Memory
+ * that is allocated and released between two samples is not seen, so the peak is a lower bound.
+ *
+ * <p>Class metrics are keyed by the input and the class name, so that classes with the same name from different
+ * inputs, e.g., {@code module-info} of the main and test classes, are reported separately.
+ *
+ * <p>When metrics are disabled, all methods return immediately. This class is thread-safe.
+ */
+public final class ProcessingMetrics {
+
+    /**
+     * The phases of processing a class file.
+     */
+    enum Phase {
+        /**
+         * Reading the class file.
+         */
+        READ,
+        /**
+         * Loading the class for reflection or reading its metadata from the class file.
+         */
+        REFLECT,
+        /**
+         * Parsing the class file and determining the checks to add.
+         */
+        ANALYZE,
+        /**
+         * Generating the bytecode for the checks and the instrumented class file.
+         */
+        COMPILE,
+        /**
+         * Writing or copying the output.
+         */
+        WRITE;
+
+        private String key() {
+            return name().toLowerCase(Locale.ROOT) + "Micros";
+        }
+    }
+
+    /**
+     * The outcome of processing a class file.
+     */
+    enum Status {
+        /**
+         * Checks were added to the class.
+         */
+        INSTRUMENTED,
+        /**
+         * The class was analyzed, but no checks were needed.
+         */
+        UNCHANGED,
+        /**
+         * The class was passed through without analyzing it, e.g., because of the {@link ClassFilePrefilter}.
+         */
+        SKIPPED,
+        /**
+         * The class had already been processed.
+         */
+        PROCESSED_BEFORE
+    }
+
+    /**
+     * The metrics of a single class file.
+     */
+    final class ClassMetrics {
+        private final String input;
+        private final String className;
+        private final AtomicLongArray nanos = new AtomicLongArray(Phase.values().length);
+        private final Map<String, Integer> parameterChecks = new ConcurrentHashMap<>();
+        private final Map<String, Integer> returnChecks = new ConcurrentHashMap<>();
+        private volatile Status status = Status.SKIPPED;
+        private volatile long bytesBefore;
+        private volatile long bytesAfter = -1;
+
+        private ClassMetrics(String input, String className) {
+            this.input = input;
+            this.className = className;
+        }
+
+        /**
+         * Adds the time spent in a phase.
+         *
+         * @param phase the phase
+         * @param time  the time in nanoseconds
+         */
+        void addTime(Phase phase, long time) {
+            if (enabled) {
+                nanos.addAndGet(phase.ordinal(), time);
+            }
+        }
+
+        /**
+         * Returns the time spent in a phase so far.
+         *
+         * @param phase the phase
+         * @return the time in nanoseconds, always {@code 0} when metrics are disabled
+         */
+        long getTime(Phase phase) {
+            return nanos.get(phase.ordinal());
+        }
+
+        /**
+         * Counts a parameter check.
+         *
+         * @param check the kind of check
+         */
+        void addParameterCheck(Configuration.Check check) {
+            if (enabled) {
+                parameterChecks.merge(check.name(), 1, Integer::sum);
+            }
+        }
+
+        /**
+         * Counts a return value check.
+         *
+         * @param check the kind of check
+         */
+        void addReturnCheck(Configuration.Check check) {
+            if (enabled) {
+                returnChecks.merge(check.name(), 1, Integer::sum);
+            }
+        }
+
+        /**
+         * Sets the outcome.
+         *
+         * @param status the status
+         */
+        void setStatus(Status status) {
+            this.status = status;
+        }
+
+        /**
+         * Sets the size of the class file before instrumenting.
+         *
+         * @param bytes the size in bytes
+         */
+        void setBytesBefore(long bytes) {
+            this.bytesBefore = bytes;
+        }
+
+        /**
+         * Sets the size of the class file after instrumenting.
+         *
+         * @param bytes the size in bytes
+         */
+        void setBytesAfter(long bytes) {
+            this.bytesAfter = bytes;
+        }
+
+        private long getBytesAfter() {
+            return bytesAfter < 0 ? bytesBefore : bytesAfter;
+        }
+
+        private int countChecks() {
+            return parameterChecks.values().stream().mapToInt(Integer::intValue).sum()
+                    + returnChecks.values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        private Map<String, Object> toJson() {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("input", input);
+            json.put("name", className);
+            json.put("status", status.name().toLowerCase(Locale.ROOT));
+            long total = 0;
+            for (Phase phase : Phase.values()) {
+                long t = nanos.get(phase.ordinal());
+                json.put(phase.key(), t / 1000);
+                total += t;
+            }
+            json.put("totalMicros", total / 1000);
+            Map<String, Object> checks = new LinkedHashMap<>();
+            checks.put("parameter", new LinkedHashMap<>(parameterChecks));
+            checks.put("return", new LinkedHashMap<>(returnChecks));
+            json.put("checks", checks);
+            json.put("bytesBefore", bytesBefore);
+            json.put("bytesAfter", getBytesAfter());
+            return json;
+        }
+    }
+
+    private final boolean enabled;
+    private final ClassMetrics disabledClassMetrics;
+    private final Map<ClassKey, ClassMetrics> classes = new ConcurrentHashMap<>();
+    private final AtomicLongArray runNanos = new AtomicLongArray(Phase.values().length);
+    private final AtomicLong classPoolEntries = new AtomicLong();
+    private final AtomicLong peakHeap = new AtomicLong();
+    private final AtomicLong peakMetaspace = new AtomicLong();
+    private List<MemoryPoolMXBean> memoryPools = List.of();
+    private long startNanos;
+    private long startLoadedClasses;
+    private long startHeap;
+    private long startMetaspace;
+
+    /**
+     * The key of the class metrics.
+     *
+     * @param input     the input containing the class
+     * @param className the class name
+     */
+    private record ClassKey(String input, String className) {}
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param enabled whether metrics are collected
+     */
+    ProcessingMetrics(boolean enabled) {
+        this.enabled = enabled;
+        this.disabledClassMetrics = new ClassMetrics("", "");
+    }
+
+    /**
+     * Checks whether metrics are collected.
+     *
+     * @return {@code true}, if metrics are collected
+     */
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the run. Records the current memory usage as the baseline.
+     */
+    void start() {
+        if (!enabled) {
+            return;
+        }
+        startNanos = System.nanoTime();
+        startLoadedClasses = ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount();
+        memoryPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP || pool.getName().equals("Metaspace"))
+                .toList();
+        sampleMemory();
+        startHeap = peakHeap.get();
+        startMetaspace = peakMetaspace.get();
+    }
+
+    /**
+     * Returns the metrics of a class file, creating them on first use.
+     *
+     * <p>Creating the metrics also samples the memory usage.
+     *
+     * @param input     the input containing the class file
+     * @param className the class name
+     * @return the class metrics
+     */
+    ClassMetrics forClass(String input, String className) {
+        if (!enabled) {
+            return disabledClassMetrics;
+        }
+        return classes.computeIfAbsent(new ClassKey(input, className), key -> {
+            sampleMemory();
+            return new ClassMetrics(key.input(), key.className());
+        });
+    }
+
+    /**
+     * Samples the current heap and metaspace usage and updates the peak values.
+     */
+    private void sampleMemory() {
+        long heap = 0;
+        long metaspace = 0;
+        for (MemoryPoolMXBean pool : memoryPools) {
+            long used = pool.getUsage() == null ? 0 : pool.getUsage().getUsed();
+            if (pool.getType() == MemoryType.HEAP) {
+                heap += used;
+            } else {
+                metaspace = used;
+            }
+        }
+        peakHeap.accumulateAndGet(heap, Math::max);
+        peakMetaspace.accumulateAndGet(metaspace, Math::max);
+    }
+
+    /**
+     * Adds time spent in a phase that cannot be attributed to a single class, e.g., reading a JAR file.
+     *
+     * @param phase the phase
+     * @param time  the time in nanoseconds
+     */
+    void addTime(Phase phase, long time) {
+        if (enabled) {
+            runNanos.addAndGet(phase.ordinal(), time);
+        }
+    }
+
+    /**
+     * Counts an entry added to a Javassist class pool.
+     */
+    void addClassPoolEntry() {
+        if (enabled) {
+            classPoolEntries.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes the report.
+     *
+     * @param file   the report file
+     * @param input  the processed input; several inputs are separated by the platform path separator
+     * @param output the output; several outputs are separated by the platform path separator
+     * @param configuration the configuration used
+     * @param options       the options used
+     * @throws IOException if an I/O error occurs
+     */
+    void write(Path file, String input, String output, Configuration configuration, ProcessingOptions options) throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        long wallNanos = System.nanoTime() - startNanos;
+        sampleMemory();
+
+        List<ClassMetrics> sorted = new ArrayList<>(classes.values());
+        sorted.sort(Comparator.<ClassMetrics, String>comparing(cm -> cm.input).thenComparing(cm -> cm.className));
+
+        long[] phaseNanos = new long[Phase.values().length];
+        long bytesBefore = 0;
+        long bytesAfter = 0;
+        int instrumented = 0;
+        int checks = 0;
+        List<Object> classesJson = new ArrayList<>(sorted.size());
+        for (ClassMetrics cm : sorted) {
+            for (Phase phase : Phase.values()) {
+                phaseNanos[phase.ordinal()] += cm.getTime(phase);
+            }
+            bytesBefore += cm.bytesBefore;
+            bytesAfter += cm.getBytesAfter();
+            instrumented += cm.status == Status.INSTRUMENTED ? 1 : 0;
+            checks += cm.countChecks();
+            classesJson.add(cm.toJson());
+        }
+
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("classes", sorted.size());
+        totals.put("instrumented", instrumented);
+        totals.put("checks", checks);
+        for (Phase phase : Phase.values()) {
+            totals.put(phase.key(), (phaseNanos[phase.ordinal()] + runNanos.get(phase.ordinal())) / 1000);
+        }
+        totals.put("bytesBefore", bytesBefore);
+        totals.put("bytesAfter", bytesAfter);
+
+        Map<String, Object> jvm = new LinkedHashMap<>();
+        jvm.put("classPoolEntries", classPoolEntries.get());
+        jvm.put("classesLoaded", ManagementFactory.getClassLoadingMXBean().getTotalLoadedClassCount() - startLoadedClasses);
+        jvm.put("startHeapBytes", startHeap);
+        jvm.put("peakHeapBytes", peakHeap.get());
+        jvm.put("startMetaspaceBytes", startMetaspace);
+        jvm.put("peakMetaspaceBytes", peakMetaspace.get());
+
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("processorVersion", CabeProcessorMetaData.PROCESSOR_VERSION);
+        report.put("input", input);
+        report.put("output", output);
+        report.put("configuration", configuration.getConfigString());
+        report.put("parallelism", options.effectiveParallelism());
+        report.put("ioParallelism", options.ioParallelism());
+        report.put("wallMicros", wallNanos / 1000);
+        report.put("totals", totals);
+        report.put("jvm", jvm);
+        report.put("classes", classesJson);
+
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.writeString(file, ProcessorServer.Json.format(report), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a report file and returns a single line summary of the run.
+     *
+     * @param file the report file
+     * @return the summary
+     * @throws IOException if the file cannot be read or is not a valid report
+     */
+    public static String summarize(Path file) throws IOException {
+        Object json;
+        try {
+            json = ProcessorServer.Json.parse(Files.readString(file, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("invalid report: " + file, e);
+        }
+        if (!(json instanceof Map<?, ?> report)
+                || !(report.get("totals") instanceof Map<?, ?> totals)
+                || !(report.get("jvm") instanceof Map<?, ?> jvm)) {
+            throw new IOException("invalid report: " + file);
+        }
+
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("Cabe: %d class files, %d instrumented, %d checks in %d ms".formatted(
+                getLong(totals, "classes"), getLong(totals, "instrumented"), getLong(totals, "checks"),
+                getLong(report, "wallMicros") / 1000));
+        String sep = " (";
+        for (Phase phase : Phase.values()) {
+            sb.append(sep).append(phase.name().toLowerCase(Locale.ROOT)).append(' ')
+                    .append(getLong(totals, phase.key()) / 1000).append(" ms");
+            sep = ", ";
+        }
+        sb.append("), peak heap %d MiB".formatted(getLong(jvm, "peakHeapBytes") >> 20));
+        return sb.toString();
+    }
+
+    private static long getLong(Map<?, ?> map, String key) {
+        return map.get(key) instanceof Number n ? n.longValue() : 0;
+    }
+}
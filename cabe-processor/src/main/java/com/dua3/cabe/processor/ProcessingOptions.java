@@ -0,0 +1,211 @@
+package com.dua3.cabe.processor;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * The ProcessingOptions record controls how the {@link ClassPatcher} processes class files.
+ *
+ * <p>In contrast to {@link Configuration}, the processing options do not influence which checks are generated.
+ *
+ * @param parallelism    the number of worker threads used to instrument class files; {@code 1} processes class
+ *                       files sequentially, {@code 0} uses one worker thread per available processor
+ * @param ioParallelism  the number of threads used for reading and, separately, for writing class files when
+ *                       processing a folder
+ * @param incremental    if {@code true}, a manifest is written to the output folder and class files that did not
+ *                       change since the last run are not processed again
+ * @param metadata       the source of the class metadata (annotations, modifiers, parameter names) used for
+ *                       instrumenting
+ * @param emitter        the backend used to insert the checks into the method bytecode
+ * @param classpathIndex the path of the file used to persist the index of the JAR files on the classpath between
+ *                       runs, or {@code null} to keep the index in memory only; the path is stored as a string
+ *                       because {@link java.nio.file.Path} is not serializable
+ * @param report         the path of the file to write the processing report to, or {@code null} to not collect
+ *                       processing metrics
+ * @param memoryBudget   the amount of heap and metaspace in bytes the processor should stay within when processing a
+ *                       folder, or {@code 0} to process all class files using a single class loader
+ */
+public record ProcessingOptions(int parallelism, int ioParallelism, boolean incremental, Metadata metadata, Emitter emitter,
+                                @Nullable String classpathIndex, @Nullable String report, long memoryBudget) implements Serializable {
+
+    /**
+     * The default options: class files are processed sequentially, all class files are processed on every run.
+     */
+    public static final ProcessingOptions DEFAULT = new ProcessingOptions(1, 1, false, Metadata.REFLECTION, Emitter.SOURCE, null, null, 0);
+
+    /**
+     * The source of the class metadata used for instrumenting.
+     */
+    public enum Metadata {
+        /**
+         * Load the classes to be processed and read their metadata using reflection.
+         */
+        REFLECTION,
+        /**
+         * Read the metadata directly from the class file attributes without loading any classes.
+         */
+        CLASSFILE
+    }
+
+    /**
+     * The backend used to insert the checks into the method bytecode.
+     */
+    public enum Emitter {
+        /**
+         * Generate Java source code for the checks and compile it using the Javassist compiler.
+         */
+        SOURCE,
+        /**
+         * Write the bytecode for the checks directly without going through a compiler.
+         */
+        BYTECODE
+    }
+
+    /**
+     * Constructs a new {@code ProcessingOptions} instance.
+     *
+     * @param parallelism    the number of worker threads, or {@code 0} to use all available processors
+     * @param ioParallelism  the number of threads used for reading and for writing class files
+     * @param incremental    whether to skip class files that did not change since the last run
+     * @param metadata       the source of the class metadata
+     * @param emitter        the backend used to insert the checks
+     * @param classpathIndex the file used to persist the classpath index, or {@code null}
+     * @param report         the file to write the processing report to, or {@code null}
+     * @param memoryBudget   the memory budget in bytes, or {@code 0} for no budget
+     * @throws IllegalArgumentException if {@code parallelism} or {@code memoryBudget} is negative or
+     *                                  {@code ioParallelism} is not positive
+     */
+    public ProcessingOptions {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("invalid parallelism: " + parallelism);
+        }
+        if (ioParallelism < 1) {
+            throw new IllegalArgumentException("invalid I/O parallelism: " + ioParallelism);
+        }
+        if (memoryBudget < 0) {
+            throw new IllegalArgumentException("invalid memory budget: " + memoryBudget);
+        }
+        Objects.requireNonNull(metadata, "metadata is null");
+        Objects.requireNonNull(emitter, "emitter is null");
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance with the specified parallelism.
+     *
+     * @param parallelism the number of worker threads, or {@code 0} to use all available processors
+     * @return a new {@code ProcessingOptions} object updated with the provided parallelism
+     */
+    public ProcessingOptions withParallelism(int parallelism) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance with the specified I/O parallelism.
+     *
+     * @param ioParallelism the number of threads used for reading and for writing class files
+     * @return a new {@code ProcessingOptions} object updated with the provided I/O parallelism
+     */
+    public ProcessingOptions withIoParallelism(int ioParallelism) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance with incremental processing enabled or disabled.
+     *
+     * @param incremental whether to skip class files that did not change since the last run
+     * @return a new {@code ProcessingOptions} object updated with the provided incremental flag
+     */
+    public ProcessingOptions withIncremental(boolean incremental) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance using the specified metadata source.
+     *
+     * @param metadata the source of the class metadata
+     * @return a new {@code ProcessingOptions} object updated with the provided metadata source
+     */
+    public ProcessingOptions withMetadata(Metadata metadata) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance using the specified emitter.
+     *
+     * @param emitter the backend used to insert the checks
+     * @return a new {@code ProcessingOptions} object updated with the provided emitter
+     */
+    public ProcessingOptions withEmitter(Emitter emitter) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance using the specified classpath index file.
+     *
+     * @param classpathIndex the file used to persist the index of the JAR files on the classpath, or {@code null} to
+     *                       keep the index in memory only
+     * @return a new {@code ProcessingOptions} object updated with the provided classpath index file
+     */
+    public ProcessingOptions withClasspathIndex(@Nullable String classpathIndex) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance using the specified report file.
+     *
+     * @param report the file to write the processing report to, or {@code null} to not collect processing metrics
+     * @return a new {@code ProcessingOptions} object updated with the provided report file
+     */
+    public ProcessingOptions withReport(@Nullable String report) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Returns a new {@code ProcessingOptions} instance using the specified memory budget.
+     *
+     * @param memoryBudget the amount of heap and metaspace in bytes to stay within, or {@code 0} for no budget
+     * @return a new {@code ProcessingOptions} object updated with the provided memory budget
+     */
+    public ProcessingOptions withMemoryBudget(long memoryBudget) {
+        return new ProcessingOptions(parallelism, ioParallelism, incremental, metadata, emitter, classpathIndex, report, memoryBudget);
+    }
+
+    /**
+     * Parses a memory size like the JVM {@code -Xmx} option does, i.e., a number optionally followed by one of the
+     * units {@code k}, {@code m}, or {@code g} (case-insensitive).
+     *
+     * @param size the size, e.g., {@code "512m"}
+     * @return the size in bytes
+     * @throws IllegalArgumentException if the size cannot be parsed
+     */
+    public static long parseMemorySize(String size) {
+        String s = size.strip().toLowerCase(Locale.ROOT);
+        int shift = switch (s.isEmpty() ? ' ' : s.charAt(s.length() - 1)) {
+            case 'k' -> 10;
+            case 'm' -> 20;
+            case 'g' -> 30;
+            default -> 0;
+        };
+        try {
+            long value = Long.parseLong(shift == 0 ? s : s.substring(0, s.length() - 1));
+            if (value < 0 || value > Long.MAX_VALUE >> shift) {
+                throw new IllegalArgumentException("invalid memory size: " + size);
+            }
+            return value << shift;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid memory size: " + size, e);
+        }
+    }
+
+    /**
+     * Returns the number of worker threads to use, resolving {@code 0} to the number of available processors.
+     *
+     * @return the number of worker threads, always at least 1
+     */
+    public int effectiveParallelism() {
+        return parallelism == 0 ? Math.max(1, Runtime.getRuntime().availableProcessors()) : parallelism;
+    }
+}
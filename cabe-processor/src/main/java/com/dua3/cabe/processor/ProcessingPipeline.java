@@ -0,0 +1,293 @@
+package com.dua3.cabe.processor;
+
+import javassist.ClassPool;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Processes class files in separate stages that are connected by bounded queues.
+ *
+ * <p>The stages are:
+ * <ol>
+ *     <li>listing the class files, using a single thread,
+ *     <li>reading the class files and deciding whether they have to be instrumented,
+ *     <li>instrumenting, where each thread uses its own {@link ClassPool},
+ *     <li>writing the output.
+ * </ol>
+ * Each stage runs on its own threads, so that file I/O overlaps with instrumenting. When a stage runs ahead of the
+ * next one, it blocks until there is room in the queue. The number of class files held in memory therefore depends
+ * on the number of threads only and not on the size of the input.
+ *
+ * <p>If a stage fails, all stages are stopped and the first failure is rethrown by {@link #run(Source)}.
+ */
+final class ProcessingPipeline {
+    private static final Logger LOG = Logger.getLogger(ProcessingPipeline.class.getName());
+
+    /**
+     * The capacity of each queue per thread taking items from it.
+     */
+    static final int QUEUE_CAPACITY_PER_THREAD = 16;
+
+    /**
+     * Marks the end of input in the queues; compared by identity.
+     */
+    private static final Path END_OF_INPUT = Paths.get("");
+    private static final Item END = new Item(END_OF_INPUT, null);
+
+    /**
+     * Supplies the class files to process.
+     */
+    @FunctionalInterface
+    interface Source {
+        /**
+         * Opens the stream of class files. The stream is closed after all elements have been consumed.
+         *
+         * @return the stream of class files
+         * @throws IOException if an I/O error occurs
+         */
+        Stream<Path> open() throws IOException;
+    }
+
+    /**
+     * The operations carried out by the stages of the pipeline. Implementations must be thread-safe.
+     */
+    interface Stages {
+        /**
+         * Reads a class file.
+         *
+         * @param classFile the class file
+         * @return the content of the class file if it has to be instrumented, or {@code null} if it is copied
+         *         unchanged
+         * @throws IOException if an I/O error occurs
+         */
+        byte @Nullable [] read(Path classFile) throws IOException;
+
+        /**
+         * Instruments a class file.
+         *
+         * @param classPool the class pool of the current thread
+         * @param classFile the class file
+         * @param data      the content of the class file
+         * @return the content of the instrumented class file, or {@code null} if the class file is copied unchanged
+         * @throws IOException                        if an I/O error occurs
+         * @throws ClassFileProcessingFailedException if processing of the class file fails
+         */
+        byte @Nullable [] instrument(ClassPool classPool, Path classFile, byte[] data)
+                throws IOException, ClassFileProcessingFailedException;
+
+        /**
+         * Copies a class file to the output unchanged.
+         *
+         * @param classFile the class file
+         * @throws IOException if an I/O error occurs
+         */
+        void copy(Path classFile) throws IOException;
+
+        /**
+         * Writes an instrumented class file to the output.
+         *
+         * @param classFile the class file
+         * @param data      the content of the instrumented class file
+         * @throws IOException if an I/O error occurs
+         */
+        void write(Path classFile, byte[] data) throws IOException;
+    }
+
+    /**
+     * A class file passed between the stages.
+     *
+     * @param classFile the class file
+     * @param data      the content, or {@code null} if the class file is copied unchanged
+     */
+    private record Item(Path classFile, byte @Nullable [] data) {}
+
+    /**
+     * The body of a stage thread.
+     */
+    @FunctionalInterface
+    private interface StageTask {
+        void run() throws IOException, ClassFileProcessingFailedException, InterruptedException;
+    }
+
+    private final int readers;
+    private final int workers;
+    private final int writers;
+    private final Supplier<ClassPool> classPoolFactory;
+    private final Stages stages;
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final AtomicReference<@Nullable Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Constructs a new pipeline.
+     *
+     * @param readers          the number of threads reading class files
+     * @param workers          the number of threads instrumenting class files
+     * @param writers          the number of threads writing the output
+     * @param classPoolFactory creates the class pool for an instrumenting thread
+     * @param stages           the operations of the stages
+     */
+    ProcessingPipeline(int readers, int workers, int writers, Supplier<ClassPool> classPoolFactory, Stages stages) {
+        if (readers < 1 || workers < 1 || writers < 1) {
+            throw new IllegalArgumentException("invalid number of threads: " + readers + "/" + workers + "/" + writers);
+        }
+        this.readers = readers;
+        this.workers = workers;
+        this.writers = writers;
+        this.classPoolFactory = classPoolFactory;
+        this.stages = stages;
+    }
+
+    /**
+     * Processes the class files from the given source and waits until all stages have finished.
+     *
+     * <p>A pipeline instance can only be run once.
+     *
+     * @param source the source of the class files
+     * @return the number of class files processed
+     * @throws IOException                        if an I/O error occurs
+     * @throws ClassFileProcessingFailedException if processing of a class file fails
+     */
+    long run(Source source) throws IOException, ClassFileProcessingFailedException {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("pipeline has already been run");
+        }
+
+        LOG.fine(() -> "processing class files using %d reader, %d worker, and %d writer threads".formatted(readers, workers, writers));
+
+        BlockingQueue<Path> readQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD * readers);
+        BlockingQueue<Item> instrumentQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD * workers);
+        BlockingQueue<Item> writeQueue = new ArrayBlockingQueue<>(QUEUE_CAPACITY_PER_THREAD * writers);
+        AtomicInteger activeReaders = new AtomicInteger(readers);
+        AtomicInteger activeWorkers = new AtomicInteger(workers);
+        AtomicLong count = new AtomicLong();
+
+        addThread("cabe-list", () -> {
+            try (Stream<Path> classFiles = source.open()) {
+                Iterator<Path> iter = classFiles.iterator();
+                while (iter.hasNext()) {
+                    readQueue.put(iter.next());
+                    count.incrementAndGet();
+                }
+            }
+            for (int i = 0; i < readers; i++) {
+                readQueue.put(END_OF_INPUT);
+            }
+        });
+
+        for (int i = 1; i <= readers; i++) {
+            addThread("cabe-reader-" + i, () -> {
+                for (Path classFile = readQueue.take(); classFile != END_OF_INPUT; classFile = readQueue.take()) {
+                    byte[] data = stages.read(classFile);
+                    (data == null ? writeQueue : instrumentQueue).put(new Item(classFile, data));
+                }
+                if (activeReaders.decrementAndGet() == 0) {
+                    for (int j = 0; j < workers; j++) {
+                        instrumentQueue.put(END);
+                    }
+                }
+            });
+        }
+
+        for (int i = 1; i <= workers; i++) {
+            addThread("cabe-worker-" + i, () -> {
+                ClassPool classPool = classPoolFactory.get();
+                for (Item item = instrumentQueue.take(); item != END; item = instrumentQueue.take()) {
+                    byte[] data = stages.instrument(classPool, item.classFile(), item.data());
+                    writeQueue.put(new Item(item.classFile(), data));
+                }
+                if (activeWorkers.decrementAndGet() == 0) {
+                    for (int j = 0; j < writers; j++) {
+                        writeQueue.put(END);
+                    }
+                }
+            });
+        }
+
+        for (int i = 1; i <= writers; i++) {
+            addThread("cabe-writer-" + i, () -> {
+                for (Item item = writeQueue.take(); item != END; item = writeQueue.take()) {
+                    byte[] data = item.data();
+                    if (data == null) {
+                        stages.copy(item.classFile());
+                    } else {
+                        stages.write(item.classFile(), data);
+                    }
+                }
+            });
+        }
+
+        threads.forEach(Thread::start);
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            abort(e);
+            Thread.currentThread().interrupt();
+            throw new ClassFileProcessingFailedException("interrupted while processing class files", e);
+        }
+
+        Throwable cause = failure.get();
+        if (cause == null) {
+            return count.get();
+        }
+        if (cause instanceof IOException ioe) {
+            throw ioe;
+        }
+        if (cause instanceof ClassFileProcessingFailedException cfpfe) {
+            throw cfpfe;
+        }
+        if (cause instanceof RuntimeException re) {
+            throw re;
+        }
+        if (cause instanceof Error err) {
+            throw err;
+        }
+        throw new ClassFileProcessingFailedException("processing class files failed", cause);
+    }
+
+    private void addThread(String name, StageTask task) {
+        Thread thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (InterruptedException e) {
+                // interrupted because another stage failed
+                if (failure.get() == null) {
+                    abort(e);
+                }
+            } catch (Throwable t) {
+                abort(t);
+            }
+        }, name);
+        thread.setDaemon(true);
+        threads.add(thread);
+    }
+
+    /**
+     * Records the first failure and stops all stages.
+     *
+     * @param t the failure
+     */
+    private void abort(Throwable t) {
+        if (failure.compareAndSet(null, t)) {
+            LOG.log(Level.FINE, t, () -> "aborting processing");
+            threads.forEach(Thread::interrupt);
+        }
+    }
+}
@@ -0,0 +1,480 @@
+package com.dua3.cabe.processor;
+
+import org.jspecify.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the {@link ClassPatcher} as a long-lived server that processes work requests without restarting the JVM.
+ *
+ * <p>The protocol follows the JSON variant of the persistent worker protocol used by build tools. Each request is a
+ * JSON object on a single line containing the command line arguments of a single {@link ClassPatcher} run:
+ * <pre>
+ * {"arguments": ["-i", "build/classes", "-o", "build/classes-instrumented", "-cp", "lib/a.jar"], "requestId": 1}
+ * </pre>
+ * For each request, a response is written as a single line:
+ * <pre>
+ * {"exitCode": 0, "output": "", "requestId": 1}
+ * </pre>
+ * Unknown fields in the request are ignored. The {@code output} field contains the error messages of the run, log
+ * output is written to stderr.
+ *
+ * <p>Requests are read from stdin and responses are written to stdout until stdin is closed. When a socket file is
+ * given, the server instead accepts connections on a Unix domain socket and runs until the process is terminated;
+ * each connection can be used for any number of requests. Requests are processed one at a time, the classes of a
+ * single request are processed in parallel as requested by the {@code -j} option.
+ *
+ * <p>The server uses a {@link ClasspathCache} so that the JAR files on the classpath are only read once.
+ */
+final class ProcessorServer {
+    private static final Logger LOG = Logger.getLogger(ProcessorServer.class.getName());
+
+    private final Handler consoleHandler;
+    private final ClasspathCache classpathCache = new ClasspathCache();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param consoleHandler the handler whose level is set according to the verbosity of each request
+     */
+    ProcessorServer(Handler consoleHandler) {
+        this.consoleHandler = consoleHandler;
+    }
+
+    /**
+     * Runs the server as requested by the command line.
+     *
+     * @param cmdLine        the command line, containing the {@code --server} option
+     * @param consoleHandler the handler whose level is set according to the verbosity of each request
+     * @return the exit code
+     */
+    @SuppressWarnings("java:S106")
+    static int serve(List<String> cmdLine, Handler consoleHandler) {
+        List<String> args = new ArrayList<>(cmdLine);
+        args.remove("--server");
+
+        Path socket = null;
+        int idxSocket = args.indexOf("--socket");
+        if (idxSocket >= 0) {
+            if (idxSocket + 1 >= args.size()) {
+                System.err.println("Commandline error: Missing argument to option '--socket'");
+                return 1;
+            }
+            socket = Paths.get(args.get(idxSocket + 1));
+            args.subList(idxSocket, idxSocket + 2).clear();
+        }
+
+        if (!args.isEmpty()) {
+            System.err.println("Unexpected argument: " + args.get(0));
+            return 2;
+        }
+
+        ProcessorServer server = new ProcessorServer(consoleHandler);
+        try {
+            if (socket != null) {
+                server.serve(socket);
+            } else {
+                server.serve(new InputStreamReader(System.in, StandardCharsets.UTF_8),
+                        new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            }
+            return 0;
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Error in server mode", e);
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Accepts connections on a Unix domain socket and processes the requests sent over each connection.
+     *
+     * <p>An existing socket file is replaced. This method does not return unless an I/O error occurs.
+     *
+     * @param socket the socket file
+     * @throws IOException if an I/O error occurs
+     */
+    void serve(Path socket) throws IOException {
+        Files.deleteIfExists(socket);
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            serverChannel.bind(UnixDomainSocketAddress.of(socket));
+            LOG.info(() -> "listening on " + socket);
+            while (!Thread.currentThread().isInterrupted()) {
+                try (SocketChannel channel = serverChannel.accept()) {
+                    LOG.fine("connection accepted");
+                    serve(Channels.newReader(channel, StandardCharsets.UTF_8), Channels.newWriter(channel, StandardCharsets.UTF_8));
+                } catch (IOException e) {
+                    LOG.log(Level.WARNING, "connection failed", e);
+                }
+            }
+        } finally {
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     * Processes requests until the end of input is reached.
+     *
+     * @param in  the reader to read requests from
+     * @param out the writer to write responses to
+     * @throws IOException if an I/O error occurs
+     */
+    void serve(Reader in, Writer out) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            if (line.isBlank()) {
+                continue;
+            }
+            out.write(handle(line));
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    /**
+     * Processes a single request.
+     *
+     * @param request the request as JSON text
+     * @return the response as JSON text
+     */
+    String handle(String request) {
+        long requestId = 0;
+        int exitCode;
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (PrintStream err = new PrintStream(output, true, StandardCharsets.UTF_8)) {
+            try {
+                if (!(Json.parse(request) instanceof Map<?, ?> map)) {
+                    throw new IllegalArgumentException("request is not a JSON object");
+                }
+                if (map.get("requestId") instanceof Number n) {
+                    requestId = n.longValue();
+                }
+                List<String> arguments = getArguments(map.get("arguments"));
+
+                // regular output is not part of the protocol and goes to stderr
+                exitCode = ClassPatcher.run(arguments, consoleHandler, System.err, err, classpathCache);
+            } catch (IllegalArgumentException e) {
+                err.println("Invalid request: " + e.getMessage());
+                exitCode = 1;
+            } catch (RuntimeException e) {
+                LOG.log(Level.SEVERE, "Error processing request", e);
+                err.println("Error: " + e.getMessage());
+                exitCode = 2;
+            }
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("exitCode", exitCode);
+        response.put("output", output.toString(StandardCharsets.UTF_8));
+        response.put("requestId", requestId);
+        return Json.format(response);
+    }
+
+    private static List<String> getArguments(@Nullable Object value) {
+        if (!(value instanceof List<?> list)) {
+            throw new IllegalArgumentException("'arguments' must be an array of strings");
+        }
+        List<String> arguments = new ArrayList<>(list.size());
+        for (Object item : list) {
+            if (!(item instanceof String s)) {
+                throw new IllegalArgumentException("'arguments' must be an array of strings");
+            }
+            arguments.add(s);
+        }
+        return arguments;
+    }
+
+    /**
+     * A minimal JSON reader and writer sufficient for the worker protocol.
+     *
+     * <p>Objects are mapped to {@link Map}, arrays to {@link List}, numbers to {@link Long} or {@link Double}.
+     * Nesting is limited to {@link #MAX_DEPTH} levels so that a malformed request cannot exhaust the stack.
+     */
+    static final class Json {
+        /**
+         * The maximum nesting depth of objects and arrays.
+         */
+        static final int MAX_DEPTH = 64;
+
+        private final String text;
+        private int pos;
+        private int depth;
+
+        private Json(String text) {
+            this.text = text;
+        }
+
+        /**
+         * Parses JSON text.
+         *
+         * @param text the text to parse
+         * @return the parsed value
+         * @throws IllegalArgumentException if the text is not valid JSON or nested deeper than {@link #MAX_DEPTH}
+         */
+        static @Nullable Object parse(String text) {
+            Json json = new Json(text);
+            Object value = json.readValue();
+            json.skipWhitespace();
+            if (json.pos != text.length()) {
+                throw json.error("unexpected trailing characters");
+            }
+            return value;
+        }
+
+        /**
+         * Formats a value as JSON text.
+         *
+         * @param value the value, one of {@link Map}, {@link List}, {@link String}, {@link Number}, {@link Boolean},
+         *              or {@code null}
+         * @return the JSON text
+         */
+        static String format(@Nullable Object value) {
+            StringBuilder sb = new StringBuilder();
+            format(sb, value);
+            return sb.toString();
+        }
+
+        private static void format(StringBuilder sb, @Nullable Object value) {
+            if (value == null) {
+                sb.append("null");
+            } else if (value instanceof String s) {
+                formatString(sb, s);
+            } else if (value instanceof Number || value instanceof Boolean) {
+                sb.append(value);
+            } else if (value instanceof Map<?, ?> map) {
+                sb.append('{');
+                String sep = "";
+                for (Map.Entry<?, ?> entry : map.entrySet()) {
+                    sb.append(sep);
+                    formatString(sb, String.valueOf(entry.getKey()));
+                    sb.append(':');
+                    format(sb, entry.getValue());
+                    sep = ",";
+                }
+                sb.append('}');
+            } else if (value instanceof List<?> list) {
+                sb.append('[');
+                String sep = "";
+                for (Object item : list) {
+                    sb.append(sep);
+                    format(sb, item);
+                    sep = ",";
+                }
+                sb.append(']');
+            } else {
+                throw new IllegalArgumentException("unsupported type: " + value.getClass().getName());
+            }
+        }
+
+        private static void formatString(StringBuilder sb, String s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> sb.append("\\\"");
+                    case '\\' -> sb.append("\\\\");
+                    case '\n' -> sb.append("\\n");
+                    case '\r' -> sb.append("\\r");
+                    case '\t' -> sb.append("\\t");
+                    default -> {
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                    }
+                }
+            }
+            sb.append('"');
+        }
+
+        private @Nullable Object readValue() {
+            skipWhitespace();
+            if (pos >= text.length()) {
+                throw error("unexpected end of input");
+            }
+            char c = text.charAt(pos);
+            return switch (c) {
+                case '{', '[' -> readNested(c);
+                case '"' -> readString();
+                case 't' -> readLiteral("true", Boolean.TRUE);
+                case 'f' -> readLiteral("false", Boolean.FALSE);
+                case 'n' -> readLiteral("null", null);
+                default -> {
+                    if (c == '-' || (c >= '0' && c <= '9')) {
+                        yield readNumber();
+                    }
+                    throw error("unexpected character '" + c + "'");
+                }
+            };
+        }
+
+        private Object readNested(char c) {
+            if (depth >= MAX_DEPTH) {
+                throw error("nesting too deep");
+            }
+            depth++;
+            try {
+                return c == '{' ? readObject() : readArray();
+            } finally {
+                depth--;
+            }
+        }
+
+        private Map<String, @Nullable Object> readObject() {
+            Map<String, @Nullable Object> map = new LinkedHashMap<>();
+            expect('{');
+            skipWhitespace();
+            if (peek() == '}') {
+                pos++;
+                return map;
+            }
+            do {
+                skipWhitespace();
+                String key = readString();
+                skipWhitespace();
+                expect(':');
+                map.put(key, readValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+            return map;
+        }
+
+        private List<@Nullable Object> readArray() {
+            List<@Nullable Object> list = new ArrayList<>();
+            expect('[');
+            skipWhitespace();
+            if (peek() == ']') {
+                pos++;
+                return list;
+            }
+            do {
+                list.add(readValue());
+                skipWhitespace();
+            } while (consume(','));
+            expect(']');
+            return list;
+        }
+
+        private String readString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char c = text.charAt(pos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (pos >= text.length()) {
+                    throw error("unterminated string");
+                }
+                char e = text.charAt(pos++);
+                switch (e) {
+                    case '"', '\\', '/' -> sb.append(e);
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'u' -> {
+                        if (pos + 4 > text.length()) {
+                            throw error("invalid unicode escape");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        } catch (NumberFormatException ex) {
+                            throw error("invalid unicode escape");
+                        }
+                        pos += 4;
+                    }
+                    default -> throw error("invalid escape '\\" + e + "'");
+                }
+            }
+        }
+
+        private Number readNumber() {
+            int start = pos;
+            while (pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0) {
+                pos++;
+            }
+            String s = text.substring(start, pos);
+            try {
+                if (s.indexOf('.') >= 0 || s.indexOf('e') >= 0 || s.indexOf('E') >= 0) {
+                    return Double.parseDouble(s);
+                }
+                return Long.parseLong(s);
+            } catch (NumberFormatException e) {
+                throw error("invalid number '" + s + "'");
+            }
+        }
+
+        private @Nullable Object readLiteral(String literal, @Nullable Object value) {
+            if (!text.startsWith(literal, pos)) {
+                throw error("invalid literal");
+            }
+            pos += literal.length();
+            return value;
+        }
+
+        private void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private char peek() {
+            if (pos >= text.length()) {
+                throw error("unexpected end of input");
+            }
+            return text.charAt(pos);
+        }
+
+        private boolean consume(char c) {
+            if (pos < text.length() && text.charAt(pos) == c) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            if (peek() != c) {
+                throw error("expected '" + c + "'");
+            }
+            pos++;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + pos);
+        }
+    }
+}
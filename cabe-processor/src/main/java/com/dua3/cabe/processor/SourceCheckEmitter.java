@@ -0,0 +1,107 @@
+package com.dua3.cabe.processor;
+
+import javassist.CannotCompileException;
+import javassist.CtBehavior;
+import org.jspecify.annotations.Nullable;
+
+import java.util.Formatter;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * A {@link CheckEmitter} that generates Java source code for the checks and compiles it using the Javassist compiler.
+ */
+final class SourceCheckEmitter implements CheckEmitter {
+    private static final Logger LOG = Logger.getLogger(SourceCheckEmitter.class.getName());
+
+    static final SourceCheckEmitter INSTANCE = new SourceCheckEmitter();
+
+    private SourceCheckEmitter() {
+        // singleton
+    }
+
+    @Override
+    public void insertParameterChecks(CtBehavior ctBehavior, MethodInfo mi, List<ParameterCheck> checks,
+                                      @Nullable String assertionsDisabledFlagName) throws CannotCompileException {
+        String codeParamChecks = getParameterCheckCode(checks, assertionsDisabledFlagName);
+        if (!codeParamChecks.isEmpty()) {
+            LOG.fine(() -> "injecting code into: " + mi.name() + "\n" + codeParamChecks.indent(2).stripTrailing());
+            ctBehavior.insertBefore(codeParamChecks);
+        }
+    }
+
+    @Override
+    public void insertReturnValueCheck(CtBehavior ctBehavior, MethodInfo mi, Configuration.Check check,
+                                       @Nullable String assertionsDisabledFlagName) throws CannotCompileException {
+        String codeReturnValueChecks = getReturnValueCheckCode(check, assertionsDisabledFlagName);
+        if (!codeReturnValueChecks.isEmpty()) {
+            LOG.fine(() -> "injecting code into: " + mi.name() + "\n" + codeReturnValueChecks.indent(2).stripTrailing());
+            ctBehavior.insertAfter(codeReturnValueChecks);
+        }
+    }
+
+    /**
+     * Generates the source code for parameter checks, to be compiled by {@link CtBehavior#insertBefore(String)}.
+     *
+     * @param checks                     the checks, in parameter order
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field
+     * @return the source code, empty if no code is needed
+     */
+    static String getParameterCheckCode(List<ParameterCheck> checks, @Nullable String assertionsDisabledFlagName) {
+        try (Formatter standardParameterAssertions = new Formatter();
+             Formatter otherParameterChecks = new Formatter()) {
+            for (ParameterCheck pc : checks) {
+                pc.check().getCodeForNewInstance("\"%2$s is null\"")
+                        .map(createThrowableCode -> "  if (%1$s==null) { throw " + createThrowableCode + "; }%n")
+                        .ifPresent(checkCode -> {
+                            if (pc.check() == Configuration.Check.ASSERT) {
+                                standardParameterAssertions.format(checkCode, pc.parameter().param(), pc.name());
+                            } else {
+                                otherParameterChecks.format(checkCode, pc.parameter().param(), pc.name());
+                            }
+                        });
+            }
+
+            return getCheckCode(assertionsDisabledFlagName, standardParameterAssertions.toString(), otherParameterChecks.toString());
+        }
+    }
+
+    /**
+     * Generates the source code for a return value check, to be compiled by {@link CtBehavior#insertAfter(String)}.
+     *
+     * @param check                      the kind of check
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field
+     * @return the source code, empty if no code is needed
+     */
+    static String getReturnValueCheckCode(Configuration.Check check, @Nullable String assertionsDisabledFlagName) {
+        try (Formatter standardReturnValueAssertions = new Formatter();
+             Formatter otherReturnValueChecks = new Formatter()) {
+            check.getCodeForNewInstance("\"invalid null return value\"")
+                    .map(createThrowableCode -> "  if ($_==null) { throw " + createThrowableCode + "; }%n")
+                    .ifPresent(checkCode -> {
+                        if (check == Configuration.Check.ASSERT) {
+                            standardReturnValueAssertions.format(checkCode);
+                        } else {
+                            otherReturnValueChecks.format(checkCode);
+                        }
+                    });
+
+            return getCheckCode(assertionsDisabledFlagName, standardReturnValueAssertions.toString(), otherReturnValueChecks.toString());
+        }
+    }
+
+    /**
+     * Constructs a string of code that includes checks for parameter or return value assertions.
+     *
+     * @param assertionsDisabledFlagName the fully qualified name of the {@code $assertionsDisabled} field
+     * @param standardAssertionsCode     the code for standard assertions to be included in the check
+     * @param otherAssertionsCode        additional assertion code to be included in the check
+     * @return a String representing the complete check code
+     */
+    private static String getCheckCode(@Nullable String assertionsDisabledFlagName, String standardAssertionsCode, String otherAssertionsCode) {
+        return (!standardAssertionsCode.isEmpty()
+                ? "if (!%1$s) {%n%2$s}%n".formatted(assertionsDisabledFlagName, standardAssertionsCode)
+                : "")
+                + otherAssertionsCode;
+    }
+}
@@ -10,16 +10,21 @@ import java.io.InputStream;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.WeakHashMap;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 /**
  * Utility class providing various helper methods for nullness operators and assertions.
@@ -27,6 +32,29 @@ import java.util.stream.Stream;
 public final class Util {
     private static final Logger LOG = Logger.getLogger(Util.class.getName());
 
+    /**
+     * The resolved nullness of packages loaded through reflection, including the nullness inherited from the module.
+     * The keys are weak so that the cache does not keep class loaders alive.
+     *
+     * <p>This cache and {@link #MEMBER_ASSERTIONS_DISABLED_FLAG} are shared by all processor runs in the JVM. Their
+     * entries cannot become stale: they are keyed by the identity of {@link Package} and {@link Class} objects, which
+     * never change once defined, and every run loads the classes being processed through new class loaders, so a
+     * rebuilt class or package is always a new key.
+     */
+    private static final Map<Package, NullnessOperator> PACKAGE_NULLNESS = Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * Cache for the assertion flag declared by a class or one of its nested classes. All classes of a nest share
+     * the entries of their enclosing classes, so that the members of each class are inspected only once. The values
+     * are stored with the classes themselves, so that the cache does not keep class loaders alive.
+     */
+    private static final ClassValue<Optional<String>> MEMBER_ASSERTIONS_DISABLED_FLAG = new ClassValue<>() {
+        @Override
+        protected Optional<String> computeValue(Class<?> type) {
+            return getMemberAssertionsDisabledFlagName(type);
+        }
+    };
+
     private Util() {
         // utility class
     }
@@ -44,6 +72,19 @@ public final class Util {
         return getNullnessOperator(isNullMarked, isNullUnmarked);
     }
 
+    /**
+     * Determines the {@link NullnessOperator} based on the names of the annotation types present.
+     *
+     * @param annotationTypeNames the fully qualified names of the annotation types to analyze for nullness information
+     * @return The {@link NullnessOperator} derived from the annotations.
+     * @throws IllegalStateException if both {@link NullMarked} and {@link NullUnmarked} annotations are present.
+     */
+    static NullnessOperator getNullnessOperator(Collection<String> annotationTypeNames) {
+        boolean isNullMarked = annotationTypeNames.contains(NullMarked.class.getName()) || annotationTypeNames.contains(NonNull.class.getName());
+        boolean isNullUnmarked = annotationTypeNames.contains(NullUnmarked.class.getName()) || annotationTypeNames.contains(Nullable.class.getName());
+        return getNullnessOperator(isNullMarked, isNullUnmarked);
+    }
+
     private static NullnessOperator getNullnessOperator(boolean isNullMarked, boolean isNullUnmarked) {
         if (isNullMarked && isNullUnmarked) {
             throw new IllegalStateException(
@@ -80,20 +121,28 @@ public final class Util {
      * @param cls the {@link Class} to search for the assertion flag field
      * @return the fully qualified name of the assertion flag field, or null if not found
      */
-    @SuppressWarnings("rawtypes")
     public static String getAssertionsDisabledFlagName(Class<?> cls) {
-        // does the current class or one of its nested classes contain the flag?
-        return Stream.iterate((Class) cls, Objects::nonNull, Class::getDeclaringClass)
-                .map(currentClass -> Stream.concat(Stream.of(currentClass), Arrays.stream(currentClass.getDeclaredClasses()))
-                                .map(Util::getAssertionsDisabledField)
-                                .filter(Objects::nonNull)
-                                .findFirst()
-                                .map(flag -> flag.getDeclaringClass().getTypeName() + "." + flag.getName())
-                                .orElse(null)
-                )
+        for (Class<?> currentClass = cls; currentClass != null; currentClass = currentClass.getDeclaringClass()) {
+            Optional<String> flagName = MEMBER_ASSERTIONS_DISABLED_FLAG.get(currentClass);
+            if (flagName.isPresent()) {
+                return flagName.get();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the assertion flag field declared by a class or one of its nested classes.
+     *
+     * @param cls the class
+     * @return the fully qualified name of the assertion flag field, or an empty {@code Optional} if not found
+     */
+    private static Optional<String> getMemberAssertionsDisabledFlagName(Class<?> cls) {
+        return Stream.concat(Stream.of(cls), Arrays.stream(cls.getDeclaredClasses()))
+                .map(Util::getAssertionsDisabledField)
                 .filter(Objects::nonNull)
                 .findFirst()
-                .orElse(null);
+                .map(flag -> flag.getDeclaringClass().getTypeName() + "." + flag.getName());
     }
 
     /**
@@ -133,7 +182,7 @@ public final class Util {
     }
 
     /**
-     * Determines the {@link NullnessOperator} for a given package.
+     * Determines the {@link NullnessOperator} for a given package. The result is cached.
      *
      * @param cl     the class loader to use
      * @param pkg    the package to check for the annotations
@@ -141,6 +190,15 @@ public final class Util {
      * @return the {@link NullnessOperator}
      */
     static NullnessOperator getPackageNullnessOperator(ClassLoader cl, Package pkg, Module mod) {
+        NullnessOperator nullness = PACKAGE_NULLNESS.get(pkg);
+        if (nullness == null) {
+            nullness = resolvePackageNullnessOperator(cl, pkg, mod);
+            PACKAGE_NULLNESS.put(pkg, nullness);
+        }
+        return nullness;
+    }
+
+    private static NullnessOperator resolvePackageNullnessOperator(ClassLoader cl, Package pkg, Module mod) {
         NullnessOperator packageNullness = getNullnessOperator(pkg.getDeclaredAnnotations());
         Supplier<NullnessOperator> parentNullnessSupplier = () -> getModuleNullnessOperator(cl, mod, pkg.getName());
         return packageNullness.combineWithParent(parentNullnessSupplier);
@@ -153,8 +211,7 @@ public final class Util {
 
         if (cl instanceof ModuleClassLoader mcl) {
             return mcl.getModuleNameForPackage(packageName)
-                    .flatMap(mcl::getPathForModule)
-                    .map(Util::getModuleNullnessOperatorFromFile)
+                    .flatMap(mcl::getModuleNullnessOperator)
                     .orElse(getNullnessOperator(mod.getDeclaredAnnotations()));
         }
 
@@ -177,17 +234,25 @@ public final class Util {
         });
     }
 
-    private static NullnessOperator getModuleNullnessOperatorFromFile(Path modulePath) {
+    /**
+     * Determines the {@link NullnessOperator} for a module by reading the {@code module-info.class} file.
+     *
+     * @param modulePath the path of the module, either a directory or a jar file
+     * @return the {@link NullnessOperator} derived from the module annotations
+     */
+    static NullnessOperator getModuleNullnessOperatorFromFile(Path modulePath) {
         if (Files.isDirectory(modulePath)) {
             Path moduleInfoPath = modulePath.resolve("module-info.class");
             if (Files.exists(moduleInfoPath)) {
                 return readNullnessOperatorFromClassFile(moduleInfoPath);
             }
         } else if (Files.isRegularFile(modulePath) && modulePath.toString().endsWith(".jar")) {
-            try (FileSystem jarFs = FileSystems.newFileSystem(modulePath, (ClassLoader) null)) {
-                Path moduleInfoPath = jarFs.getPath("/module-info.class");
-                if (Files.exists(moduleInfoPath)) {
-                    return readNullnessOperatorFromClassFile(moduleInfoPath);
+            try (ZipFile jar = new ZipFile(modulePath.toFile())) {
+                ZipEntry moduleInfo = jar.getEntry("module-info.class");
+                if (moduleInfo != null) {
+                    try (InputStream in = jar.getInputStream(moduleInfo)) {
+                        return readNullnessOperatorFromClassFile(in);
+                    }
                 }
             } catch (IOException e) {
                 LOG.log(Level.WARNING, e, () -> "Failed to read module-info.class from JAR " + modulePath);
@@ -196,28 +261,44 @@ public final class Util {
         return NullnessOperator.NO_CHANGE;
     }
 
-    private static NullnessOperator readNullnessOperatorFromClassFile(Path classFilePath) {
+    /**
+     * Determines the {@link NullnessOperator} for a module from the content of its {@code module-info.class} file.
+     *
+     * @param moduleInfo the content of the {@code module-info.class} file
+     * @return the {@link NullnessOperator} derived from the module annotations
+     */
+    static NullnessOperator getModuleNullnessOperator(byte[] moduleInfo) {
         try {
-            // We use javassist to read annotations from the class file
-            javassist.bytecode.ClassFile cf;
-            try (InputStream is = Files.newInputStream(classFilePath)) {
-                cf = new javassist.bytecode.ClassFile(new java.io.DataInputStream(is));
-            }
-            javassist.bytecode.AnnotationsAttribute visible = (javassist.bytecode.AnnotationsAttribute) cf.getAttribute(javassist.bytecode.AnnotationsAttribute.visibleTag);
-            javassist.bytecode.AnnotationsAttribute invisible = (javassist.bytecode.AnnotationsAttribute) cf.getAttribute(javassist.bytecode.AnnotationsAttribute.invisibleTag);
-
-            boolean isNullMarked = isAnnotationPresent(visible, NullMarked.class) || isAnnotationPresent(invisible, NullMarked.class)
-                    || isAnnotationPresent(visible, NonNull.class) || isAnnotationPresent(invisible, NonNull.class);
-            boolean isNullUnmarked = isAnnotationPresent(visible, NullUnmarked.class) || isAnnotationPresent(invisible, NullUnmarked.class)
-                    || isAnnotationPresent(visible, Nullable.class) || isAnnotationPresent(invisible, Nullable.class);
+            return readNullnessOperatorFromClassFile(new java.io.ByteArrayInputStream(moduleInfo));
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, e, () -> "Failed to read module-info.class");
+            return NullnessOperator.NO_CHANGE;
+        }
+    }
 
-            return getNullnessOperator(isNullMarked, isNullUnmarked);
+    private static NullnessOperator readNullnessOperatorFromClassFile(Path classFilePath) {
+        try (InputStream is = Files.newInputStream(classFilePath)) {
+            return readNullnessOperatorFromClassFile(is);
         } catch (IOException e) {
             LOG.log(Level.WARNING, e, () -> "Failed to read class file from " + classFilePath);
         }
         return NullnessOperator.NO_CHANGE;
     }
 
+    private static NullnessOperator readNullnessOperatorFromClassFile(InputStream is) throws IOException {
+        // We use javassist to read annotations from the class file
+        javassist.bytecode.ClassFile cf = new javassist.bytecode.ClassFile(new java.io.DataInputStream(is));
+        javassist.bytecode.AnnotationsAttribute visible = (javassist.bytecode.AnnotationsAttribute) cf.getAttribute(javassist.bytecode.AnnotationsAttribute.visibleTag);
+        javassist.bytecode.AnnotationsAttribute invisible = (javassist.bytecode.AnnotationsAttribute) cf.getAttribute(javassist.bytecode.AnnotationsAttribute.invisibleTag);
+
+        boolean isNullMarked = isAnnotationPresent(visible, NullMarked.class) || isAnnotationPresent(invisible, NullMarked.class)
+                || isAnnotationPresent(visible, NonNull.class) || isAnnotationPresent(invisible, NonNull.class);
+        boolean isNullUnmarked = isAnnotationPresent(visible, NullUnmarked.class) || isAnnotationPresent(invisible, NullUnmarked.class)
+                || isAnnotationPresent(visible, Nullable.class) || isAnnotationPresent(invisible, Nullable.class);
+
+        return getNullnessOperator(isNullMarked, isNullUnmarked);
+    }
+
     private static boolean isAnnotationPresent(javassist.bytecode.AnnotationsAttribute attribute, Class<?> annotationClass) {
         return attribute != null && attribute.getAnnotation(annotationClass.getName()) != null;
     }
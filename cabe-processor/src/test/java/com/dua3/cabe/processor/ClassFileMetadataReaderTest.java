@@ -0,0 +1,220 @@
+package com.dua3.cabe.processor;
+
+import javassist.bytecode.ClassFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClassFileMetadataReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static final Path JSPECIFY_JAR = TestUtil.resourceDir.resolve("testLib").resolve("jspecify-1.0.0.jar");
+
+    private static final Map<String, String> SOURCES = Map.of(
+            "meta/package-info.java", """
+                    @NullMarked
+                    package meta;
+
+                    import org.jspecify.annotations.NullMarked;
+                    """,
+            "meta/Point.java", """
+                    package meta;
+
+                    import org.jspecify.annotations.Nullable;
+
+                    public record Point(int x, @Nullable String label, long y) {
+                        public Point {
+                        }
+
+                        Point(String label) {
+                            this(0, label, 0L);
+                        }
+
+                        static Point of(@Nullable String label, double scale) {
+                            return new Point((int) scale, label, 1L);
+                        }
+                    }
+                    """,
+            "meta/Outer.java", """
+                    package meta;
+
+                    import org.jspecify.annotations.Nullable;
+
+                    public class Outer<T extends @Nullable Object> {
+                        public class Inner {
+                            public Inner(String s, T t, long l) {
+                            }
+
+                            void accept(T t, @Nullable String s) {
+                            }
+                        }
+
+                        static class Nested {
+                            private Nested(long a, String b) {
+                            }
+
+                            <U extends @Nullable Object> U identity(U u, String s) {
+                                return u;
+                            }
+                        }
+
+                        enum Kind {
+                            A, B;
+
+                            Kind next(String s) {
+                                return this;
+                            }
+                        }
+
+                        interface Api {
+                            void call(@Nullable String s);
+
+                            default String name(String n) {
+                                return n;
+                            }
+                        }
+
+                        Runnable anonymous(String s) {
+                            return new Runnable() {
+                                @Override
+                                public void run() {
+                                    s.length();
+                                }
+                            };
+                        }
+
+                        Object local(String s, int i) {
+                            class Local {
+                                Local(String t) {
+                                    t.length();
+                                }
+
+                                int get() {
+                                    return i;
+                                }
+                            }
+                            return new Local(s);
+                        }
+                    }
+                    """
+    );
+
+    /**
+     * The metadata read from the class files must match the metadata obtained by reflection on the loaded classes,
+     * both with and without the {@code MethodParameters} attribute in the class files.
+     *
+     * @param withParameters whether to compile using the {@code -parameters} option
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    void testClassFileMetadataMatchesReflection(boolean withParameters) throws Exception {
+        Path classesDir = compile(withParameters);
+        List<Path> classFiles = listClassFiles(classesDir);
+        assertTrue(classFiles.size() >= 8, "not all classes were compiled: " + classFiles);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()}, getClass().getClassLoader());
+             ClasspathIndex index = new ClasspathIndex(List.of(JSPECIFY_JAR, classesDir), new ClasspathCache())) {
+            ClassFileMetadataReader reader = new ClassFileMetadataReader(index);
+            for (Path classFile : classFiles) {
+                ClassFile cf = readClassFile(classFile);
+                ClassInfo expected = ClassInfo.forClass(loader.loadClass(cf.getName()));
+                ClassInfo actual = ClassInfo.forClassFile(cf, reader);
+                assertEquals(describe(expected), describe(actual), "metadata differs for " + cf.getName());
+            }
+        }
+    }
+
+    @Test
+    void testFactsAreReadForClassNotFoundBefore() throws Exception {
+        Path classesDir = compile(true);
+        ClassFile cf = readClassFile(classesDir.resolve("meta").resolve("Point.class"));
+
+        // the class is looked up using an index that does not contain it before its class file is processed
+        try (ClasspathIndex index = new ClasspathIndex(List.of(JSPECIFY_JAR), new ClasspathCache())) {
+            ClassFileMetadataReader reader = new ClassFileMetadataReader(index);
+            assertFalse(reader.getFacts("meta.Point").isPresent());
+            assertEquals("meta.Point", reader.getFacts(cf).name());
+            assertEquals("java.lang.Record", reader.getFacts("meta.Point").orElseThrow().superName());
+        }
+    }
+
+    private Path compile(boolean withParameters) throws IOException {
+        Path srcDir = tempDir.resolve("src");
+        Path classesDir = tempDir.resolve(withParameters ? "classes-parameters" : "classes");
+        List<Path> sourceFiles = new ArrayList<>();
+        for (Map.Entry<String, String> source : SOURCES.entrySet()) {
+            Path file = srcDir.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.writeString(file, source.getValue());
+            sourceFiles.add(file);
+        }
+
+        List<String> options = new ArrayList<>(List.of("-d", classesDir.toString(), "-cp", JSPECIFY_JAR.toString(), "-proc:none", "-g"));
+        if (withParameters) {
+            options.add("-parameters");
+        }
+
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null)) {
+            boolean success = compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjectsFromPaths(sourceFiles)).call();
+            assertTrue(success, "compilation failed");
+        }
+        return classesDir;
+    }
+
+    private static List<Path> listClassFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(f -> f.toString().endsWith(".class"))
+                    .filter(f -> !f.getFileName().toString().equals("package-info.class"))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    private static ClassFile readClassFile(Path classFile) throws IOException {
+        try (InputStream in = Files.newInputStream(classFile)) {
+            return new ClassFile(new DataInputStream(in));
+        }
+    }
+
+    /**
+     * Describes all facts of a {@link ClassInfo} including its methods and parameters. The records reference each
+     * other, so their {@code equals()} methods cannot be used.
+     */
+    private static String describe(ClassInfo ci) {
+        return ci.toString() + ci.methods().stream()
+                .map(mi -> "\n  " + mi.name()
+                        + " canonical=" + mi.isCanonicalRecordConstructor()
+                        + " public=" + mi.isPublic()
+                        + " primitiveReturn=" + mi.hasPrimitiveReturnType()
+                        + " result=" + mi.resultNullness()
+                        + mi.parameters().stream()
+                        .map(pi -> "\n    " + pi.index() + " " + pi)
+                        .collect(Collectors.joining()))
+                .collect(Collectors.joining());
+    }
+}
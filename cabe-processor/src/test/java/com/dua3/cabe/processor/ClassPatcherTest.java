@@ -20,26 +20,46 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Formatter;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertLinesMatch;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
@@ -56,6 +76,7 @@ class ClassPatcherTest {
     static Path testClassesUnprocessedFailingDir = testDir.resolve("classes-unprocessed-failing");
     static Path testClassesProcessedParameterInfoDir = testDir.resolve("classes-processed-parameterinfo");
     static Path testClassesProcessedInstrumentedDir = testDir.resolve("classes-processed-instrumented");
+    static Path testClassesProcessedBytecodeEmitterDir = testDir.resolve("classes-processed-bytecode-emitter");
     static Path testClassesProcessedWithAttributeDir = testDir.resolve("classes-processed-with-attribute");
     static Path testClassesReprocessedDir = testDir.resolve("classes-reprocessed");
     static List<Path> classFiles = new ArrayList<>();
@@ -125,7 +146,7 @@ class ClassPatcherTest {
                         if (pi.isSynthetic() || ci.isAnonymousClass() && mi.isConstructor()) {
                             continue;
                         }
-                        switch (pi.type().getCanonicalName()) {
+                        switch (pi.type()) {
                             case "java.lang.String":
                                 fmtCode.format("if (%2$s != null && !%2$s.getClass().getName().equals(\"java.lang.String\"))%n" +
                                                 "  throw new java.lang.IllegalArgumentException(\"[%3$s] expected type String but was: '\" + %2$s.getClass().getName() + \"'\");%n",
@@ -145,7 +166,7 @@ class ClassPatcherTest {
                                         pi.name(), pi.param(), mi.name());
                                 break;
                             default:
-                                throw new IllegalStateException("unexpected type: " + pi.type().getName() + " [" + methodName + "]");
+                                throw new IllegalStateException("unexpected type: " + pi.type() + " [" + methodName + "]");
                         }
                     }
                     String code = fmtCode.toString();
@@ -195,6 +216,17 @@ class ClassPatcherTest {
             patcher.processFolder(testClassesUnprocessedDir, testClassesProcessedInstrumentedDir);
         });
     }
+
+    @Test
+    @Order(3)
+    void processFolderBytecodeEmitter() {
+        LOG.info("testing processFolder() using the bytecode emitter");
+        assertDoesNotThrow(() -> {
+            Collection<Path> classPath = List.of(testLibDir);
+            ClassPatcher patcher = new ClassPatcher(classPath, Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withEmitter(ProcessingOptions.Emitter.BYTECODE));
+            patcher.processFolder(testClassesUnprocessedDir, testClassesProcessedBytecodeEmitterDir);
+        });
+    }
     
     @Test
     @Order(4)
@@ -213,12 +245,11 @@ class ClassPatcherTest {
         // Add the processed classes directory to the class pool
         pool.appendClassPath(testClassesProcessedWithAttributeDir.toString());
         
-        // Check a few class files to verify the attribute was added
+        // Check the class files to verify the attribute was added; classes without checks are not marked
         try (Stream<Path> paths = Files.walk(testClassesProcessedWithAttributeDir)) {
             List<Path> processedFiles = paths
                     .filter(Files::isRegularFile)
                     .filter(p -> p.toString().endsWith(".class"))
-                    .limit(5) // Check up to 5 class files
                     .toList();
             
             for (Path classFile : processedFiles) {
@@ -231,6 +262,9 @@ class ClassPatcherTest {
                         String version = CabeAttribute.getProcessorVersion(ctClass);
                         assertEquals(CabeProcessorMetaData.PROCESSOR_VERSION, version,
                                 "Processor version in attribute should match the version used for processing");
+                        assertEquals(ClassPatcher.computeConfigurationFingerprint(Configuration.DEVELOPMENT, ProcessingOptions.Emitter.SOURCE),
+                                CabeAttribute.getConfiguration(ctClass),
+                                "Configuration fingerprint in attribute should match the configuration used for processing");
                     }
                 } catch (Exception e) {
                     LOG.warning("Error checking class " + className + ": " + e.getMessage());
@@ -325,6 +359,726 @@ class ClassPatcherTest {
                 new DebugPresence(false, false, true));
     }
 
+    /**
+     * A way of processing a folder that must produce the same output as {@link ClassPatcher#processFolder(Path, Path)}
+     * using the default options.
+     *
+     * @param name      the name shown in the test report
+     * @param processor processes the input folder into the output folder
+     */
+    record EquivalentProcessing(String name, FolderProcessor processor) {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    @FunctionalInterface
+    interface FolderProcessor {
+        void process(Path inputFolder, Path outputFolder) throws IOException, ClassFileProcessingFailedException;
+    }
+
+    private static Stream<EquivalentProcessing> equivalentProcessing() {
+        Path indexFile = testDir.resolve("equivalence").resolve("classpath-index");
+        return Stream.of(
+                new EquivalentProcessing("parallel", (in, out) -> new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT,
+                        ProcessingOptions.DEFAULT.withParallelism(4).withIoParallelism(3)).processFolder(in, out)),
+                new EquivalentProcessing("classfile-metadata", (in, out) -> new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT,
+                        ProcessingOptions.DEFAULT.withMetadata(ProcessingOptions.Metadata.CLASSFILE)).processFolder(in, out)),
+                new EquivalentProcessing("classpath-index", (in, out) -> new ClassPatcher(List.of(testLibDir.resolve("jspecify-1.0.0.jar")), Configuration.DEVELOPMENT,
+                        ProcessingOptions.DEFAULT.withClasspathIndex(indexFile.toString()), new ClasspathCache()).processFolder(in, out)),
+                new EquivalentProcessing("server", ClassPatcherTest::processUsingServer),
+                new EquivalentProcessing("memory-budget", (in, out) -> {
+                    // a budget of one byte is always exceeded, so the class loader is replaced after every package
+                    ClassPatcher classPatcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT,
+                            ProcessingOptions.DEFAULT.withParallelism(2).withMemoryBudget(1));
+                    classPatcher.setMaxBatchSize(1);
+                    classPatcher.processFolder(in, out);
+                }),
+                new EquivalentProcessing("process-folders", (in, out) -> new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT)
+                        .processFolders(Map.of(in, out)))
+        );
+    }
+
+    private static void processUsingServer(Path inputFolder, Path outputFolder) throws IOException {
+        String request = ProcessorServer.Json.format(Map.of(
+                "arguments", List.of("-i", inputFolder.toString(), "-o", outputFolder.toString(), "-c", "DEVELOPMENT", "-cp", testLibDir.resolve("jspecify-1.0.0.jar").toString()),
+                "requestId", 1
+        ));
+        StringWriter out = new StringWriter();
+        new ProcessorServer(new ConsoleHandler()).serve(new StringReader(request + "\n"), out);
+        assertEquals(0L, ((Map<?, ?>) ProcessorServer.Json.parse(out.toString().strip())).get("exitCode"), out.toString());
+    }
+
+    @ParameterizedTest
+    @Order(5)
+    @MethodSource("equivalentProcessing")
+    void testOutputIsIndependentOfProcessingMode(EquivalentProcessing processing) throws Exception {
+        Path root = testDir.resolve("equivalence");
+        Path expectedDir = root.resolve("classes-expected");
+        Path actualDir = root.resolve("classes-" + processing.name());
+
+        if (!Files.isDirectory(expectedDir)) {
+            new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(testClassesUnprocessedDir, expectedDir);
+        }
+        processing.processor().process(testClassesUnprocessedDir, actualDir);
+
+        List<Path> files = listRegularFiles(expectedDir);
+        assertEquals(files, listRegularFiles(actualDir));
+        for (Path file : files) {
+            assertTrue(
+                    Arrays.equals(Files.readAllBytes(expectedDir.resolve(file)), Files.readAllBytes(actualDir.resolve(file))),
+                    processing.name() + " output differs for " + file
+            );
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testLogLevelIsSetPerInstance() throws Exception {
+        Path root = testDir.resolve("log-level");
+        Logger logger = Logger.getLogger(ClassPatcher.class.getName());
+        List<LogRecord> records = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        Level previousLevel = logger.getLevel();
+        logger.addHandler(handler);
+        try {
+            logger.setLevel(Level.INFO);
+            ClassPatcher quiet = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+            quiet.setLogLevel(Level.WARNING);
+            ClassPatcher verbose = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+            verbose.setLogLevel(Level.FINE);
+            ClassPatcher inheriting = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+
+            // a missing input folder is logged at INFO level after the FINE level message for the folder
+            Map<ClassPatcher, List<Level>> expected = new LinkedHashMap<>();
+            expected.put(quiet, List.of());
+            expected.put(verbose, List.of(Level.FINE, Level.INFO));
+            expected.put(inheriting, List.of(Level.INFO));
+            for (Map.Entry<ClassPatcher, List<Level>> entry : expected.entrySet()) {
+                records.clear();
+                entry.getKey().processFolder(root.resolve("missing"), root.resolve("classes"));
+                assertEquals(entry.getValue(), records.stream().map(LogRecord::getLevel).toList());
+                assertTrue(records.stream().allMatch(r -> logger.getName().equals(r.getLoggerName())));
+            }
+            assertEquals(Level.INFO, logger.getLevel(), "level of the class logger was changed");
+        } finally {
+            logger.removeHandler(handler);
+            logger.setLevel(previousLevel);
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testLargestClassFilesAreScheduledFirst() throws Exception {
+        List<Path> classFiles = listRegularFiles(testClassesUnprocessedDir).stream()
+                .map(testClassesUnprocessedDir::resolve)
+                .toList();
+
+        assertSame(classFiles, ClassPatcher.scheduleLargestFirst(classFiles, 1), "files were reordered for a single thread");
+
+        List<Path> schedule = ClassPatcher.scheduleLargestFirst(classFiles, 4);
+        assertEquals(new HashSet<>(classFiles), new HashSet<>(schedule));
+        assertEquals(classFiles.size(), schedule.size());
+        for (int i = 1; i < schedule.size(); i++) {
+            assertTrue(Files.size(schedule.get(i - 1)) >= Files.size(schedule.get(i)),
+                    "smaller file scheduled before larger file: " + schedule.get(i - 1) + ", " + schedule.get(i));
+        }
+
+        // files of the same size keep their order
+        List<Path> sameSize = schedule.stream()
+                .filter(f -> sizeOf(f) == sizeOf(schedule.get(0)))
+                .toList();
+        assertEquals(classFiles.stream().filter(sameSize::contains).toList(), sameSize);
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testUnchangedOutputIsNotRewritten() throws Exception {
+        Path root = testDir.resolve("rerun");
+        Path inputDir = root.resolve("classes-unprocessed");
+        Path outputDir = root.resolve("classes");
+
+        TestUtil.copyRecursive(testClassesUnprocessedDir, inputDir);
+        ClassPatcher patcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+
+        // without a manifest, all class files are processed again, but identical output must not be rewritten
+        patcher.processFolder(inputDir, outputDir);
+        List<Path> files = listRegularFiles(outputDir);
+        FileTime timestamp = FileTime.fromMillis(0);
+        for (Path file : files) {
+            Files.setLastModifiedTime(outputDir.resolve(file), timestamp);
+        }
+        patcher.processFolder(inputDir, outputDir);
+
+        assertEquals(files, listRegularFiles(outputDir));
+        for (Path file : files) {
+            assertEquals(timestamp, Files.getLastModifiedTime(outputDir.resolve(file)), "class file was rewritten: " + file);
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testInPlaceProcessingIsIdempotent() throws Exception {
+        Path root = testDir.resolve("in-place");
+        Path classesDir = root.resolve("classes");
+        Path expectedDir = root.resolve("classes-expected");
+
+        TestUtil.copyRecursive(testClassesUnprocessedDir, classesDir);
+        ClassPatcher patcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+        patcher.processFolder(testClassesUnprocessedDir, expectedDir);
+
+        // processing the same folder again must not add checks a second time
+        for (int run = 1; run <= 2; run++) {
+            patcher.processFolder(classesDir, classesDir);
+
+            List<Path> files = listRegularFiles(expectedDir);
+            assertEquals(files, listRegularFiles(classesDir), "temporary files left after run " + run);
+            for (Path file : files) {
+                assertTrue(
+                        Arrays.equals(Files.readAllBytes(expectedDir.resolve(file)), Files.readAllBytes(classesDir.resolve(file))),
+                        "in-place output differs for " + file + " after run " + run
+                );
+            }
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testMemoryBudgetReleasesLoadedClasses() throws Exception {
+        Path root = testDir.resolve("memory-budget");
+        Logger logger = Logger.getLogger(ClassPatcher.class.getName());
+        List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        logger.addHandler(handler);
+        try {
+            Map<Long, Boolean> expectRelease = new LinkedHashMap<>();
+            expectRelease.put(1L, true);
+            expectRelease.put(Long.MAX_VALUE, false);
+            for (Map.Entry<Long, Boolean> entry : expectRelease.entrySet()) {
+                messages.clear();
+                ClassPatcher classPatcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT,
+                        ProcessingOptions.DEFAULT.withMemoryBudget(entry.getKey()));
+                classPatcher.setLogLevel(Level.FINE);
+                classPatcher.setMaxBatchSize(1);
+                classPatcher.processFolder(testClassesUnprocessedDir, root.resolve("classes-" + entry.getKey()));
+
+                // each package is processed as a batch of its own
+                assertTrue(messages.stream().anyMatch(m -> m.matches("processing \\d+ class files in (?!1 )\\d+ batches")), String.valueOf(messages));
+                assertEquals(entry.getValue(), messages.stream().anyMatch(m -> m.contains("exceeds budget, releasing loaded classes")),
+                        "loaded classes released with a budget of " + entry.getKey());
+            }
+        } finally {
+            logger.removeHandler(handler);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).setMaxBatchSize(0));
+    }
+
+    @Test
+    @Order(5)
+    void testProcessFoldersWritesSingleReport() throws Exception {
+        Path root = testDir.resolve("process-folders");
+        Path reportFile = root.resolve("report.json");
+        CorpusGenerator.Corpus corpus = CorpusGenerator.ofSize(60).withLibraries(2).withModular(true)
+                .generate(root.resolve("corpus"));
+
+        // the corpus is processed after the class loaders of the shared classpath have been used for the test classes
+        Map<Path, Path> folders = new LinkedHashMap<>();
+        folders.put(testClassesUnprocessedDir, root.resolve("test-classes"));
+        folders.put(root.resolve("missing"), root.resolve("missing-classes"));
+        folders.put(corpus.classesDir(), root.resolve("corpus-classes"));
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withReport(reportFile.toString()))
+                .processFolders(folders);
+
+        Path separateDir = root.resolve("corpus-separate");
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT).processFolder(corpus.classesDir(), separateDir);
+        List<Path> files = listRegularFiles(separateDir);
+        assertEquals(files, listRegularFiles(folders.get(corpus.classesDir())));
+        for (Path file : files) {
+            assertTrue(
+                    Arrays.equals(Files.readAllBytes(separateDir.resolve(file)), Files.readAllBytes(folders.get(corpus.classesDir()).resolve(file))),
+                    "output differs for " + file
+            );
+        }
+        assertFalse(Files.exists(root.resolve("missing-classes")), "output created for missing folder");
+
+        // one report covers all folders and lists the classes per input
+        Map<?, ?> report = (Map<?, ?>) ProcessorServer.Json.parse(Files.readString(reportFile, StandardCharsets.UTF_8));
+        List<?> classes = (List<?>) report.get("classes");
+        for (Path input : List.of(testClassesUnprocessedDir, corpus.classesDir())) {
+            assertEquals(listRegularFiles(input).size(), classes.stream().filter(c -> input.toString().equals(((Map<?, ?>) c).get("input"))).count(),
+                    "wrong number of classes reported for " + input);
+        }
+        assertEquals((long) classes.size(), ((Map<?, ?>) report.get("totals")).get("classes"));
+
+        // inputs and outputs must be given in pairs
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int rc = ClassPatcher.run(
+                List.of("-i", corpus.classesDir().toString(), "-o", root.resolve("cli").toString(), "-i", testClassesUnprocessedDir.toString()),
+                new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8),
+                new PrintStream(err, true, StandardCharsets.UTF_8),
+                new ClasspathCache()
+        );
+        assertEquals(1, rc);
+        assertTrue(err.toString(StandardCharsets.UTF_8).contains("does not match"), err.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    @Order(5)
+    void testProcessFilesMatchesProcessFolder() throws Exception {
+        Path root = testDir.resolve("process-files");
+        Path allDir = root.resolve("classes-all");
+        Path selectedDir = root.resolve("classes-selected");
+
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(testClassesUnprocessedDir, allDir);
+
+        // select every other class file, using relative paths for some and absolute paths for the others
+        List<Path> classFiles = listRegularFiles(testClassesUnprocessedDir).stream()
+                .filter(f -> f.toString().endsWith(".class"))
+                .toList();
+        List<Path> selected = new ArrayList<>();
+        for (int i = 0; i < classFiles.size(); i += 2) {
+            Path file = classFiles.get(i);
+            selected.add(i % 4 == 0 ? file : testClassesUnprocessedDir.resolve(file).toAbsolutePath());
+        }
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFiles(testClassesUnprocessedDir, selectedDir, selected);
+
+        List<Path> expected = new ArrayList<>();
+        for (int i = 0; i < classFiles.size(); i += 2) {
+            expected.add(classFiles.get(i));
+        }
+        assertEquals(expected, listRegularFiles(selectedDir));
+        for (Path file : expected) {
+            assertTrue(
+                    Arrays.equals(Files.readAllBytes(allDir.resolve(file)), Files.readAllBytes(selectedDir.resolve(file))),
+                    "output differs for " + file
+            );
+        }
+
+        ClassPatcher classPatcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT);
+        List<Path> outside = List.of(Path.of("..", "Outside.class"));
+        assertThrows(IllegalArgumentException.class, () -> classPatcher.processFiles(testClassesUnprocessedDir, selectedDir, outside));
+    }
+
+    @ParameterizedTest
+    @Order(5)
+    @MethodSource("parameterinfoClassFiles")
+    void testIndexCtBehaviours(Path classFile) throws Exception {
+        String className = TestUtil.getClassName(classFile);
+        ClassInfo ci = ClassInfo.forClass(TestUtil.loader.loadClass(className));
+        CtClass ctClass = TestUtil.pool.getCtClass(ci.name());
+        Map<String, CtBehavior> behaviours = ClassPatcher.indexCtBehaviours(ctClass);
+        for (var mi : ci.methods()) {
+            assertSame(ClassPatcher.getCtBehaviour(ctClass, mi), ClassPatcher.getCtBehaviour(behaviours, mi), mi.toString());
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testCreateBatches() {
+        List<Path> classFiles = List.of(
+                Path.of("a", "A1.class"), Path.of("a", "b", "B1.class"), Path.of("a", "A2.class"),
+                Path.of("c", "C1.class"), Path.of("c", "C2.class"), Path.of("c", "C3.class"),
+                Path.of("d", "D1.class")
+        );
+
+        assertEquals(List.of(
+                List.of(Path.of("a", "A1.class"), Path.of("a", "A2.class"), Path.of("a", "b", "B1.class")),
+                List.of(Path.of("c", "C1.class"), Path.of("c", "C2.class"), Path.of("c", "C3.class")),
+                List.of(Path.of("d", "D1.class"))
+        ), ClassPatcher.createBatches(classFiles, 3));
+        assertEquals(1, ClassPatcher.createBatches(classFiles, 1000).size());
+
+        assertEquals(8, ProcessingOptions.parseMemorySize("8"));
+        assertEquals(512L << 20, ProcessingOptions.parseMemorySize("512M"));
+        assertEquals(4L << 30, ProcessingOptions.parseMemorySize("4g"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessingOptions.parseMemorySize("1x"));
+    }
+
+    @Test
+    @Order(5)
+    void testModuleNullnessFromClasspathIndex() throws Exception {
+        CorpusGenerator.Corpus corpus = CorpusGenerator.ofSize(12).withLibraries(2).generate(testDir.resolve("module-nullness"));
+        Path nullMarkedJar = corpus.classpath().get(1);
+        Path unmarkedJar = corpus.classpath().get(2);
+
+        try (ClasspathIndex index = new ClasspathIndex(corpus.classpath(), new ClasspathCache())) {
+            for (Path entry : corpus.classpath()) {
+                assertEquals(Util.getModuleNullnessOperatorFromFile(entry), index.getModuleNullnessOperator(entry), entry.toString());
+            }
+            assertEquals(NullnessOperator.MINUS_NULL, index.getModuleNullnessOperator(nullMarkedJar));
+            assertEquals(NullnessOperator.NO_CHANGE, index.getModuleNullnessOperator(unmarkedJar));
+
+            ClassFileMetadataReader reader = new ClassFileMetadataReader(index);
+            assertEquals(NullnessOperator.MINUS_NULL, reader.getPackageNullnessOperator("corpus.lib0.api"));
+            assertEquals(NullnessOperator.NO_CHANGE, reader.getPackageNullnessOperator("corpus.lib1.api"));
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testCachedClassFactsAreNotSharedBetweenBuilds() throws Exception {
+        Path root = testDir.resolve("cached-class-facts");
+
+        // the same package and class are compiled and loaded twice, like a module that is rebuilt in the same JVM
+        List<String> packageAnnotations = List.of("@org.jspecify.annotations.NullMarked", "");
+        List<NullnessOperator> expectedNullness = List.of(NullnessOperator.MINUS_NULL, NullnessOperator.NO_CHANGE);
+        List<String> expectedFlags = Arrays.asList("cached.A.$assertionsDisabled", null);
+        for (int i = 0; i < packageAnnotations.size(); i++) {
+            Path srcDir = root.resolve("src-" + i);
+            Path classesDir = root.resolve("classes-" + i);
+            Files.createDirectories(srcDir.resolve("cached"));
+            Files.writeString(srcDir.resolve("cached").resolve("package-info.java"), packageAnnotations.get(i) + "\npackage cached;\n");
+            Files.writeString(srcDir.resolve("cached").resolve("A.java"), i == 0
+                    ? "package cached;\npublic class A { void m(int a) { assert a > 0; } }\n"
+                    : "package cached;\npublic class A { void m(int a) { } }\n");
+            TestUtil.compileSources(srcDir, classesDir, testLibDir);
+
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{classesDir.toUri().toURL()}, ClassPatcherTest.class.getClassLoader())) {
+                Class<?> cls = loader.loadClass("cached.A");
+                assertEquals(expectedNullness.get(i), Util.getClassNullnessOperator(cls), "package nullness of build " + i);
+                assertEquals(expectedFlags.get(i), Util.getAssertionsDisabledFlagName(cls), "assertion flag of build " + i);
+            }
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testProcessingReport() throws Exception {
+        Path root = testDir.resolve("report");
+        Path outputDir = root.resolve("classes");
+        Path reportFile = root.resolve("report.json");
+
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withParallelism(2).withReport(reportFile.toString()))
+                .processFolder(testClassesUnprocessedDir, outputDir);
+
+        Map<?, ?> report = (Map<?, ?>) ProcessorServer.Json.parse(Files.readString(reportFile, StandardCharsets.UTF_8));
+        Map<?, ?> totals = (Map<?, ?>) report.get("totals");
+        List<?> classes = (List<?>) report.get("classes");
+
+        assertEquals((long) listRegularFiles(testClassesUnprocessedDir).size(), totals.get("classes"));
+        assertEquals((long) classes.size(), totals.get("classes"));
+        assertTrue((Long) totals.get("instrumented") > 0, "no classes instrumented");
+        assertTrue((Long) totals.get("checks") >= (Long) totals.get("instrumented"), "instrumented classes without checks");
+        assertTrue((Long) ((Map<?, ?>) report.get("jvm")).get("classPoolEntries") > 0, "class pool entries not counted");
+
+        long instrumentedBytes = 0;
+        for (Object c : classes) {
+            Map<?, ?> cm = (Map<?, ?>) c;
+            if ("instrumented".equals(cm.get("status"))) {
+                String name = (String) cm.get("name");
+                Path classFile = outputDir.resolve(name.replace('.', File.separatorChar) + ".class");
+                assertEquals(Files.size(classFile), cm.get("bytesAfter"), "wrong size for " + name);
+                instrumentedBytes += (Long) cm.get("bytesAfter") - (Long) cm.get("bytesBefore");
+            }
+        }
+        assertEquals((Long) totals.get("bytesAfter") - (Long) totals.get("bytesBefore"), instrumentedBytes);
+
+        String summary = ProcessingMetrics.summarize(reportFile);
+        assertTrue(summary.startsWith("Cabe: " + classes.size() + " class files, " + totals.get("instrumented") + " instrumented"), summary);
+    }
+
+    private static Stream<Integer> scalingSizes() {
+        return Arrays.stream(System.getProperty("cabe.test.scalingSizes", "600").split(","))
+                .map(String::strip)
+                .map(Integer::valueOf);
+    }
+
+    @ParameterizedTest
+    @Order(5)
+    @MethodSource("scalingSizes")
+    void testScaling(int types) throws Exception {
+        LOG.info("testing processing of a generated code base with " + types + " types");
+        Path root = testDir.resolve("scaling").resolve(String.valueOf(types));
+        CorpusGenerator.Corpus corpus = CorpusGenerator.ofSize(types).generate(root.resolve("corpus"));
+        Path outputDir = root.resolve("classes-processed");
+        Path reportFile = root.resolve("report.json");
+
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withReport(reportFile.toString()))
+                .processFolder(corpus.classesDir(), outputDir);
+
+        Map<?, ?> report = (Map<?, ?>) ProcessorServer.Json.parse(Files.readString(reportFile, StandardCharsets.UTF_8));
+        Map<?, ?> totals = (Map<?, ?>) report.get("totals");
+        assertEquals((long) listRegularFiles(corpus.classesDir()).size(), totals.get("classes"));
+        assertTrue((Long) totals.get("instrumented") > 0, "no classes instrumented");
+
+        // load and initialize all classes so that the instrumented bytecode is verified
+        List<URL> urls = new ArrayList<>();
+        urls.add(outputDir.toUri().toURL());
+        for (Path entry : corpus.classpath()) {
+            urls.add(entry.toUri().toURL());
+        }
+        try (URLClassLoader loader = new URLClassLoader(urls.toArray(URL[]::new), null)) {
+            for (Path classFile : listRegularFiles(outputDir)) {
+                if (!classFile.toString().endsWith(".class")) {
+                    continue;
+                }
+                String className = TestUtil.getClassName(classFile);
+                if (!className.endsWith("package-info") && !className.endsWith("module-info")) {
+                    assertDoesNotThrow(() -> Class.forName(className, true, loader), className);
+                }
+            }
+        }
+
+        LOG.info(types + " types, " + corpus.classCount() + " classes: " + ProcessingMetrics.summarize(reportFile));
+    }
+
+    @Test
+    @Order(5)
+    void testIncrementalProcessing() throws Exception {
+        Path root = testDir.resolve("incremental");
+        Path inputDir = root.resolve("classes-unprocessed");
+        Path fullDir = root.resolve("classes-full");
+        Path incrementalDir = root.resolve("classes-incremental");
+        Path removedClass = Path.of("com/dua3/cabe/processor/test/instrument/NoAnnotations.class");
+
+        TestUtil.copyRecursive(testClassesUnprocessedDir, inputDir);
+        ClassPatcher patcher = new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withIncremental(true));
+
+        // the first run processes all class files and writes the manifest
+        patcher.processFolder(inputDir, incrementalDir);
+        assertTrue(Files.isRegularFile(incrementalDir.resolve(ProcessingManifest.FILE_NAME)));
+
+        // the second run must not touch any class file
+        FileTime timestamp = FileTime.fromMillis(0);
+        for (Path file : listRegularFiles(incrementalDir)) {
+            Files.setLastModifiedTime(incrementalDir.resolve(file), timestamp);
+        }
+        Files.delete(inputDir.resolve(removedClass));
+        patcher.processFolder(inputDir, incrementalDir);
+
+        assertFalse(Files.exists(incrementalDir.resolve(removedClass)), "output of removed class file was not deleted");
+        for (Path file : listRegularFiles(incrementalDir)) {
+            if (!file.toString().equals(ProcessingManifest.FILE_NAME)) {
+                assertEquals(timestamp, Files.getLastModifiedTime(incrementalDir.resolve(file)), "class file was rewritten: " + file);
+            }
+        }
+
+        // the result must be the same as when processing all class files
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(inputDir, fullDir);
+        List<Path> files = listRegularFiles(fullDir);
+        assertEquals(files, listRegularFiles(incrementalDir).stream().filter(f -> !f.toString().equals(ProcessingManifest.FILE_NAME)).toList());
+        for (Path file : files) {
+            assertTrue(
+                    Arrays.equals(Files.readAllBytes(fullDir.resolve(file)), Files.readAllBytes(incrementalDir.resolve(file))),
+                    "incremental output differs for " + file
+            );
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testJarProcessingMatchesFolder() throws Exception {
+        Path root = testDir.resolve("jar");
+        Path folderDir = root.resolve("classes-folder");
+        Path inputJar = root.resolve("input.jar");
+        Path outputJar = root.resolve("output.jar");
+        Path reprocessedJar = root.resolve("reprocessed.jar");
+        String resource = "com/dua3/cabe/processor/test/resource.txt";
+        String versionedClass = "META-INF/versions/21/com/dua3/cabe/processor/test/Versioned.class";
+
+        // create a jar containing the unprocessed classes, a resource and a versioned entry
+        List<Path> files = listRegularFiles(testClassesUnprocessedDir);
+        Files.createDirectories(root);
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(inputJar))) {
+            for (Path file : files) {
+                out.putNextEntry(new ZipEntry(file.toString().replace(File.separatorChar, '/')));
+                out.write(Files.readAllBytes(testClassesUnprocessedDir.resolve(file)));
+                out.closeEntry();
+            }
+            out.putNextEntry(new ZipEntry(resource));
+            out.write("resource".getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry(versionedClass));
+            out.write(new byte[]{(byte) 0xCA, (byte) 0xFE});
+            out.closeEntry();
+        }
+
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT)
+                .processFolder(testClassesUnprocessedDir, folderDir);
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withParallelism(4))
+                .processJar(inputJar, outputJar);
+
+        Map<String, byte[]> entries = readJarEntries(outputJar);
+        for (Path file : files) {
+            assertTrue(
+                    Arrays.equals(Files.readAllBytes(folderDir.resolve(file)), entries.get(file.toString().replace(File.separatorChar, '/'))),
+                    "jar output differs for " + file
+            );
+        }
+        assertTrue(Arrays.equals("resource".getBytes(StandardCharsets.UTF_8), entries.get(resource)), "resource was changed");
+        assertTrue(Arrays.equals(new byte[]{(byte) 0xCA, (byte) 0xFE}, entries.get(versionedClass)), "versioned entry was changed");
+        assertEquals(files.size() + 2, entries.size());
+
+        // an already processed jar is copied unchanged
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processJar(outputJar, reprocessedJar);
+        assertTrue(Arrays.equals(Files.readAllBytes(outputJar), Files.readAllBytes(reprocessedJar)), "processed jar was changed");
+    }
+
+    @Test
+    @Order(5)
+    void testClassesWithoutChecksAreCopiedUnchanged() throws Exception {
+        Path outputDir = testDir.resolve("unchanged").resolve("classes");
+        Path unchanged = Path.of("com/dua3/cabe/processor/test/instrument/NoAnnotations.class");
+        Path instrumented = Path.of("com/dua3/cabe/processor/test/instrument/api/nullmarked/NullMarkedPackage.class");
+
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(testClassesUnprocessedDir, outputDir);
+
+        assertTrue(
+                Arrays.equals(Files.readAllBytes(testClassesUnprocessedDir.resolve(unchanged)), Files.readAllBytes(outputDir.resolve(unchanged))),
+                "class without checks was changed"
+        );
+        assertFalse(CabeAttribute.hasAttribute(readClassFile(outputDir.resolve(unchanged))), "class without checks was marked");
+        assertTrue(CabeAttribute.hasAttribute(readClassFile(outputDir.resolve(instrumented))), "instrumented class was not marked");
+
+        // processing again must replace the outputs without modifying the input files
+        byte[] input = Files.readAllBytes(testClassesUnprocessedDir.resolve(instrumented));
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(testClassesUnprocessedDir, outputDir);
+        assertTrue(Arrays.equals(input, Files.readAllBytes(testClassesUnprocessedDir.resolve(instrumented))), "input file was modified");
+    }
+
+    @Test
+    @Order(5)
+    void testPrefilter() throws Exception {
+        Path unchecked = testClassesUnprocessedDir.resolve("com/dua3/cabe/processor/test/instrument/NoAnnotations.class");
+        Path nullMarked = testClassesUnprocessedDir.resolve("com/dua3/cabe/processor/test/instrument/api/nullmarked/NullMarkedPackage.class");
+
+        ClassFilePrefilter.Summary summary = ClassFilePrefilter.scan(Files.readAllBytes(unchecked));
+        assertEquals("com.dua3.cabe.processor.test.instrument.NoAnnotations", summary.className());
+        assertFalse(summary.referencesJSpecify());
+        assertFalse(summary.hasCabeAttributeName());
+
+        List<Path> classpath = List.of(testLibDir.resolve("jspecify-1.0.0.jar"), testClassesUnprocessedDir);
+        try (ClasspathIndex index = new ClasspathIndex(classpath, new ClasspathCache())) {
+            ClassFilePrefilter prefilter = new ClassFilePrefilter(new ClassFileMetadataReader(index));
+            assertTrue(prefilter.canSkip(Files.readAllBytes(unchecked)), "class without annotations was not skipped");
+            assertFalse(prefilter.canSkip(Files.readAllBytes(nullMarked)), "class in null-marked package was skipped");
+            assertFalse(prefilter.canSkip(new byte[]{1, 2, 3}), "invalid class file was skipped");
+        }
+    }
+
+    @Test
+    @Order(5)
+    void testPrefilterKeepsGenericNestedClasses() throws Exception {
+        Path root = testDir.resolve("prefilter-generic");
+        Path srcDir = root.resolve("src");
+        Path classesDir = root.resolve("classes");
+        Path outputDir = root.resolve("classes-processed");
+        Files.createDirectories(srcDir.resolve("generic"));
+        Files.writeString(srcDir.resolve("generic").resolve("Outer.java"), """
+                package generic;
+
+                import org.jspecify.annotations.NonNull;
+
+                public class Outer<T extends @NonNull Object> {
+                    public class Inner {
+                        public void accept(T t) {
+                        }
+                    }
+
+                    public class NotGeneric {
+                        public void accept(String s) {
+                        }
+                    }
+
+                    public Runnable anonymous(T t) {
+                        return new Runnable() {
+                            @Override
+                            public void run() {
+                                accept(t);
+                            }
+
+                            public void accept(T t) {
+                            }
+                        };
+                    }
+                }
+                """);
+        Files.writeString(srcDir.resolve("generic").resolve("TopLevel.java"), """
+                package generic;
+
+                import java.util.Map;
+
+                public class TopLevel<T> {
+                    public void accept(T t, Map.Entry<String, T> entry) {
+                    }
+                }
+                """);
+        TestUtil.compileSources(srcDir, classesDir, testLibDir);
+
+        // the bound of T is only annotated in the class file of Outer, the package is not null-marked
+        List<Path> classpath = List.of(testLibDir.resolve("jspecify-1.0.0.jar"), classesDir);
+        try (ClasspathIndex index = new ClasspathIndex(classpath, new ClasspathCache())) {
+            ClassFilePrefilter prefilter = new ClassFilePrefilter(new ClassFileMetadataReader(index));
+            assertFalse(prefilter.canSkip(Files.readAllBytes(classesDir.resolve("generic/Outer$Inner.class"))), "generic inner class was skipped");
+            assertFalse(prefilter.canSkip(Files.readAllBytes(classesDir.resolve("generic/Outer$1.class"))), "generic anonymous class was skipped");
+            assertTrue(prefilter.canSkip(Files.readAllBytes(classesDir.resolve("generic/Outer$NotGeneric.class"))), "inner class without signatures was not skipped");
+            assertTrue(prefilter.canSkip(Files.readAllBytes(classesDir.resolve("generic/TopLevel.class"))), "generic top level class was not skipped");
+        }
+
+        new ClassPatcher(List.of(testLibDir), Configuration.DEVELOPMENT).processFolder(classesDir, outputDir);
+        assertTrue(CabeAttribute.hasAttribute(readClassFile(outputDir.resolve("generic/Outer$Inner.class"))), "generic inner class was not instrumented");
+    }
+
+    private static ClassFile readClassFile(Path classFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(classFile))) {
+            return new ClassFile(in);
+        }
+    }
+
+    private static Map<String, byte[]> readJarEntries(Path jar) throws IOException {
+        Map<String, byte[]> entries = new HashMap<>();
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(jar))) {
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                entries.put(entry.getName(), in.readAllBytes());
+            }
+        }
+        return entries;
+    }
+
+    private static List<Path> listRegularFiles(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            return paths.filter(Files::isRegularFile).map(dir::relativize).sorted().toList();
+        }
+    }
+
     private static void assertDebugInfoPresence(Path javaHome, Path srcDir, Path root, Path classFile, List<String> javacOptions,
                                                 DebugPresence expectedPresence)
             throws Exception {
@@ -392,17 +1146,19 @@ class ClassPatcherTest {
     void testInstrumentation(String className) {
         LOG.info("testing correct results of instrumentation: " + className);
         // Each of the classes contains a test method that will throw an exception when an incorrect result is detected.
-        assertDoesNotThrow(() -> {
-            try (var cl = new URLClassLoader(new URL[]{testClassesProcessedInstrumentedDir.toUri().toURL()}, null)) {
-                Class<?> cls = cl.loadClass(className);
-                try {
-                    var test = cls.getDeclaredMethod("test");
-                    test.invoke(null);
-                } catch (NoSuchMethodException e) {
-                    LOG.fine("no test method in " + className);
+        for (Path dir : List.of(testClassesProcessedInstrumentedDir, testClassesProcessedBytecodeEmitterDir)) {
+            assertDoesNotThrow(() -> {
+                try (var cl = new URLClassLoader(new URL[]{dir.toUri().toURL()}, null)) {
+                    Class<?> cls = cl.loadClass(className);
+                    try {
+                        var test = cls.getDeclaredMethod("test");
+                        test.invoke(null);
+                    } catch (NoSuchMethodException e) {
+                        LOG.fine("no test method in " + className);
+                    }
                 }
-            }
-        }, "Failed to instrument " + className);
+            }, "Failed to instrument " + className + " [" + dir.getFileName() + "]");
+        }
     }
 
     @ParameterizedTest
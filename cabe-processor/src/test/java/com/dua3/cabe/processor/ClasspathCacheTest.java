@@ -0,0 +1,162 @@
+package com.dua3.cabe.processor;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClasspathCacheTest {
+
+    @TempDir
+    static Path tempDir;
+
+    static CorpusGenerator.Corpus corpus;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        corpus = CorpusGenerator.ofSize(12).withLibraries(2).generate(tempDir.resolve("corpus"));
+    }
+
+    @Test
+    void testUnchangedJarIsNotReadAgain() throws IOException {
+        Path jar = tempDir.resolve("unchanged").resolve("test.jar");
+        createJar(jar, Map.of("p/A.class", "A"));
+
+        ClasspathCache cache = new ClasspathCache();
+        ClasspathCache.JarData data = cache.getJarData(jar);
+        assertEquals(List.of("p/A.class"), data.entries());
+
+        assertSame(data, cache.getJarData(jar));
+        assertSame(data, cache.getJarData(jar.getParent().resolve("..").resolve("unchanged").resolve("test.jar")));
+        assertEquals(1, cache.size());
+
+        // a changed JAR file is read again
+        createJar(jar, Map.of("p/A.class", "A", "p/B.class", "B"));
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+        ClasspathCache.JarData changed = cache.getJarData(jar);
+        assertNotSame(data, changed);
+        assertEquals(List.of("p/A.class", "p/B.class"), changed.entries());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testSavedCacheIsReused() throws IOException {
+        Path root = tempDir.resolve("saved");
+        Path jar = root.resolve("test.jar");
+        Path file = root.resolve("classpath-index");
+        createJar(jar, Map.of("p/A.class", "A", "p/B.class", "B"));
+
+        ClasspathCache cache = new ClasspathCache();
+        ClasspathCache.JarData data = cache.getJarData(jar);
+        cache.save(file);
+        assertTrue(Files.isRegularFile(file), "cache was not saved");
+
+        ClasspathCache loaded = new ClasspathCache();
+        loaded.load(file);
+        assertEquals(1, loaded.size());
+        assertEquals(data.entries(), loaded.getJarData(jar).entries());
+        assertEquals(data.module().kind(), loaded.getJarData(jar).module().kind());
+
+        // the JAR file was taken from the loaded cache, so there is nothing to save
+        Path unmodifiedFile = root.resolve("classpath-index-unmodified");
+        loaded.save(unmodifiedFile);
+        assertFalse(Files.exists(unmodifiedFile), "unmodified cache was saved");
+
+        // a JAR file that changed after saving is read again
+        Files.setLastModifiedTime(jar, FileTime.fromMillis(Files.getLastModifiedTime(jar).toMillis() + 10_000));
+        ClasspathCache reloaded = new ClasspathCache();
+        reloaded.load(file);
+        reloaded.getJarData(jar);
+        reloaded.save(unmodifiedFile);
+        assertTrue(Files.exists(unmodifiedFile), "modified cache was not saved");
+    }
+
+    @Test
+    void testFailedSaveIsRepeated() throws IOException {
+        Path root = tempDir.resolve("failed-save");
+        Path jar = root.resolve("test.jar");
+        Path file = root.resolve("classpath-index");
+        createJar(jar, Map.of("p/A.class", "A"));
+
+        ClasspathCache cache = new ClasspathCache();
+        cache.getJarData(jar);
+
+        // a non-empty directory cannot be replaced by the index file
+        Files.createDirectories(file.resolve("blocked"));
+        assertThrows(IOException.class, () -> cache.save(file));
+        Files.delete(file.resolve("blocked"));
+        Files.delete(file);
+
+        cache.save(file);
+        assertTrue(Files.isRegularFile(file), "cache was not saved after a failed attempt");
+        try (Stream<Path> files = Files.list(root)) {
+            assertEquals(List.of(file, jar), files.sorted().toList(), "temporary file was not removed");
+        }
+    }
+
+    @Test
+    void testCacheIsSharedBetweenInstances() throws Exception {
+        Path root = tempDir.resolve("shared");
+        Path libJar = corpus.classpath().get(1);
+
+        ClasspathCache cache = new ClasspathCache();
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT, cache)
+                .processFolder(corpus.classesDir(), root.resolve("classes-1"));
+        int size = cache.size();
+        assertTrue(size >= corpus.classpath().size(), "JAR files on the classpath were not cached");
+        ClasspathCache.JarData data = cache.getJarData(libJar);
+
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT.withMetadata(ProcessingOptions.Metadata.CLASSFILE), cache)
+                .processFolder(corpus.classesDir(), root.resolve("classes-2"));
+        assertEquals(size, cache.size());
+        assertSame(data, cache.getJarData(libJar), "unchanged JAR file was read again");
+    }
+
+    @Test
+    void testClasspathIndexFileIsReused() throws Exception {
+        Path root = tempDir.resolve("index-file");
+        Path indexFile = root.resolve("classpath-index");
+        ProcessingOptions options = ProcessingOptions.DEFAULT.withClasspathIndex(indexFile.toString());
+
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, options, new ClasspathCache())
+                .processFolder(corpus.classesDir(), root.resolve("classes-1"));
+        assertTrue(Files.isRegularFile(indexFile), "classpath index was not written");
+
+        // a second run with an empty cache takes all JAR files from the index and does not rewrite it
+        FileTime timestamp = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(indexFile, timestamp);
+        ClasspathCache cache = new ClasspathCache();
+        new ClassPatcher(corpus.classpath(), Configuration.DEVELOPMENT, options, cache)
+                .processFolder(corpus.classesDir(), root.resolve("classes-2"));
+        assertTrue(cache.size() >= corpus.classpath().size(), "classpath index was not loaded");
+        assertEquals(timestamp, Files.getLastModifiedTime(indexFile), "classpath index was rewritten");
+    }
+
+    static void createJar(Path jar, Map<String, String> entries) throws IOException {
+        Files.createDirectories(jar.getParent());
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(jar))) {
+            for (String name : entries.keySet().stream().sorted().toList()) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(entries.get(name).getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+}
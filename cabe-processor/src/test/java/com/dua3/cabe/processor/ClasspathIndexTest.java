@@ -0,0 +1,86 @@
+package com.dua3.cabe.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClasspathIndexTest {
+
+    private static final Path JSPECIFY_JAR = TestUtil.resourceDir.resolve("testLib").resolve("jspecify-1.0.0.jar");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testResourcesAreFoundInClasspathOrder() throws IOException {
+        Path jar = tempDir.resolve("test.jar");
+        Path dir = tempDir.resolve("classes");
+        ClasspathCacheTest.createJar(jar, Map.of("p/R.txt", "jar", "p/J.txt", "jar"));
+        Files.createDirectories(dir.resolve("p"));
+        Files.writeString(dir.resolve("p/R.txt"), "dir");
+        Files.writeString(dir.resolve("p/D.txt"), "dir");
+
+        try (ClasspathIndex index = new ClasspathIndex(List.of(dir, jar), new ClasspathCache())) {
+            assertEquals("dir", read(index, "p/R.txt"));
+            assertEquals("jar", read(index, "p/J.txt"));
+            assertEquals("dir", read(index, "p/D.txt"));
+            assertEquals("file", index.findResource("p/R.txt").getProtocol());
+            assertNull(index.openResource("p/X.txt"));
+        }
+
+        try (ClasspathIndex index = new ClasspathIndex(List.of(jar, dir), new ClasspathCache())) {
+            assertEquals("jar", read(index, "p/R.txt"));
+            assertEquals("dir", read(index, "p/D.txt"));
+            assertEquals("jar", index.findResource("p/R.txt").getProtocol());
+        }
+    }
+
+    @Test
+    void testExtensionSharesJars() throws IOException {
+        Path jar = tempDir.resolve("test.jar");
+        Path dir = tempDir.resolve("classes");
+        ClasspathCacheTest.createJar(jar, Map.of("p/J.txt", "jar"));
+        Files.createDirectories(dir.resolve("p"));
+        Files.writeString(dir.resolve("p/D.txt"), "dir");
+
+        ClasspathIndex base = new ClasspathIndex(List.of(jar, JSPECIFY_JAR), new ClasspathCache());
+        try (ClasspathIndex extension = base.withDirectories(List.of(dir))) {
+            assertEquals("jar", read(extension, "p/J.txt"));
+            assertEquals("dir", read(extension, "p/D.txt"));
+            assertNull(base.openResource("p/D.txt"));
+            assertThrows(IllegalArgumentException.class, () -> base.withDirectories(List.of(jar)));
+
+            // the modules of the extended index are found, but are not part of the extension finder
+            assertTrue(base.getModuleFinder().find("org.jspecify").isPresent(), "module of the base index not found");
+            assertTrue(extension.getModuleFinder().find("org.jspecify").isPresent(), "module of the base index not found in extension");
+            assertEquals(base.getModuleFinder().findAll().size(), extension.getModuleFinder().findAll().size());
+            assertFalse(extension.getExtensionModuleFinder().find("org.jspecify").isPresent(), "module of the base index found in extension finder");
+        }
+
+        // closing the extension must not close the JAR files of the extended index
+        assertEquals("jar", read(base, "p/J.txt"));
+        base.close();
+        assertThrows(IOException.class, () -> base.openResource("p/J.txt"));
+    }
+
+    private static String read(ClasspathIndex index, String name) throws IOException {
+        try (InputStream in = index.openResource(name)) {
+            assertNotNull(in, name);
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,522 @@
+package com.dua3.cabe.processor;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Generates and compiles a JSpecify-annotated code base of configurable size for scale tests and benchmarks.
+ *
+ * <p>The generated code base consists of {@code types} top-level types, which are compiled into a classes folder,
+ * and a set of library JAR files the classes depend on. The top-level types are, in turn:
+ * <ul>
+ *     <li>classes that form inheritance chains of up to {@code hierarchyDepth} classes, rooted in a library class,
+ *         each with a nested, an inner, and an anonymous class and a lambda,
+ *     <li>generic interfaces with default and static methods,
+ *     <li>enums, one constant having its own class body,
+ *     <li>records with a compact constructor,
+ *     <li>generic classes with bounded type parameters,
+ *     <li>classes implementing one of the generated interfaces and a library interface.
+ * </ul>
+ * The packages are alternately {@code @NullMarked}, {@code @NullUnmarked}, and not annotated. Every other library is
+ * a module annotated with {@code @NullMarked}. If {@code modular} is set, the generated classes form a null-marked
+ * module, too. Parameters and return values are annotated with {@code @Nullable}, {@code @NonNull}, or not at all,
+ * chosen randomly using {@code seed}, so that the result is reproducible.
+ *
+ * @param types           the number of top-level types to generate
+ * @param typesPerPackage the number of top-level types per package
+ * @param libraries       the number of library JAR files
+ * @param hierarchyDepth  the maximum number of generated classes in an inheritance chain
+ * @param modular         whether the generated classes form a named module
+ * @param seed            the seed used for choosing the annotations
+ */
+public record CorpusGenerator(int types, int typesPerPackage, int libraries, int hierarchyDepth, boolean modular, long seed) {
+
+    private static final int KINDS = 6;
+    private static final int CLASSES_PER_LIBRARY = 20;
+    private static final String[] ANNOTATIONS = {"", "@Nullable ", "@NonNull "};
+    private static final String IMPORTS = """
+            import org.jspecify.annotations.NonNull;
+            import org.jspecify.annotations.Nullable;
+
+            import java.util.ArrayList;
+            import java.util.List;
+            import java.util.function.Function;
+            import java.util.function.Supplier;
+            """;
+
+    /**
+     * The result of generating a code base.
+     *
+     * @param classesDir the folder containing the compiled classes
+     * @param classpath  the classpath needed to process the classes, i.e., the JSpecify and library JAR files
+     * @param classCount the number of class files in the classes folder, excluding package and module descriptors
+     */
+    public record Corpus(Path classesDir, List<Path> classpath, int classCount) {
+        /**
+         * Opens a code base that has been generated before.
+         *
+         * @param root the root folder passed to {@link #generate(Path)}
+         * @return the corpus
+         * @throws IOException if an I/O error occurs
+         */
+        public static Corpus open(Path root) throws IOException {
+            Path classesDir = root.resolve("classes");
+            List<Path> classpath = new ArrayList<>();
+            classpath.add(jspecifyJar());
+            try (Stream<Path> jars = Files.list(root.resolve("libs"))) {
+                jars.filter(p -> p.toString().endsWith(".jar")).sorted().forEach(classpath::add);
+            }
+            int classCount;
+            try (Stream<Path> files = Files.walk(classesDir)) {
+                classCount = (int) files.map(p -> String.valueOf(p.getFileName()))
+                        .filter(f -> f.endsWith(".class") && !f.equals("package-info.class") && !f.equals("module-info.class"))
+                        .count();
+            }
+            return new Corpus(classesDir, List.copyOf(classpath), classCount);
+        }
+    }
+
+    /**
+     * Returns a generator for a code base of the given size using the default settings.
+     *
+     * @param types the number of top-level types
+     * @return the generator
+     */
+    public static CorpusGenerator ofSize(int types) {
+        return new CorpusGenerator(types, 100, 4, 8, false, 42L);
+    }
+
+    /**
+     * Returns a copy of this generator with a different number of libraries.
+     *
+     * @param libraries the number of library JAR files
+     * @return the new generator
+     */
+    public CorpusGenerator withLibraries(int libraries) {
+        return new CorpusGenerator(types, typesPerPackage, libraries, hierarchyDepth, modular, seed);
+    }
+
+    /**
+     * Returns a copy of this generator with a different hierarchy depth.
+     *
+     * @param hierarchyDepth the maximum number of generated classes in an inheritance chain
+     * @return the new generator
+     */
+    public CorpusGenerator withHierarchyDepth(int hierarchyDepth) {
+        return new CorpusGenerator(types, typesPerPackage, libraries, hierarchyDepth, modular, seed);
+    }
+
+    /**
+     * Returns a copy of this generator that generates a named module or not.
+     *
+     * @param modular whether the generated classes form a named module
+     * @return the new generator
+     */
+    public CorpusGenerator withModular(boolean modular) {
+        return new CorpusGenerator(types, typesPerPackage, libraries, hierarchyDepth, modular, seed);
+    }
+
+    /**
+     * Constructs a new instance.
+     *
+     * @throws IllegalArgumentException if a parameter is out of range
+     */
+    public CorpusGenerator {
+        if (types < 1 || typesPerPackage < 1 || libraries < 0 || hierarchyDepth < 1) {
+            throw new IllegalArgumentException("invalid corpus parameters");
+        }
+    }
+
+    /**
+     * Generates and compiles the code base. The sources are written to {@code root/src}, the library JAR files to
+     * {@code root/libs}, and the classes to {@code root/classes}.
+     *
+     * @param root the root folder; it should be empty or not exist
+     * @return the generated corpus
+     * @throws IOException if an I/O error occurs
+     * @throws IllegalStateException if the generated code does not compile
+     */
+    public Corpus generate(Path root) throws IOException {
+        Path libsDir = Files.createDirectories(root.resolve("libs"));
+        List<Path> libraryJars = new ArrayList<>();
+        for (int k = 0; k < libraries; k++) {
+            Path srcDir = root.resolve("src").resolve("lib" + k);
+            Path classesDir = root.resolve("lib-classes").resolve("lib" + k);
+            generateLibrary(srcDir, k);
+            compile(srcDir, classesDir, List.of("--module-path", jspecifyJar().toString()));
+            Path jar = libsDir.resolve("lib" + k + ".jar");
+            createJar(classesDir, jar);
+            libraryJars.add(jar);
+        }
+
+        Path srcDir = root.resolve("src").resolve("app");
+        generateTypes(srcDir);
+
+        List<Path> classpath = new ArrayList<>();
+        classpath.add(jspecifyJar());
+        classpath.addAll(libraryJars);
+        String path = classpath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator));
+        compile(srcDir, root.resolve("classes"), List.of(modular ? "--module-path" : "-cp", path));
+
+        return Corpus.open(root);
+    }
+
+    private static Path jspecifyJar() {
+        return TestUtil.resourceDir.resolve("testLib").resolve("jspecify-1.0.0.jar");
+    }
+
+    private void generateLibrary(Path srcDir, int k) throws IOException {
+        String module = "corpus.lib" + k;
+        String pkg = module + ".api";
+        Path dir = Files.createDirectories(srcDir.resolve(pkg.replace('.', File.separatorChar)));
+
+        write(srcDir.resolve("module-info.java"), """
+                %smodule %s {
+                    requires org.jspecify;
+                    exports %s;
+                }
+                """.formatted(k % 2 == 0 ? "@org.jspecify.annotations.NullMarked\n" : "", module, pkg));
+
+        write(dir.resolve("Base.java"), """
+                package %s;
+
+                import org.jspecify.annotations.Nullable;
+
+                public class Base {
+                    protected final @Nullable Object value;
+
+                    protected Base(String name, @Nullable Object value) {
+                        this.value = value;
+                    }
+
+                    public @Nullable Object find(String key, int index) {
+                        return null;
+                    }
+                }
+                """.formatted(pkg));
+
+        write(dir.resolve("Service.java"), """
+                package %s;
+
+                public interface Service<T> {
+                    T process(T input);
+                }
+                """.formatted(pkg));
+
+        for (int j = 0; j < CLASSES_PER_LIBRARY; j++) {
+            write(dir.resolve("Helper" + j + ".java"), """
+                    package %s;
+
+                    import org.jspecify.annotations.Nullable;
+
+                    public final class Helper%d {
+                        private Helper%2$d() {}
+
+                        public static String format(Object o, @Nullable String prefix) {
+                            return prefix == null ? String.valueOf(o) : prefix + o;
+                        }
+                    }
+                    """.formatted(pkg, j));
+        }
+    }
+
+    private void generateTypes(Path srcDir) throws IOException {
+        Random random = new Random(seed);
+        int packages = (types + typesPerPackage - 1) / typesPerPackage;
+        Files.createDirectories(srcDir);
+
+        if (modular) {
+            StringBuilder requires = new StringBuilder("    requires org.jspecify;\n");
+            for (int k = 0; k < libraries; k++) {
+                requires.append("    requires corpus.lib").append(k).append(";\n");
+            }
+            write(srcDir.resolve("module-info.java"), """
+                    @org.jspecify.annotations.NullMarked
+                    module corpus.app {
+                    %s}
+                    """.formatted(requires));
+        }
+
+        for (int p = 0; p < packages; p++) {
+            Path dir = Files.createDirectories(srcDir.resolve(packageName(p * typesPerPackage).replace('.', File.separatorChar)));
+            String annotation = switch (p % 3) {
+                case 0 -> "@org.jspecify.annotations.NullMarked\n";
+                case 1 -> "@org.jspecify.annotations.NullUnmarked\n";
+                default -> "";
+            };
+            write(dir.resolve("package-info.java"), annotation + "package " + packageName(p * typesPerPackage) + ";\n");
+        }
+
+        for (int i = 0; i < types; i++) {
+            Path dir = srcDir.resolve(packageName(i).replace('.', File.separatorChar));
+            String pkg = packageName(i);
+            switch (i % KINDS) {
+                case 0 -> write(dir.resolve("H" + i + ".java"), hierarchyClass(pkg, i, random));
+                case 1 -> write(dir.resolve("I" + i + ".java"), genericInterface(pkg, i, random));
+                case 2 -> write(dir.resolve("E" + i + ".java"), enumType(pkg, i, random));
+                case 3 -> write(dir.resolve("R" + i + ".java"), recordType(pkg, i, random));
+                case 4 -> write(dir.resolve("G" + i + ".java"), genericClass(pkg, i, random));
+                default -> write(dir.resolve("S" + i + ".java"), serviceClass(pkg, i, random));
+            }
+        }
+    }
+
+    private String packageName(int i) {
+        return "corpus.app.p" + (i / typesPerPackage);
+    }
+
+    private static String annotation(Random random) {
+        return ANNOTATIONS[random.nextInt(ANNOTATIONS.length)];
+    }
+
+    private String hierarchyClass(String pkg, int i, Random random) {
+        boolean isRoot = (i / KINDS) % hierarchyDepth == 0;
+        String superClass;
+        String superCall;
+        if (!isRoot) {
+            superClass = " extends " + packageName(i - KINDS) + ".H" + (i - KINDS);
+            superCall = "super(name, value);";
+        } else if (libraries > 0) {
+            superClass = " extends corpus.lib" + (i / KINDS) % libraries + ".api.Base";
+            superCall = "super(name, value);";
+        } else {
+            superClass = "";
+            superCall = "";
+        }
+        return """
+                package %1$s;
+
+                %2$s
+                public class H%3$d%4$s {
+                    protected final String name%3$d;
+
+                    public H%3$d(String name, %5$sObject value) {
+                        %6$s
+                        this.name%3$d = name;
+                    }
+
+                    public String name%3$d(%7$sString prefix) {
+                        return prefix + name%3$d;
+                    }
+
+                    public %8$sObject find(String key, int index) {
+                        return index < 0 ? key : name%3$d;
+                    }
+
+                    public Runnable task(String message) {
+                        return new Runnable() {
+                            @Override
+                            public void run() {
+                                System.out.println(message + name%3$d);
+                            }
+                        };
+                    }
+
+                    public Supplier<String> supplier(%9$sString suffix) {
+                        return () -> name%3$d + suffix;
+                    }
+
+                    public static final class Nested {
+                        public String apply(String a, @Nullable String b) {
+                            return b == null ? a : a + b;
+                        }
+                    }
+
+                    public final class Inner {
+                        public String describe(%10$sString suffix) {
+                            return name%3$d + suffix;
+                        }
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, superClass, isRoot && libraries > 0 ? "@Nullable " : annotation(random), superCall,
+                annotation(random), annotation(random), annotation(random), annotation(random));
+    }
+
+    private static String genericInterface(String pkg, int i, Random random) {
+        return """
+                package %1$s;
+
+                %2$s
+                public interface I%3$d<T> {
+                    T apply(T value, %4$sString key);
+
+                    default String describe(%5$sObject o) {
+                        return String.valueOf(o);
+                    }
+
+                    static <U> List<U> listOf(U a, @Nullable U b) {
+                        List<U> list = new ArrayList<>();
+                        list.add(a);
+                        if (b != null) {
+                            list.add(b);
+                        }
+                        return list;
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, annotation(random), annotation(random));
+    }
+
+    private static String enumType(String pkg, int i, Random random) {
+        return """
+                package %1$s;
+
+                %2$s
+                public enum E%3$d {
+                    A("a"),
+                    B("b"),
+                    C("c") {
+                        @Override
+                        public String label(String prefix) {
+                            return prefix + "C";
+                        }
+                    };
+
+                    private final String code;
+
+                    E%3$d(String code) {
+                        this.code = code;
+                    }
+
+                    public String label(%4$sString prefix) {
+                        return prefix + code;
+                    }
+
+                    public static @Nullable E%3$d of(String code) {
+                        for (E%3$d e : values()) {
+                            if (e.code.equals(code)) {
+                                return e;
+                            }
+                        }
+                        return null;
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, annotation(random));
+    }
+
+    private static String recordType(String pkg, int i, Random random) {
+        return """
+                package %1$s;
+
+                %2$s
+                public record R%3$d(String name, @Nullable Object value, List<String> tags) {
+                    public R%3$d {
+                        tags = List.copyOf(tags);
+                    }
+
+                    public static R%3$d of(String name) {
+                        return new R%3$d(name, null, List.of());
+                    }
+
+                    public R%3$d withValue(%4$sObject value) {
+                        return new R%3$d(name, value, tags);
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, annotation(random));
+    }
+
+    private static String genericClass(String pkg, int i, Random random) {
+        return """
+                package %1$s;
+
+                %2$s
+                public class G%3$d<T extends CharSequence> {
+                    private final List<T> items = new ArrayList<>();
+
+                    public void add(%4$sT item) {
+                        items.add(item);
+                    }
+
+                    public @Nullable T first() {
+                        return items.isEmpty() ? null : items.get(0);
+                    }
+
+                    public <R> List<R> map(Function<? super T, ? extends R> f) {
+                        List<R> result = new ArrayList<>();
+                        for (T item : items) {
+                            result.add(f.apply(item));
+                        }
+                        return result;
+                    }
+
+                    public static <T extends CharSequence> G%3$d<T> of(T a, %5$sT b) {
+                        G%3$d<T> g = new G%3$d<>();
+                        g.add(a);
+                        if (b != null) {
+                            g.add(b);
+                        }
+                        return g;
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, annotation(random), annotation(random));
+    }
+
+    private String serviceClass(String pkg, int i, Random random) {
+        int iface = i - 4;
+        String libraryInterface = libraries > 0
+                ? ", corpus.lib" + (i / KINDS) % libraries + ".api.Service<String>"
+                : "";
+        return """
+                package %1$s;
+
+                %2$s
+                public class S%3$d implements %4$s.I%5$d<String>%6$s {
+                    @Override
+                    public String apply(String value, %7$sString key) {
+                        return value + key;
+                    }
+
+                    public String process(String input) {
+                        return input.trim();
+                    }
+
+                    public int count(%8$sString... parts) {
+                        return parts.length;
+                    }
+                }
+                """.formatted(pkg, IMPORTS, i, packageName(iface), iface, libraryInterface, annotation(random), annotation(random));
+    }
+
+    private static void write(Path file, String content) throws IOException {
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+    }
+
+    private static void compile(Path srcDir, Path classesDir, List<String> pathOptions) throws IOException {
+        Files.createDirectories(classesDir);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        List<String> options = new ArrayList<>(List.of("-d", classesDir.toString(), "-proc:none", "-g", "-parameters", "-nowarn"));
+        options.addAll(pathOptions);
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            boolean success = compiler.getTask(null, fileManager, null, options, null,
+                    fileManager.getJavaFileObjects(TestUtil.fetchJavaFiles(srcDir))).call();
+            if (!success) {
+                throw new IllegalStateException("compilation of generated sources failed: " + srcDir);
+            }
+        }
+    }
+
+    private static void createJar(Path classesDir, Path jar) throws IOException {
+        try (OutputStream out = Files.newOutputStream(jar);
+             JarOutputStream jarOut = new JarOutputStream(out);
+             Stream<Path> files = Files.walk(classesDir)) {
+            for (Path file : files.filter(Files::isRegularFile).sorted().toList()) {
+                jarOut.putNextEntry(new JarEntry(classesDir.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, jarOut);
+                jarOut.closeEntry();
+            }
+        }
+    }
+}
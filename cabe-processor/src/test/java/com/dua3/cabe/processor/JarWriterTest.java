@@ -0,0 +1,98 @@
+package com.dua3.cabe.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JarWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testEntriesAndMetadataAreRetained() throws IOException {
+        LocalDateTime time = LocalDateTime.of(2024, 5, 17, 13, 45, 30);
+        byte[] extra = {(byte) 0xFE, (byte) 0xCA, 0, 0}; // the JAR marker written by the jar tool
+
+        ZipEntry stored = new ZipEntry("META-INF/");
+        stored.setMethod(ZipEntry.STORED);
+        stored.setTimeLocal(time);
+        stored.setExtra(extra);
+        ZipEntry deflated = new ZipEntry("com/example/Test.class");
+        deflated.setMethod(ZipEntry.DEFLATED);
+        deflated.setTimeLocal(time);
+        byte[] content = "class file content ".repeat(100).getBytes(StandardCharsets.UTF_8);
+
+        Path jar = tempDir.resolve("test.jar");
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            JarWriter.write(jar, List.of(
+                    JarWriter.compress(deflater, stored.getName(), stored, new byte[0]),
+                    JarWriter.compress(deflater, deflated.getName(), deflated, content)
+            ));
+        } finally {
+            deflater.end();
+        }
+
+        try (ZipInputStream in = new ZipInputStream(Files.newInputStream(jar))) {
+            ZipEntry e1 = in.getNextEntry();
+            assertEquals("META-INF/", e1.getName());
+            assertEquals(ZipEntry.STORED, e1.getMethod());
+            assertEquals(time, e1.getTimeLocal());
+            assertArrayEquals(extra, e1.getExtra());
+            assertArrayEquals(new byte[0], in.readAllBytes());
+
+            ZipEntry e2 = in.getNextEntry();
+            assertEquals("com/example/Test.class", e2.getName());
+            assertEquals(ZipEntry.DEFLATED, e2.getMethod());
+            assertEquals(time, e2.getTimeLocal());
+            assertArrayEquals(content, in.readAllBytes());
+
+            assertNull(in.getNextEntry());
+        }
+    }
+
+    @Test
+    void testZip64IsWrittenForManyEntries() throws IOException {
+        int count = 70_000;
+        List<JarWriter.Entry> entries = new ArrayList<>(count);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            for (int i = 0; i < count; i++) {
+                ZipEntry entry = new ZipEntry("entry-" + i + ".txt");
+                entries.add(JarWriter.compress(deflater, entry.getName(), entry, Integer.toString(i).getBytes(StandardCharsets.UTF_8)));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        Path jar = tempDir.resolve("many.jar");
+        JarWriter.write(jar, entries);
+
+        try (ZipFile zipFile = new ZipFile(jar.toFile())) {
+            assertEquals(count, zipFile.size());
+            int i = 0;
+            for (Enumeration<? extends ZipEntry> e = zipFile.entries(); e.hasMoreElements(); i++) {
+                ZipEntry entry = e.nextElement();
+                assertEquals("entry-" + i + ".txt", entry.getName());
+                assertArrayEquals(Integer.toString(i).getBytes(StandardCharsets.UTF_8), zipFile.getInputStream(entry).readAllBytes());
+            }
+        }
+    }
+}
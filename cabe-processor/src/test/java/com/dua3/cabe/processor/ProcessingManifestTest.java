@@ -0,0 +1,65 @@
+package com.dua3.cabe.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ProcessingManifestTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testNestKey() {
+        assertEquals("a/b/Outer", ProcessingManifest.nestKey("a/b/Outer.class"));
+        assertEquals("a/b/Outer", ProcessingManifest.nestKey("a/b/Outer$Inner.class"));
+        assertEquals("a/b/Outer", ProcessingManifest.nestKey("a/b/Outer$Inner$1.class"));
+        assertEquals("Outer", ProcessingManifest.nestKey("Outer$1.class"));
+        assertEquals("a$b/Outer", ProcessingManifest.nestKey("a$b/Outer$Inner.class"));
+        assertNotEquals(ProcessingManifest.nestKey("a/Outer.class"), ProcessingManifest.nestKey("a/OuterOther.class"));
+    }
+
+    @Test
+    void testWriteAndRead() throws IOException {
+        Path file = tempDir.resolve(ProcessingManifest.FILE_NAME);
+        ProcessingManifest manifest = new ProcessingManifest("the-key");
+        manifest.put("a/B.class", new ProcessingManifest.Entry("in-b", "out-b"));
+        manifest.put("a/A.class", new ProcessingManifest.Entry("in-a", "out-a"));
+        manifest.write(file);
+
+        ProcessingManifest read = ProcessingManifest.read(file);
+        assertEquals("the-key", read.key());
+        assertEquals(Set.of("a/A.class", "a/B.class"), read.paths());
+        assertEquals(new ProcessingManifest.Entry("in-a", "out-a"), read.get("a/A.class"));
+        assertNull(read.get("a/C.class"));
+        assertFalse(Files.exists(file.resolveSibling(file.getFileName() + ".tmp")), "temporary file was not removed");
+
+        assertNull(ProcessingManifest.read(tempDir.resolve("missing")));
+        Files.writeString(file, "key=the-key\na/A.class\tin-a\n", StandardCharsets.UTF_8);
+        assertNull(ProcessingManifest.read(file));
+        Files.writeString(file, "a/A.class\tin-a\tout-a\n", StandardCharsets.UTF_8);
+        assertNull(ProcessingManifest.read(file));
+    }
+
+    @Test
+    void testKeyDependsOnContext() {
+        Map<String, String> context = Map.of("a/package-info.class", "1", "module-info.class", "2");
+        String key = ProcessingManifest.computeKey(Configuration.DEVELOPMENT, ProcessingOptions.Emitter.SOURCE, context);
+
+        assertEquals(key, ProcessingManifest.computeKey(Configuration.DEVELOPMENT, ProcessingOptions.Emitter.SOURCE, Map.of("module-info.class", "2", "a/package-info.class", "1")));
+        assertNotEquals(key, ProcessingManifest.computeKey(Configuration.STANDARD, ProcessingOptions.Emitter.SOURCE, context));
+        assertNotEquals(key, ProcessingManifest.computeKey(Configuration.DEVELOPMENT, ProcessingOptions.Emitter.BYTECODE, context));
+        assertNotEquals(key, ProcessingManifest.computeKey(Configuration.DEVELOPMENT, ProcessingOptions.Emitter.SOURCE, Map.of("a/package-info.class", "1", "module-info.class", "3")));
+    }
+}
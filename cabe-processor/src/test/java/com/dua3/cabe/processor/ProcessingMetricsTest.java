@@ -0,0 +1,92 @@
+package com.dua3.cabe.processor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessingMetricsTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testClassesAreKeyedByInput() throws IOException {
+        ProcessingMetrics metrics = new ProcessingMetrics(true);
+        metrics.start();
+
+        ProcessingMetrics.ClassMetrics main = metrics.forClass("main", "module-info");
+        ProcessingMetrics.ClassMetrics test = metrics.forClass("test", "module-info");
+        assertNotSame(main, test);
+        assertSame(main, metrics.forClass("main", "module-info"));
+        main.setBytesBefore(10);
+        test.setBytesBefore(20);
+
+        Map<?, ?> report = writeAndRead(metrics);
+        assertEquals(2L, ((Map<?, ?>) report.get("totals")).get("classes"));
+        assertEquals(30L, ((Map<?, ?>) report.get("totals")).get("bytesBefore"));
+        List<?> classes = (List<?>) report.get("classes");
+        assertEquals(List.of("main", "test"), classes.stream().map(c -> ((Map<?, ?>) c).get("input")).toList());
+        assertEquals(List.of("module-info", "module-info"), classes.stream().map(c -> ((Map<?, ?>) c).get("name")).toList());
+    }
+
+    @Test
+    void testPeakUsageIsNotReset() throws IOException {
+        Map<String, Long> peaks = new LinkedHashMap<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getPeakUsage() != null) {
+                peaks.put(pool.getName(), pool.getPeakUsage().getUsed());
+            }
+        }
+
+        ProcessingMetrics metrics = new ProcessingMetrics(true);
+        metrics.start();
+        metrics.forClass("in", "a.A");
+        Map<?, ?> jvm = (Map<?, ?>) writeAndRead(metrics).get("jvm");
+
+        // other users of the JVM-wide peak usage must not be affected by a run
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            Long before = peaks.get(pool.getName());
+            if (before != null) {
+                assertTrue(pool.getPeakUsage().getUsed() >= before, "peak usage was reset for " + pool.getName());
+            }
+        }
+
+        long startHeap = (Long) jvm.get("startHeapBytes");
+        assertTrue(startHeap > 0, "heap usage not recorded");
+        assertTrue((Long) jvm.get("peakHeapBytes") >= startHeap, "peak heap below start value");
+        assertTrue((Long) jvm.get("peakMetaspaceBytes") >= (Long) jvm.get("startMetaspaceBytes"), "peak metaspace below start value");
+    }
+
+    @Test
+    void testDisabledMetrics() throws IOException {
+        ProcessingMetrics metrics = new ProcessingMetrics(false);
+        metrics.start();
+        assertFalse(metrics.isEnabled());
+        assertSame(metrics.forClass("main", "a.A"), metrics.forClass("test", "b.B"));
+
+        Path reportFile = tempDir.resolve("report.json");
+        metrics.write(reportFile, "in", "out", Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT);
+        assertFalse(Files.exists(reportFile), "report written for disabled metrics");
+    }
+
+    private Map<?, ?> writeAndRead(ProcessingMetrics metrics) throws IOException {
+        Path reportFile = tempDir.resolve("report.json");
+        metrics.write(reportFile, "in", "out", Configuration.DEVELOPMENT, ProcessingOptions.DEFAULT);
+        return (Map<?, ?>) ProcessorServer.Json.parse(Files.readString(reportFile, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,162 @@
+package com.dua3.cabe.processor;
+
+import javassist.ClassPool;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessingPipelineTest {
+
+    private static final int CLASS_FILES = 10_000;
+
+    /**
+     * Stages that record which class files were copied and which were written.
+     */
+    private static class RecordingStages implements ProcessingPipeline.Stages {
+        final AtomicInteger listed = new AtomicInteger();
+        final AtomicInteger read = new AtomicInteger();
+        final Set<Path> copied = ConcurrentHashMap.newKeySet();
+        final Set<Path> written = ConcurrentHashMap.newKeySet();
+
+        @Override
+        public byte[] read(Path classFile) {
+            read.incrementAndGet();
+            // every third class file is copied without instrumenting it
+            return index(classFile) % 3 == 0 ? null : new byte[]{1};
+        }
+
+        @Override
+        public byte[] instrument(ClassPool classPool, Path classFile, byte[] data) throws ClassFileProcessingFailedException {
+            // every other class file turns out not to need any checks
+            return index(classFile) % 2 == 0 ? null : new byte[]{2};
+        }
+
+        @Override
+        public void copy(Path classFile) {
+            copied.add(classFile);
+        }
+
+        @Override
+        public void write(Path classFile, byte[] data) {
+            assertEquals(2, data[0], "class file was not instrumented: " + classFile);
+            written.add(classFile);
+        }
+
+        ProcessingPipeline.Source source() {
+            return () -> IntStream.range(0, CLASS_FILES)
+                    .peek(i -> listed.incrementAndGet())
+                    .mapToObj(i -> Path.of("C" + i + ".class"));
+        }
+
+        static int index(Path classFile) {
+            String name = classFile.getFileName().toString();
+            return Integer.parseInt(name.substring(1, name.length() - ".class".length()));
+        }
+    }
+
+    @Test
+    void testEachClassFileIsCopiedOrWritten() throws Exception {
+        RecordingStages stages = new RecordingStages();
+        ProcessingPipeline pipeline = new ProcessingPipeline(2, 3, 2, ClassPool::new, stages);
+
+        assertEquals(CLASS_FILES, pipeline.run(stages.source()));
+
+        Set<Path> expectedWritten = IntStream.range(0, CLASS_FILES)
+                .filter(i -> i % 3 != 0 && i % 2 != 0)
+                .mapToObj(i -> Path.of("C" + i + ".class"))
+                .collect(Collectors.toSet());
+        assertEquals(expectedWritten, stages.written);
+        assertEquals(CLASS_FILES - expectedWritten.size(), stages.copied.size());
+        assertTrue(stages.copied.stream().noneMatch(expectedWritten::contains), "class file was both copied and written");
+        assertThrows(IllegalStateException.class, () -> pipeline.run(stages.source()));
+    }
+
+    @Test
+    void testQueuesAreBounded() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        RecordingStages stages = new RecordingStages() {
+            @Override
+            public void copy(Path classFile) {
+                await(release);
+                super.copy(classFile);
+            }
+
+            @Override
+            public void write(Path classFile, byte[] data) {
+                await(release);
+                super.write(classFile, data);
+            }
+        };
+        ProcessingPipeline pipeline = new ProcessingPipeline(1, 1, 1, ClassPool::new, stages);
+
+        CompletableFuture<Long> result = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pipeline.run(stages.source());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        // wait until the blocked writer has stalled all earlier stages
+        int lastRead = -1;
+        for (int i = 0; i < 200 && (lastRead <= 0 || stages.read.get() != lastRead); i++) {
+            lastRead = stages.read.get();
+            Thread.sleep(50);
+        }
+
+        // each of the three queues holds at most its capacity, and each thread holds at most one class file
+        int capacity = ProcessingPipeline.QUEUE_CAPACITY_PER_THREAD;
+        assertTrue(stages.read.get() <= 2 * capacity + 3, "too many class files read: " + stages.read.get());
+        assertTrue(stages.listed.get() <= 3 * capacity + 4, "too many class files listed: " + stages.listed.get());
+
+        release.countDown();
+        assertEquals(Long.valueOf(CLASS_FILES), result.get(60, TimeUnit.SECONDS));
+        assertEquals(CLASS_FILES, stages.copied.size() + stages.written.size());
+    }
+
+    @Test
+    void testFailureIsReported() {
+        ProcessingPipeline pipeline = new ProcessingPipeline(2, 2, 2, ClassPool::new, new RecordingStages() {
+            @Override
+            public byte[] instrument(ClassPool classPool, Path classFile, byte[] data) throws ClassFileProcessingFailedException {
+                if (classFile.endsWith("C500.class")) {
+                    throw new ClassFileProcessingFailedException("failed: " + classFile);
+                }
+                return super.instrument(classPool, classFile, data);
+            }
+        });
+
+        ClassFileProcessingFailedException e = assertThrows(ClassFileProcessingFailedException.class,
+                () -> pipeline.run(() -> IntStream.range(0, CLASS_FILES).mapToObj(i -> Path.of("C" + i + ".class"))));
+        assertEquals("failed: C500.class", e.getMessage());
+    }
+
+    @Test
+    void testInvalidThreadCountsAreRejected() {
+        ProcessingPipeline.Stages stages = new RecordingStages();
+        assertThrows(IllegalArgumentException.class, () -> new ProcessingPipeline(0, 1, 1, ClassPool::new, stages));
+        assertThrows(IllegalArgumentException.class, () -> new ProcessingPipeline(1, 0, 1, ClassPool::new, stages));
+        assertThrows(IllegalArgumentException.class, () -> new ProcessingPipeline(1, 1, 0, ClassPool::new, stages));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
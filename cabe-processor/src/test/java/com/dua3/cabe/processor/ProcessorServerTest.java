@@ -0,0 +1,146 @@
+package com.dua3.cabe.processor;
+
+import javassist.bytecode.ClassFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.ConsoleHandler;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ProcessorServerTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void testRequestsAreProcessed() throws Exception {
+        CorpusGenerator.Corpus corpus = CorpusGenerator.ofSize(12).withLibraries(1).generate(tempDir.resolve("corpus"));
+        String classpath = corpus.classpath().stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator));
+        List<Path> outputDirs = List.of(tempDir.resolve("classes-1"), tempDir.resolve("classes-2"));
+
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < outputDirs.size(); i++) {
+            requests.append(ProcessorServer.Json.format(Map.of(
+                    "arguments", List.of("-i", corpus.classesDir().toString(), "-o", outputDirs.get(i).toString(), "-c", "DEVELOPMENT", "-cp", classpath),
+                    "requestId", i + 1
+            ))).append("\n\n");
+        }
+
+        StringWriter out = new StringWriter();
+        new ProcessorServer(new ConsoleHandler()).serve(new StringReader(requests.toString()), out);
+
+        // blank lines are skipped, each request is answered on a single line
+        List<Map<?, ?>> responses = parseResponses(out);
+        assertEquals(List.of(1L, 2L), responses.stream().map(r -> r.get("requestId")).toList());
+        assertEquals(List.of(0L, 0L), responses.stream().map(r -> r.get("exitCode")).toList());
+        for (Path outputDir : outputDirs) {
+            assertEquals(corpus.classCount(), countClassFiles(outputDir, false), "class files missing in " + outputDir);
+            assertTrue(countClassFiles(outputDir, true) > 0, "no class files instrumented in " + outputDir);
+        }
+    }
+
+    @Test
+    void testInvalidRequestsAreAnswered() throws IOException {
+        String requests = Stream.of(
+                "{\"arguments\": [\"-x\"], \"requestId\": 1}",
+                "{\"arguments\": \"-h\", \"requestId\": 2}",
+                "{\"arguments\": [1, 2], \"requestId\": 3}",
+                "[\"-h\"]",
+                "{\"arguments\": [",
+                "{\"requestId\": 6}"
+        ).collect(Collectors.joining("\n", "", "\n"));
+
+        StringWriter out = new StringWriter();
+        new ProcessorServer(new ConsoleHandler()).serve(new StringReader(requests), out);
+
+        List<Map<?, ?>> responses = parseResponses(out);
+        assertEquals(List.of(1L, 2L, 3L, 0L, 0L, 6L), responses.stream().map(r -> r.get("requestId")).toList());
+        assertEquals(List.of(1L, 1L, 1L, 1L, 1L, 1L), responses.stream().map(r -> r.get("exitCode")).toList());
+        for (Map<?, ?> response : responses.subList(1, responses.size())) {
+            assertTrue(((String) response.get("output")).startsWith("Invalid request: "), String.valueOf(response.get("output")));
+        }
+    }
+
+    @Test
+    void testDeeplyNestedRequestIsRejected() throws IOException {
+        String nested = "[".repeat(100_000) + "]".repeat(100_000);
+        String requests = "{\"arguments\": " + nested + ", \"requestId\": 1}\n"
+                + "{\"arguments\": [\"-x\"], \"requestId\": 2}\n";
+
+        StringWriter out = new StringWriter();
+        new ProcessorServer(new ConsoleHandler()).serve(new StringReader(requests), out);
+
+        // the server answers the nested request and continues with the next one
+        List<Map<?, ?>> responses = parseResponses(out);
+        assertEquals(List.of(0L, 2L), responses.stream().map(r -> r.get("requestId")).toList());
+        assertEquals(List.of(1L, 1L), responses.stream().map(r -> r.get("exitCode")).toList());
+        assertTrue(((String) responses.get(0).get("output")).startsWith("Invalid request: nesting too deep"), String.valueOf(responses.get(0).get("output")));
+    }
+
+    @Test
+    void testJsonRoundTrip() {
+        Map<String, Object> value = new LinkedHashMap<>();
+        value.put("string", "quote \" backslash \\ newline \n tab \t control \u0001 unicode \u00e4");
+        value.put("long", 42L);
+        value.put("double", 1.5);
+        value.put("boolean", true);
+        value.put("null", null);
+        value.put("list", List.of(List.of(), Map.of(), "x"));
+
+        String text = ProcessorServer.Json.format(value);
+        assertEquals(value, ProcessorServer.Json.parse(text));
+        assertEquals(text, ProcessorServer.Json.format(ProcessorServer.Json.parse(text)));
+        assertEquals(Map.of("a", List.of(1L, -2L)), ProcessorServer.Json.parse(" { \"a\" : [ 1 , -2 ] } "));
+
+        assertThrows(IllegalArgumentException.class, () -> ProcessorServer.Json.parse("{\"a\": 1} x"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessorServer.Json.parse("{\"a\" 1}"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessorServer.Json.parse("\"unterminated"));
+        assertThrows(IllegalArgumentException.class, () -> ProcessorServer.Json.format(new Object()));
+
+        int maxDepth = ProcessorServer.Json.MAX_DEPTH;
+        assertDoesNotThrow(() -> ProcessorServer.Json.parse("[".repeat(maxDepth) + "]".repeat(maxDepth)));
+        assertThrows(IllegalArgumentException.class, () -> ProcessorServer.Json.parse("[".repeat(maxDepth + 1) + "]".repeat(maxDepth + 1)));
+    }
+
+    private static List<Map<?, ?>> parseResponses(StringWriter out) {
+        return out.toString().lines().<Map<?, ?>>map(line -> (Map<?, ?>) ProcessorServer.Json.parse(line)).toList();
+    }
+
+    private static long countClassFiles(Path dir, boolean instrumentedOnly) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            List<Path> classFiles = files.filter(f -> f.toString().endsWith(".class"))
+                    .filter(f -> !Arrays.asList("package-info.class", "module-info.class").contains(f.getFileName().toString()))
+                    .toList();
+            if (!instrumentedOnly) {
+                return classFiles.size();
+            }
+            long count = 0;
+            for (Path classFile : classFiles) {
+                try (InputStream in = Files.newInputStream(classFile)) {
+                    if (CabeAttribute.hasAttribute(new ClassFile(new DataInputStream(in)))) {
+                        count++;
+                    }
+                }
+            }
+            return count;
+        }
+    }
+}
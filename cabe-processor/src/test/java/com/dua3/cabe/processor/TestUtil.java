@@ -31,7 +31,7 @@ public final class TestUtil {
     static ClassLoader loader;
     static final ClassPool pool = new ClassPool(true);
     static final Path buildDir = Paths.get(System.getProperty("cabe.test.build.dir", System.getProperty("user.dir") + File.separator + "build"));
-    static final Path resourceDir = Paths.get(System.getProperty("user.dir")).resolve("src/test/resources");
+    static final Path resourceDir = Paths.get(System.getProperty("cabe.test.resource.dir", System.getProperty("user.dir") + File.separator + "src/test/resources"));
 
     private TestUtil() {}
 